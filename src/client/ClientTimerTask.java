@@ -1,89 +0,0 @@
-package client;
-
-import java.util.TimerTask;
-
-import javafx.application.Platform;
-import javafx.collections.ObservableList;
-import javafx.scene.control.Button;
-import javafx.scene.control.Label;
-import javafx.scene.control.ListView;
-
-/**
- * Klasa przeznaczona do cyklicznego wykorzystywania przez Timer. Jej zadaniem jest tworzenie listy plikw
- * aktualnie znajdujcych si w folderze uytkownika. W przypadku gdy w folderze pojawi si nowy plik
- * aktywuje wtek wysyajcy go na serwer. Kiedy nie moe uzyska dostpu do folderu uytkownika, 
- * wywitla napis "Brak dostepu do plikw!".
- * @author Sebastian Paweoszek
- *
- */
-public class ClientTimerTask extends TimerTask{
-
-    ListView<String> filesList;
-    ListView<String> usersList;
-    ObservableList<String> files;
-    Button odswiezButton;
-    String username;
-    String directory;
-    Label state;
-    
-    /**
-     * Konstruktor przypisujcy argumenty wejciowe do zmiennych lokalnych.
-     * @param filesList ListView z plikami uytkownika.
-     * @param usersList	Lista uytkownikw serwera.
-     * @param files Lista plikw uytkownika.
-     * @param directory Lokalizacja folderu uytkownika.
-     * @param username Nazwa uytkownika.
-     * @param odswiezButton Przycisk odwieajcy liste plikw.
-     * @param state Etykieta informujca o aktualnie wykonywanej czynnoci.
-     */
-    public ClientTimerTask(ListView<String> filesList,ListView<String> usersList, ObservableList<String> files,
-	    String directory, String username, Button odswiezButton, Label state)
-    {
-	this.filesList = filesList;
-	this.usersList = usersList;
-	this.files = files;
-	this.username = username;
-	this.directory = directory;
-	this.odswiezButton = odswiezButton;
-	this.state = state;
-	
-    }
-    
-    @Override
-    public void run() {
-	
-	ObservableList<String> results = FolderReader.readFolder(directory);
-	
-	Platform.runLater(new Runnable() {
-	    @Override
-	    public void run()
-		    {
-		
-			try
-			{
-			    if(!files.containsAll(results))
-			    {
-				files = results;
-				filesList.setItems(files);
-				Thread t = new Thread(new FileSynchronizer(username,directory,files,
-					usersList,odswiezButton,state));
-                			
-				t.start();
-			    }
-			    else
-			    {
-				files = results;
-				filesList.setItems(files);
-			    }
-			}
-			catch(NullPointerException e)
-			{
-			    state.setText("Brak dostepu do plikw!");
-			}
-
-		    }
-        }); 
-	
-    }
-
-}
@@ -0,0 +1,271 @@
+package client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import request.BlockSignatures;
+import request.RequestCodec;
+import request.RollingChecksum;
+
+/**
+ * Oblicza rnic pliku wzgldem wersji na serwerze i wysya j w strumieniu Requesta "delta".
+ * Dla kadej pozycji pliku sprawdza, czy zaczynajcy si na niej blok jest jednym z blokw wersji serwera
+ * (najpierw saba suma RollingChecksum, a dopiero przy jej zgodnoci skrt bloku). Znalezione bloki s
+ * wysyane jako ramki COPY, a pozostae bajty jako zwyke czci pliku (ramki CHUNK), dlatego liczba
+ * przesyanych bajtw zaley od wielkoci zmian, a nie od rozmiaru pliku.
+ * @author Sebastian Paweoszek
+ *
+ */
+class DeltaEncoder {
+
+    private OutputStream out;
+    private int requestId;
+    private BlockSignatures basis;
+    private ByteBuffer data;
+    private int blockSize;
+    private MessageDigest digest = BlockSignatures.digest();
+
+    // Indeks blokw wedug sabej sumy: pierwszy blok z danym skrtem i kolejne bloki z tym samym skrtem.
+    private int[] heads;
+    private int[] next;
+
+    // Ostatnia ramka COPY, wysyana dopiero gdy nie da si do niej doczy kolejnego bloku.
+    private long copyOffset;
+    private int copyBlock = -1;
+    private long copyLength;
+
+    private byte[] chunk;
+    private long literal;
+
+    private DeltaEncoder(OutputStream out, int requestId, BlockSignatures basis, ByteBuffer data)
+    {
+	this.out = out;
+	this.requestId = requestId;
+	this.basis = basis;
+	this.data = data;
+	this.blockSize = basis.getBlockSize();
+    }
+
+    /**
+     * Wysya nagwek pliku, rnic wzgldem wersji serwera i ramk koczc. Plik wikszy ni 2 GB,
+     * lub plik ktrego wersja na serwerze jest pusta, jest wysyany w caoci.
+     * @param out Strumie poczenia.
+     * @param requestId Identyfikator Requesta "delta".
+     * @param name Nazwa pliku.
+     * @param channel Plik otwarty do odczytu.
+     * @param content Skrt zawartoci pliku.
+     * @param basis Sygnatury wersji pliku na serwerze.
+     * @return Liczba bajtw pliku wysanych w ramkach CHUNK, lub -1 jeeli nic nie zostao wysane, poniewa
+     * plik trzeba wysa w caoci.
+     * @throws IOException W przypadku bdu zapisu do poczenia.
+     */
+    static long send(OutputStream out, int requestId, String name, FileChannel channel, String content,
+	    BlockSignatures basis) throws IOException
+    {
+	ByteBuffer data;
+	try
+	{
+	    long size = channel.size();
+	    if(size > Integer.MAX_VALUE || basis.blocks() == 0)
+	    {
+		return -1;
+	    }
+	    data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	    return -1;
+	}
+	ServerConnection.writeFrame(out, RequestCodec.encodeEntryHeader(requestId, name, data.limit(), 0, content));
+
+	DeltaEncoder encoder = new DeltaEncoder(out, requestId, basis, data);
+	encoder.index();
+	encoder.encode();
+	ServerConnection.writeFrame(out, RequestCodec.encodeEntryEnd(requestId, null));
+	return encoder.literal;
+    }
+
+    /**
+     * Buduje indeks penych blokw wersji serwera. Ostatni, krtszy blok jest sprawdzany osobno na kocu pliku.
+     */
+    private void index()
+    {
+	int count = basis.blocks();
+	int length = Integer.highestOneBit(Math.max(1, count) * 2 - 1) * 2;
+	heads = new int[length];
+	next = new int[count];
+	Arrays.fill(heads, -1);
+
+	for(int i=count-1;i>=0;i--)
+	{
+	    if(basis.blockLength(i) != blockSize)
+	    {
+		next[i] = -1;
+		continue;
+	    }
+	    int slot = slot(basis.weak(i));
+	    next[i] = heads[slot];
+	    heads[slot] = i;
+	}
+    }
+
+    private void encode() throws IOException
+    {
+	int size = data.limit();
+	int pending = 0;
+	int position = 0;
+	int expected = 0;
+	RollingChecksum checksum = new RollingChecksum();
+	boolean current = false;
+
+	while(position + blockSize <= size)
+	{
+	    if(!current)
+	    {
+		checksum.reset(data, position, blockSize);
+		current = true;
+	    }
+
+	    int block = find(checksum.value(), position, expected);
+	    if(block >= 0)
+	    {
+		literal(pending, position);
+		copy(position, block, blockSize);
+		position += blockSize;
+		pending = position;
+		expected = block + 1;
+		current = false;
+	    }
+	    else
+	    {
+		if(position + blockSize < size)
+		{
+		    checksum.roll(data.get(position), data.get(position + blockSize));
+		}
+		position++;
+	    }
+	}
+
+	// Ostatni blok wersji serwera moe by krtszy, wic moe pasowa tylko do koca pliku.
+	int last = basis.blocks() - 1;
+	int length = basis.blockLength(last);
+	if(length < blockSize && size - pending >= length && matches(last, size - length, length))
+	{
+	    literal(pending, size - length);
+	    copy(size - length, last, length);
+	    pending = size;
+	}
+
+	literal(pending, size);
+	flushCopy();
+    }
+
+    /**
+     * Szuka bloku wersji serwera rwnego blokowi pliku na podanej pozycji. Najpierw sprawdzany jest blok
+     * nastpujcy po ostatnio znalezionym, aby kolejne niezmienione bloki tworzyy jedn ramk COPY.
+     * @return Numer bloku, lub -1.
+     */
+    private int find(int weak, int position, int expected)
+    {
+	long strong = 0;
+	boolean computed = false;
+	if(expected < basis.blocks() && basis.weak(expected) == weak && basis.blockLength(expected) == blockSize)
+	{
+	    strong = BlockSignatures.strong(digest, data, position, blockSize);
+	    computed = true;
+	    if(basis.strong(expected) == strong)
+	    {
+		return expected;
+	    }
+	}
+
+	for(int block=heads[slot(weak)];block>=0;block=next[block])
+	{
+	    if(basis.weak(block) != weak)
+	    {
+		continue;
+	    }
+	    if(!computed)
+	    {
+		strong = BlockSignatures.strong(digest, data, position, blockSize);
+		computed = true;
+	    }
+	    if(basis.strong(block) == strong)
+	    {
+		return block;
+	    }
+	}
+	return -1;
+    }
+
+    private boolean matches(int block, int position, int length)
+    {
+	RollingChecksum checksum = new RollingChecksum();
+	checksum.reset(data, position, length);
+	return checksum.value() == basis.weak(block)
+		&& BlockSignatures.strong(digest, data, position, length) == basis.strong(block);
+    }
+
+    private void copy(long offset, int block, long length) throws IOException
+    {
+	if(copyBlock >= 0 && copyOffset + copyLength == offset
+		&& (long) copyBlock * blockSize + copyLength == (long) block * blockSize)
+	{
+	    copyLength += length;
+	    return;
+	}
+	flushCopy();
+	copyOffset = offset;
+	copyBlock = block;
+	copyLength = length;
+    }
+
+    private void flushCopy() throws IOException
+    {
+	if(copyBlock >= 0)
+	{
+	    ServerConnection.writeFrame(out, RequestCodec.encodeCopy(requestId, copyOffset, copyBlock, copyLength));
+	    copyBlock = -1;
+	}
+    }
+
+    /**
+     * Wysya bajty pliku od start do end jako czci pliku z sumami kontrolnymi.
+     */
+    private void literal(int start, int end) throws IOException
+    {
+	if(start >= end)
+	{
+	    return;
+	}
+	flushCopy();
+
+	if(chunk == null)
+	{
+	    chunk = new byte[RequestCodec.CHUNK_SIZE];
+	}
+	for(int position=start;position<end;position+=RequestCodec.CHUNK_SIZE)
+	{
+	    int length = Math.min(RequestCodec.CHUNK_SIZE, end - position);
+	    ByteBuffer part = data.duplicate();
+	    part.limit(position + length).position(position);
+	    int checksum = RequestCodec.checksum(part);
+	    part.get(chunk, 0, length);
+
+	    ServerConnection.writeFrame(out, RequestCodec.encodeChunk(requestId, position, length, checksum));
+	    out.write(chunk, 0, length);
+	}
+	literal += end - start;
+    }
+
+    private int slot(int weak)
+    {
+	return (weak ^ (weak >>> 16)) & (heads.length - 1);
+    }
+
+}
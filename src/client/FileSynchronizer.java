@@ -1,15 +1,17 @@
 package client;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InterruptedIOException;
 import java.net.ConnectException;
-import java.net.Socket;
+import java.net.ProtocolException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
@@ -17,6 +19,8 @@ import javafx.collections.ObservableList;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.control.ListView;
+import request.BlockSignatures;
+import request.CatalogChanges;
 import request.Request;
 
 /**
@@ -24,16 +28,24 @@ import request.Request;
  * Implementuje ona interfejs Runnable, co oznacza e klasa powinna zosta wykorzystana jako wtek.
  * Dziaa na zasadzie wysyania Requestw do serwera.
  * Serwer odbiera obiekt typu "Request" i podejmuje okrelone dziaania w zalenoci od zawartoci tego obiektu.
- * Wtek FileSynchronizer wykonuje tylko jedn czynno w danym momencie,
- * np. prosi o list plikw danego uytkownika na serwerze. Nie zrobi niczego innego dopki nie otrzyma odpowiedzi
- * na ostatnio wysany Request.
+ * Requesty s wysyane przez wspdzielone poczenie ServerConnection. Wtek FileSynchronizer czeka na
+ * odpowied na Request tylko wtedy, gdy jest mu ona potrzebna do dalszego dziaania, np. na list plikw
+ * danego uytkownika na serwerze. Brakujce pliki s pobierane i wysyane partiami przez TransferScheduler,
+ * a pobieranie i wysyanie odbywa si jednoczenie. Pliki, ktrych nie udao si przesa, s przesyane
+ * ponownie, a bd przesania jednego pliku nie przerywa synchronizacji pozostaych.
  * Moe pracowa w dwch trybach:
  * -Pierwszy to synchronizacja plikow pomidzy klientem, a serwerem.
  * Oznacza to, e wtek FileSynchronizer najpierw poprosi serwer o list plikw znajdujcych si na serwerze,
  * nastpnie porwna j z list plikw w folderze uytkownika. Jeeli na serwerze znajduj si pliki ktrych
  * nie ma w folderze uytkownika to zostan one pobrane. Z kolei kiedy na serwerze brakuje plikw znajdujcych
- * si w folderze to zostan one wysane. Na kocu zostanie jeszcze wysany Request o przysanie listy
+ * si w folderze to zostan one wysane. Pliki, ktre s w obu miejscach, ale rni si zawartoci, s
+ * wysyane jako rnica wzgldem wersji na serwerze, albo pobierane, jeeli od ostatniej synchronizacji
+ * zmienia si tylko wersja na serwerze. Na kocu zostanie jeszcze wysany Request o przysanie listy
  * uytkownikw korzystajcych z serwera.
+ * Skrty zawartoci plikw i stan ostatniej synchronizacji s przechowywane w manifecie folderu
+ * (SyncManifest), dlatego skrty s obliczane tylko dla plikw zmienionych od poprzedniej synchronizacji.
+ * Manifest pamita te wersj katalogu na serwerze z ostatniej udanej synchronizacji. Serwer przysya wtedy
+ * tylko pliki dodane lub zmienione od tej wersji, a porwnywane s tylko one i pliki zmienione u nas.
  * -Drugi to udostpnienie pliku. FileSynchronizer wysya Request o udostpnienie pliku nalecego do nas,
  * innemu uytkonikowi o podanym nicku. Wtek w takiej sytuacji nie czeka na potwierdzenie odebrania wiadomoci.
  * 
@@ -47,8 +59,6 @@ public class FileSynchronizer implements Runnable {
     private String filename;
     private String friendname;
     private String directory;
-    private ObjectInputStream objectReader;
-    private ObjectOutputStream objectWriter;
     private ArrayList<String> clientFiles;
     private ArrayList<String> serverFiles;
     private ListView<String> usersList;
@@ -57,6 +67,8 @@ public class FileSynchronizer implements Runnable {
     private Button btn;
     private Label state;
     
+    private SyncManifest manifest;
+
     private boolean onlyShare = false; // flaga wykorzystywana kiedy chcemy tylko udostepnic plik
     
     /**
@@ -111,17 +123,61 @@ public class FileSynchronizer implements Runnable {
 	    }
 	    
 	    btn.setDisable(true);
-	    serverFiles = downloadFilesList();
+	    manifest = SyncManifest.of(directory);
+	    manifest.refresh(clientFiles);
+	    CatalogChanges changes = downloadFileChanges();
 	    
-	    lackingClientFiles = arrayDifference(serverFiles, clientFiles);
-	    lackingServerFiles = arrayDifference(clientFiles, serverFiles);
+	    ArrayList<String> modifiedFiles;
+	    if(changes.isFull())
+	    {
+		serverFiles = changes.getFiles();
+		lackingClientFiles = arrayDifference(serverFiles, clientFiles);
+		lackingServerFiles = arrayDifference(clientFiles, serverFiles);
+		modifiedFiles = arrayDifference(clientFiles, lackingServerFiles);
+	    }
+	    else
+	    {
+		/*
+		 * Serwer podal tylko pliki zmienione od poprzedniej synchronizacji.
+		 * Pozostale pliki serwera byly wtedy zsynchronizowane z naszymi,
+		 * wiec wystarczy porownac pliki zmienione po jednej ze stron.
+		 */
+		HashSet<String> changed = new HashSet<String>(changes.getFiles());
+		lackingClientFiles = arrayDifference(changes.getFiles(), clientFiles);
+		lackingServerFiles = new ArrayList<String>();
+		modifiedFiles = new ArrayList<String>();
+		for(String name:clientFiles)
+		{
+		    if(changed.contains(name) || (manifest.wasSynced(name) && !manifest.isSynced(name)))
+		    {
+			modifiedFiles.add(name);
+		    }
+		    else if(!manifest.wasSynced(name))
+		    {
+			lackingServerFiles.add(name);
+		    }
+		}
+	    }
 	    
-	    downloadAllFiles(lackingClientFiles);
-	    uploadAllFiles(lackingServerFiles);
+	    CompletableFuture<ArrayList<String>> downloads = downloadAllFiles(lackingClientFiles);
+	    CompletableFuture<ArrayList<String>> uploads = uploadAllFiles(lackingServerFiles);
+	    ArrayList<String> failed = finish(downloads);
+	    failed.addAll(finish(uploads));
+	    failed.addAll(syncModifiedFiles(modifiedFiles));
 	    
 	    downloadUsersList();
 	    
-	    print("Gotowosc do dzialania.");
+	    if(failed.isEmpty())
+	    {
+		manifest.setKnownVersion(username, changes.getEpoch(), changes.getVersion());
+		print("Gotowosc do dzialania.");
+	    }
+	    else
+	    {
+		// Zmiany serwera, ktorych nie udalo sie pobrac, nie zostalyby podane ponownie.
+		manifest.forgetKnownVersion();
+		print("Nie zsynchronizowano plikow: " + failed.size());
+	    }
 	    
 	    
 	} 
@@ -137,119 +193,88 @@ public class FileSynchronizer implements Runnable {
 	}
 	finally
 	{
+	    if(manifest != null)
+	    {
+		manifest.save();
+	    }
 	    btn.setDisable(false);
 	}
 	
     }//run
     
     /*
-     * downloadFilesList()
-     * -zwraca ArrayList<String>, zawierajaca liste plikow uzytkownika na serwerze
+     * downloadFileChanges()
+     * -zwraca pliki uzytkownika na serwerze zmienione od poprzedniej synchronizacji,
+     *  albo liste wszystkich plikow uzytkownika na serwerze
      */
     
     /**
-     * Metoda nawizujca poczenie z serwerem i wysyajca Request
-     *  z prob o przysanie listy plikw z serwera, nalecych do uytkownika. 
-     *  Po otrzymaniu danych zamyka poczenie.
-     *  Wewntrz metody znajduj si spowalniacze celowo wyduajce czas jej dziaania. Ich jedynym
-     *  zastosowaniem jest lepsze ilutrowanie dziaania metody.
+     * Metoda wysyajca Request
+     *  z prob o przysanie listy plikw z serwera, nalecych do uytkownika, zmienionych od wersji
+     *  katalogu zapamitanej w manifecie. 
      * 
-     * @return Zwraca ArrayList zawierajc list plikw uytkonika znajdujcych si na serwerze.
+     * @return Zwraca pliki zmienione od poprzedniej synchronizacji, albo pen list plikw uytkonika
+     * znajdujcych si na serwerze, jeeli serwer nie moe ustali zmian.
      * @throws CommunicationErrorException Wyjtek rzucany w sytuacji kiedy nie mona
      *  nawiza poczenia z serwerem, albo co je przerwao.
      * @throws UnexpectedException Wyjtek rzucany w przypadku nieprzewidzianych sytuacji takich
      * jak np. brak moliwoci otworzenia okrelonego pliku.
      */
-    @SuppressWarnings("unchecked")
-    private ArrayList<String> downloadFilesList() throws CommunicationErrorException, UnexpectedException
+    private CatalogChanges downloadFileChanges() throws CommunicationErrorException, UnexpectedException
     {
 	try 
 	{
 	    print("Synchronizacja z serwerem...");
 	    
-	    mySleep(2000);
-	    
-	    /*
-	     * Nawiazujemy polaczenie z serwerem.
-	     */
-	    
-	    Socket socket = establishConnection();	
-	    
 	    /*
 	     * Tworzymy obiekt request i wysylamy go do serwera.
 	     * Czekamy na odpowiedz od serwera.
 	     */
 	    
-	    objectWriter = new ObjectOutputStream(socket.getOutputStream());
 	    Request r = new Request(username,"sync");
-	    objectWriter.writeObject(r);
-	    objectReader = new ObjectInputStream(socket.getInputStream());
-	    ArrayList<String> n = (ArrayList<String>) objectReader.readObject();
-	    
-	    objectWriter.close();
-	    objectReader.close();
-	    socket.close();  
-	    return n;
-	} 
+	    r.setKnownVersion(manifest.knownEpoch(username), manifest.knownVersion(username));
+	    return await(connection().requestChanges(r));
+} 
+	catch (ProtocolException e) 
+	{
+	    print("Nieobslugiwany sposob przesylu danych!");
+	    throw new UnexpectedException();
+	}
 	catch (IOException e) 
 	{
 	    e.printStackTrace();
 	    throw new CommunicationErrorException();
-	} 
-	catch (ClassNotFoundException e) 
-	{
-	    print("Nieobslugiwany sposob przesylu danych!");
-	    throw new UnexpectedException();
 	}
 	
-    }//downloadFilesList()
+    }//downloadFileChanges()
     
     /**
-     * Metoda nawizujca poczenie z serwerem i wysyajca Request
+     * Metoda wysyajca Request
      * z prob o przysanie listy uytkownikw aktualnie korzystajcych z serwera. 
-     * Po otrzymaniu danych zamyka poczenie.
-     * Wewntrz metody znajduj si spowalniacze celowo wyduajce czas jej dziaania. Ich jedynym
-     * zastosowaniem jest lepsze ilutrowanie dziaania metody.
      * 
      * @throws CommunicationErrorException Wyjtek rzucany w sytuacji kiedy nie mona
      *  nawiza poczenia z serwerem, albo co je przerwao.
      * @throws UnexpectedException Wyjtek rzucany w przypadku nieprzewidzianych sytuacji takich
      * jak np. brak moliwoci otworzenia okrelonego pliku.
      */
-    @SuppressWarnings("unchecked")
     private void downloadUsersList() throws CommunicationErrorException, UnexpectedException
     {
 	try 
 	{
 	    print("Pobieram liste uzytkownikow...");
 	    
-	    mySleep(3000);
-	    
-	    /*
-	     * Nawiazujemy polaczenie z serwerem.
-	     */
-	    
-	    Socket socket = establishConnection();	
-	    
 	    /*
 	     * Tworzymy obiekt request i wysylamy go do serwera.
-	     */
-	    
-	    objectWriter = new ObjectOutputStream(socket.getOutputStream());
-	    Request r = new Request(username,"users");
-	    objectWriter.writeObject(r);
-	    
-	    /*
 	     * Czekamy na odpowiedz od serwera.
 	     */
 	    
-	    objectReader = new ObjectInputStream(socket.getInputStream());
-	    ArrayList<String> n = (ArrayList<String>) objectReader.readObject();
-	    
+	    Request r = new Request(username,"users");
+	    ArrayList<String> n = await(connection().requestList(r));
+
 	    /*
 	     * Stworzenie ObservableList na podstawie arrayListy.
 	     * JavaFX zmusza nas do uzywania ObservableList,
-	     * ale nie mozemy przesylac jej przez ObjectInputStream.
+	     * ale protokol przesyla zwykla liste napisow.
 	     * Dlatego do przesylania uzywamy ArrayList. 
 	     */
 	    
@@ -267,153 +292,22 @@ public class FileSynchronizer implements Runnable {
 		    }
 		    
 		});
-	    
-	    /*
-	     * Zamykamy sockety.
-	     */
-	    
-	    objectWriter.close();
-	    objectReader.close();
-	    socket.close();  
 	} 
-	catch (IOException e) 
-	{
-	    print("Blad IO!");
-	    mySleep(3000);
-	    throw new UnexpectedException();
-	} 
-	catch (ClassNotFoundException e) 
+	catch (ProtocolException e) 
 	{
 	    print("Nieobslugiwany sposob przesylu danych!");
-	    mySleep(3000);
 	    throw new UnexpectedException();
 	} 
-    }
-    
-    /*
-     * downloadFile()
-     * Pobiera plik o okreslonej nazwie i zapisuje go w folderze uzytkownika.
-     */
-    
-    /**
-     * 
-     * Jej zadaniem jest pobranie pliku o podanej nazwie i zapisanie go do folderu uytkownika.
-     * Wysya Request o wysanie pliku i czeka na jego przysanie przez serwer.
-     * Po otrzymaniu pliku zamyka poczenie.
-     * 
-     * @param fileName Nazwa pliku jaki chcemy pobra z serwera.
-     * @throws CommunicationErrorException Wyjtek rzucany w sytuacji kiedy nie mona
-     *  nawiza poczenia z serwerem, albo co je przerwao.
-     * @throws UnexpectedException Wyjtek rzucany w przypadku nieprzewidzianych sytuacji takich
-     * jak np. brak moliwoci otworzenia okrelonego pliku.
-     */
-    private void downloadFile(String fileName) throws CommunicationErrorException, UnexpectedException
-    {
-		
-	/*
-	 * Wysyamy request i czekamy na przyslanie pliku.
-	 */
-	    
-	try 
-	{
-	    print("Pobieram plik: " + fileName);
-	    //Celowe spowolnienie dzialania
-	    mySleep(3000);
-	    
-	    Socket socket = establishConnection();
-	    
-	    objectWriter = new ObjectOutputStream(socket.getOutputStream());
-	    Request r = new Request(username, "download", fileName);
-	    objectWriter.writeObject(r);
-	    
-	    
-	    DataInputStream dis = new DataInputStream(socket.getInputStream());
-	    FileOutputStream fos = new FileOutputStream(directory + "/" + fileName);
-	    
-	    int count;
-	    byte[] bytes = new byte[8 * 1024];
-	    
-	    while ((count = dis.read(bytes)) > 0)
-	    {
-	      fos.write(bytes, 0, count);
-	    }
-	    
-	    fos.close();
-	    dis.close();
-	    socket.close();
-	    
-	} 
 	catch (IOException e) 
 	{
-	    print("Blad zapisu odbieranego pliku!");
-	    mySleep(3000); 
-	    throw new UnexpectedException();
-	}
-	
-    }//downloadFile()
-    
-    /**
-     * 
-     * Jej zadaniem jest wysanie pliku o podanej nazwie do na serwer.
-     * Wysya Request o przyjcie pliku, po otworzeniu strumienia rozpoczyna wysyanie go.
-     * Po zakoczeniu procesu wysyania zamyka poczenie.
-     * 
-     * @param fileName Nazwa pliku jaki chcemy wysa na serwer.
-     * @throws CommunicationErrorException Wyjtek rzucany w sytuacji kiedy nie mona
-     *  nawiza poczenia z serwerem, albo co je przerwao.
-     * @throws UnexpectedException Wyjtek rzucany w przypadku nieprzewidzianych sytuacji takich
-     * jak np. brak moliwoci otworzenia okrelonego pliku.
-     */
-    private void uploadFile(String fileName) throws CommunicationErrorException, UnexpectedException
-    {
-	
-	try
-	{
-	    print("Wysylam plik: " + fileName);
-	  //Celowe spowolnienie dzialania
-	    mySleep(3000);
-	    Socket socket = establishConnection();
-	    
-	    /*
-	     * Wysylamy request o odebranie.
-	     */
-	    
-	    objectWriter = new ObjectOutputStream(socket.getOutputStream());
-	    Request r = new Request(username, "upload", fileName);
-	    objectWriter.writeObject(r);
-	    
-	    /*
-	     * Wysylamy plik.
-	     */
-	    
-	    DataOutputStream dos = new DataOutputStream(socket.getOutputStream());
-	    FileInputStream fis = new FileInputStream(directory + "/" + fileName);
-	    
-	    byte[] bytes = new byte[8 * 1024];
-		
-	    int count;
-	    while ((count = fis.read(bytes)) > 0)
-	    {
-		dos.write(bytes, 0, count);
-	    }
-		
-	    objectWriter.close();
-	    dos.close();
-	    fis.close();
-	    socket.close();
-
-	}
-	catch(IOException e)
-	{
-	    print("Blad odczytu wysylanego pliku!");
-	    mySleep(3000);
+	    print("Blad IO!");
 	    throw new UnexpectedException();
-	}
-    }//uploadFile
+	} 
+    }
     
     /**
      * Zadaniem tej metody jest udostepnienie naszego pliku innemu uytkownikowi serwera. 
-     * Wysya ona Request o udostepnienie, po czym zamyka poczenie.
+     * Wysya ona Request o udostepnienie.
      * Nie czeka na potwierdzenie odebrania Requesta.
      * 
      * @param fileName Nazwa udostpnianego pliku.
@@ -428,71 +322,301 @@ public class FileSynchronizer implements Runnable {
 	{
 	    print("Udostepniam plik : " + fileName);
 	    
-	    mySleep(3000);
-	    
-	    Socket socket = establishConnection();
-	    
 	    /*
 	     * Wysylamy request o udostepnienie.
 	     */
 	    
-	    objectWriter = new ObjectOutputStream(socket.getOutputStream());
 	    Request r = new Request(username, "share", fileName, friendname);
-	    objectWriter.writeObject(r);
-	    
-	    objectWriter.close();
-	    socket.close();
+	    connection().send(r);
 	    
 	} 
 	catch(IOException e)
 	{
 	    print("Blad IO!");
-	    mySleep(3000);
 	    throw new UnexpectedException();
 	}
 	
     }//shareFile()
     
     /**
-     * Metoda dziaajca podobnie do downloadFile(), jednak ta przyjmuje list plikw do pobrania,
-     * a nie nazw jednego pliku.
+     * Metoda pobierajca z serwera wszystkie pliki z listy i zapisujca je w folderze uytkownika.
+     * Pliki s pobierane partiami przez TransferScheduler, a kada partia jest jednym Requestem, na ktry
+     * serwer odpowiada jednym strumieniem. Pliki, ktrych nie udao si pobra, s pobierane ponownie.
+     * Metoda nie czeka na zakoczenie pobierania.
      * 
      * @param files Lista plikow do pobrania
-     * @throws CommunicationErrorException Wyjtek rzucany w sytuacji kiedy nie mona
-     *  nawiza poczenia z serwerem, albo co je przerwao.
-     * @throws UnexpectedException Wyjtek rzucany w przypadku nieprzewidzianych sytuacji takich
-     * jak np. brak moliwoci otworzenia okrelonego pliku.
+     * @return Obiekt, ktry zostanie zakoczony po pobraniu wszystkich plikw, z list plikw ktrych
+     * nie udao si pobra.
      */
-    private void downloadAllFiles(ArrayList<String> files) throws CommunicationErrorException, UnexpectedException
+    private CompletableFuture<ArrayList<String>> downloadAllFiles(ArrayList<String> files)
     {
-	
-	for(String s:files)
+	if(!files.isEmpty())
 	{
-	    downloadFile(s);
+	    print("Pobieram pliki: " + files.size());
 	}
 	
+	return TransferScheduler.get().submit(files, null, new TransferScheduler.Transfer() {
+	    @Override
+	    public List<String> transfer(List<String> batch) throws IOException
+	    {
+		Request r = new Request(username, "download", new ArrayList<String>(batch));
+		LinkedHashMap<String, String> saved = await(ServerConnection.get().download(r, directory));
+
+		ArrayList<String> failed = new ArrayList<String>();
+		for(String name:batch)
+		{
+		    if(saved.containsKey(name))
+		    {
+			manifest.markDownloaded(name, saved.get(name));
+		    }
+		    else
+		    {
+			failed.add(name);
+		    }
+		}
+		return failed;
+	    }
+	});
+	
     }//downloadAllFiles
     
     /**
-     * Metoda dziaajca podobnie do uploadFile(), jednak ta przyjmuje list plikw do wysania,
-     * a nie nazw jednego pliku.
+     * Metoda wysyajca na serwer wszystkie pliki z listy.
+     * Pliki s wysyane partiami przez TransferScheduler. Dla kadej partii najpierw pyta serwer (Request "have")
+     * czy ma ju zawarto tych plikw. Pliki ktrych zawarto jest ju na serwerze, np. wysane wczeniej
+     * przez innego uytkownika, nie s przesyane, a pliki ktrych wysyanie zostao przerwane s wysyane
+     * od miejsca przerwania. Pozostae pliki partii s wysyane jednym Requestem, a zaraz po nim jednym strumieniem.
+     * Metoda nie czeka na zakoczenie wysyania.
      * 
      * @param files Lista plikow do wysania
-     * @throws CommunicationErrorException Wyjtek rzucany w sytuacji kiedy nie mona
-     *  nawiza poczenia z serwerem, albo co je przerwao.
-     * @throws UnexpectedException Wyjtek rzucany w przypadku nieprzewidzianych sytuacji takich
-     * jak np. brak moliwoci otworzenia okrelonego pliku.
+     * @return Obiekt, ktry zostanie zakoczony po wysaniu wszystkich plikw, z list plikw ktrych
+     * nie udao si wysa.
      */
-    private void uploadAllFiles(ArrayList<String> files) throws CommunicationErrorException, UnexpectedException
+    private CompletableFuture<ArrayList<String>> uploadAllFiles(ArrayList<String> files)
     {
+	if(!files.isEmpty())
+	{
+	    print("Wysylam pliki: " + files.size());
+	}
 	
-	for(String s:files)
+	ArrayList<Long> sizes = new ArrayList<Long>();
+	for(String name:files)
 	{
-	    uploadFile(s);
+	    sizes.add(new File(directory, name).length());
 	}
+
+	return TransferScheduler.get().submit(files, sizes, new TransferScheduler.Transfer() {
+	    @Override
+	    public List<String> transfer(List<String> batch) throws IOException
+	    {
+		ArrayList<String> failed = new ArrayList<String>();
+		Request r = skipKnownContent(batch, failed);
+		for(String name:batch)
+		{
+		    if(!r.getFiles().contains(name) && !failed.contains(name))
+		    {
+			manifest.markSynced(name);
+		    }
+		}
+		if(r.getFiles().isEmpty())
+		{
+		    return failed;
+		}
+
+		try
+		{
+		    await(ServerConnection.transfer().upload(r, directory));
+		}
+		catch(IOException e)
+		{
+		    // Pliki, ktre serwer ju ma, nie zostan wysane ponownie.
+		    System.out.println("Blad wysylania plikow: " + e.getMessage());
+		    failed.addAll(r.getFiles());
+		    return failed;
+		}
+		for(String name:r.getFiles())
+		{
+		    manifest.markSynced(name);
+		}
+		return failed;
+	    }
+	});
 	
     }//uploadAllFiles
+
+    /**
+     * Pyta serwer, ktrych plikw nie ma, podajc skrty ich zawartoci z manifestu. Serwer od razu dopisuje nam
+     * pliki, ktrych zawarto ju posiada, a dla pozostaych podaje pozycj od ktrej naley je wysa
+     * (wiksz od 0 jeeli wczeniejsze wysyanie zostao przerwane).
+     * @param files Lista plikow do wysania.
+     * @param unreadable Lista, do ktrej dopisywane s pliki, ktrych nie udao si odczyta.
+     * @return Request "upload" z plikami, ktre trzeba wysa, ich skrtami i pozycjami.
+     * @throws IOException W przypadku bdu komunikacji z serwerem.
+     */
+    private Request skipKnownContent(List<String> files, ArrayList<String> unreadable) throws IOException
+    {
+	ArrayList<String> names = new ArrayList<String>();
+	ArrayList<String> contents = new ArrayList<String>();
+	for(String name:files)
+	{
+	    String content = manifest.content(name);
+	    if(content == null)
+	    {
+		content = manifest.rehash(name);
+	    }
+	    if(content != null)
+	    {
+		contents.add(content);
+		names.add(name);
+	    }
+	    else
+	    {
+		unreadable.add(name);
+	    }
+	}
+
+	LinkedHashMap<String, Long> resume = new LinkedHashMap<String, Long>();
+	if(!names.isEmpty())
+	{
+	    Request r = new Request(username, "have", names, contents);
+	    resume = await(ServerConnection.get().requestResume(r));
+	    if(resume.size() < names.size())
+	    {
+		print("Serwer ma juz zawartosc " + (names.size() - resume.size()) + " plikow");
+	    }
+	}
+
+	ArrayList<String> needed = new ArrayList<String>();
+	ArrayList<String> neededContents = new ArrayList<String>();
+	ArrayList<Long> offsets = new ArrayList<Long>();
+	for(int i=0;i<names.size();i++)
+	{
+	    Long offset = resume.get(names.get(i));
+	    if(offset != null)
+	    {
+		needed.add(names.get(i));
+		neededContents.add(contents.get(i));
+		offsets.add(offset);
+	    }
+	}
+
+	Request r = new Request(username, "upload", needed, neededContents);
+	r.setOffsets(offsets);
+	return r;
+    }
     
+    /**
+     * Metoda synchronizujca pliki, ktre s zarwno w folderze uytkownika, jak i na serwerze.
+     * Wysya skrty zawartoci plikw (Request "signatures"), a serwer odsya sygnatury blokw tych plikw,
+     * ktrych zawarto jest inna ni u nas. Jeeli nasz plik nie zmieni si od ostatniej synchronizacji,
+     * to zmienia si wersja na serwerze i plik jest pobierany. W przeciwnym razie wysyane s tylko
+     * zmienione czci pliku (Request "delta"). Bd wysyania zmian nie przerywa synchronizacji, a pliki
+     * zostan wysane przy kolejnej synchronizacji.
+     * 
+     * @param files Lista plikw znajdujcych si w folderze i na serwerze, ktre mogy si zmieni.
+     * @return Lista plikw, ktrych nie udao si zsynchronizowa.
+     * @throws CommunicationErrorException Wyjtek rzucany w sytuacji kiedy nie mona
+     *  nawiza poczenia z serwerem, albo co je przerwao.
+     * @throws UnexpectedException Wyjtek rzucany w przypadku nieprzewidzianych sytuacji takich
+     * jak np. brak moliwoci otworzenia okrelonego pliku.
+     */
+    private ArrayList<String> syncModifiedFiles(ArrayList<String> files)
+	    throws CommunicationErrorException, UnexpectedException
+    {
+	ArrayList<String> failed = new ArrayList<String>();
+	if(files.isEmpty())
+	{
+	    return failed;
+	}
+
+	try
+	{
+	    ArrayList<String> names = new ArrayList<String>();
+	    ArrayList<String> contents = new ArrayList<String>();
+	    for(String name:files)
+	    {
+		String content = manifest.content(name);
+		if(content != null)
+		{
+		    names.add(name);
+		    contents.add(content);
+		}
+		else
+		{
+		    failed.add(name);
+		}
+	    }
+	    if(names.isEmpty())
+	    {
+		return failed;
+	    }
+
+	    Request r = new Request(username, "signatures", names, contents);
+	    HashMap<String, BlockSignatures> changed = new HashMap<String, BlockSignatures>();
+	    for(BlockSignatures signatures:await(connection().requestSignatures(r)))
+	    {
+		changed.put(signatures.getName(), signatures);
+	    }
+
+	    ArrayList<String> pulled = new ArrayList<String>();
+	    ArrayList<String> pushed = new ArrayList<String>();
+	    ArrayList<String> pushedContents = new ArrayList<String>();
+	    ArrayList<String> bases = new ArrayList<String>();
+	    ArrayList<BlockSignatures> signatures = new ArrayList<BlockSignatures>();
+	    for(int i=0;i<names.size();i++)
+	    {
+		String name = names.get(i);
+		BlockSignatures remote = changed.get(name);
+		if(remote == null)
+		{
+		    manifest.markSynced(name);
+		}
+		else if(manifest.isSynced(name))
+		{
+		    pulled.add(name);
+		}
+		else
+		{
+		    pushed.add(name);
+		    pushedContents.add(contents.get(i));
+		    bases.add(remote.getContent());
+		    signatures.add(remote);
+		}
+	    }
+
+	    CompletableFuture<ArrayList<String>> downloads = downloadAllFiles(pulled);
+
+	    if(!pushed.isEmpty())
+	    {
+		print("Wysylam zmiany plikow: " + pushed.size());
+		Request delta = new Request(username, "delta", pushed, bases);
+		try
+		{
+		    await(ServerConnection.transfer().delta(delta, directory, signatures, pushedContents));
+		    for(String name:pushed)
+		    {
+			manifest.markSynced(name);
+		    }
+		}
+		catch(IOException e)
+		{
+		    System.out.println("Blad wysylania zmienionych plikow: " + e.getMessage());
+		    failed.addAll(pushed);
+		}
+	    }
+
+	    failed.addAll(finish(downloads));
+	    return failed;
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	    print("Blad synchronizacji zmienionych plikow!");
+	    throw new UnexpectedException();
+	}
+
+    }//syncModifiedFiles
+
     /*
      * arrayDifference()
      * Zwraca tablice ktora jest wynikiem odejmowania arr1 - arr2.
@@ -508,10 +632,11 @@ public class FileSynchronizer implements Runnable {
     private static ArrayList<String> arrayDifference(ArrayList<String> arr1, ArrayList<String> arr2)
     {
 	ArrayList<String> n = new ArrayList<String>();
+	HashSet<String> subtracted = new HashSet<String>(arr2);
 	
 	for(String s:arr1)
 	{
-	    if(!arr2.contains(s))
+	    if(!subtracted.contains(s))
 	    {
 		n.add(s);
 	    }
@@ -521,21 +646,19 @@ public class FileSynchronizer implements Runnable {
     }//arrayDifference()
     
     /**
+     * Metoda zwracajca wspdzielone poczenie z serwerem, wykorzystywane przez wszystkie Requesty
+     * poza wysyaniem plikw.
      * 
-     * Metoda wykorzystywana do nawizania poczenia z serwerem.
-     * 
-     * @return Socket z nawizanym poczeniem.
+     * @return Poczenie z serwerem.
      * @throws CommunicationErrorException Wyjtek rzucany w sytuacji kiedy nie mona
-     *  nawiza poczenia z serwerem, albo co je przerwao.
-     * @throws UnexpectedException Wyjtek rzucany w przypadku nieprzewidzianych sytuacji takich
-     * jak np. brak moliwoci otworzenia okrelonego pliku.
+     *  nawiza poczenia z serwerem.
+     * @throws UnexpectedException Wyjtek rzucany w przypadku nieprzewidzianych sytuacji.
      */
-    private Socket establishConnection() throws CommunicationErrorException, UnexpectedException
+    private ServerConnection connection() throws CommunicationErrorException, UnexpectedException
     {
 	try 
 	{
-	    Socket socket = new Socket("127.0.0.1", 5000);
-	    return socket;
+	    return ServerConnection.get();
 	} 
 	catch (ConnectException e)
 	{
@@ -548,11 +671,56 @@ public class FileSynchronizer implements Runnable {
 	catch (IOException e) 
 	{
 	    print("Blad IO!");
-	    mySleep(3000);
 	    throw new UnexpectedException();
 	} 
     }
+
+    /**
+     * Czeka na odpowied serwera. Bd zgoszony przez serwer lub zerwanie poczenia
+     * jest przekazywane dalej jako IOException.
+     * @param future Odpowied na ktr czekamy.
+     * @return Wynik odpowiedzi.
+     * @throws IOException W przypadku gdy odpowied zakoczya si bdem.
+     */
+    private <T> T await(CompletableFuture<T> future) throws IOException
+    {
+	try 
+	{
+	    return future.get();
+	} 
+	catch (ExecutionException e) 
+	{
+	    if(e.getCause() instanceof IOException)
+	    {
+		throw (IOException) e.getCause();
+	    }
+	    throw new IOException(e.getCause());
+	}
+	catch (InterruptedException e) 
+	{
+	    throw new InterruptedIOException();
+	}
+    }
     
+    /**
+     * Czeka na zakoczenie przesyania plikw przez TransferScheduler.
+     * @param transfers Wynik metody downloadAllFiles() lub uploadAllFiles().
+     * @return Lista plikw, ktrych nie udao si przesa.
+     * @throws UnexpectedException W przypadku nieprzewidzianego bdu przesyania.
+     */
+    private ArrayList<String> finish(CompletableFuture<ArrayList<String>> transfers) throws UnexpectedException
+    {
+	try
+	{
+	    return await(transfers);
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	    throw new UnexpectedException();
+	}
+    }
+
     /**
      * Metoda sluy do wywietlenia aktualnie wykonywanej czynnoci.
      * @param String ktry ma zosta umieszczony w obiekcie Label.
@@ -569,24 +737,6 @@ public class FileSynchronizer implements Runnable {
 	});
     }
     
-    /**
-     * Skrcona wersja Thread.sleep();
-     * @param Liczba milisekund na jak ma zosta upiony wtek.
-     */
-    private void mySleep(int n)
-    {
-	try 
-	{
-	    Thread.sleep(n);
-	} 
-	catch (InterruptedException e) 
-	{
-	    //NOT GONNA HAPPEN
-	    e.printStackTrace();
-	}
-	
-    }
-    
     /**
      * Wyjtek rzucany w przypadku bdu komunikacji pomidzy klientem, a serwerem.
      * @author Sebastian Paweoszek
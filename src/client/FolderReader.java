@@ -24,7 +24,8 @@ public class FolderReader {
 
     /**
      * Przeszukuje wskazany folder i listuje znalezione w nim pliki. Nie przeszukuje podfolderw i nie traktuje
-     * ich jak pliki.
+     * ich jak pliki. Pomija pliki tymczasowe przerwanego pobierania (ServerConnection.PART_SUFFIX)
+     * oraz pliki manifestu folderu (SyncManifest).
      * @param directory Lokalizacja folderu do przeszukania.
      * @param state informacja o bledzie, ktra zostanie wywietlona w interfejscie graficznym
      * @return Lista plikow znajdujacych sie w przeszukiwanym folderze.
@@ -38,12 +39,15 @@ public class FolderReader {
 	try (Stream<Path> list = Files.list(Paths.get(directory))) 
         {
         	List<String> result;
-        	result = list.filter(Files::isRegularFile).map(x -> x.toString()).collect(Collectors.toList());
+		result = list.filter(Files::isRegularFile).map(x -> x.getFileName().toString()).collect(Collectors.toList());
         
         	for(int i=0;i<result.size();i++)
         	{
-        	    s = result.get(i).replace(directory + "\\" , "");
-        	    results.add(s);
+		    s = result.get(i);
+		    if(!s.endsWith(ServerConnection.PART_SUFFIX) && !SyncManifest.isManifestFile(s))
+		    {
+			results.add(s);
+		    }
         	}
          	    
         } 
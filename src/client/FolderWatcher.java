@@ -0,0 +1,403 @@
+package client;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+/**
+ * Klasa przeznaczona do uruchomienia jako wtek obserwujcy folder uytkownika. Zamiast cyklicznie
+ * przeglda cay folder, korzysta z WatchService, ktry zgasza utworzenie, zmian i usunicie
+ * poszczeglnych plikw. Zdarzenia nastpujce szybko po sobie s czone: po pierwszym zdarzeniu wtek
+ * czeka QUIET_PERIOD na kolejne (najduej MAX_DELAY) i zgasza kady zmieniony plik tylko raz.
+ * Rodzaj zmiany jest ustalany na podstawie aktualnego stanu pliku, dlatego np. plik utworzony
+ * i od razu usunity nie jest zgaszany wcale.
+ * Cay folder jest przegldany ponownie tylko wtedy, gdy cz zdarze zostaa utracona (OVERFLOW).
+ * Jeeli WatchService nie jest dostpny, lub obserwowany folder zniknie, wtek wraca do przegldania
+ * folderu co POLL_INTERVAL.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class FolderWatcher implements Runnable {
+
+    /**
+     * Czas bez nowych zdarze, po ktrym zebrane zmiany s zgaszane (w milisekundach).
+     */
+    static final long QUIET_PERIOD = 300;
+
+    /**
+     * Najduszy czas od pierwszego zdarzenia do zgoszenia zmian, nawet jeeli zdarzenia wci napywaj.
+     */
+    static final long MAX_DELAY = 2000;
+
+    /**
+     * Odstp pomidzy kolejnymi przegldami folderu, gdy nie mona korzysta z WatchService.
+     */
+    static final long POLL_INTERVAL = 3000;
+
+    /**
+     * Rodzaj zmiany pliku.
+     */
+    public enum Change
+    {
+	CREATED, MODIFIED, DELETED
+    }
+
+    /**
+     * Odbiorca zmian w folderze. Metody s wywoywane w wtku FolderWatcher.
+     */
+    public interface Listener
+    {
+	/**
+	 * Wywoywana po kadej zmianie zawartoci folderu, oraz raz po uruchomieniu wtku (z pust list zmian).
+	 * @param files Aktualna lista plikw w folderze.
+	 * @param changes Zmienione pliki i rodzaje zmian.
+	 */
+	void folderChanged(ObservableList<String> files, Map<String, Change> changes);
+
+	/**
+	 * Wywoywana gdy nie mona uzyska dostpu do folderu.
+	 */
+	void folderUnavailable();
+    }
+
+    private Path folder;
+    private Listener listener;
+    private volatile boolean on = true;
+    private volatile WatchService watcher;
+    private boolean scanned;
+
+    // Znane pliki folderu, z rozmiarem i czasem modyfikacji, w kolejnoci ich pojawienia si.
+    private LinkedHashMap<String, FileState> known = new LinkedHashMap<String, FileState>();
+
+    /**
+     * @param directory Lokalizacja obserwowanego folderu.
+     * @param listener Odbiorca zmian.
+     */
+    public FolderWatcher(String directory, Listener listener)
+    {
+	this.folder = Paths.get(directory);
+	this.listener = listener;
+    }
+
+    @Override
+    public void run()
+    {
+	try
+	{
+	    rescan();
+	    while(on)
+	    {
+		WatchService service = watcher;
+		if(service == null)
+		{
+		    service = register();
+		}
+		if(service == null)
+		{
+		    Thread.sleep(POLL_INTERVAL);
+		    rescan();
+		    continue;
+		}
+
+		HashSet<String> touched = new HashSet<String>();
+		boolean overflow = false;
+		WatchKey key = service.take();
+		long deadline = System.currentTimeMillis() + MAX_DELAY;
+		while(key != null)
+		{
+		    overflow |= drain(key, touched);
+		    if(!key.reset())
+		    {
+			// Folder zosta usunity lub przesta by dostpny.
+			closeWatcher();
+			overflow = true;
+			break;
+		    }
+		    long left = deadline - System.currentTimeMillis();
+		    key = left > 0 ? service.poll(Math.min(QUIET_PERIOD, left), TimeUnit.MILLISECONDS) : null;
+		}
+
+		if(overflow)
+		{
+		    rescan();
+		}
+		else
+		{
+		    update(touched);
+		}
+	    }
+	}
+	catch(InterruptedException e)
+	{
+	    e.printStackTrace();
+	}
+	catch(ClosedWatchServiceException e)
+	{
+	    // Wtek zosta zatrzymany metod shutdown().
+	}
+	finally
+	{
+	    closeWatcher();
+	}
+    }
+
+    /**
+     * Metoda suca do bezpiecznego zakoczenia dziaania wtku.
+     */
+    public void shutdown()
+    {
+	on = false;
+	closeWatcher();
+    }
+
+    /**
+     * Rejestruje obserwowany folder w nowym WatchService.
+     * @return WatchService, lub null jeeli nie jest dostpny albo folderu nie mona obserwowa.
+     */
+    private WatchService register()
+    {
+	try
+	{
+	    WatchService service = FileSystems.getDefault().newWatchService();
+	    watcher = service;
+	    if(!on)
+	    {
+		closeWatcher();
+		return null;
+	    }
+	    folder.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+		    StandardWatchEventKinds.ENTRY_DELETE);
+	    // Zmiany dokonane przed rejestracj nie zostay zgoszone.
+	    rescan();
+	    return service;
+	}
+	catch(IOException e)
+	{
+	    closeWatcher();
+	    return null;
+	}
+	catch(UnsupportedOperationException e)
+	{
+	    closeWatcher();
+	    return null;
+	}
+    }
+
+    private synchronized void closeWatcher()
+    {
+	if(watcher == null)
+	{
+	    return;
+	}
+	try
+	{
+	    watcher.close();
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+	watcher = null;
+    }
+
+    /**
+     * Odczytuje zdarzenia klucza i dopisuje nazwy zmienionych plikw.
+     * @return true jeeli cz zdarze zostaa utracona.
+     */
+    private boolean drain(WatchKey key, HashSet<String> touched)
+    {
+	boolean overflow = false;
+	for(WatchEvent<?> event:key.pollEvents())
+	{
+	    if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+	    {
+		overflow = true;
+		continue;
+	    }
+	    String name = ((Path) event.context()).getFileName().toString();
+	    if(isSynchronized(name))
+	    {
+		touched.add(name);
+	    }
+	}
+	return overflow;
+    }
+
+    /**
+     * Ustala rodzaj zmiany kadego z plikw na podstawie jego aktualnego stanu i zgasza zmiany.
+     * @param touched Nazwy plikw, ktrych dotyczyy zdarzenia.
+     */
+    private void update(HashSet<String> touched)
+    {
+	LinkedHashMap<String, Change> changes = new LinkedHashMap<String, Change>();
+	for(String name:touched)
+	{
+	    FileState state = FileState.of(folder.resolve(name));
+	    FileState previous = known.get(name);
+	    if(state == null && previous != null)
+	    {
+		known.remove(name);
+		changes.put(name, Change.DELETED);
+	    }
+	    else if(state != null && previous == null)
+	    {
+		known.put(name, state);
+		changes.put(name, Change.CREATED);
+	    }
+	    else if(state != null && !state.equals(previous))
+	    {
+		known.put(name, state);
+		changes.put(name, Change.MODIFIED);
+	    }
+	}
+
+	if(!changes.isEmpty())
+	{
+	    listener.folderChanged(FXCollections.observableArrayList(known.keySet()), changes);
+	}
+    }
+
+    /**
+     * Przeglda cay folder i zgasza pliki, ktre pojawiy si, zmieniy lub znikny od ostatniego przegldu.
+     * Pierwszy przegld jest zgaszany zawsze, z pust list zmian.
+     */
+    private void rescan()
+    {
+	LinkedHashMap<String, FileState> current = new LinkedHashMap<String, FileState>();
+	try (Stream<Path> list = Files.list(folder))
+	{
+	    Iterator<Path> paths = list.iterator();
+	    while(paths.hasNext())
+	    {
+		Path path = paths.next();
+		String name = path.getFileName().toString();
+		FileState state = FileState.of(path);
+		if(state != null && isSynchronized(name))
+		{
+		    current.put(name, state);
+		}
+	    }
+	}
+	catch(IOException e)
+	{
+	    listener.folderUnavailable();
+	    return;
+	}
+	catch(UncheckedIOException e)
+	{
+	    listener.folderUnavailable();
+	    return;
+	}
+	catch(InvalidPathException e)
+	{
+	    listener.folderUnavailable();
+	    return;
+	}
+
+	boolean first = !scanned;
+	scanned = true;
+	LinkedHashMap<String, Change> changes = new LinkedHashMap<String, Change>();
+	for(Map.Entry<String, FileState> e:current.entrySet())
+	{
+	    FileState previous = known.get(e.getKey());
+	    if(previous == null && !first)
+	    {
+		changes.put(e.getKey(), Change.CREATED);
+	    }
+	    else if(previous != null && !previous.equals(e.getValue()))
+	    {
+		changes.put(e.getKey(), Change.MODIFIED);
+	    }
+	}
+	for(String name:known.keySet())
+	{
+	    if(!current.containsKey(name))
+	    {
+		changes.put(name, Change.DELETED);
+	    }
+	}
+	known = current;
+
+	if(first || !changes.isEmpty())
+	{
+	    listener.folderChanged(FXCollections.observableArrayList(known.keySet()), changes);
+	}
+    }
+
+    /**
+     * Pomija pliki tymczasowe przerwanego pobierania i pliki manifestu folderu.
+     */
+    private static boolean isSynchronized(String name)
+    {
+	return !name.endsWith(ServerConnection.PART_SUFFIX) && !SyncManifest.isManifestFile(name);
+    }
+
+    /**
+     * Rozmiar i czas modyfikacji pliku, na podstawie ktrych wykrywana jest jego zmiana.
+     */
+    private static class FileState
+    {
+	long size;
+	long modified;
+
+	/**
+	 * @return Stan zwykego pliku, lub null jeeli plik nie istnieje albo nie jest zwykym plikiem.
+	 */
+	static FileState of(Path path)
+	{
+	    try
+	    {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		if(!attributes.isRegularFile())
+		{
+		    return null;
+		}
+		FileState state = new FileState();
+		state.size = attributes.size();
+		state.modified = attributes.lastModifiedTime().toMillis();
+		return state;
+	    }
+	    catch(IOException e)
+	    {
+		return null;
+	    }
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+	    if(!(o instanceof FileState))
+	    {
+		return false;
+	    }
+	    FileState other = (FileState) o;
+	    return size == other.size && modified == other.modified;
+	}
+
+	@Override
+	public int hashCode()
+	{
+	    return Long.hashCode(size) * 31 + Long.hashCode(modified);
+	}
+    }
+
+}
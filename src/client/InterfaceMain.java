@@ -1,5 +1,6 @@
 package client;
 	
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import javafx.application.Application;
@@ -19,7 +20,8 @@ import javafx.scene.text.Font;
 /**
  * Aplikacja kliencka suca do przesyania plikw pomidzy
  * uytkownikiem, a serwerem. Przy uruchomieniu wymaga podania dwch argumentw,
- * nazwy uytkownika i cieki do folderu.
+ * nazwy uytkownika i cieki do folderu. Opcjonalne argumenty "--transfers.max" i "--transfers.memory"
+ * ograniczaj liczb jednoczenie przesyanych partii plikw i ich czny rozmiar w MB (patrz TransferScheduler).
  * @author Sebastian Paweoszek
  * @version 1.0
  */
@@ -33,7 +35,10 @@ public class InterfaceMain extends Application {
     ObservableList<String> users;
     ObservableList<String> filesOnServer;
     Timer timer = new Timer();
-    
+    FolderWatcher watcher;
+    ServerWatcher serverWatcher;
+    SyncScheduler syncs;
+
     /**
      * Metoda wywoywana jest wtedy kiedy chcemy wymusi zatrzymanie aplikacji.
      * Wykonuje ona czynnoci ktre musz by zrobione przed zamkniciem aplikacji.
@@ -43,16 +48,32 @@ public class InterfaceMain extends Application {
     public void stop(){
 	    System.out.println("Stage is closing");
 	    timer.cancel();
+	    if(watcher != null)
+	    {
+		watcher.shutdown();
+	    }
+	    if(serverWatcher != null)
+	    {
+		serverWatcher.shutdown();
+	    }
+	    if(syncs != null)
+	    {
+		syncs.shutdown();
+	    }
     }
     
     /**
      * Metoda jest punktem wejciowym dla aplikajci JavaFX.
      * Odpowiada ona za interfejs graficzny, zachowanie si aplikacji po naciniciu okrelonych przyciskw
-     * i cykliczne odwieanie listy plikow w folderze.
+     * i odwieanie listy plikow po kadej zmianie w folderze (FolderWatcher). Zmiany plikw na serwerze,
+     * np. pliki udostpnione przez innych uytkownikw, s synchronizowane zaraz po ich wystpieniu (ServerWatcher).
+     * Wszystkie synchronizacje przechodz przez jedn kolejk (SyncScheduler) i s wykonywane po kolei.
      */
     @Override
     public void start(Stage primaryStage) {
 	try {
+		TransferScheduler.configure(getParameters().getNamed());
+
 	    	//Stan programu
 		state.setFont(new Font("Cambria", 16));
 		state.setPrefHeight(50);
@@ -99,15 +120,20 @@ public class InterfaceMain extends Application {
 		Button zakonczButton = new Button("Zakoncz");
 						
 		vertical3.getChildren().addAll(label3,odswiezButton,udostepnijButton,zakonczButton);
+
+		syncs = new SyncScheduler(new Runnable() {
+		    @Override
+		    public void run() {
+			new FileSynchronizer(username,directory,files,
+				usersList,odswiezButton,state).run();
+		    }
+		});
 			
 		odswiezButton.setOnAction(new EventHandler<ActionEvent>(){
 		    @Override
 		    public void handle(ActionEvent event) {
 			
-			Thread t = new Thread(new FileSynchronizer(username,directory,files,
-				usersList,odswiezButton,state));
-			
-			t.start();
+			syncs.request();
 		    }
 		});
 			
@@ -147,9 +173,45 @@ public class InterfaceMain extends Application {
 		
 		
 		
-		//Cykliczne aktualizowanie stanu plikow
-		timer.scheduleAtFixedRate( new ClientTimerTask(filesList, usersList, files, directory,
-			username, odswiezButton, state), 0, 3000);//aktualizacja co 3s
+		//Aktualizowanie stanu plikow po zmianach w folderze
+		watcher = new FolderWatcher(directory, new FolderWatcher.Listener()
+		{
+		    @Override
+		    public void folderChanged(ObservableList<String> current, Map<String, FolderWatcher.Change> changes)
+		    {
+			Platform.runLater(new Runnable() {
+			    @Override
+			    public void run()
+			    {
+				files = current;
+				filesList.setItems(files);
+
+				// Usunite pliki nie s usuwane z serwera, synchronizacja jest potrzebna tylko
+				// gdy pojawi si nowy plik lub zmienia si zawarto pliku.
+				if(changes.containsValue(FolderWatcher.Change.CREATED)
+					|| changes.containsValue(FolderWatcher.Change.MODIFIED))
+				{
+				    syncs.request();
+				}
+			    }
+			});
+		    }
+
+		    @Override
+		    public void folderUnavailable()
+		    {
+			Platform.runLater(new Runnable() {
+			    @Override
+			    public void run()
+			    {
+				state.setText("Brak dostepu do plikw!");
+			    }
+			});
+		    }
+		});
+		Thread w = new Thread(watcher, "FolderWatcher");
+		w.setDaemon(true);
+		w.start();
 		
 		
 		timer.schedule(new TimerTask()
@@ -159,9 +221,25 @@ public class InterfaceMain extends Application {
 		    public void run() {
 			if(files != null)
 			{
-			    Thread t = new Thread(new FileSynchronizer(username,directory,files,
-				    usersList,odswiezButton,state));
-        				
+			    // Pierwsza synchronizacja, a potem oczekiwanie na zmiany na serwerze.
+			    serverWatcher = new ServerWatcher(username, directory, new ServerWatcher.Listener()
+			    {
+				@Override
+				public void serverChanged()
+				{
+				    try
+				    {
+					syncs.syncAndWait();
+				    }
+				    catch(InterruptedException e)
+				    {
+					// Zamykanie aplikacji, ServerWatcher zakoczy prac.
+					Thread.currentThread().interrupt();
+				    }
+				}
+			    });
+			    Thread t = new Thread(serverWatcher, "ServerWatcher");
+			    t.setDaemon(true);
 			    t.start();
 			}else
 			{
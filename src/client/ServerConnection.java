@@ -0,0 +1,781 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import request.BlockSignatures;
+import request.CatalogChanges;
+import request.ContentHash;
+import request.Request;
+import request.RequestCodec;
+
+/**
+ * Dugotrwae poczenie z serwerem, wspdzielone przez wszystkie wtki FileSynchronizer.
+ * Kady wysyany Request otrzymuje unikalny identyfikator, dziki czemu mona wysa wiele Requestw
+ * nie czekajc na odpowiedzi, a serwer moe odpowiada na nie w dowolnej kolejnoci.
+ * Odpowiedzi odczytuje osobny wtek, ktry przekazuje je do obiektw CompletableFuture zwracanych
+ * przy wysyaniu Requestw. W przypadku zerwania poczenia wszystkie oczekujce Requesty kocz si
+ * bdem, a kolejne wywoanie metody get() nawizuje nowe poczenie.
+ * Pliki s pobierane i wysyane wieloma naraz, jednym strumieniem w ramach jednego Requesta, czciami
+ * z sumami kontrolnymi. Przerwane pobieranie lub wysyanie jest wznawiane od ostatniej odebranej czci.
+ * Zmienione pliki mog zosta wysane jako rnica wzgldem wersji na serwerze (DeltaEncoder).
+ * Serwer odczytuje strumie plikw Requesta do koca, zanim odczyta kolejny Request z tego samego poczenia,
+ * dlatego pliki s wysyane osobnymi poczeniami (transfer()), a poczenie wspdzielone pozostaje wolne
+ * dla pozostaych Requestw.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class ServerConnection implements Runnable {
+
+    static final String HOST = "127.0.0.1";
+    static final int PORT = 5000;
+
+    /**
+     * Kocwka nazwy pliku tymczasowego, do ktrego odbierany jest pobierany plik.
+     */
+    static final String PART_SUFFIX = ".part";
+
+    private static ServerConnection instance;
+    private static ArrayList<ServerConnection> idleTransfers = new ArrayList<ServerConnection>();
+
+    private Socket socket;
+    private OutputStream out;
+    private DataInputStream in;
+    private AtomicInteger nextId = new AtomicInteger();
+    private ConcurrentHashMap<Integer, Pending<?>> pending = new ConcurrentHashMap<Integer, Pending<?>>();
+    private volatile boolean open = true;
+    private boolean transfer = false;
+
+    /**
+     * Zwraca otwarte poczenie z serwerem, w razie potrzeby nawizujc nowe.
+     * @return Poczenie z serwerem.
+     * @throws IOException W przypadku gdy nie mona nawiza poczenia.
+     */
+    public static synchronized ServerConnection get() throws IOException
+    {
+	if(instance == null || !instance.open)
+	{
+	    instance = new ServerConnection();
+	}
+	return instance;
+    }
+
+    /**
+     * Zwraca poczenie do wysania jednego Requesta ze strumieniem plikw ("upload" lub "delta"). Poczenie
+     * wraca do puli zaraz po wysaniu strumienia i moe zosta wykorzystane przez kolejn parti plikw,
+     * dlatego liczba pocze nie przekracza liczby jednoczenie wysyanych partii (TransferScheduler).
+     * @return Wolne poczenie z puli, lub nowe poczenie z serwerem.
+     * @throws IOException W przypadku gdy nie mona nawiza poczenia.
+     */
+    public static ServerConnection transfer() throws IOException
+    {
+	synchronized(idleTransfers)
+	{
+	    while(!idleTransfers.isEmpty())
+	    {
+		ServerConnection c = idleTransfers.remove(idleTransfers.size() - 1);
+		if(c.open)
+		{
+		    return c;
+		}
+	    }
+	}
+
+	ServerConnection c = new ServerConnection();
+	c.transfer = true;
+	return c;
+    }
+
+    private ServerConnection() throws IOException
+    {
+	socket = new Socket(HOST, PORT);
+	socket.setTcpNoDelay(true);
+	out = new BufferedOutputStream(socket.getOutputStream());
+	in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+	Thread t = new Thread(this, "ServerConnection");
+	t.setDaemon(true);
+	t.start();
+    }
+
+    /**
+     * Wysya Request, na ktry serwer odpowiada list napisw ("sync" i "users").
+     * @param r Request do wysania.
+     * @return Odpowied serwera, dostpna po jej odebraniu.
+     * @throws IOException W przypadku bdu wysyania.
+     */
+    public CompletableFuture<ArrayList<String>> requestList(Request r) throws IOException
+    {
+	return submit(r, new Pending<ArrayList<String>>() {
+	    @Override
+	    boolean handle(byte type, ByteBuffer frame, DataInputStream in) throws IOException
+	    {
+		expect(type, RequestCodec.LIST);
+		future.complete(RequestCodec.decodeList(frame));
+		return true;
+	    }
+	});
+    }
+
+    /**
+     * Wysya Request "sync" z wersj katalogu znan klientowi, na ktry serwer odpowiada plikami zmienionymi
+     * od tej wersji. Serwer, ktry nie obsuguje wersji, odpowiada pen list plikw (LIST).
+     * @param r Request do wysania.
+     * @return Zmiany katalogu uytkownika, dostpne po odebraniu odpowiedzi.
+     * @throws IOException W przypadku bdu wysyania.
+     */
+    public CompletableFuture<CatalogChanges> requestChanges(Request r) throws IOException
+    {
+	return submit(r, new Pending<CatalogChanges>() {
+	    @Override
+	    boolean handle(byte type, ByteBuffer frame, DataInputStream in) throws IOException
+	    {
+		if(type == RequestCodec.LIST)
+		{
+		    future.complete(new CatalogChanges(0, 0, true, RequestCodec.decodeList(frame)));
+		    return true;
+		}
+		expect(type, RequestCodec.CHANGES);
+		future.complete(RequestCodec.decodeChanges(frame));
+		return true;
+	    }
+	});
+    }
+
+    /**
+     * Wysya Request "have", na ktry serwer odpowiada list plikw do wysania i pozycjami od ktrych
+     * naley je wysa.
+     * @param r Request do wysania.
+     * @return Nazwy plikw i pozycje, dostpne po odebraniu odpowiedzi.
+     * @throws IOException W przypadku bdu wysyania.
+     */
+    public CompletableFuture<LinkedHashMap<String, Long>> requestResume(Request r) throws IOException
+    {
+	return submit(r, new Pending<LinkedHashMap<String, Long>>() {
+	    @Override
+	    boolean handle(byte type, ByteBuffer frame, DataInputStream in) throws IOException
+	    {
+		expect(type, RequestCodec.RESUME);
+		future.complete(RequestCodec.decodeResume(frame));
+		return true;
+	    }
+	});
+    }
+
+    /**
+     * Wysya Request "signatures", na ktry serwer odpowiada sygnaturami blokw plikw, ktrych wersja
+     * na serwerze rni si od podanej w Requecie.
+     * @param r Request do wysania, zawierajcy list plikw i skrty ich zawartoci.
+     * @return Sygnatury zmienionych plikw, dostpne po odebraniu odpowiedzi.
+     * @throws IOException W przypadku bdu wysyania.
+     */
+    public CompletableFuture<ArrayList<BlockSignatures>> requestSignatures(Request r) throws IOException
+    {
+	return submit(r, new Pending<ArrayList<BlockSignatures>>() {
+	    private ArrayList<BlockSignatures> signatures = new ArrayList<BlockSignatures>();
+
+	    @Override
+	    boolean handle(byte type, ByteBuffer frame, DataInputStream in) throws IOException
+	    {
+		if(type == RequestCodec.SIGNATURES)
+		{
+		    signatures.add(RequestCodec.decodeSignatures(frame));
+		    return false;
+		}
+
+		expect(type, RequestCodec.OK);
+		future.complete(signatures);
+		return true;
+	    }
+	});
+    }
+
+    /**
+     * Wysya Request "download". Odebrane pliki zostan zapisane we wskazanym folderze.
+     * Kady plik jest odbierany do pliku tymczasowego (nazwa pliku z kocwk PART_SUFFIX) i przenoszony
+     * pod docelow nazw dopiero po odebraniu wszystkich czci i sprawdzeniu skrtu zawartoci.
+     * Jeeli plik tymczasowy pozosta po przerwanym pobieraniu, serwer wysya tylko brakujce czci.
+     * Plik, ktrego nie udao si odebra, jest pomijany, a pozostae pliki s odbierane dalej.
+     * @param r Request do wysania, zawierajcy list plikw.
+     * @param directory Folder, w ktrym zostan zapisane pliki.
+     * @return Obiekt, ktry zostanie zakoczony po odebraniu wszystkich plikw, z nazwami zapisanych plikw
+     * i skrtami zawartoci podanymi przez serwer (null jeeli serwer go nie zna). Plikw, ktrych nie udao
+     * si pobra, nie ma w wyniku.
+     * @throws IOException W przypadku bdu wysyania.
+     */
+    public CompletableFuture<LinkedHashMap<String, String>> download(Request r, String directory) throws IOException
+    {
+	HashSet<String> requested = new HashSet<String>(r.getFiles());
+
+	ArrayList<Long> offsets = new ArrayList<Long>();
+	for(String name:r.getFiles())
+	{
+	    long length = new File(directory, name + PART_SUFFIX).length();
+	    offsets.add(length - length % RequestCodec.CHUNK_SIZE);
+	}
+	r.setOffsets(offsets);
+
+	return submit(r, new Pending<LinkedHashMap<String, String>>() {
+	    private LinkedHashMap<String, String> saved = new LinkedHashMap<String, String>();
+	    private String current;
+	    private File part;
+	    private FileChannel channel;
+	    private long size;
+	    private long position;
+	    private String content;
+	    private ByteBuffer chunk;
+
+	    @Override
+	    boolean handle(byte type, ByteBuffer frame, DataInputStream in) throws IOException
+	    {
+		if(type == RequestCodec.ENTRY)
+		{
+		    String name = RequestCodec.getString(frame);
+		    size = frame.getLong();
+		    position = frame.getLong();
+		    content = RequestCodec.getString(frame);
+		    if(current != null || !requested.contains(name) || position < 0 || position > size)
+		    {
+			throw new ProtocolException("Nieoczekiwany plik: " + name);
+		    }
+
+		    current = name;
+		    part = new File(directory, name + PART_SUFFIX);
+		    channel = openPart(part, position);
+		    return false;
+		}
+
+		if(type == RequestCodec.CHUNK)
+		{
+		    long offset = frame.getLong();
+		    int length = frame.getInt();
+		    int checksum = frame.getInt();
+		    if(current == null || offset != position || length < 0 || length > RequestCodec.CHUNK_SIZE
+			    || offset + length > size)
+		    {
+			throw new ProtocolException("Nieoczekiwana czesc pliku: " + offset);
+		    }
+
+		    // Bajty czci s odczytywane nawet jeeli nie da si ich zapisa, inaczej kolejne
+		    // odpowiedzi zostayby odczytane bdnie.
+		    if(chunk == null)
+		    {
+			chunk = ByteBuffer.allocate(RequestCodec.CHUNK_SIZE);
+		    }
+		    in.readFully(chunk.array(), 0, length);
+		    chunk.clear().limit(length);
+		    position += length;
+		    if(channel != null)
+		    {
+			writeChunk(offset, checksum);
+		    }
+		    return false;
+		}
+
+		if(type == RequestCodec.ENTRY_END)
+		{
+		    if(current == null)
+		    {
+			throw new ProtocolException("Nieoczekiwany koniec pliku!");
+		    }
+
+		    String error = RequestCodec.getString(frame);
+		    boolean complete = channel != null && position == size;
+		    closed();
+		    if(error == null && complete && commitPart(part, new File(directory, current), content))
+		    {
+			saved.put(current, content);
+		    }
+		    current = null;
+		    return false;
+		}
+
+		expect(type, RequestCodec.OK);
+		future.complete(saved);
+		return true;
+	    }
+
+	    /**
+	     * Zapisuje odebran cz do pliku tymczasowego. Po bdnej czci plik jest skracany do jej
+	     * pocztku, a pozostae czci pliku s pomijane.
+	     */
+	    private void writeChunk(long offset, int checksum)
+	    {
+		try
+		{
+		    if(RequestCodec.checksum(chunk) != checksum)
+		    {
+			System.out.println("Bledna suma kontrolna pliku " + current + " na pozycji " + offset);
+			channel.truncate(offset);
+			closed();
+			return;
+		    }
+		    while(chunk.hasRemaining())
+		    {
+			channel.write(chunk, offset + chunk.position());
+		    }
+		}
+		catch(IOException e)
+		{
+		    e.printStackTrace();
+		    closed();
+		}
+	    }
+
+	    @Override
+	    void closed()
+	    {
+		if(channel != null)
+		{
+		    closeQuietly(channel);
+		    channel = null;
+		}
+	    }
+	});
+    }
+
+    /**
+     * Wysya Request "upload", a zaraz po nim strumie z plikami wymienionymi w Requecie. Kady plik
+     * jest wysyany od pozycji podanej w Requecie (getOffsets()), razem ze skrtem zawartoci (getContents()),
+     * dziki czemu serwer moe wznowi przerwane wysyanie. Plik, ktrego nie udao si odczyta w caoci,
+     * jest oznaczany bdem i odrzucany przez serwer. Request naley wysa poczeniem zwrconym przez transfer().
+     * @param r Request do wysania, zawierajcy list plikw.
+     * @param directory Folder, z ktrego odczytywane s pliki.
+     * @return Obiekt, ktry zostanie zakoczony po potwierdzeniu odebrania plikw przez serwer.
+     * @throws IOException W przypadku bdu wysyania.
+     */
+    public CompletableFuture<Void> upload(Request r, String directory) throws IOException
+    {
+	return submit(r, new Pending<Void>() {
+	    @Override
+	    void writeBody(OutputStream out) throws IOException
+	    {
+		ArrayList<String> files = r.getFiles();
+		ArrayList<String> contents = r.getContents();
+		ArrayList<Long> offsets = r.getOffsets();
+		for(int i=0;i<files.size();i++)
+		{
+		    sendFile(out, r.getRequestId(), files.get(i), new File(directory, files.get(i)),
+			    i < contents.size() ? contents.get(i) : null, i < offsets.size() ? offsets.get(i) : 0);
+		}
+		out.flush();
+	    }
+
+	    @Override
+	    boolean handle(byte type, ByteBuffer frame, DataInputStream in) throws IOException
+	    {
+		expect(type, RequestCodec.OK);
+		future.complete(null);
+		return true;
+	    }
+	});
+    }
+
+    /**
+     * Wysya Request "delta", a zaraz po nim strumie z rnicami plikw wzgldem ich wersji na serwerze.
+     * Lista skrtw Requesta (getContents()) zawiera skrty wersji na serwerze, z ktrych pochodz sygnatury.
+     * Plik, dla ktrego nie da si obliczy rnicy, jest wysyany w caoci. Request naley wysa
+     * poczeniem zwrconym przez transfer().
+     * @param r Request do wysania, zawierajcy list plikw.
+     * @param directory Folder, z ktrego odczytywane s pliki.
+     * @param bases Sygnatury wersji plikw na serwerze, w kolejnoci plikw Requesta.
+     * @param contents Skrty zawartoci nowych wersji plikw, w kolejnoci plikw Requesta.
+     * @return Obiekt, ktry zostanie zakoczony po potwierdzeniu odebrania plikw przez serwer.
+     * @throws IOException W przypadku bdu wysyania.
+     */
+    public CompletableFuture<Void> delta(Request r, String directory, List<BlockSignatures> bases, List<String> contents)
+	    throws IOException
+    {
+	return submit(r, new Pending<Void>() {
+	    @Override
+	    void writeBody(OutputStream out) throws IOException
+	    {
+		ArrayList<String> files = r.getFiles();
+		for(int i=0;i<files.size();i++)
+		{
+		    File file = new File(directory, files.get(i));
+		    long sent = -1;
+		    FileChannel channel = null;
+		    try
+		    {
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		    }
+		    catch(IOException e)
+		    {
+			// Bd odczytu zostanie zgoszony serwerowi przy wysyaniu caego pliku.
+		    }
+		    if(channel != null)
+		    {
+			try
+			{
+			    sent = DeltaEncoder.send(out, r.getRequestId(), files.get(i), channel, contents.get(i),
+				    bases.get(i));
+			}
+			finally
+			{
+			    closeQuietly(channel);
+			}
+		    }
+
+		    if(sent < 0)
+		    {
+			sendFile(out, r.getRequestId(), files.get(i), file, contents.get(i), 0);
+		    }
+		}
+		out.flush();
+	    }
+
+	    @Override
+	    boolean handle(byte type, ByteBuffer frame, DataInputStream in) throws IOException
+	    {
+		expect(type, RequestCodec.OK);
+		future.complete(null);
+		return true;
+	    }
+	});
+    }
+
+    /**
+     * Wysya Request, na ktry serwer odpowiada jedynie potwierdzeniem ("share").
+     * @param r Request do wysania.
+     * @return Obiekt, ktry zostanie zakoczony po odebraniu potwierdzenia.
+     * @throws IOException W przypadku bdu wysyania.
+     */
+    public CompletableFuture<Void> send(Request r) throws IOException
+    {
+	return submit(r, new Pending<Void>() {
+	    @Override
+	    boolean handle(byte type, ByteBuffer frame, DataInputStream in) throws IOException
+	    {
+		expect(type, RequestCodec.OK);
+		future.complete(null);
+		return true;
+	    }
+	});
+    }
+
+    private <T> CompletableFuture<T> submit(Request r, Pending<T> p) throws IOException
+    {
+	int id = nextId.incrementAndGet();
+	r.setRequestId(id);
+	pending.put(id, p);
+
+	try
+	{
+	    synchronized(out)
+	    {
+		RequestCodec.write(r, out);
+		p.writeBody(out);
+	    }
+	}
+	catch(IOException e)
+	{
+	    pending.remove(id);
+	    close(e);
+	    throw e;
+	}
+
+	if(transfer)
+	{
+	    // Odpowied zostanie odebrana rwnie wtedy, gdy poczenie wysya ju kolejny strumie.
+	    synchronized(idleTransfers)
+	    {
+		idleTransfers.add(this);
+	    }
+	}
+	return p.future;
+    }
+
+    /**
+     * Odczytuje odpowiedzi serwera i przekazuje je do Requestw na ktre odpowiadaj.
+     */
+    @Override
+    public void run()
+    {
+	try
+	{
+	    while(open)
+	    {
+		ByteBuffer frame = RequestCodec.readFrame(in);
+		byte type = frame.get();
+		int id = frame.getInt();
+
+		Pending<?> p = pending.get(id);
+		if(p == null)
+		{
+		    throw new ProtocolException("Odpowiedz na nieznany request: " + id);
+		}
+
+		if(type == RequestCodec.ERROR)
+		{
+		    pending.remove(id);
+		    p.future.completeExceptionally(new IOException(RequestCodec.getString(frame)));
+		}
+		else
+		{
+		    try
+		    {
+			if(p.handle(type, frame, in))
+			{
+			    pending.remove(id);
+			}
+		    }
+		    catch(IOException e)
+		    {
+			pending.remove(id);
+			p.closed();
+			p.future.completeExceptionally(e);
+			throw e;
+		    }
+		}
+	    }
+	}
+	catch(IOException e)
+	{
+	    close(e);
+	}
+	catch(RuntimeException e)
+	{
+	    close(new ProtocolException(e.toString()));
+	}
+    }
+
+    /**
+     * Otwiera plik tymczasowy pobieranego pliku i skraca go do pozycji od ktrej serwer wysya czci.
+     * @param part Plik tymczasowy.
+     * @param offset Pozycja pierwszej czci.
+     * @return Kana pliku, lub null jeeli nie da si go otworzy albo jest krtszy ni offset.
+     */
+    private static FileChannel openPart(File part, long offset)
+    {
+	FileChannel channel = null;
+	try
+	{
+	    channel = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	    if(channel.size() < offset)
+	    {
+		closeQuietly(channel);
+		return null;
+	    }
+	    channel.truncate(offset);
+	    return channel;
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	    if(channel != null)
+	    {
+		closeQuietly(channel);
+	    }
+	    return null;
+	}
+    }
+
+    /**
+     * Sprawdza skrt zawartoci odebranego pliku i przenosi plik tymczasowy pod docelow nazw.
+     * Plik tymczasowy z bdn zawartoci jest usuwany, aby kolejne pobieranie zaczo si od pocztku.
+     * @param part Plik tymczasowy ze wszystkimi czciami pliku.
+     * @param file Plik docelowy.
+     * @param content Skrt zawartoci podany przez serwer, lub null jeeli serwer go nie zna.
+     * @return true jeeli plik zosta zapisany.
+     */
+    private static boolean commitPart(File part, File file, String content)
+    {
+	try
+	{
+	    if(content != null && !content.equals(ContentHash.of(part)))
+	    {
+		System.out.println("Zawartosc pliku " + file.getName() + " nie zgadza sie ze skrotem");
+		Files.deleteIfExists(part.toPath());
+		return false;
+	    }
+	    Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	    return true;
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	    return false;
+	}
+    }
+
+    /**
+     * Wysya nagwek pliku, czci pliku od pozycji offset i ramk koczc. Jeeli pliku nie da si
+     * odczyta w caoci, wysyanie koczy si na ostatniej odczytanej czci, a ramka koczca zawiera
+     * opis bdu.
+     * @param out Strumie poczenia.
+     * @param requestId Identyfikator Requesta "upload".
+     * @param name Nazwa pliku.
+     * @param file Plik do wysania.
+     * @param content Skrt zawartoci pliku, lub null.
+     * @param offset Pozycja od ktrej serwer oczekuje pliku.
+     * @throws IOException W przypadku bdu zapisu do poczenia.
+     */
+    private static void sendFile(OutputStream out, int requestId, String name, File file, String content, long offset)
+	    throws IOException
+    {
+	FileChannel channel = null;
+	long size = 0;
+	String error = null;
+	try
+	{
+	    channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	    size = channel.size();
+	}
+	catch(IOException e)
+	{
+	    error = "Blad odczytu pliku: " + name;
+	}
+	offset = Math.min(offset, size);
+
+	writeFrame(out, RequestCodec.encodeEntryHeader(requestId, name, size, offset, content));
+
+	ByteBuffer chunk = null;
+	for(long position=offset;error == null && position < size;position+=RequestCodec.CHUNK_SIZE)
+	{
+	    int length = (int) Math.min(RequestCodec.CHUNK_SIZE, size - position);
+	    if(chunk == null)
+	    {
+		chunk = ByteBuffer.allocate(RequestCodec.CHUNK_SIZE);
+	    }
+	    chunk.clear().limit(length);
+	    try
+	    {
+		while(chunk.hasRemaining())
+		{
+		    if(channel.read(chunk, position + chunk.position()) < 0)
+		    {
+			throw new EOFException();
+		    }
+		}
+	    }
+	    catch(IOException e)
+	    {
+		error = "Blad odczytu pliku: " + name;
+		break;
+	    }
+
+	    chunk.flip();
+	    writeFrame(out, RequestCodec.encodeChunk(requestId, position, length, RequestCodec.checksum(chunk)));
+	    out.write(chunk.array(), 0, length);
+	}
+
+	if(channel != null)
+	{
+	    closeQuietly(channel);
+	}
+
+	writeFrame(out, RequestCodec.encodeEntryEnd(requestId, error));
+    }
+
+    static void writeFrame(OutputStream out, ByteBuffer frame) throws IOException
+    {
+	out.write(frame.array(), 0, frame.limit());
+    }
+
+    private static void closeQuietly(Closeable stream)
+    {
+	try
+	{
+	    stream.close();
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+    }
+
+    /**
+     * Zamyka poczenie i koczy bdem wszystkie Requesty oczekujce na odpowied.
+     * @param cause Przyczyna zamknicia poczenia.
+     */
+    private void close(IOException cause)
+    {
+	open = false;
+
+	try
+	{
+	    socket.close();
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+
+	for(Integer id:pending.keySet())
+	{
+	    Pending<?> p = pending.remove(id);
+	    if(p != null)
+	    {
+		p.closed();
+		p.future.completeExceptionally(cause);
+	    }
+	}
+    }
+
+    /**
+     * Request oczekujcy na odpowied serwera.
+     * @param <T> Typ wyniku odpowiedzi.
+     */
+    private abstract static class Pending<T>
+    {
+	CompletableFuture<T> future = new CompletableFuture<T>();
+
+	/**
+	 * Wysya dane przesyane bezporednio po Requecie, np. strumie plikw.
+	 * Wywoywana w trakcie wysyania Requesta, przy zajtym poczeniu.
+	 * @param out Strumie poczenia.
+	 * @throws IOException W przypadku bdu zapisu.
+	 */
+	void writeBody(OutputStream out) throws IOException
+	{
+	}
+
+	/**
+	 * Obsuguje odpowied serwera. Wywoywana w wtku odczytujcym odpowiedzi.
+	 * Odpowied na jeden Request moe skada si z wielu ramek, np. przy pobieraniu plikw.
+	 * @param type Rodzaj odpowiedzi.
+	 * @param frame Ramka odpowiedzi, pozycja wskazuje tre zalen od rodzaju odpowiedzi.
+	 * @param in Strumie poczenia, z ktrego mona odczyta dane przesyane po ramce.
+	 * @return true jeeli bya to ostatnia ramka odpowiedzi.
+	 * @throws IOException W przypadku bdu, po ktrym dalsza komunikacja nie jest moliwa.
+	 */
+	abstract boolean handle(byte type, ByteBuffer frame, DataInputStream in) throws IOException;
+
+	/**
+	 * Zwalnia zasoby Requesta, np. otwarte pliki, gdy odpowied nie zostanie ju odebrana.
+	 */
+	void closed()
+	{
+	}
+
+	void expect(byte type, byte expected) throws ProtocolException
+	{
+	    if(type != expected)
+	    {
+		throw new ProtocolException("Nieoczekiwany rodzaj odpowiedzi: " + type);
+	    }
+	}
+    }
+
+}
@@ -0,0 +1,127 @@
+package client;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import request.CatalogChanges;
+import request.Request;
+
+/**
+ * Klasa przeznaczona do uruchomienia jako wtek oczekujcy na zmiany plikw uytkownika na serwerze, np.
+ * plik udostpniony przez innego uytkownika, lub wysany z innego komputera. Po uruchomieniu synchronizuje
+ * folder, a nastpnie wysya Request "watch" z ostatni znan wersj katalogu, na ktry serwer odpowiada
+ * dopiero po zmianie plikw uytkownika (lub po upywie czasu oczekiwania, bez zmian), i od razu wysya kolejny. Dziki temu zmiany
+ * na serwerze s synchronizowane zaraz po ich wystpieniu, a bezczynny klient nie pyta serwera o list plikw.
+ * ServerWatcher czeka na zakoczenie synchronizacji (Listener), dlatego zmiany zgoszone w jej trakcie s
+ * synchronizowane razem, po jej zakoczeniu.
+ * Po zerwaniu poczenia, lub gdy serwer nie podaje wersji katalogu (np. zaraz po uruchomieniu), kolejny
+ * Request jest wysyany po przerwie, ktra ronie dwukrotnie po kadej prbie (od RETRY_DELAY do MAX_RETRY_DELAY).
+ * @author Sebastian Paweoszek
+ *
+ */
+public class ServerWatcher implements Runnable {
+
+    static final long RETRY_DELAY = 1000;
+    static final long MAX_RETRY_DELAY = 30000;
+
+    /**
+     * Odbiorca zmian na serwerze. Metoda jest wywoywana w wtku ServerWatcher, np. zleca synchronizacj
+     * kolejce SyncScheduler i czeka na jej zakoczenie.
+     */
+    public interface Listener
+    {
+	/**
+	 * Wywoywana po uruchomieniu wtku, oraz gdy pliki uytkownika na serwerze zmieniy si od ostatniej
+	 * synchronizacji. Powinna zsynchronizowa folder przed powrotem.
+	 */
+	void serverChanged();
+    }
+
+    private String username;
+    private String directory;
+    private Listener listener;
+    private volatile boolean on = true;
+    private volatile Thread thread;
+
+    /**
+     * @param username Nasz pseudonim po ktrym jestemy identyfikowani przez serwer.
+     * @param directory Sciezka do folderu z naszymi plikami, ktrego manifest zawiera wersj katalogu.
+     * @param listener Odbiorca zmian.
+     */
+    public ServerWatcher(String username, String directory, Listener listener)
+    {
+	this.username = username;
+	this.directory = directory;
+	this.listener = listener;
+    }
+
+    @Override
+    public void run()
+    {
+	thread = Thread.currentThread();
+	listener.serverChanged();
+	SyncManifest manifest = SyncManifest.of(directory);
+	long epoch = manifest.knownEpoch(username);
+	long version = manifest.knownVersion(username);
+	long delay = RETRY_DELAY;
+	while(on)
+	{
+	    try
+	    {
+		Request r = new Request(username, "watch");
+		r.setKnownVersion(epoch, version);
+		CatalogChanges changes = ServerConnection.get().requestChanges(r).get();
+		if(changes.getEpoch() == 0)
+		{
+		    // Serwer nie wczyta jeszcze katalogu i nie moe poda zmian.
+		    Thread.sleep(delay);
+		    delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+		    continue;
+		}
+		delay = RETRY_DELAY;
+
+		if(changes.isFull() || !changes.getFiles().isEmpty())
+		{
+		    listener.serverChanged();
+		}
+		epoch = changes.getEpoch();
+		version = changes.getVersion();
+	    }
+	    catch(IOException | ExecutionException e)
+	    {
+		if(!on)
+		{
+		    break;
+		}
+		System.out.println("Brak polaczenia z serwerem, ponowna proba za " + delay / 1000 + " s");
+		try
+		{
+		    Thread.sleep(delay);
+		}
+		catch(InterruptedException e1)
+		{
+		    break;
+		}
+		delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+	    }
+	    catch(InterruptedException e)
+	    {
+		break;
+	    }
+	}
+    }
+
+    /**
+     * Zatrzymuje wtek.
+     */
+    public void shutdown()
+    {
+	on = false;
+	Thread t = thread;
+	if(t != null)
+	{
+	    t.interrupt();
+	}
+    }
+
+}
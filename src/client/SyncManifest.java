@@ -0,0 +1,483 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import request.ContentHash;
+
+/**
+ * Manifest folderu uytkownika: dla kadego pliku rozmiar i czas modyfikacji, skrt zawartoci obliczony
+ * dla tego rozmiaru i czasu, oraz skrt zawartoci z ostatniej udanej synchronizacji pliku z serwerem.
+ * Manifest jest zapisywany w obserwowanym folderze (FILE_NAME), dziki czemu po ponownym uruchomieniu
+ * klienta skrty niezmienionych plikw nie s obliczane ponownie, a FileSynchronizer nadal potrafi odrni
+ * plik zmieniony u nas od pliku zmienionego na serwerze.
+ * Skrty plikw, ktrych rozmiar lub czas modyfikacji si zmieni, s obliczane rwnolegle.
+ * Manifest przechowuje te wersj katalogu uytkownika na serwerze z ostatniej udanej synchronizacji
+ * (CatalogChanges), dziki ktrej serwer przysya tylko pliki zmienione od tamtej pory. Wersja jest
+ * zapominana, jeeli z folderu znikn zsynchronizowany plik, poniewa musi on zosta pobrany ponownie,
+ * a serwer nie poda go wrd zmian.
+ * Jeden obiekt na folder jest wspdzielony przez wszystkie wtki FileSynchronizer (metoda of()).
+ * @author Sebastian Paweoszek
+ *
+ */
+public class SyncManifest {
+
+    /**
+     * Nazwa pliku manifestu w folderze uytkownika.
+     */
+    static final String FILE_NAME = ".sync-manifest";
+    private static final String TMP_NAME = FILE_NAME + ".tmp";
+
+    private static final int MAGIC = 0x53594e43;
+    private static final int VERSION = 2;
+
+    private static HashMap<String, SyncManifest> manifests = new HashMap<String, SyncManifest>();
+
+    private String directory;
+    private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    private boolean changed;
+    private String catalogUser;
+    private long catalogEpoch;
+    private long catalogVersion;
+
+    private SyncManifest(String directory)
+    {
+	this.directory = directory;
+    }
+
+    /**
+     * Zwraca manifest folderu, przy pierwszym wywoaniu odczytujc go z dysku. Manifest, ktrego nie da si
+     * odczyta, jest tworzony od nowa.
+     * @param directory Folder uytkownika.
+     * @return Manifest folderu.
+     */
+    public static synchronized SyncManifest of(String directory)
+    {
+	String key = new File(directory).getAbsolutePath();
+	SyncManifest manifest = manifests.get(key);
+	if(manifest == null)
+	{
+	    manifest = new SyncManifest(directory);
+	    manifest.load();
+	    manifests.put(key, manifest);
+	}
+	return manifest;
+    }
+
+    /**
+     * Sprawdza czy plik naley do manifestu i nie powinien by synchronizowany.
+     * @param name Nazwa pliku w folderze uytkownika.
+     */
+    static boolean isManifestFile(String name)
+    {
+	return FILE_NAME.equals(name) || TMP_NAME.equals(name);
+    }
+
+    /**
+     * Uaktualnia manifest do obecnego stanu plikw. Pliki spoza listy s usuwane z manifestu, a skrty
+     * s obliczane tylko dla plikw nowych, plikw ktrych rozmiar lub czas modyfikacji si zmieni, oraz
+     * plikw ktrych poprzednio nie udao si odczyta.
+     * @param names Lista plikw w folderze.
+     */
+    public void refresh(List<String> names)
+    {
+	ArrayList<String> stale = new ArrayList<String>();
+	ArrayList<BasicFileAttributes> attributes = new ArrayList<BasicFileAttributes>();
+	synchronized(this)
+	{
+	    HashSet<String> present = new HashSet<String>(names);
+	    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+	    while(it.hasNext())
+	    {
+		Map.Entry<String, Entry> e = it.next();
+		if(!present.contains(e.getKey()))
+		{
+		    removed(e.getValue());
+		    it.remove();
+		}
+	    }
+
+	    for(String name:names)
+	    {
+		BasicFileAttributes a = attributes(name);
+		Entry entry = entries.get(name);
+		if(a == null)
+		{
+		    if(entry != null)
+		    {
+			removed(entry);
+			entries.remove(name);
+		    }
+		}
+		else if(entry == null || entry.content == null || entry.size != a.size()
+			|| entry.modified != a.lastModifiedTime().toMillis())
+		{
+		    stale.add(name);
+		    attributes.add(a);
+		}
+	    }
+	}
+	if(stale.isEmpty())
+	{
+	    return;
+	}
+
+	ExecutorService executor = Executors.newFixedThreadPool(Math.min(stale.size(),
+		Runtime.getRuntime().availableProcessors()));
+	ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+	for(String name:stale)
+	{
+	    results.add(executor.submit(new Callable<String>() {
+		@Override
+		public String call() throws IOException {
+		    return ContentHash.of(new File(directory, name));
+		}
+	    }));
+	}
+
+	for(int i=0;i<stale.size();i++)
+	{
+	    String content;
+	    try
+	    {
+		content = results.get(i).get();
+	    }
+	    catch(InterruptedException e)
+	    {
+		Thread.currentThread().interrupt();
+		break;
+	    }
+	    catch(ExecutionException e)
+	    {
+		// Pliku nie da si odczyta, skrt zostanie obliczony przy kolejnej synchronizacji.
+		content = null;
+	    }
+	    put(stale.get(i), attributes.get(i), content);
+	}
+	executor.shutdown();
+    }
+
+    /**
+     * @param name Nazwa pliku.
+     * @return Skrt zawartoci pliku, lub null jeeli pliku nie ma w manifecie albo nie da si go odczyta.
+     */
+    public synchronized String content(String name)
+    {
+	Entry entry = entries.get(name);
+	return entry == null ? null : entry.content;
+    }
+
+    /**
+     * Sprawdza czy plik nie zmieni si od ostatniej synchronizacji z serwerem.
+     * @param name Nazwa pliku.
+     * @return true jeeli obecna zawarto pliku jest zawartoci z ostatniej synchronizacji.
+     */
+    public synchronized boolean isSynced(String name)
+    {
+	Entry entry = entries.get(name);
+	return entry != null && entry.content != null && entry.content.equals(entry.synced);
+    }
+
+    /**
+     * Sprawdza czy plik by kiedykolwiek zsynchronizowany z serwerem, czyli czy serwer ma jak jego wersj.
+     * @param name Nazwa pliku.
+     * @return false dla plikw utworzonych w folderze po ostatniej synchronizacji.
+     */
+    public synchronized boolean wasSynced(String name)
+    {
+	Entry entry = entries.get(name);
+	return entry != null && entry.synced != null;
+    }
+
+    /**
+     * Zapamituje obecn zawarto pliku jako zsynchronizowan z serwerem, np. po jego wysaniu.
+     * @param name Nazwa pliku.
+     */
+    public synchronized void markSynced(String name)
+    {
+	Entry entry = entries.get(name);
+	if(entry != null && entry.content != null && !entry.content.equals(entry.synced))
+	{
+	    entry.synced = entry.content;
+	    changed = true;
+	}
+    }
+
+    /**
+     * Zapisuje stan pobranego pliku. Skrt podany przez serwer zosta sprawdzony przy pobieraniu, dlatego
+     * nie jest obliczany ponownie.
+     * @param name Nazwa pliku.
+     * @param content Skrt zawartoci podany przez serwer, lub null jeeli serwer go nie zna.
+     */
+    public void markDownloaded(String name, String content)
+    {
+	BasicFileAttributes a = attributes(name);
+	if(a == null)
+	{
+	    return;
+	}
+	if(content == null)
+	{
+	    rehash(name);
+	}
+	else
+	{
+	    put(name, a, content);
+	}
+	markSynced(name);
+    }
+
+    /**
+     * Oblicza ponownie skrt zawartoci pliku, np. takiego ktrego nie udao si odczyta przy ostatnim
+     * uaktualnieniu manifestu.
+     * @param name Nazwa pliku.
+     * @return Skrt zawartoci, lub null jeeli pliku nadal nie da si odczyta.
+     */
+    public String rehash(String name)
+    {
+	BasicFileAttributes a = attributes(name);
+	if(a == null)
+	{
+	    return null;
+	}
+	try
+	{
+	    String content = ContentHash.of(new File(directory, name));
+	    put(name, a, content);
+	    return content;
+	}
+	catch(IOException e)
+	{
+	    return null;
+	}
+    }
+
+    /**
+     * @param username Uytkownik, ktrego katalog synchronizujemy.
+     * @return Numer katalogu z ostatniej udanej synchronizacji, lub 0 jeeli nie jest znany.
+     */
+    public synchronized long knownEpoch(String username)
+    {
+	return username.equals(catalogUser) ? catalogEpoch : 0;
+    }
+
+    /**
+     * @param username Uytkownik, ktrego katalog synchronizujemy.
+     * @return Wersja katalogu uytkownika z ostatniej udanej synchronizacji.
+     */
+    public synchronized long knownVersion(String username)
+    {
+	return username.equals(catalogUser) ? catalogVersion : 0;
+    }
+
+    /**
+     * Zapamituje wersj katalogu, z ktr folder zosta w caoci zsynchronizowany.
+     * @param username Uytkownik, ktrego katalog synchronizujemy.
+     * @param epoch Numer katalogu podany przez serwer.
+     * @param version Wersja katalogu uytkownika podana przez serwer.
+     */
+    public synchronized void setKnownVersion(String username, long epoch, long version)
+    {
+	if(!username.equals(catalogUser) || catalogEpoch != epoch || catalogVersion != version)
+	{
+	    catalogUser = username;
+	    catalogEpoch = epoch;
+	    catalogVersion = version;
+	    changed = true;
+	}
+    }
+
+    /**
+     * Zapomina wersj katalogu, np. po nieudanej synchronizacji. Kolejna synchronizacja porwna pen list
+     * plikw serwera.
+     */
+    public synchronized void forgetKnownVersion()
+    {
+	if(catalogUser != null)
+	{
+	    catalogUser = null;
+	    catalogEpoch = 0;
+	    catalogVersion = 0;
+	    changed = true;
+	}
+    }
+
+    /**
+     * Zapisuje manifest w folderze uytkownika, jeeli zmieni si od ostatniego zapisu. Manifest jest
+     * zapisywany do pliku tymczasowego i podmieniany, dziki czemu przerwany zapis nie niszczy poprzedniej wersji.
+     */
+    public synchronized void save()
+    {
+	if(!changed)
+	{
+	    return;
+	}
+
+	File tmp = new File(directory, TMP_NAME);
+	try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+	{
+	    out.writeInt(MAGIC);
+	    out.writeInt(VERSION);
+	    out.writeUTF(catalogUser == null ? "" : catalogUser);
+	    out.writeLong(catalogEpoch);
+	    out.writeLong(catalogVersion);
+	    out.writeInt(entries.size());
+	    for(Map.Entry<String, Entry> e:entries.entrySet())
+	    {
+		out.writeUTF(e.getKey());
+		out.writeLong(e.getValue().size);
+		out.writeLong(e.getValue().modified);
+		writeHash(out, e.getValue().content);
+		writeHash(out, e.getValue().synced);
+	    }
+	}
+	catch(IOException e)
+	{
+	    System.out.println("Nie mozna zapisac manifestu folderu!");
+	    tmp.delete();
+	    return;
+	}
+
+	try
+	{
+	    Files.move(tmp.toPath(), new File(directory, FILE_NAME).toPath(), StandardCopyOption.REPLACE_EXISTING,
+		    StandardCopyOption.ATOMIC_MOVE);
+	    changed = false;
+	}
+	catch(IOException e)
+	{
+	    System.out.println("Nie mozna zapisac manifestu folderu!");
+	}
+    }
+
+    /**
+     * Usunicie z folderu zsynchronizowanego pliku uniewania wersj katalogu.
+     */
+    private void removed(Entry entry)
+    {
+	changed = true;
+	if(entry.synced != null)
+	{
+	    forgetKnownVersion();
+	}
+    }
+
+    private synchronized void put(String name, BasicFileAttributes a, String content)
+    {
+	Entry entry = entries.get(name);
+	if(entry == null)
+	{
+	    entry = new Entry();
+	    entries.put(name, entry);
+	}
+	entry.size = a.size();
+	entry.modified = a.lastModifiedTime().toMillis();
+	entry.content = content;
+	changed = true;
+    }
+
+    private BasicFileAttributes attributes(String name)
+    {
+	try
+	{
+	    BasicFileAttributes a = Files.readAttributes(new File(directory, name).toPath(), BasicFileAttributes.class);
+	    return a.isRegularFile() ? a : null;
+	}
+	catch(IOException e)
+	{
+	    return null;
+	}
+    }
+
+    private void load()
+    {
+	try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+		new FileInputStream(new File(directory, FILE_NAME)))))
+	{
+	    if(in.readInt() != MAGIC)
+	    {
+		throw new IOException("Nieznany format manifestu");
+	    }
+	    int version = in.readInt();
+	    if(version < 1 || version > VERSION)
+	    {
+		throw new IOException("Nieznany format manifestu");
+	    }
+	    if(version >= 2)
+	    {
+		String user = in.readUTF();
+		catalogUser = user.isEmpty() ? null : user;
+		catalogEpoch = in.readLong();
+		catalogVersion = in.readLong();
+	    }
+	    int count = in.readInt();
+	    for(int i=0;i<count;i++)
+	    {
+		String name = in.readUTF();
+		Entry entry = new Entry();
+		entry.size = in.readLong();
+		entry.modified = in.readLong();
+		entry.content = readHash(in);
+		entry.synced = readHash(in);
+		entries.put(name, entry);
+	    }
+	}
+	catch(FileNotFoundException e)
+	{
+	    // Pierwsza synchronizacja folderu.
+	}
+	catch(IOException e)
+	{
+	    System.out.println("Nie mozna odczytac manifestu folderu, skroty plikow zostana obliczone ponownie.");
+	    entries.clear();
+	    catalogUser = null;
+	    catalogEpoch = 0;
+	    catalogVersion = 0;
+	}
+    }
+
+    private static void writeHash(DataOutputStream out, String hash) throws IOException
+    {
+	out.writeUTF(hash == null ? "" : hash);
+    }
+
+    private static String readHash(DataInputStream in) throws IOException
+    {
+	String hash = in.readUTF();
+	return hash.isEmpty() ? null : hash;
+    }
+
+    /**
+     * Stan jednego pliku w manifecie.
+     */
+    private static class Entry
+    {
+	long size;
+	long modified;
+	String content;
+	String synced;
+    }
+
+}
@@ -0,0 +1,127 @@
+package client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Kolejka synchronizacji folderu, przez ktr przechodz wszystkie jej wyzwalacze: zmiany w folderze
+ * (FolderWatcher), zmiany na serwerze (ServerWatcher) i przycisk "Odswiez". Synchronizacje s wykonywane
+ * po kolei, w jednym wtku FileSynchronizer, dlatego dwie synchronizacje nie pobieraj naraz tych samych
+ * plikw i nie zapisuj tego samego pliku tymczasowego.
+ * dania zgoszone w trakcie synchronizacji (np. zmiany w folderze spowodowane pobieraniem plikw)
+ * oznaczaj folder jako zmieniony i s czone w jedn kolejn synchronizacj, wykonywan po zakoczeniu
+ * biecej.
+ * @author Sebastian Paweoszek
+ *
+ */
+class SyncScheduler {
+
+    private Runnable sync;
+    private long requested = 0;
+    private long finished = 0;
+    private boolean running = false;
+    private ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	@Override
+	public Thread newThread(Runnable r) {
+	    Thread t = new Thread(r, "FileSynchronizer");
+	    t.setDaemon(true);
+	    return t;
+	}
+    });
+
+    /**
+     * @param sync Zadanie synchronizujce folder, np. uruchamiajce nowy FileSynchronizer.
+     */
+    SyncScheduler(Runnable sync)
+    {
+	this.sync = sync;
+    }
+
+    /**
+     * Zgasza potrzeb synchronizacji folderu i wraca od razu. Jeeli synchronizacja wanie trwa,
+     * folder zostanie zsynchronizowany ponownie po jej zakoczeniu.
+     */
+    void request()
+    {
+	ticket();
+    }
+
+    /**
+     * Zgasza potrzeb synchronizacji folderu i czeka, a zakoczy si synchronizacja rozpoczta
+     * po zgoszeniu.
+     * @throws InterruptedException Jeeli wtek zosta przerwany w trakcie oczekiwania.
+     */
+    void syncAndWait() throws InterruptedException
+    {
+	long ticket = ticket();
+	synchronized(this)
+	{
+	    while(finished < ticket)
+	    {
+		wait();
+	    }
+	}
+    }
+
+    /**
+     * Zatrzymuje wtek synchronizacji. Trwajca synchronizacja zostanie dokoczona.
+     */
+    void shutdown()
+    {
+	executor.shutdown();
+    }
+
+    private synchronized long ticket()
+    {
+	requested++;
+	if(!running)
+	{
+	    running = true;
+	    executor.execute(new Runnable() {
+		@Override
+		public void run() {
+		    drain();
+		}
+	    });
+	}
+	return requested;
+    }
+
+    /**
+     * Synchronizuje folder dopki s niezrealizowane dania. Jedna synchronizacja realizuje wszystkie
+     * dania zgoszone przed jej rozpoczciem.
+     */
+    private void drain()
+    {
+	while(true)
+	{
+	    long covered;
+	    synchronized(this)
+	    {
+		if(finished == requested)
+		{
+		    running = false;
+		    return;
+		}
+		covered = requested;
+	    }
+
+	    try
+	    {
+		sync.run();
+	    }
+	    catch(RuntimeException e)
+	    {
+		e.printStackTrace();
+	    }
+
+	    synchronized(this)
+	    {
+		finished = covered;
+		notifyAll();
+	    }
+	}
+    }
+
+}
@@ -0,0 +1,241 @@
+package client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Harmonogram przesyania plikw, wspdzielony przez wszystkie wtki FileSynchronizer. Lista plikw jest
+ * dzielona na partie (najwyej BATCH_FILES plikw i BATCH_BYTES bajtw), a kada partia jest przesyana
+ * osobnym Requestem, w osobnym wtku. Dziki temu pobieranie i wysyanie plikw odbywa si rwnolegle.
+ * Liczba jednoczenie przesyanych partii oraz suma rozmiarw ich plikw s ograniczone. Limity mona
+ * zmieni argumentami "--transfers.max" i "--transfers.memory" (w MB).
+ * Pliki, ktrych nie udao si przesa, s przesyane ponownie po przerwie, ktra ronie dwukrotnie po
+ * kadej prbie (od RETRY_DELAY do MAX_RETRY_DELAY), najwyej MAX_ATTEMPTS razy. Bd jednej partii nie
+ * przerywa pozostaych.
+ * @author Sebastian Paweoszek
+ *
+ */
+class TransferScheduler {
+
+    static final int BATCH_FILES = 64;
+    static final long BATCH_BYTES = 16 * 1024 * 1024;
+    static final int MAX_ATTEMPTS = 4;
+    static final long RETRY_DELAY = 500;
+    static final long MAX_RETRY_DELAY = 8000;
+
+    /**
+     * Przesanie jednej partii plikw, np. jeden Request "download" lub "upload".
+     */
+    interface Transfer
+    {
+	/**
+	 * @param files Pliki partii.
+	 * @return Pliki, ktrych nie udao si przesa i ktre naley przesa ponownie.
+	 * @throws IOException W przypadku bdu caej partii, np. zerwania poczenia. Ponownie przesyane
+	 * s wtedy wszystkie pliki partii.
+	 */
+	List<String> transfer(List<String> files) throws IOException;
+    }
+
+    private static int maxTransfers = 4;
+    private static int maxMemory = 64;
+    private static TransferScheduler instance;
+
+    private Semaphore transfers;
+    private Semaphore kilobytes;
+    private int maxKilobytes;
+    private Random random = new Random();
+    private ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+	@Override
+	public Thread newThread(Runnable r) {
+	    Thread t = new Thread(r, "Transfer");
+	    t.setDaemon(true);
+	    return t;
+	}
+    });
+
+    private TransferScheduler(int maxTransfers, int maxMemory)
+    {
+	this.transfers = new Semaphore(maxTransfers);
+	this.maxKilobytes = maxMemory * 1024;
+	this.kilobytes = new Semaphore(maxKilobytes);
+    }
+
+    /**
+     * Ustawia limity na podstawie nazwanych argumentw aplikacji. Musi zosta wywoana przed pierwszym
+     * przesaniem plikw.
+     * @param parameters Nazwane argumenty, np. wynik metody getParameters().getNamed().
+     */
+    static synchronized void configure(Map<String, String> parameters)
+    {
+	maxTransfers = Math.max(1, intParameter(parameters, "transfers.max", maxTransfers));
+	maxMemory = Math.max(1, intParameter(parameters, "transfers.memory", maxMemory));
+    }
+
+    /**
+     * @return Harmonogram wspdzielony przez wszystkie wtki.
+     */
+    static synchronized TransferScheduler get()
+    {
+	if(instance == null)
+	{
+	    instance = new TransferScheduler(maxTransfers, maxMemory);
+	}
+	return instance;
+    }
+
+    /**
+     * Dzieli pliki na partie i rozpoczyna ich przesyanie. Metoda nie czeka na zakoczenie przesyania.
+     * @param files Pliki do przesania.
+     * @param sizes Rozmiary plikw, w kolejnoci plikw, lub null jeeli nie s znane (np. przy pobieraniu).
+     * Wtedy ograniczana jest tylko liczba jednoczenie przesyanych partii.
+     * @param transfer Przesanie jednej partii.
+     * @return Obiekt, ktry zostanie zakoczony po przesaniu wszystkich partii, z list plikw ktrych nie
+     * udao si przesa mimo ponawiania.
+     */
+    CompletableFuture<ArrayList<String>> submit(List<String> files, List<Long> sizes, Transfer transfer)
+    {
+	ArrayList<CompletableFuture<ArrayList<String>>> batches = new ArrayList<CompletableFuture<ArrayList<String>>>();
+	ArrayList<String> batch = new ArrayList<String>();
+	long bytes = 0;
+	for(int i=0;i<files.size();i++)
+	{
+	    long size = sizes == null ? 0 : sizes.get(i);
+	    if(!batch.isEmpty() && (batch.size() == BATCH_FILES || bytes + size > BATCH_BYTES))
+	    {
+		batches.add(start(batch, bytes, transfer));
+		batch = new ArrayList<String>();
+		bytes = 0;
+	    }
+	    batch.add(files.get(i));
+	    bytes += size;
+	}
+	if(!batch.isEmpty())
+	{
+	    batches.add(start(batch, bytes, transfer));
+	}
+
+	return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).thenApply(
+		new Function<Void, ArrayList<String>>() {
+		    @Override
+		    public ArrayList<String> apply(Void v) {
+			ArrayList<String> failed = new ArrayList<String>();
+			for(CompletableFuture<ArrayList<String>> b:batches)
+			{
+			    failed.addAll(b.join());
+			}
+			return failed;
+		    }
+		});
+    }
+
+    private CompletableFuture<ArrayList<String>> start(List<String> batch, long bytes, Transfer transfer)
+    {
+	// Plik wikszy ni limit pamici moe by przesyany tylko sam.
+	int cost = (int) Math.min(maxKilobytes, (bytes + 1023) / 1024);
+	return CompletableFuture.supplyAsync(new Supplier<ArrayList<String>>() {
+	    @Override
+	    public ArrayList<String> get() {
+		return transfer(batch, cost, transfer);
+	    }
+	}, executor);
+    }
+
+    /**
+     * Przesya parti, ponawiajc przesanie plikw, ktrych nie udao si przesa.
+     * @return Pliki, ktrych nie udao si przesa w MAX_ATTEMPTS prbach.
+     */
+    private ArrayList<String> transfer(List<String> batch, int cost, Transfer transfer)
+    {
+	List<String> remaining = batch;
+	long delay = RETRY_DELAY;
+	for(int attempt=1;;attempt++)
+	{
+	    try
+	    {
+		transfers.acquire();
+	    }
+	    catch(InterruptedException e)
+	    {
+		return new ArrayList<String>(remaining);
+	    }
+	    try
+	    {
+		kilobytes.acquire(cost);
+	    }
+	    catch(InterruptedException e)
+	    {
+		transfers.release();
+		return new ArrayList<String>(remaining);
+	    }
+
+	    try
+	    {
+		remaining = transfer.transfer(remaining);
+	    }
+	    catch(IOException e)
+	    {
+		System.out.println("Blad przesylania plikow (proba " + attempt + " z " + MAX_ATTEMPTS + "): "
+			+ e.getMessage());
+	    }
+	    catch(RuntimeException e)
+	    {
+		e.printStackTrace();
+	    }
+	    finally
+	    {
+		kilobytes.release(cost);
+		transfers.release();
+	    }
+
+	    if(remaining.isEmpty() || attempt == MAX_ATTEMPTS)
+	    {
+		return new ArrayList<String>(remaining);
+	    }
+
+	    try
+	    {
+		// Losowa cz przerwy sprawia, e partie przerwane jednoczenie nie s ponawiane jednoczenie.
+		Thread.sleep(delay / 2 + (long) (random.nextDouble() * delay / 2));
+	    }
+	    catch(InterruptedException e)
+	    {
+		return new ArrayList<String>(remaining);
+	    }
+	    delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+	}
+    }
+
+    /**
+     * Odczytuje argument liczbowy. W przypadku braku argumentu, lub niepoprawnej wartoci zwraca warto domyln.
+     */
+    private static int intParameter(Map<String, String> parameters, String name, int defaultValue)
+    {
+	String value = parameters.get(name);
+	if(value == null)
+	{
+	    return defaultValue;
+	}
+
+	try
+	{
+	    return Integer.parseInt(value.trim());
+	}
+	catch(NumberFormatException e)
+	{
+	    System.out.println("Niepoprawna wartosc argumentu " + name + ": " + value);
+	    return defaultValue;
+	}
+    }
+
+}
@@ -0,0 +1,185 @@
+package request;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Sygnatury blokw pliku, na podstawie ktrych mona przesa tylko zmienione czci pliku (jak w programie rsync).
+ * Plik jest dzielony na bloki o rozmiarze blockSize(), a kady blok ma sab sum (RollingChecksum) i skrt
+ * strong(). Serwer wysya sygnatury swojej wersji pliku, a klient odszukuje te bloki w swojej wersji
+ * i wysya tylko bajty, ktrych serwer nie ma, oraz numery blokw, ktre serwer moe skopiowa.
+ * Rozmiar bloku zaley tylko od rozmiaru pliku, dziki czemu obie strony obliczaj go tak samo.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class BlockSignatures {
+
+    public static final int MIN_BLOCK_SIZE = 2 * 1024;
+    public static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Najwiksza liczba blokw pliku, tak aby sygnatury zmieciy si w jednej ramce odpowiedzi.
+     */
+    public static final int MAX_BLOCKS = 1024 * 1024;
+
+    private String name;
+    private String content;
+    private long size;
+    private int blockSize;
+    private int[] weak;
+    private long[] strong;
+
+    /**
+     * @param name Nazwa pliku.
+     * @param content Skrt zawartoci pliku (ContentHash), lub null jeeli nie jest znany.
+     * @param size Rozmiar pliku.
+     * @param weak Sabe sumy kolejnych blokw.
+     * @param strong Skrty kolejnych blokw.
+     */
+    public BlockSignatures(String name, String content, long size, int[] weak, long[] strong)
+    {
+	this.name = name;
+	this.content = content;
+	this.size = size;
+	this.blockSize = blockSize(size);
+	this.weak = weak;
+	this.strong = strong;
+    }
+
+    /**
+     * Oblicza rozmiar bloku dla pliku: w przyblieniu pierwiastek z rozmiaru pliku, zaokrglony do 1 KB.
+     * Dziki temu liczba blokw i rozmiar bloku rosn razem z plikiem.
+     * @param size Rozmiar pliku.
+     * @return Rozmiar bloku w bajtach.
+     */
+    public static int blockSize(long size)
+    {
+	long block = ((long) Math.ceil(Math.sqrt(size)) + 1023) / 1024 * 1024;
+	block = Math.max(MIN_BLOCK_SIZE, Math.min(MAX_BLOCK_SIZE, block));
+	return (int) Math.max(block, (size + MAX_BLOCKS - 1) / MAX_BLOCKS);
+    }
+
+    /**
+     * Oblicza sygnatury pliku.
+     * @param name Nazwa pliku.
+     * @param content Skrt zawartoci pliku, lub null.
+     * @param file Plik otwarty do odczytu.
+     * @return Sygnatury wszystkich blokw pliku.
+     * @throws IOException W przypadku bdu odczytu pliku.
+     */
+    public static BlockSignatures of(String name, String content, FileChannel file) throws IOException
+    {
+	long size = file.size();
+	int blockSize = blockSize(size);
+	int count = (int) ((size + blockSize - 1) / blockSize);
+	int[] weak = new int[count];
+	long[] strong = new long[count];
+
+	MessageDigest digest = digest();
+	RollingChecksum checksum = new RollingChecksum();
+	ByteBuffer buf = ByteBuffer.allocate(blockSize);
+	for(int i=0;i<count;i++)
+	{
+	    long position = (long) i * blockSize;
+	    int length = (int) Math.min(blockSize, size - position);
+	    buf.clear().limit(length);
+	    while(buf.hasRemaining())
+	    {
+		if(file.read(buf, position + buf.position()) < 0)
+		{
+		    throw new EOFException("Plik jest krotszy niz oczekiwano!");
+		}
+	    }
+
+	    checksum.reset(buf, 0, length);
+	    weak[i] = checksum.value();
+	    strong[i] = strong(digest, buf, 0, length);
+	}
+	return new BlockSignatures(name, content, size, weak, strong);
+    }
+
+    /**
+     * Oblicza skrt bloku: pierwsze 8 bajtw skrtu MD5. Przypadkowa zgodno skrtw nie powoduje
+     * zapisania bdnego pliku, poniewa odbiorca sprawdza skrt zawartoci caego pliku.
+     * @param digest Obiekt zwrcony przez digest().
+     * @param buf Bufor z danymi.
+     * @param offset Pozycja pocztku bloku w buforze.
+     * @param length Dugo bloku.
+     * @return Skrt bloku.
+     */
+    public static long strong(MessageDigest digest, ByteBuffer buf, int offset, int length)
+    {
+	ByteBuffer block = buf.duplicate();
+	block.limit(offset + length).position(offset);
+	digest.update(block);
+	return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+
+    /**
+     * @return Nowy obiekt obliczajcy skrty blokw, do wielokrotnego uycia w jednym wtku.
+     */
+    public static MessageDigest digest()
+    {
+	try
+	{
+	    return MessageDigest.getInstance("MD5");
+	}
+	catch(NoSuchAlgorithmException e)
+	{
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    public String getName()
+    {
+	return name;
+    }
+
+    public String getContent()
+    {
+	return content;
+    }
+
+    public long getSize()
+    {
+	return size;
+    }
+
+    public int getBlockSize()
+    {
+	return blockSize;
+    }
+
+    /**
+     * @return Liczba blokw pliku.
+     */
+    public int blocks()
+    {
+	return weak.length;
+    }
+
+    /**
+     * @param block Numer bloku.
+     * @return Dugo bloku. Tylko ostatni blok pliku moe by krtszy ni getBlockSize().
+     */
+    public int blockLength(int block)
+    {
+	return (int) Math.min(blockSize, size - (long) block * blockSize);
+    }
+
+    public int weak(int block)
+    {
+	return weak[block];
+    }
+
+    public long strong(int block)
+    {
+	return strong[block];
+    }
+
+}
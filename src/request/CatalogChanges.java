@@ -0,0 +1,69 @@
+package request;
+
+
+import java.util.ArrayList;
+
+/**
+ * Odpowied na Request "sync" zawierajcy wersj katalogu znan klientowi: pliki uytkownika, ktre zostay
+ * dodane lub zastpione now wersj od tamtej wersji, oraz obecna wersja katalogu uytkownika.
+ * Jeeli serwer nie moe ustali zmian (katalog zosta wczytany ponownie, albo wersja klienta jest zbyt stara),
+ * odpowied zawiera pen list plikw uytkownika.
+ * Wersja ma sens tylko razem z numerem katalogu (epoch), ktry zmienia si przy kadym uruchomieniu serwera.
+ * Numer 0 oznacza, e serwer nie poda wersji (np. katalog nie zosta jeszcze wczytany).
+ * @author Sebastian Paweoszek
+ *
+ */
+public class CatalogChanges {
+
+    private long epoch;
+    private long version;
+    private boolean full;
+    private ArrayList<String> files;
+
+    /**
+     * @param epoch Numer katalogu, lub 0 jeeli wersja nie jest znana.
+     * @param version Wersja katalogu uytkownika.
+     * @param full true jeeli files jest pen list plikw uytkownika, false jeeli list zmienionych plikw.
+     * @param files Nazwy plikw.
+     */
+    public CatalogChanges(long epoch, long version, boolean full, ArrayList<String> files)
+    {
+	this.epoch = epoch;
+	this.version = version;
+	this.full = full;
+	this.files = files;
+    }
+
+    /**
+     * @return Numer katalogu, lub 0 jeeli wersja nie jest znana.
+     */
+    public long getEpoch()
+    {
+	return epoch;
+    }
+
+    /**
+     * @return Wersja katalogu uytkownika, ktr klient podaje przy kolejnej synchronizacji.
+     */
+    public long getVersion()
+    {
+	return version;
+    }
+
+    /**
+     * @return true jeeli getFiles() zwraca pen list plikw uytkownika.
+     */
+    public boolean isFull()
+    {
+	return full;
+    }
+
+    /**
+     * @return Pena lista plikw uytkownika, albo pliki dodane lub zmienione od wersji podanej przez klienta.
+     */
+    public ArrayList<String> getFiles()
+    {
+	return files;
+    }
+
+}
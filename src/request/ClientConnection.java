@@ -0,0 +1,38 @@
+package request;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Poczenie z klientem widziane po stronie serwera, przez ktre wysyane s odpowiedzi na Requesty.
+ * Jedno poczenie przenosi wiele Requestw, a odpowiedzi mog by wysyane jednoczenie przez
+ * wiele wtkw. Kada metoda wysya ca odpowied naraz, wic odpowiedzi nie przeplataj si.
+ * @author Sebastian Paweoszek
+ *
+ */
+public interface ClientConnection {
+
+    /**
+     * Wysya ca ramk odpowiedzi.
+     * @param frame Ramka zakodowana przez RequestCodec, ustawiona do odczytu.
+     * @throws IOException W przypadku bdu zapisu, lub zamknitego poczenia.
+     */
+    void send(ByteBuffer frame) throws IOException;
+
+    /**
+     * Wysya ramk, a bezporednio po niej size bajtw pliku, np. ramk CHUNK i bajty jednej czci pliku.
+     * @param header Ramka zakodowana przez RequestCodec, np. encodeChunk(), ustawiona do odczytu.
+     * @param file Otwarty plik.
+     * @param position Pozycja w pliku, od ktrej wysyane s bajty.
+     * @param size Liczba bajtw do wysania.
+     * @throws IOException W przypadku bdu odczytu pliku, zapisu, lub zamknitego poczenia.
+     */
+    void sendFile(ByteBuffer header, FileChannel file, long position, long size) throws IOException;
+
+    /**
+     * Zamyka poczenie.
+     */
+    void close();
+
+}
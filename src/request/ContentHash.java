@@ -0,0 +1,127 @@
+package request;
+
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Skrt zawartoci pliku (SHA-256), zapisywany jako 64 mae cyfry szesnastkowe. Pliki o tej samej
+ * zawartoci maj ten sam skrt, dlatego serwer przechowuje ich bajty tylko raz, pod nazw rwn skrtowi.
+ * Wykorzystywana przez klienta, aby przed wysaniem pliku zapyta serwer czy ma ju jego zawarto,
+ * oraz przez serwer, aby obliczy skrt zawartoci odbieranej w czciach (digest()), bez ponownego
+ * odczytu zapisanego pliku.
+ * @author Sebastian Paweoszek
+ *
+ */
+public final class ContentHash {
+
+    public static final int LENGTH = 64;
+
+    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+
+    private ContentHash() {}
+
+    /**
+     * Oblicza skrt zawartoci pliku.
+     * @param file Plik.
+     * @return Skrt zawartoci.
+     * @throws IOException W przypadku bdu odczytu pliku.
+     */
+    public static String of(File file) throws IOException
+    {
+	MessageDigest digest = digest();
+	try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+	{
+	    update(digest, channel, channel.size());
+	}
+	return of(digest);
+    }
+
+    /**
+     * Tworzy obiekt obliczajcy skrt, do ktrego zawarto jest dodawana w czciach metod update().
+     * @return Nowy obiekt MessageDigest.
+     * @throws IOException Jeeli algorytm SHA-256 nie jest dostpny.
+     */
+    public static MessageDigest digest() throws IOException
+    {
+	try
+	{
+	    return MessageDigest.getInstance("SHA-256");
+	}
+	catch(NoSuchAlgorithmException e)
+	{
+	    throw new IOException(e);
+	}
+    }
+
+    /**
+     * Dodaje do skrtu pocztek pliku, np. cz zapisan przed wznowieniem wysyania.
+     * @param digest Obiekt zwrcony przez digest().
+     * @param channel Plik otwarty do odczytu.
+     * @param size Liczba bajtw od pocztku pliku.
+     * @throws IOException W przypadku bdu odczytu, lub gdy plik jest krtszy ni size.
+     */
+    public static void update(MessageDigest digest, FileChannel channel, long size) throws IOException
+    {
+	ByteBuffer buf = ByteBuffer.allocateDirect(64 * 1024);
+	long position = 0;
+	while(position < size)
+	{
+	    buf.clear();
+	    buf.limit((int) Math.min(buf.capacity(), size - position));
+	    if(channel.read(buf, position) < 0)
+	    {
+		throw new EOFException("Plik jest krotszy niz oczekiwano!");
+	    }
+	    buf.flip();
+	    position += buf.remaining();
+	    digest.update(buf);
+	}
+    }
+
+    /**
+     * Koczy obliczanie skrtu.
+     * @param digest Obiekt zwrcony przez digest(), zawierajcy ca zawarto pliku.
+     * @return Skrt zawartoci.
+     */
+    public static String of(MessageDigest digest)
+    {
+	byte[] bytes = digest.digest();
+	char[] hex = new char[LENGTH];
+	for(int i=0;i<bytes.length;i++)
+	{
+	    hex[2 * i] = DIGITS[(bytes[i] >> 4) & 0xF];
+	    hex[2 * i + 1] = DIGITS[bytes[i] & 0xF];
+	}
+	return new String(hex);
+    }
+
+    /**
+     * Sprawdza czy napis jest poprawnym skrtem, np. otrzymanym od klienta.
+     * @param s Napis, moe by null.
+     * @return true jeeli napis skada si z 64 maych cyfr szesnastkowych.
+     */
+    public static boolean isValid(String s)
+    {
+	if(s == null || s.length() != LENGTH)
+	{
+	    return false;
+	}
+	for(int i=0;i<LENGTH;i++)
+	{
+	    char c = s.charAt(i);
+	    if((c < '0' || c > '9') && (c < 'a' || c > 'f'))
+	    {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+}
@@ -1,22 +1,35 @@
 package request;
 
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Klasa wykorzystywana przez klienta do dania od serwera okrelonych czynnoci.
  * Klient wysya obiekt Request do serwera, a ten w odpowiedzi podejmuje 
- * czynnoci opisane wewntrz obiektu Request. 
+ * czynnoci opisane wewntrz obiektu Request. Request jest przesyany w postaci binarnej,
+ * kodowanej przez klas RequestCodec.
  * Kody wykorzystywane przez klas Request:
  * "sync" - danie listy plikw uytkownika na serwerze,
- * "download" - danie wysania pliku,
- * "upload" - danie odebrania pliku,
+ * "download" - danie wysania plikw,
+ * "upload" - danie odebrania plikw,
  * "share" - danie udostpnienia pliku,
- * "users" - danie wysania listy uytkownikw serwera.
+ * "users" - danie wysania listy uytkownikw serwera,
+ * "have" - pytanie czy serwer ma ju zawarto plikw o podanych skrtach (ContentHash). Serwer dopisuje
+ * uytkownikowi pliki, ktrych zawarto ju posiada, i odpowiada list plikw ktre trzeba wysa
+ * razem z pozycjami, od ktrych naley je wysa.
+ * Requesty "download" i "upload" mog zawiera pozycje plikw (getOffsets()), od ktrych wznawiane jest
+ * przerwane przesyanie, a "upload" rwnie skrty zawartoci wysyanych plikw.
+ * "signatures" - pytanie ktre z plikw maj na serwerze inn zawarto ni podane skrty. Serwer odpowiada
+ * sygnaturami blokw swojej wersji tych plikw (BlockSignatures),
+ * "delta" - danie odebrania zmienionych plikw jako rnicy wzgldem wersji na serwerze. Skrty zawartoci
+ * (getContents()) wskazuj wersj, wzgldem ktrej klient obliczy rnic.
  * @author Sebastian Paweoszek
  *
  */
-public class Request implements Serializable{
+public class Request {
 
     /*
      Bedzie kilka rodzajow requestow(zmienna action).
@@ -24,11 +37,13 @@ public class Request implements Serializable{
      1.Dej mie liste plikow na serwerze - "sync"
      	-nie trzeba nic wpisywac do nazwy pliku(zmienna neededFile)
      	
-     2.Daj mi konkretny plik - "download"
+     2.Daj mi konkretne pliki - "download"
      	-trzeba podac nazwe pliku w polu nazwy pliku(zmienna neededFile)
+	 albo liste nazw plikow(zmienna files)
      	
-     3.Wez ode mnie konkretny plik - "upload"
+     3.Wez ode mnie konkretne pliki - "upload"
      	-trzeba podac nazwe pliku w polu nazwy pliku(zmienna neededFile)
+	 albo liste nazw plikow(zmienna files)
      	
      4.Udostepnij plik innemu uzytkownikowi - "share"
      	-trzeba podac nazwe pliku w polu nazwy pliku(zmienna neededFile)
@@ -36,24 +51,30 @@ public class Request implements Serializable{
      	
      5.Daj liste uzytkownikow serwera - "users"
      	-nie trzeba nic wpisywac do nazwy pliku(zmienna neededFile)
+     6.Czy masz juz te pliki - "have"
+	-trzeba podac liste nazw plikow(zmienna files) i liste skrotow ich zawartosci(zmienna contents)
+	-serwer odpowiada lista plikow do wyslania i pozycjami od ktorych trzeba je wyslac
+     7.Ktore pliki sie zmienily - "signatures"
+	-trzeba podac liste nazw plikow(zmienna files) i liste skrotow ich zawartosci(zmienna contents)
+     8.Wez ode mnie zmiany plikow - "delta"
+	-trzeba podac liste nazw plikow(zmienna files) i liste skrotow wersji na serwerze(zmienna contents)
      */
     
-    /**
-     * 
-     */
-    private static final long serialVersionUID = 1L;
     private String username;
     private String friend;
     private String action;
     private String neededFile;
+    private ArrayList<String> files = new ArrayList<String>();
+    private ArrayList<String> contents = new ArrayList<String>();
+    private ArrayList<Long> offsets = new ArrayList<Long>();
+    private boolean versionKnown = false;
+    private long knownEpoch;
+    private long knownVersion;
     private Socket clientSocket;
-    
-    /**
-     * Konstruktor wykorzystywany przez metod shutdown() wewntrz klasy RequestResponder,
-     * w celu sztucznego zapchania kolejki.
-     * Nie ma innych zastosowa.
-     */
-    public Request(){}
+    private InputStream input;
+    private long enqueueTime;
+    private int requestId;
+    private ClientConnection connection;
     
     /**
      * Konstruktor wykorzystywany przy tworzeniu obiektu do dania listy plikw i uytkownikw.
@@ -78,7 +99,36 @@ public class Request implements Serializable{
 	this.action = action;
 	this.neededFile = neededFile;
     }
+
+    /**
+     * Konstruktor wykorzystywany przy daniu wysania, albo odebrania wielu plikw naraz.
+     * Wszystkie pliki s przesyane jednym strumieniem, w kolejnoci w jakiej wystpuj na licie.
+     * @param username Pseudonim po ktrym jestemy identyfikowani przez serwer.
+     * @param action Dla adania wysania plikw Action = "download", dla adanie odebrania "upload".
+     * @param files Lista nazw plikw, ktre maj zosta wysane, albo odebrane.
+     */
+    public Request(String username, String action, List<String> files)
+    {
+	this.username = username;
+	this.action = action;
+	this.files = new ArrayList<String>(files);
+    }
     
+    /**
+     * Konstruktor wykorzystywany przy pytaniu czy serwer ma ju zawarto plikw ("have").
+     * @param username Pseudonim po ktrym jestemy identyfikowani przez serwer.
+     * @param action Action = "have".
+     * @param files Lista nazw plikw.
+     * @param contents Skrty zawartoci plikw (ContentHash), w tej samej kolejnoci co nazwy.
+     */
+    public Request(String username, String action, List<String> files, List<String> contents)
+    {
+	this.username = username;
+	this.action = action;
+	this.files = new ArrayList<String>(files);
+	this.contents = new ArrayList<String>(contents);
+    }
+
     /**
      * Konstruktor wykorzystywany przy daniu udostpnienia pliku innemu uytkownikowi.
      * @param username Pseudonim po ktrym jestemy identyfikowani przez serwer.
@@ -141,6 +191,127 @@ public class Request implements Serializable{
 	return this.neededFile;
     }
     
+    /**
+     * Zwraca list plikw, ktrych dotyczy Request "download" albo "upload". Jeeli Request zosta
+     * utworzony z nazw pojedynczego pliku, lista zawiera tylko ten plik.
+     * @return Lista nazw plikw, pusta jeeli Request nie dotyczy plikw.
+     */
+    public ArrayList<String> getFiles()
+    {
+	if(this.files.isEmpty() && this.neededFile != null)
+	{
+	    ArrayList<String> single = new ArrayList<String>();
+	    single.add(this.neededFile);
+	    return single;
+	}
+	return this.files;
+    }
+
+    /**
+     * Zwraca list plikw w postaci w jakiej zostaa przekazana do konstruktora.
+     * Wykorzystywana przez RequestCodec, aby nie przesya nazwy pojedynczego pliku dwukrotnie.
+     * @return Lista nazw plikw.
+     */
+    ArrayList<String> getFileList()
+    {
+	return this.files;
+    }
+
+    /**
+     * Przypisuje list plikw. Wykorzystywana przez RequestCodec przy dekodowaniu Requesta.
+     * @param files Lista nazw plikw.
+     */
+    void setFileList(ArrayList<String> files)
+    {
+	this.files = files;
+    }
+
+    /**
+     * Zwraca skrty zawartoci plikw Requesta "have", w tej samej kolejnoci co lista plikw.
+     * @return Lista skrtw, pusta dla pozostaych Requestw.
+     */
+    public ArrayList<String> getContents()
+    {
+	return this.contents;
+    }
+
+    /**
+     * Przypisuje skrty zawartoci plikw. Wykorzystywana przez RequestCodec przy dekodowaniu Requesta.
+     * @param contents Lista skrtw.
+     */
+    void setContents(ArrayList<String> contents)
+    {
+	this.contents = contents;
+    }
+
+    /**
+     * Zwraca pozycje od ktrych naley wysa pliki Requesta "download" lub "upload", w tej samej kolejnoci
+     * co lista plikw. Pozycja wiksza od 0 oznacza, e odbiorca ma ju pocztek pliku z przerwanego przesyania.
+     * @return Lista pozycji, moe by pusta lub krtsza ni lista plikw (brakujce pozycje to 0).
+     */
+    public ArrayList<Long> getOffsets()
+    {
+	return this.offsets;
+    }
+
+    /**
+     * Przypisuje pozycje od ktrych naley wysa pliki Requesta "download" lub "upload".
+     * @param offsets Lista pozycji, w tej samej kolejnoci co lista plikw.
+     */
+    public void setOffsets(List<Long> offsets)
+    {
+	this.offsets = new ArrayList<Long>(offsets);
+    }
+
+    /**
+     * Ustawia wersj katalogu znan klientowi z poprzedniej synchronizacji (Request "sync"). Serwer odpowiada
+     * wtedy tylko plikami zmienionymi od tej wersji (CatalogChanges). Request "watch" musi zawiera wersj.
+     * @param epoch Numer katalogu, lub 0 jeeli klient nie zna wersji.
+     * @param version Wersja katalogu uytkownika.
+     */
+    public void setKnownVersion(long epoch, long version)
+    {
+	this.versionKnown = true;
+	this.knownEpoch = epoch;
+	this.knownVersion = version;
+    }
+
+    /**
+     * Sprawdza czy Request "sync" lub "watch" zawiera wersj katalogu. Klient, ktry jej nie podaje
+     * w Requecie "sync", otrzymuje pen list plikw w odpowiedzi LIST.
+     * @return true jeeli mona odczyta getKnownEpoch() i getKnownVersion().
+     */
+    public boolean hasKnownVersion()
+    {
+	return this.versionKnown;
+    }
+
+    /**
+     * @return Numer katalogu znany klientowi, lub 0.
+     */
+    public long getKnownEpoch()
+    {
+	return this.knownEpoch;
+    }
+
+    /**
+     * @return Wersja katalogu uytkownika znana klientowi.
+     */
+    public long getKnownVersion()
+    {
+	return this.knownVersion;
+    }
+
+    /**
+     * Sprawdza czy po Requecie klient przesya strumie plikw, ktry musi zosta odczytany w caoci
+     * zanim bdzie mona odczyta kolejny Request z tego samego poczenia.
+     * @return true dla Requestw "upload" i "delta".
+     */
+    public boolean hasFileStream()
+    {
+	return "upload".equals(action) || "delta".equals(action);
+    }
+
     /**
      * Zwraca obiekt typu Socket, mona go wykorzysta do udzielenia odpowiedzi twrcy Requesta.
      * Metoda zwrci null, jeeli wywoujemy j wewntrz aplikacji klienckiej.
@@ -150,4 +321,86 @@ public class Request implements Serializable{
     {
 	return this.clientSocket;
     }
+
+    /**
+     * Przypisuje strumie z ktrego naley odczytywa dane przesyane przez klienta po Requecie.
+     * Wykorzystywany przez serwer, poniewa cz tych danych moga zosta odczytana z gniazda
+     * razem z Requestem.
+     * @param input Strumie danych przesyanych przez klienta.
+     */
+    public void setInputStream(InputStream input)
+    {
+	this.input = input;
+    }
+
+    /**
+     * Zwraca strumie danych przesyanych przez klienta po Requecie. Jeeli strumie nie zosta
+     * przypisany metod setInputStream(), zwraca strumie wejciowy obiektu Socket.
+     * @return Strumie danych przesyanych przez klienta.
+     * @throws IOException W przypadku gdy nie mona otworzy strumienia gniazda.
+     */
+    public InputStream getInputStream() throws IOException
+    {
+	if(this.input != null)
+	{
+	    return this.input;
+	}
+	return this.clientSocket.getInputStream();
+    }
+
+    /**
+     * Zapisuje moment umieszczenia Requesta w kolejce. Wykorzystywane do pomiaru czasu oczekiwania.
+     * @param enqueueTime Warto System.nanoTime() w chwili umieszczenia w kolejce.
+     */
+    public void setEnqueueTime(long enqueueTime)
+    {
+	this.enqueueTime = enqueueTime;
+    }
+
+    /**
+     * Zwraca moment umieszczenia Requesta w kolejce.
+     * @return Warto System.nanoTime() w chwili umieszczenia w kolejce.
+     */
+    public long getEnqueueTime()
+    {
+	return this.enqueueTime;
+    }
+
+    /**
+     * Ustawia identyfikator Requesta. Odpowied serwera ma ten sam identyfikator, dziki czemu
+     * klient moe wysa wiele Requestw jednym poczeniem i rozpozna na ktry z nich odpowiedzia serwer.
+     * @param requestId Identyfikator unikalny w obrbie poczenia.
+     */
+    public void setRequestId(int requestId)
+    {
+	this.requestId = requestId;
+    }
+
+    /**
+     * Zwraca identyfikator Requesta.
+     * @return Identyfikator Requesta.
+     */
+    public int getRequestId()
+    {
+	return this.requestId;
+    }
+
+    /**
+     * Przypisuje poczenie, przez ktre naley odpowiedzie na Request. Wykorzystywane przez serwer.
+     * @param connection Poczenie z klientem.
+     */
+    public void setConnection(ClientConnection connection)
+    {
+	this.connection = connection;
+    }
+
+    /**
+     * Zwraca poczenie, przez ktre naley odpowiedzie na Request.
+     * Metoda zwrci null, jeeli wywoujemy j wewntrz aplikacji klienckiej.
+     * @return Poczenie z klientem.
+     */
+    public ClientConnection getConnection()
+    {
+	return this.connection;
+    }
 }
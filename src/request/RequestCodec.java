@@ -0,0 +1,889 @@
+package request;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Klasa kodujca i dekodujca Requesty oraz odpowiedzi serwera w binarnym formacie przesyanym
+ * pomidzy klientem, a serwerem. Zastpuje serializacj obiektw Javy.
+ * Kada wiadomo (ramka) ma posta:
+ * int - dugo ramki w bajtach, nie liczc tego pola,
+ * byte - wersja protokou,
+ * byte - rodzaj wiadomoci, czyli kod czynnoci Requesta albo rodzaj odpowiedzi,
+ * int - identyfikator Requesta, odpowied ma ten sam identyfikator co Request ktrego dotyczy,
+ * a nastpnie tre zalen od rodzaju wiadomoci.
+ * Dziki identyfikatorom jedno poczenie moe przenosi wiele Requestw, wysyanych bez czekania
+ * na odpowiedzi, a serwer moe odpowiada na nie w dowolnej kolejnoci.
+ * Napisy s zapisywane jako short z dugoci w bajtach (0xFFFF oznacza null) i bajty w kodowaniu UTF-8.
+ * Request zawiera kolejno nazw uytkownika, nazw pliku, nazw uytkownika ktremu udostpniamy plik,
+ * list nazw plikw, list skrtw ich zawartoci ("have", "upload", "signatures" i "delta", dla pozostaych
+ * Requestw pusta) i list pozycji od ktrych naley wznowi przesyanie plikw ("download" i "upload").
+ * Lista napisw (np. odpowied LIST na "sync" i "users") zawiera int z liczb elementw i kolejne napisy.
+ * Requesty "sync" i "watch" kocz si polem wersji katalogu z poprzedniej synchronizacji: byte 1 i dwa longi
+ * (numer katalogu i wersja, patrz Request.setKnownVersion()), albo byte 0 jeeli klient nie zna wersji.
+ * Na Request "sync" z wersj serwer odpowiada ramk CHANGES: numer katalogu, obecna
+ * wersja (long), byte 1 jeeli dalej nastpuje pena lista plikw, 0 jeeli tylko pliki zmienione od podanej
+ * wersji, i lista napisw (CatalogChanges).
+ * Request "watch" zawiera wersj katalogu tak samo jak "sync", a serwer odpowiada na niego ramk CHANGES
+ * dopiero gdy pliki uytkownika zmieni si od tej wersji, lub po upywie czasu oczekiwania (bez zmian).
+ * Pliki ("download" od serwera, "upload" i "delta" od klienta) przesyane s jednym strumieniem, kady jako:
+ * ramka ENTRY z nazw pliku, jego rozmiarem, pozycj od ktrej przesyane s bajty i skrtem zawartoci
+ * (ContentHash, moe by null), kolejne czci pliku, oraz ramka ENTRY_END z opisem bdu (null jeeli plik
+ * zosta przesany poprawnie). Kada cz to ramka CHUNK z pozycj, dugoci (najwyej CHUNK_SIZE)
+ * i sum kontroln CRC32C czci, a bezporednio po niej bajty czci. Odbiorca zapisuje czci do pliku
+ * tymczasowego i przenosi go pod docelow nazw dopiero gdy otrzyma cay plik. Po przerwanym przesyaniu
+ * plik tymczasowy pozostaje, a kolejna prba przesya tylko brakujce czci: przy pobieraniu klient podaje
+ * pozycje w Requecie "download", a przy wysyaniu serwer podaje je w odpowiedzi RESUME na Request "have"
+ * (lista par: nazwa pliku i pozycja, od ktrej naley go wysa).
+ * Zmienione pliki mog zosta wysane jako rnica wzgldem wersji na serwerze. Na Request "signatures"
+ * serwer odpowiada ramkami SIGNATURES (sygnatury blokw pliku, BlockSignatures) dla plikw, ktrych zawarto
+ * rni si od podanej przez klienta, a nastpnie OK. Po Requecie "delta" klient przesya strumie plikw,
+ * w ktrym oprcz ramek CHUNK mog wystpi ramki COPY (pozycja w nowym pliku, numer pierwszego bloku
+ * i dugo): odbiorca kopiuje wtedy kolejne bloki ze swojej wersji pliku, bez przesyania ich bajtw.
+ * Odpowied OK potwierdza wykonanie Requesta (po "download" oznacza koniec strumienia plikw),
+ * a ERROR zawiera opis bdu.
+ * @author Sebastian Paweoszek
+ *
+ */
+public final class RequestCodec {
+
+    public static final byte VERSION = 7;
+
+    public static final byte SYNC = 1;
+    public static final byte USERS = 2;
+    public static final byte DOWNLOAD = 3;
+    public static final byte UPLOAD = 4;
+    public static final byte SHARE = 5;
+    public static final byte HAVE = 6;
+    public static final byte LIST = 16;
+    public static final byte ENTRY = 17;
+    public static final byte OK = 18;
+    public static final byte ERROR = 19;
+    public static final byte ENTRY_END = 20;
+    public static final byte CHUNK = 21;
+    public static final byte RESUME = 22;
+    public static final byte SIGNATURES = 23;
+    public static final byte COPY = 24;
+    public static final byte CHANGES = 25;
+
+    /**
+     * Rozmiar czci, na ktre dzielone s przesyane pliki.
+     */
+    public static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Dugo ramki CHUNK (razem z polem dugoci), po ktrej nastpuj bajty czci.
+     */
+    public static final int CHUNK_HEADER_SIZE = 4 + 2 + 4 + 8 + 4 + 4;
+
+    /**
+     * Maksymalna dugo ramki z Requestem. Request moe zawiera list kilkudziesiciu tysicy plikw.
+     */
+    public static final int MAX_REQUEST_SIZE = 1024 * 1024;
+
+    /**
+     * Maksymalna dugo ramki z odpowiedzi.
+     */
+    public static final int MAX_RESPONSE_SIZE = 64 * 1024 * 1024;
+
+    static final int NULL_STRING = 0xFFFF;
+
+    private static final String[] ACTIONS = { null, "sync", "users", "download", "upload", "share", "have",
+	    "signatures", "delta", "watch" };
+
+    private RequestCodec() {}
+
+    /**
+     * Zwraca kod czynnoci dla nazwy czynnoci Requesta.
+     * @param action Nazwa czynnoci, np. "sync".
+     * @return Kod czynnoci.
+     * @throws ProtocolException Jeeli czynno nie jest obsugiwana.
+     */
+    static byte actionCode(String action) throws ProtocolException
+    {
+	for(int i=1;i<ACTIONS.length;i++)
+	{
+	    if(ACTIONS[i].equals(action))
+	    {
+		return (byte) i;
+	    }
+	}
+	throw new ProtocolException("Nieznana czynnosc: " + action);
+    }
+
+    /**
+     * Sprawdza czy Request zawiera pole wersji katalogu.
+     * @param action Nazwa czynnoci Requesta.
+     * @return true dla Requestw "sync" i "watch".
+     */
+    private static boolean hasVersionField(String action)
+    {
+	return "sync".equals(action) || "watch".equals(action);
+    }
+
+    /**
+     * Koduje Request do bufora gotowego do wysania.
+     * @param r Request do zakodowania.
+     * @return Bufor zawierajcy ca ramk, ustawiony do odczytu.
+     * @throws ProtocolException Jeeli Request zawiera nieznan czynno, lub jest zbyt duy.
+     */
+    public static ByteBuffer encode(Request r) throws ProtocolException
+    {
+	int length = 2 + 4 + encodedLength(r.getUsername()) + encodedLength(r.getNeededFile())
+		+ encodedLength(r.getFriend()) + 4 + 4 + 4 + 8 * r.getOffsets().size();
+	if(hasVersionField(r.getAction()))
+	{
+	    length += r.hasKnownVersion() ? 1 + 8 + 8 : 1;
+	}
+	for(String s:r.getFileList())
+	{
+	    length += encodedLength(s);
+	}
+	for(String s:r.getContents())
+	{
+	    length += encodedLength(s);
+	}
+
+	if(length > MAX_REQUEST_SIZE)
+	{
+	    throw new ProtocolException("Request jest zbyt duzy!");
+	}
+
+	ByteBuffer buf = ByteBuffer.allocate(4 + length);
+	buf.putInt(length);
+	buf.put(VERSION);
+	buf.put(actionCode(r.getAction()));
+	buf.putInt(r.getRequestId());
+	putString(buf, r.getUsername());
+	putString(buf, r.getNeededFile());
+	putString(buf, r.getFriend());
+	putStrings(buf, r.getFileList());
+	putStrings(buf, r.getContents());
+	buf.putInt(r.getOffsets().size());
+	for(long offset:r.getOffsets())
+	{
+	    buf.putLong(offset);
+	}
+	if(hasVersionField(r.getAction()))
+	{
+	    if(r.hasKnownVersion())
+	    {
+		buf.put((byte) 1);
+		buf.putLong(r.getKnownEpoch());
+		buf.putLong(r.getKnownVersion());
+	    }
+	    else
+	    {
+		buf.put((byte) 0);
+	    }
+	}
+	buf.flip();
+	return buf;
+    }
+
+    /**
+     * Koduje Request i zapisuje go do strumienia.
+     * @param r Request do wysania.
+     * @param out Strumie wyjciowy, np. strumie gniazda.
+     * @throws IOException W przypadku bdu zapisu.
+     */
+    public static void write(Request r, OutputStream out) throws IOException
+    {
+	ByteBuffer buf = encode(r);
+	out.write(buf.array(), 0, buf.limit());
+	out.flush();
+    }
+
+    /**
+     * Sprawdza czy bufor zawiera ca ramk z Requestem.
+     * @param buf Bufor ustawiony do odczytu, pozycja wskazuje pocztek ramki.
+     * @return Dugo caej ramki (razem z polem dugoci), lub -1 jeeli nie odebrano jeszcze pola dugoci.
+     * @throws ProtocolException Jeeli ramka przekracza dopuszczalny rozmiar.
+     */
+    public static int frameSize(ByteBuffer buf) throws ProtocolException
+    {
+	if(buf.remaining() < 4)
+	{
+	    return -1;
+	}
+
+	int length = buf.getInt(buf.position());
+	if(length < 6 || length > MAX_REQUEST_SIZE)
+	{
+	    throw new ProtocolException("Nieprawidlowa dlugosc ramki: " + length);
+	}
+	return 4 + length;
+    }
+
+    /**
+     * Dekoduje Request z bufora. Jeeli bufor nie zawiera jeszcze caej ramki, jego pozycja nie zmienia si.
+     * @param buf Bufor ustawiony do odczytu, pozycja wskazuje pocztek ramki.
+     * @return Zdekodowany Request, lub null jeeli ramka nie zostaa jeszcze odebrana w caoci.
+     * @throws ProtocolException Jeeli ramka jest nieprawidowa.
+     */
+    public static Request decode(ByteBuffer buf) throws ProtocolException
+    {
+	int size = frameSize(buf);
+	if(size < 0 || buf.remaining() < size)
+	{
+	    return null;
+	}
+
+	ByteBuffer frame = buf.duplicate();
+	frame.position(buf.position() + 4);
+	frame.limit(buf.position() + size);
+	Request r = decodeBody(frame);
+
+	buf.position(buf.position() + size);
+	return r;
+    }
+
+    /**
+     * Odczytuje i dekoduje Request ze strumienia. Metoda odczytuje dokadnie jedn ramk,
+     * wic dane przesyane po Requecie pozostaj w strumieniu.
+     * @param in Strumie wejciowy, np. strumie gniazda.
+     * @return Zdekodowany Request.
+     * @throws IOException W przypadku bdu odczytu lub nieprawidowej ramki.
+     */
+    public static Request read(InputStream in) throws IOException
+    {
+	DataInputStream dis = new DataInputStream(in);
+	int length = dis.readInt();
+	if(length < 6 || length > MAX_REQUEST_SIZE)
+	{
+	    throw new ProtocolException("Nieprawidlowa dlugosc ramki: " + length);
+	}
+
+	byte[] frame = new byte[length];
+	dis.readFully(frame);
+
+	return decodeBody(ByteBuffer.wrap(frame));
+    }
+
+    /**
+     * Dekoduje tre ramki z Requestem.
+     * @param buf Bufor zawierajcy dokadnie jedn ramk, bez pola dugoci.
+     * @return Zdekodowany Request.
+     * @throws ProtocolException Jeeli ramka jest nieprawidowa.
+     */
+    private static Request decodeBody(ByteBuffer buf) throws ProtocolException
+    {
+	try
+	{
+	    checkVersion(buf.get());
+
+	    byte action = buf.get();
+	    if(action < 1 || action >= ACTIONS.length)
+	    {
+		throw new ProtocolException("Nieznany kod czynnosci: " + action);
+	    }
+
+	    int requestId = buf.getInt();
+	    String username = getString(buf);
+	    String neededFile = getString(buf);
+	    String friend = getString(buf);
+	    ArrayList<String> files = getStrings(buf);
+	    ArrayList<String> contents = getStrings(buf);
+	    int count = buf.getInt();
+	    if(count < 0 || count > buf.remaining() / 8)
+	    {
+		throw new ProtocolException("Nieprawidlowa liczba elementow: " + count);
+	    }
+	    ArrayList<Long> offsets = new ArrayList<Long>(count);
+	    for(int i=0;i<count;i++)
+	    {
+		offsets.add(buf.getLong());
+	    }
+	    boolean versionKnown = false;
+	    long knownEpoch = 0;
+	    long knownVersion = 0;
+	    if(hasVersionField(ACTIONS[action]))
+	    {
+		versionKnown = buf.get() != 0;
+		if(versionKnown)
+		{
+		    knownEpoch = buf.getLong();
+		    knownVersion = buf.getLong();
+		}
+	    }
+
+	    if(buf.hasRemaining())
+	    {
+		throw new ProtocolException("Nieprawidlowa dlugosc ramki!");
+	    }
+	    Request r = new Request(username, ACTIONS[action], neededFile, friend);
+	    r.setFileList(files);
+	    r.setContents(contents);
+	    r.setOffsets(offsets);
+	    if(versionKnown)
+	    {
+		r.setKnownVersion(knownEpoch, knownVersion);
+	    }
+	    r.setRequestId(requestId);
+	    return r;
+	}
+	catch(BufferUnderflowException e)
+	{
+	    throw new ProtocolException("Ramka jest niekompletna!");
+	}
+    }
+
+    /**
+     * Koduje odpowied zawierajc list napisw.
+     * @param requestId Identyfikator Requesta, na ktry udzielana jest odpowied.
+     * @param list Lista do wysania, np. lista plikw uytkownika.
+     * @return Bufor zawierajcy ca ramk, ustawiony do odczytu.
+     * @throws ProtocolException W przypadku zbyt duej listy.
+     */
+    public static ByteBuffer encodeList(int requestId, List<String> list) throws ProtocolException
+    {
+	int length = 2 + 4 + 4;
+	for(int i=0;i<list.size();i++)
+	{
+	    length += encodedLength(list.get(i));
+	}
+
+	if(length > MAX_RESPONSE_SIZE)
+	{
+	    throw new ProtocolException("Odpowiedz jest zbyt duza!");
+	}
+
+	ByteBuffer buf = ByteBuffer.allocate(4 + length);
+	putHeader(buf, length, LIST, requestId);
+	putStrings(buf, list);
+	buf.flip();
+	return buf;
+    }
+
+    /**
+     * Koduje odpowied na Request "sync" z wersj katalogu: zmienione pliki (lub pen list) i obecn wersj.
+     * @param requestId Identyfikator Requesta, na ktry udzielana jest odpowied.
+     * @param changes Zmiany katalogu uytkownika.
+     * @return Bufor zawierajcy ca ramk, ustawiony do odczytu.
+     * @throws ProtocolException W przypadku zbyt duej listy.
+     */
+    public static ByteBuffer encodeChanges(int requestId, CatalogChanges changes) throws ProtocolException
+    {
+	List<String> files = changes.getFiles();
+	int length = 2 + 4 + 8 + 8 + 1 + 4;
+	for(int i=0;i<files.size();i++)
+	{
+	    length += encodedLength(files.get(i));
+	}
+
+	if(length > MAX_RESPONSE_SIZE)
+	{
+	    throw new ProtocolException("Odpowiedz jest zbyt duza!");
+	}
+
+	ByteBuffer buf = ByteBuffer.allocate(4 + length);
+	putHeader(buf, length, CHANGES, requestId);
+	buf.putLong(changes.getEpoch());
+	buf.putLong(changes.getVersion());
+	buf.put((byte) (changes.isFull() ? 1 : 0));
+	putStrings(buf, files);
+	buf.flip();
+	return buf;
+    }
+
+    /**
+     * Koduje nagwek pliku przesyanego w strumieniu plikw. Po nagwku przesyane s ramki CHUNK
+     * z bajtami pliku od pozycji offset do koca pliku, a po nich ramka ENTRY_END.
+     * @param requestId Identyfikator Requesta "download", "upload" albo "delta", ktrego dotyczy plik.
+     * @param name Nazwa pliku.
+     * @param size Rozmiar pliku w bajtach.
+     * @param offset Pozycja od ktrej przesyane s bajty. Wczeniejsze bajty odbiorca ma ju w pliku tymczasowym.
+     * @param content Skrt zawartoci caego pliku, lub null jeeli nie jest znany.
+     * @return Bufor zawierajcy ca ramk, ustawiony do odczytu.
+     * @throws ProtocolException W przypadku zbyt dugiej nazwy pliku.
+     */
+    public static ByteBuffer encodeEntryHeader(int requestId, String name, long size, long offset, String content)
+	    throws ProtocolException
+    {
+	int length = 2 + 4 + encodedLength(name) + 8 + 8 + encodedLength(content);
+	ByteBuffer buf = ByteBuffer.allocate(4 + length);
+	putHeader(buf, length, ENTRY, requestId);
+	putString(buf, name);
+	buf.putLong(size);
+	buf.putLong(offset);
+	putString(buf, content);
+	buf.flip();
+	return buf;
+    }
+
+    /**
+     * Koduje nagwek czci pliku. Bezporednio po nim przesyane jest dokadnie length bajtw czci.
+     * @param requestId Identyfikator Requesta "download", "upload" albo "delta", ktrego dotyczy plik.
+     * @param offset Pozycja czci w pliku.
+     * @param length Dugo czci, najwyej CHUNK_SIZE.
+     * @param checksum Suma kontrolna bajtw czci, obliczona metod checksum().
+     * @return Bufor zawierajcy ca ramk, ustawiony do odczytu.
+     */
+    public static ByteBuffer encodeChunk(int requestId, long offset, int length, int checksum)
+    {
+	ByteBuffer buf = ByteBuffer.allocate(CHUNK_HEADER_SIZE);
+	putHeader(buf, CHUNK_HEADER_SIZE - 4, CHUNK, requestId);
+	buf.putLong(offset);
+	buf.putInt(length);
+	buf.putInt(checksum);
+	buf.flip();
+	return buf;
+    }
+
+    /**
+     * Oblicza sum kontroln czci pliku (CRC32C). Pozycja bufora nie zmienia si.
+     * @param buf Bufor z bajtami czci, ustawiony do odczytu.
+     * @return Suma kontrolna.
+     */
+    public static int checksum(ByteBuffer buf)
+    {
+	CRC32C crc = new CRC32C();
+	crc.update(buf.duplicate());
+	return (int) crc.getValue();
+    }
+
+    /**
+     * Koduje odpowied na Request "have": pliki, ktre klient musi wysa, i pozycje od ktrych naley
+     * je wysa (wiksze od 0 jeeli serwer ma ju pocztek pliku z przerwanego wysyania).
+     * @param requestId Identyfikator Requesta.
+     * @param names Nazwy plikw.
+     * @param offsets Pozycje, w tej samej kolejnoci co nazwy.
+     * @return Bufor zawierajcy ca ramk, ustawiony do odczytu.
+     * @throws ProtocolException W przypadku zbyt duej odpowiedzi.
+     */
+    public static ByteBuffer encodeResume(int requestId, List<String> names, List<Long> offsets) throws ProtocolException
+    {
+	int length = 2 + 4 + 4 + 8 * names.size();
+	for(int i=0;i<names.size();i++)
+	{
+	    length += encodedLength(names.get(i));
+	}
+
+	if(length > MAX_RESPONSE_SIZE)
+	{
+	    throw new ProtocolException("Odpowiedz jest zbyt duza!");
+	}
+
+	ByteBuffer buf = ByteBuffer.allocate(4 + length);
+	putHeader(buf, length, RESUME, requestId);
+	buf.putInt(names.size());
+	for(int i=0;i<names.size();i++)
+	{
+	    putString(buf, names.get(i));
+	    buf.putLong(offsets.get(i));
+	}
+	buf.flip();
+	return buf;
+    }
+
+    /**
+     * Dekoduje tre odpowiedzi RESUME.
+     * @param buf Bufor z ramk, pozycja wskazuje pocztek listy.
+     * @return Nazwy plikw i pozycje od ktrych naley je wysa, w kolejnoci z odpowiedzi.
+     * @throws ProtocolException W przypadku nieprawidowej ramki.
+     */
+    public static LinkedHashMap<String, Long> decodeResume(ByteBuffer buf) throws ProtocolException
+    {
+	try
+	{
+	    int count = buf.getInt();
+	    if(count < 0 || count > buf.remaining() / 10)
+	    {
+		throw new ProtocolException("Nieprawidlowa liczba elementow: " + count);
+	    }
+
+	    LinkedHashMap<String, Long> offsets = new LinkedHashMap<String, Long>();
+	    for(int i=0;i<count;i++)
+	    {
+		String name = getString(buf);
+		offsets.put(name, buf.getLong());
+	    }
+	    return offsets;
+	}
+	catch(BufferUnderflowException e)
+	{
+	    throw new ProtocolException("Ramka jest niekompletna!");
+	}
+    }
+
+    /**
+     * Koduje sygnatury blokw pliku, wysyane w odpowiedzi na Request "signatures".
+     * @param requestId Identyfikator Requesta.
+     * @param signatures Sygnatury pliku.
+     * @return Bufor zawierajcy ca ramk, ustawiony do odczytu.
+     * @throws ProtocolException W przypadku zbyt dugiej nazwy pliku.
+     */
+    public static ByteBuffer encodeSignatures(int requestId, BlockSignatures signatures) throws ProtocolException
+    {
+	int length = 2 + 4 + encodedLength(signatures.getName()) + encodedLength(signatures.getContent()) + 8 + 4
+		+ 12 * signatures.blocks();
+	if(length > MAX_RESPONSE_SIZE)
+	{
+	    throw new ProtocolException("Odpowiedz jest zbyt duza!");
+	}
+
+	ByteBuffer buf = ByteBuffer.allocate(4 + length);
+	putHeader(buf, length, SIGNATURES, requestId);
+	putString(buf, signatures.getName());
+	putString(buf, signatures.getContent());
+	buf.putLong(signatures.getSize());
+	buf.putInt(signatures.blocks());
+	for(int i=0;i<signatures.blocks();i++)
+	{
+	    buf.putInt(signatures.weak(i));
+	    buf.putLong(signatures.strong(i));
+	}
+	buf.flip();
+	return buf;
+    }
+
+    /**
+     * Dekoduje tre odpowiedzi SIGNATURES.
+     * @param buf Bufor z ramk, pozycja wskazuje nazw pliku.
+     * @return Sygnatury pliku.
+     * @throws ProtocolException W przypadku nieprawidowej ramki.
+     */
+    public static BlockSignatures decodeSignatures(ByteBuffer buf) throws ProtocolException
+    {
+	try
+	{
+	    String name = getString(buf);
+	    String content = getString(buf);
+	    long size = buf.getLong();
+	    int count = buf.getInt();
+	    int blockSize = size < 0 ? 0 : BlockSignatures.blockSize(size);
+	    if(size < 0 || count != (size + blockSize - 1) / blockSize || count > buf.remaining() / 12)
+	    {
+		throw new ProtocolException("Nieprawidlowe sygnatury pliku: " + name);
+	    }
+
+	    int[] weak = new int[count];
+	    long[] strong = new long[count];
+	    for(int i=0;i<count;i++)
+	    {
+		weak[i] = buf.getInt();
+		strong[i] = buf.getLong();
+	    }
+	    return new BlockSignatures(name, content, size, weak, strong);
+	}
+	catch(BufferUnderflowException e)
+	{
+	    throw new ProtocolException("Ramka jest niekompletna!");
+	}
+    }
+
+    /**
+     * Koduje polecenie skopiowania blokw z wersji pliku, ktr ma odbiorca, w strumieniu Requesta "delta".
+     * @param requestId Identyfikator Requesta "delta".
+     * @param offset Pozycja w nowym pliku, od ktrej naley zapisa bloki.
+     * @param block Numer pierwszego bloku.
+     * @param length czna dugo kopiowanych blokw.
+     * @return Bufor zawierajcy ca ramk, ustawiony do odczytu.
+     */
+    public static ByteBuffer encodeCopy(int requestId, long offset, int block, long length)
+    {
+	ByteBuffer buf = ByteBuffer.allocate(4 + 2 + 4 + 8 + 4 + 8);
+	putHeader(buf, 2 + 4 + 8 + 4 + 8, COPY, requestId);
+	buf.putLong(offset);
+	buf.putInt(block);
+	buf.putLong(length);
+	buf.flip();
+	return buf;
+    }
+
+    /**
+     * Koduje ramk koczc plik przesyany w strumieniu plikw.
+     * @param requestId Identyfikator Requesta "download", "upload" albo "delta", ktrego dotyczy plik.
+     * @param message Opis bdu, jeeli plik nie mg zosta przesany w caoci, lub null.
+     * @return Bufor zawierajcy ca ramk, ustawiony do odczytu.
+     * @throws ProtocolException W przypadku zbyt dugiego opisu.
+     */
+    public static ByteBuffer encodeEntryEnd(int requestId, String message) throws ProtocolException
+    {
+	return encodeStatus(requestId, ENTRY_END, message);
+    }
+
+    /**
+     * Koduje odpowied potwierdzajc wykonanie Requesta (OK), lub informujc o bdzie (ERROR).
+     * @param requestId Identyfikator Requesta, na ktry udzielana jest odpowied.
+     * @param type OK, ERROR lub ENTRY_END.
+     * @param message Opis bdu, moe by null.
+     * @return Bufor zawierajcy ca ramk, ustawiony do odczytu.
+     * @throws ProtocolException W przypadku zbyt dugiego opisu.
+     */
+    public static ByteBuffer encodeStatus(int requestId, byte type, String message) throws ProtocolException
+    {
+	int length = 2 + 4 + encodedLength(message);
+	ByteBuffer buf = ByteBuffer.allocate(4 + length);
+	putHeader(buf, length, type, requestId);
+	putString(buf, message);
+	buf.flip();
+	return buf;
+    }
+
+    private static void putHeader(ByteBuffer buf, int length, byte type, int requestId)
+    {
+	buf.putInt(length);
+	buf.put(VERSION);
+	buf.put(type);
+	buf.putInt(requestId);
+    }
+
+    /**
+     * Odczytuje ze strumienia jedn ramk odpowiedzi serwera i sprawdza wersj protokou.
+     * @param in Strumie wejciowy gniazda.
+     * @return Bufor z ramk, pozycja wskazuje pole z rodzajem odpowiedzi.
+     * @throws IOException W przypadku bdu odczytu lub nieprawidowej ramki.
+     */
+    public static ByteBuffer readFrame(DataInputStream in) throws IOException
+    {
+	int length = in.readInt();
+	if(length < 6 || length > MAX_RESPONSE_SIZE)
+	{
+	    throw new ProtocolException("Nieprawidlowa dlugosc ramki: " + length);
+	}
+
+	byte[] frame = new byte[length];
+	in.readFully(frame);
+
+	ByteBuffer buf = ByteBuffer.wrap(frame);
+	checkVersion(buf.get());
+	return buf;
+    }
+
+    /**
+     * Sprawdza rodzaj i identyfikator ramki odczytanej metod readFrame(). Wykorzystywana przez odbiorc
+     * strumienia plikw, ktry oczekuje kolejnych ramek w cile okrelonej kolejnoci.
+     * @param frame Bufor z ramk, pozycja wskazuje pole z rodzajem wiadomoci.
+     * @param type Oczekiwany rodzaj wiadomoci.
+     * @param requestId Oczekiwany identyfikator Requesta.
+     * @throws ProtocolException Jeeli ramka jest innego rodzaju, lub dotyczy innego Requesta.
+     */
+    public static void expectFrame(ByteBuffer frame, byte type, int requestId) throws ProtocolException
+    {
+	try
+	{
+	    byte actual = frame.get();
+	    int id = frame.getInt();
+	    if(actual != type || id != requestId)
+	    {
+		throw new ProtocolException("Nieoczekiwana ramka: " + actual + " dla requesta " + id);
+	    }
+	}
+	catch(BufferUnderflowException e)
+	{
+	    throw new ProtocolException("Ramka jest niekompletna!");
+	}
+    }
+
+    /**
+     * Dekoduje list napisw z treci odpowiedzi LIST.
+     * @param buf Bufor z ramk, pozycja wskazuje pocztek listy.
+     * @return Odebrana lista.
+     * @throws ProtocolException W przypadku nieprawidowej ramki.
+     */
+    public static ArrayList<String> decodeList(ByteBuffer buf) throws ProtocolException
+    {
+	try
+	{
+	    return getStrings(buf);
+	}
+	catch(BufferUnderflowException e)
+	{
+	    throw new ProtocolException("Ramka jest niekompletna!");
+	}
+    }
+
+    /**
+     * Dekoduje tre odpowiedzi CHANGES.
+     * @param buf Bufor z ramk, pozycja wskazuje pocztek treci.
+     * @return Zmiany katalogu uytkownika.
+     * @throws ProtocolException W przypadku nieprawidowej ramki.
+     */
+    public static CatalogChanges decodeChanges(ByteBuffer buf) throws ProtocolException
+    {
+	try
+	{
+	    long epoch = buf.getLong();
+	    long version = buf.getLong();
+	    boolean full = buf.get() != 0;
+	    return new CatalogChanges(epoch, version, full, getStrings(buf));
+	}
+	catch(BufferUnderflowException e)
+	{
+	    throw new ProtocolException("Ramka jest niekompletna!");
+	}
+    }
+
+    private static void putStrings(ByteBuffer buf, List<String> list)
+    {
+	buf.putInt(list.size());
+	for(int i=0;i<list.size();i++)
+	{
+	    putString(buf, list.get(i));
+	}
+    }
+
+    private static ArrayList<String> getStrings(ByteBuffer buf) throws ProtocolException
+    {
+	int count = buf.getInt();
+	if(count < 0 || count > buf.remaining() / 2)
+	{
+	    throw new ProtocolException("Nieprawidlowa liczba elementow: " + count);
+	}
+
+	ArrayList<String> list = new ArrayList<String>(count);
+	for(int i=0;i<count;i++)
+	{
+	    list.add(getString(buf));
+	}
+	return list;
+    }
+
+    private static void checkVersion(byte version) throws ProtocolException
+    {
+	if(version != VERSION)
+	{
+	    throw new ProtocolException("Nieobslugiwana wersja protokolu: " + version);
+	}
+    }
+
+    /**
+     * Oblicza liczb bajtw jak zajmie zakodowany napis, bez tworzenia tablicy bajtw.
+     * @param s Napis, moe by null.
+     * @return Liczba bajtw razem z polem dugoci.
+     * @throws ProtocolException Jeeli napis jest zbyt dugi.
+     */
+    static int encodedLength(String s) throws ProtocolException
+    {
+	if(s == null)
+	{
+	    return 2;
+	}
+
+	int bytes = utf8Length(s);
+	if(bytes >= NULL_STRING)
+	{
+	    throw new ProtocolException("Napis jest zbyt dlugi!");
+	}
+	return 2 + bytes;
+    }
+
+    private static int utf8Length(String s)
+    {
+	int bytes = 0;
+	for(int i=0;i<s.length();i++)
+	{
+	    char c = s.charAt(i);
+	    if(c < 0x80)
+	    {
+		bytes += 1;
+	    }
+	    else if(c < 0x800)
+	    {
+		bytes += 2;
+	    }
+	    else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)))
+	    {
+		bytes += 4;
+		i++;
+	    }
+	    else
+	    {
+		bytes += 3;
+	    }
+	}
+	return bytes;
+    }
+
+    /**
+     * Zapisuje napis do bufora w kodowaniu UTF-8, znak po znaku, bez tworzenia poredniej tablicy bajtw.
+     * @param buf Bufor docelowy.
+     * @param s Napis, moe by null.
+     */
+    static void putString(ByteBuffer buf, String s)
+    {
+	if(s == null)
+	{
+	    buf.putShort((short) NULL_STRING);
+	    return;
+	}
+
+	int start = buf.position();
+	buf.putShort((short) 0);
+
+	for(int i=0;i<s.length();i++)
+	{
+	    char c = s.charAt(i);
+	    if(c < 0x80)
+	    {
+		buf.put((byte) c);
+	    }
+	    else if(c < 0x800)
+	    {
+		buf.put((byte) (0xC0 | (c >> 6)));
+		buf.put((byte) (0x80 | (c & 0x3F)));
+	    }
+	    else if(Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)))
+	    {
+		int cp = Character.toCodePoint(c, s.charAt(++i));
+		buf.put((byte) (0xF0 | (cp >> 18)));
+		buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+		buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+		buf.put((byte) (0x80 | (cp & 0x3F)));
+	    }
+	    else
+	    {
+		buf.put((byte) (0xE0 | (c >> 12)));
+		buf.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+		buf.put((byte) (0x80 | (c & 0x3F)));
+	    }
+	}
+
+	buf.putShort(start, (short) (buf.position() - start - 2));
+    }
+
+    /**
+     * Odczytuje napis z bufora.
+     * @param buf Bufor rdowy.
+     * @return Odczytany napis, lub null.
+     * @throws ProtocolException Jeeli dugo napisu wykracza poza ramk.
+     */
+    public static String getString(ByteBuffer buf) throws ProtocolException
+    {
+	int length = buf.getShort() & 0xFFFF;
+	if(length == NULL_STRING)
+	{
+	    return null;
+	}
+	if(length > buf.remaining())
+	{
+	    throw new ProtocolException("Nieprawidlowa dlugosc napisu!");
+	}
+
+	String s;
+	if(buf.hasArray())
+	{
+	    s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+	    buf.position(buf.position() + length);
+	}
+	else
+	{
+	    byte[] bytes = new byte[length];
+	    buf.get(bytes);
+	    s = new String(bytes, StandardCharsets.UTF_8);
+	}
+	return s;
+    }
+
+}
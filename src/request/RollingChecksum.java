@@ -0,0 +1,58 @@
+package request;
+
+
+import java.nio.ByteBuffer;
+
+/**
+ * Saba suma kontrolna bloku (taka jak w programie rsync), ktr mona przesun o jeden bajt w czasie staym.
+ * Dziki temu nadawca zmienionego pliku moe sprawdzi blok zaczynajcy si na kadej pozycji pliku, a skrt
+ * BlockSignatures.strong() oblicza tylko dla blokw, ktrych saba suma pasuje do ktrego bloku odbiorcy.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class RollingChecksum {
+
+    private int a;
+    private int b;
+    private int length;
+
+    /**
+     * Oblicza sum bloku od nowa.
+     * @param buf Bufor z danymi.
+     * @param offset Pozycja pocztku bloku w buforze.
+     * @param length Dugo bloku.
+     */
+    public void reset(ByteBuffer buf, int offset, int length)
+    {
+	a = 0;
+	b = 0;
+	for(int i=0;i<length;i++)
+	{
+	    int x = buf.get(offset + i) & 0xFF;
+	    a += x;
+	    b += (length - i) * x;
+	}
+	this.length = length;
+    }
+
+    /**
+     * Przesuwa blok o jeden bajt.
+     * @param out Pierwszy bajt bloku, ktry opuszcza blok.
+     * @param in Bajt doczany na kocu bloku.
+     */
+    public void roll(byte out, byte in)
+    {
+	int x = out & 0xFF;
+	a += (in & 0xFF) - x;
+	b += a - length * x;
+    }
+
+    /**
+     * @return Suma bloku: dwie 16-bitowe sumy w jednej wartoci typu int.
+     */
+    public int value()
+    {
+	return (a & 0xFFFF) | (b << 16);
+    }
+
+}
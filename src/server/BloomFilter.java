@@ -0,0 +1,164 @@
+package server;
+
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtr Blooma par (uytkownik, plik). Odpowied "nie ma" jest zawsze prawdziwa, odpowied "moe by"
+ * z niewielkim prawdopodobiestwem faszywa (TARGET_FALSE_POSITIVE_RATE). Dziki temu zapytania o pliki
+ * ktrych nie ma na dysku mog zosta odrzucone bez przegldania katalogu.
+ * Filtr ronie razem z liczb wpisw: gdy obecna cz filtra zapeni si, dodawana jest nowa, dwa razy
+ * wiksza, a zapytanie sprawdza wszystkie czci. Dodawanie i sprawdzanie wpisw nie wymaga blokad.
+ * @author Sebastian Paweoszek
+ *
+ */
+class BloomFilter {
+
+    static final double TARGET_FALSE_POSITIVE_RATE = 0.01;
+    static final int HASHES = 7;
+
+    private CopyOnWriteArrayList<Stage> stages = new CopyOnWriteArrayList<Stage>();
+
+    /**
+     * Tworzy pusty filtr.
+     * @param expected Spodziewana liczba wpisw.
+     */
+    BloomFilter(int expected)
+    {
+	stages.add(new Stage(Math.max(1024, expected)));
+    }
+
+    /**
+     * Oblicza skrt pary (uytkownik, plik), przekazywany do metod add() i mightContain().
+     * @param username Waciciel pliku.
+     * @param fileName Nazwa pliku.
+     * @return 64-bitowy skrt (FNV-1a).
+     */
+    static long hash(String username, String fileName)
+    {
+	long h = 0xcbf29ce484222325L;
+	for(int i=0;i<username.length();i++)
+	{
+	    h = (h ^ username.charAt(i)) * 0x100000001b3L;
+	}
+	h = (h ^ 0xFFFF) * 0x100000001b3L;
+	for(int i=0;i<fileName.length();i++)
+	{
+	    h = (h ^ fileName.charAt(i)) * 0x100000001b3L;
+	}
+	return h ^ (h >>> 29);
+    }
+
+    /**
+     * Dodaje wpis do filtra.
+     * @param hash Skrt obliczony metod hash().
+     */
+    void add(long hash)
+    {
+	Stage stage = stages.get(stages.size() - 1);
+	if(stage.count.incrementAndGet() > stage.capacity)
+	{
+	    stage = grow(stage);
+	}
+	stage.add(hash);
+    }
+
+    /**
+     * Sprawdza czy wpis mg zosta dodany do filtra.
+     * @param hash Skrt obliczony metod hash().
+     * @return false jeeli wpis na pewno nie zosta dodany.
+     */
+    boolean mightContain(long hash)
+    {
+	for(Stage stage:stages)
+	{
+	    if(stage.mightContain(hash))
+	    {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Zwraca szacowane prawdopodobiestwo faszywie dodatniej odpowiedzi przy obecnym zapenieniu filtra.
+     * @return Prawdopodobiestwo, od 0 do 1.
+     */
+    double expectedFalsePositiveRate()
+    {
+	double none = 1;
+	for(Stage stage:stages)
+	{
+	    double fill = 1 - Math.exp(-(double) HASHES * Math.min(stage.count.get(), stage.capacity) / stage.bits);
+	    none *= 1 - Math.pow(fill, HASHES);
+	}
+	return 1 - none;
+    }
+
+    private synchronized Stage grow(Stage full)
+    {
+	Stage last = stages.get(stages.size() - 1);
+	if(last == full)
+	{
+	    last = new Stage(full.capacity * 2);
+	    stages.add(last);
+	}
+	last.count.incrementAndGet();
+	return last;
+    }
+
+    /**
+     * Jedna cz filtra, o staym rozmiarze.
+     */
+    private static class Stage
+    {
+	int capacity;
+	long bits;
+	AtomicLongArray words;
+	AtomicInteger count = new AtomicInteger();
+
+	Stage(int capacity)
+	{
+	    this.capacity = capacity;
+	    // Liczba bitw dla zadanego prawdopodobiestwa: -n * ln(p) / ln(2)^2.
+	    long needed = (long) Math.ceil(-capacity * Math.log(TARGET_FALSE_POSITIVE_RATE) / (Math.log(2) * Math.log(2)));
+	    this.words = new AtomicLongArray((int) ((needed + 63) / 64));
+	    this.bits = words.length() * 64L;
+	}
+
+	void add(long hash)
+	{
+	    int h1 = (int) hash;
+	    int h2 = (int) (hash >>> 32);
+	    for(int i=0;i<HASHES;i++)
+	    {
+		long bit = ((h1 + i * h2) & 0x7FFFFFFFL) % bits;
+		int word = (int) (bit >>> 6);
+		long mask = 1L << bit;
+		long current = words.get(word);
+		while((current & mask) == 0 && !words.compareAndSet(word, current, current | mask))
+		{
+		    current = words.get(word);
+		}
+	    }
+	}
+
+	boolean mightContain(long hash)
+	{
+	    int h1 = (int) hash;
+	    int h2 = (int) (hash >>> 32);
+	    for(int i=0;i<HASHES;i++)
+	    {
+		long bit = ((h1 + i * h2) & 0x7FFFFFFFL) % bits;
+		if((words.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+		{
+		    return false;
+		}
+	    }
+	    return true;
+	}
+    }
+
+}
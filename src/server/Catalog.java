@@ -0,0 +1,507 @@
+package server;
+
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import request.CatalogChanges;
+
+/**
+ * Katalog plikw przechowywany w pamici. Odwzorowuje uytkownika na jego pliki, a kady plik na dysk,
+ * na ktrym si znajduje, i skrt jego zawartoci. Katalogi dyskw s wczytywane raz, przy uruchomieniu serwera,
+ * a nastpnie katalog jest uzupeniany przy kadym dodaniu wpisu. Dziki temu odszukanie pliku nie wymaga
+ * przegldania plikw katalogu na dyskach, a lista plikw uytkownika jest tworzona w czasie zalenym
+ * tylko od liczby jego plikw.
+ * Nazwy uytkownikw i plikw s zapisywane raz, w sownikach (StringIds), a wpisy przechowuj tylko ich
+ * numery: para (uytkownik, plik) jest kluczem typu long odwzorowanym na numer dysku (LongIntMap),
+ * a pliki uytkownika s list numerw (IntMultimap). Nazwa pliku udostpnionego kilku uytkownikom
+ * jest przechowywana tylko raz. Skrty zawartoci plikw (ContentStore) rwnie maj swj sownik, a ich
+ * numer jest zapisany razem z numerem dysku, w tej samej wartoci typu int (patrz location()).
+ * Przed katalogiem znajduj si filtry Blooma (po jednym dla kadego dysku), ktre bez blokad odrzucaj
+ * zapytania o pliki ktrych na pewno nie ma. Filtr dysku jest uywany dopiero po wczytaniu katalogu dysku.
+ * Nowa wersja pliku (replace()) jest dopisywana do katalogu tego samego dysku, dlatego z kilku wpisw pliku
+ * na jednym dysku obowizuje ostatni, a z wpisw na rnych dyskach wpis z dysku o najniszym numerze.
+ * Kady uytkownik ma wersj katalogu, zwikszan przy kadym dodaniu lub zastpieniu jego pliku po
+ * uruchomieniu serwera, oraz dziennik ostatnich zmian (ChangeLog). Dziki temu Request "sync" moe zwrci
+ * tylko pliki zmienione od wersji znanej klientowi (changes()). Wersje s wane tylko w obrbie jednego
+ * uruchomienia serwera, ktre wyznacza numer katalogu (epoch).
+ * Z katalogu mog jednoczenie korzysta wszystkie wtki obsugujce Requesty.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class Catalog {
+
+    private static final String[] DISCS = { null, "1", "2", "3", "4", "5" };
+    private static final int CONTENT_BITS = 28;
+
+    private StringIds userIds = new StringIds();
+    private StringIds fileIds = new StringIds();
+    private StringIds contentIds = new StringIds();
+    private LongIntMap discs = new LongIntMap();
+    private IntMultimap userFiles = new IntMultimap();
+    private BitSet listed = new BitSet();
+    private int[] userOrder = new int[16];
+    private int userCount = 0;
+    private ChangeLog[] changeLogs = new ChangeLog[16];
+    private final long epoch = System.currentTimeMillis();
+    private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile boolean loaded = false;
+
+    private BloomFilter[] filters = new BloomFilter[6];
+    private AtomicInteger readyFilters = new AtomicInteger();
+    private AtomicLong rejected = new AtomicLong();
+    private AtomicLong falsePositives = new AtomicLong();
+
+    /**
+     * Tworzy pusty katalog. Rozmiar filtrw Blooma jest dobierany do rozmiaru katalogw dyskw.
+     * @param directory Folder zawierajcy foldery dyskw.
+     */
+    Catalog(String directory)
+    {
+	for(int i=1;i<6;i++)
+	{
+	    filters[i] = new BloomFilter((int) Math.min(Integer.MAX_VALUE / 2, estimateEntries(directory, i)));
+	}
+    }
+
+    /**
+     * Szacuje liczb wpisw dysku na podstawie rozmiaru plikw jego katalogu.
+     */
+    private static long estimateEntries(String directory, int disc)
+    {
+	long bytes = 0;
+	String[] names = { CatalogFiles.CSV, CatalogFiles.SNAPSHOT, CatalogFiles.LOG, CatalogFiles.LOG_COMPACTING };
+	for(String name:names)
+	{
+	    Path path = CatalogFiles.path(directory, disc, name);
+	    try
+	    {
+		if(Files.exists(path))
+		{
+		    bytes += Files.size(path);
+		}
+	    }
+	    catch(IOException e)
+	    {
+		e.printStackTrace();
+	    }
+	}
+	return bytes / 12;
+    }
+
+    /**
+     * Wczytuje wpisy ze wszystkich piciu plikw csv, rwnolegle (CatalogLoader). Wpisy dodane metod add()
+     * w trakcie wczytywania nie zostan utracone. Do czasu zakoczenia wczytywania katalog nie powinien by odpytywany.
+     * @param directory Folder zawierajcy foldery dyskw.
+     */
+    void load(String directory)
+    {
+	long start = System.currentTimeMillis();
+	int count = new CatalogLoader(this, directory).load();
+
+	loaded = true;
+	System.out.println("Wczytano katalog: " + count + " wpisow w " + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    /**
+     * Sprawdza czy katalog zosta ju wczytany.
+     * @return true jeeli katalog moe by odpytywany.
+     */
+    boolean isLoaded()
+    {
+	return loaded;
+    }
+
+    /**
+     * Dodaje do katalogu plik nalecy do uytkownika.
+     * @param username Waciciel pliku.
+     * @param fileName Nazwa pliku.
+     * @param content Skrt zawartoci pliku, lub null jeeli plik jest zapisany pod wasn nazw.
+     * @param disc Dysk na ktrym znajduje si plik.
+     */
+    void add(String username, String fileName, String content, String disc)
+    {
+	filters[Integer.parseInt(disc)].add(BloomFilter.hash(username, fileName));
+
+	lock.writeLock().lock();
+	try
+	{
+	    int user = userIds.intern(username);
+	    int file = fileIds.intern(fileName);
+	    // Jeeli ten sam plik wystpuje na kilku dyskach, obowizuje pierwszy wpis, tak jak przy przegldaniu dyskw.
+	    if(put(user, file, location(Integer.parseInt(disc), content), false))
+	    {
+		changeLog(user).record(file);
+	    }
+	    list(user);
+	}
+	finally
+	{
+	    lock.writeLock().unlock();
+	}
+    }
+
+    /**
+     * Dodaje do katalogu wpis wczytany z dysku. Dyski s wczytywane jednoczenie, wic jeeli ten sam plik
+     * wystpuje na kilku dyskach, obowizuje wpis z dysku o najniszym numerze, niezalenie od kolejnoci
+     * wczytania. Wpisy jednego dysku s wczytywane po kolei, a pniejszy wpis zastpuje wczeniejszy (replace()).
+     * Uytkownik nie jest dodawany do listy uytkownikw, robi to metoda addUsers().
+     * @param username Waciciel pliku.
+     * @param fileName Nazwa pliku.
+     * @param content Skrt zawartoci pliku, lub null jeeli plik jest zapisany pod wasn nazw.
+     * @param disc Dysk na ktrym znajduje si plik.
+     */
+    void addLoaded(String username, String fileName, String content, String disc)
+    {
+	filters[Integer.parseInt(disc)].add(BloomFilter.hash(username, fileName));
+
+	lock.writeLock().lock();
+	try
+	{
+	    put(userIds.intern(username), fileIds.intern(fileName), location(Integer.parseInt(disc), content), true);
+	}
+	finally
+	{
+	    lock.writeLock().unlock();
+	}
+    }
+
+    /**
+     * Zastpuje pooenie pliku uytkownika now wersj pliku, albo dodaje plik jeeli go nie ma.
+     * Nowa wersja musi znajdowa si na tym samym dysku co poprzednia, poniewa przy wczytywaniu katalogu
+     * ostatni wpis pliku obowizuje tylko w obrbie jednego dysku.
+     * @param username Waciciel pliku.
+     * @param fileName Nazwa pliku.
+     * @param content Skrt zawartoci nowej wersji pliku.
+     * @param disc Dysk na ktrym znajduje si plik.
+     */
+    void replace(String username, String fileName, String content, String disc)
+    {
+	filters[Integer.parseInt(disc)].add(BloomFilter.hash(username, fileName));
+	lock.writeLock().lock();
+	try
+	{
+	    int user = userIds.intern(username);
+	    int file = fileIds.intern(fileName);
+	    if(discs.put(key(user, file), location(Integer.parseInt(disc), content), true))
+	    {
+		userFiles.add(user, file);
+	    }
+	    changeLog(user).record(file);
+	    list(user);
+	}
+	finally
+	{
+	    lock.writeLock().unlock();
+	}
+    }
+
+    /**
+     * @return true jeeli plik zosta dodany do plikw uytkownika.
+     */
+    private boolean put(int user, int file, int location, boolean lowestDisc)
+    {
+	long key = key(user, file);
+	// Wpis z dysku o niszym numerze ma pierwszestwo, a pniejszy wpis z tego samego dysku jest nowsz wersj pliku.
+	boolean replace = lowestDisc && (location >>> CONTENT_BITS) <= (discs.get(key, location) >>> CONTENT_BITS);
+	if(discs.put(key, location, replace))
+	{
+	    userFiles.add(user, file);
+	    return true;
+	}
+	return false;
+    }
+
+    private ChangeLog changeLog(int user)
+    {
+	if(user >= changeLogs.length)
+	{
+	    ChangeLog[] grown = new ChangeLog[Math.max(user + 1, changeLogs.length * 2)];
+	    System.arraycopy(changeLogs, 0, grown, 0, changeLogs.length);
+	    changeLogs = grown;
+	}
+	if(changeLogs[user] == null)
+	{
+	    changeLogs[user] = new ChangeLog();
+	}
+	return changeLogs[user];
+    }
+
+    /**
+     * Koduje pooenie pliku: numer dysku w najstarszych bitach, dziki czemu mniejsza warto oznacza
+     * dysk o niszym numerze, i numer skrtu zawartoci zwikszony o 1 (0 dla plikw bez skrtu).
+     * Warto 0 oznacza brak pliku.
+     */
+    private int location(int disc, String content)
+    {
+	return (disc << CONTENT_BITS) | (content == null ? 0 : contentIds.intern(content) + 1);
+    }
+
+    /**
+     * Dopisuje uytkownika na koniec listy uytkownikw, jeeli jeszcze si na niej nie znajduje.
+     */
+    private void list(int user)
+    {
+	if(listed.get(user))
+	{
+	    return;
+	}
+	listed.set(user);
+
+	if(userCount == userOrder.length)
+	{
+	    int[] grown = new int[userCount * 2];
+	    System.arraycopy(userOrder, 0, grown, 0, userCount);
+	    userOrder = grown;
+	}
+	userOrder[userCount++] = user;
+    }
+
+    /**
+     * Oznacza filtr Blooma dysku jako kompletny, po wczytaniu wszystkich wpisw dysku.
+     * @param disc Numer dysku.
+     */
+    void markFilterReady(int disc)
+    {
+	int ready;
+	do
+	{
+	    ready = readyFilters.get();
+	}
+	while(!readyFilters.compareAndSet(ready, ready | (1 << disc)));
+    }
+
+    /**
+     * Sprawdza czy filtr Blooma dysku jest kompletny.
+     * @param disc Numer dysku.
+     * @return true po wczytaniu katalogu dysku.
+     */
+    boolean isFilterReady(int disc)
+    {
+	return (readyFilters.get() & (1 << disc)) != 0;
+    }
+
+    /**
+     * Sprawdza w filtrze Blooma dysku czy plik moe znajdowa si na dysku.
+     * @param disc Numer dysku.
+     * @param hash Skrt pary obliczony metod BloomFilter.hash().
+     * @return false jeeli pliku na pewno nie ma na dysku. Dopki katalog dysku nie zosta wczytany, zawsze true.
+     */
+    boolean mightContain(int disc, long hash)
+    {
+	if(!isFilterReady(disc))
+	{
+	    return true;
+	}
+	if(filters[disc].mightContain(hash))
+	{
+	    return true;
+	}
+	rejected.incrementAndGet();
+	return false;
+    }
+
+    /**
+     * Zapisuje w statystykach, e plik przepuszczony przez filtr Blooma nie zosta znaleziony.
+     */
+    void falsePositive()
+    {
+	falsePositives.incrementAndGet();
+    }
+
+    /**
+     * Zwraca statystyki filtrw Blooma: liczb odrzuconych zapyta, liczb faszywie dodatnich odpowiedzi
+     * i ich udzia wrd zapyta o nieistniejce pliki, oraz udzia oczekiwany przy obecnym zapenieniu filtrw.
+     * @return Opis statystyk.
+     */
+    String filterStats()
+    {
+	long r = rejected.get();
+	long fp = falsePositives.get();
+	// Plik jest przepuszczany jeeli przepuci go filtr ktregokolwiek dysku.
+	double none = 1;
+	for(int i=1;i<6;i++)
+	{
+	    none *= 1 - filters[i].expectedFalsePositiveRate();
+	}
+	double expected = 1 - none;
+	return String.format("Filtr: odrzucono %d, falszywie %d (%.2f%%, oczekiwane %.2f%%)",
+		r, fp, r + fp == 0 ? 0.0 : 100.0 * fp / (r + fp), 100 * expected);
+    }
+
+    /**
+     * Dodaje uytkownikw do listy uytkownikw, pomijajc tych ktrzy ju si na niej znajduj.
+     * @param usernames Uytkownicy w kolejnoci w jakiej maj si pojawi na licie.
+     */
+    void addUsers(ArrayList<String> usernames)
+    {
+	lock.writeLock().lock();
+	try
+	{
+	    for(String username:usernames)
+	    {
+		list(userIds.intern(username));
+	    }
+	}
+	finally
+	{
+	    lock.writeLock().unlock();
+	}
+    }
+
+    /**
+     * Zwraca list plikw nalecych do uytkownika.
+     * @param username Uytkownik ktrego pliki chcemy odnalez.
+     * @return Lista plikw nalecych do uytkownika.
+     */
+    ArrayList<String> userFiles(String username)
+    {
+	lock.readLock().lock();
+	try
+	{
+	    int user = userIds.get(username);
+	    if(user < 0)
+	    {
+		return new ArrayList<String>();
+	    }
+
+	    int count = userFiles.size(user);
+	    int[] files = userFiles.values(user);
+	    ArrayList<String> result = new ArrayList<String>(count);
+	    for(int i=0;i<count;i++)
+	    {
+		result.add(fileIds.name(files[i]));
+	    }
+	    return result;
+	}
+	finally
+	{
+	    lock.readLock().unlock();
+	}
+    }
+
+    /**
+     * Zwraca pliki uytkownika dodane lub zastpione od wersji znanej klientowi, albo pen list plikw
+     * jeeli wersja pochodzi z innego uruchomienia serwera, jest nowsza od obecnej (np. z innego serwera),
+     * lub zmiany od niej nie s ju przechowywane.
+     * @param username Uytkownik ktrego pliki chcemy odnalez.
+     * @param epoch Numer katalogu znany klientowi, lub 0.
+     * @param since Wersja katalogu uytkownika znana klientowi.
+     * @return Zmiany i obecna wersja katalogu uytkownika.
+     */
+    CatalogChanges changes(String username, long epoch, long since)
+    {
+	lock.readLock().lock();
+	try
+	{
+	    int user = userIds.get(username);
+	    ChangeLog log = user < 0 || user >= changeLogs.length ? null : changeLogs[user];
+	    long version = log == null ? 0 : log.version();
+	    if(epoch == this.epoch && since >= 0 && since <= version)
+	    {
+		int[] changed = log == null ? new int[0] : log.since(since);
+		if(changed != null)
+		{
+		    ArrayList<String> result = new ArrayList<String>(changed.length);
+		    for(int file:changed)
+		    {
+			result.add(fileIds.name(file));
+		    }
+		    return new CatalogChanges(this.epoch, version, false, result);
+		}
+	    }
+	    return new CatalogChanges(this.epoch, version, true, userFiles(username));
+	}
+	finally
+	{
+	    lock.readLock().unlock();
+	}
+    }
+
+    /**
+     * Zwraca pooenie pliku uytkownika: dysk i skrt zawartoci.
+     * @param username Waciciel pliku.
+     * @param fileName Nazwa pliku.
+     * @return Pooenie pliku, lub null jeeli plik nie istnieje.
+     */
+    FileLocation localise(String username, String fileName)
+    {
+	long hash = BloomFilter.hash(username, fileName);
+	boolean filtered = true;
+	for(int i=1;i<6 && filtered;i++)
+	{
+	    filtered = !filters[i].mightContain(hash);
+	}
+	if(filtered)
+	{
+	    rejected.incrementAndGet();
+	    return null;
+	}
+
+	FileLocation location = find(username, fileName);
+	if(location == null)
+	{
+	    falsePositive();
+	}
+	return location;
+    }
+
+    private FileLocation find(String username, String fileName)
+    {
+	lock.readLock().lock();
+	try
+	{
+	    int user = userIds.get(username);
+	    int file = fileIds.get(fileName);
+	    if(user < 0 || file < 0)
+	    {
+		return null;
+	    }
+	    int location = discs.get(key(user, file), 0);
+	    if(location == 0)
+	    {
+		return null;
+	    }
+	    int content = location & ((1 << CONTENT_BITS) - 1);
+	    return new FileLocation(DISCS[location >>> CONTENT_BITS], content == 0 ? null : contentIds.name(content - 1));
+	}
+	finally
+	{
+	    lock.readLock().unlock();
+	}
+    }
+
+    /**
+     * Zwraca list uytkownikw, w kolejnoci w jakiej zostali dodani do katalogu.
+     * @return Lista uytkownikw.
+     */
+    ArrayList<String> users()
+    {
+	lock.readLock().lock();
+	try
+	{
+	    ArrayList<String> result = new ArrayList<String>(userCount);
+	    for(int i=0;i<userCount;i++)
+	    {
+		result.add(userIds.name(userOrder[i]));
+	    }
+	    return result;
+	}
+	finally
+	{
+	    lock.readLock().unlock();
+	}
+    }
+
+    private static long key(int user, int file)
+    {
+	return ((long) user << 32) | file;
+    }
+
+}
@@ -0,0 +1,414 @@
+package server;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Klasa dostarczajca metody do operacji na plikach katalogu jednego dysku. Katalog dysku skada si z:
+ * <ul>
+ * <li>"book.snap" - migawki zawierajcej wpisy bez powtrze, pogrupowane wedug uytkownikw,</li>
+ * <li>"book.log" - dziennika do ktrego CatalogLog dopisuje nowe wpisy,</li>
+ * <li>"book.log.1" - dziennika odoonego do scalenia z migawk (istnieje tylko w trakcie scalania).</li>
+ * </ul>
+ * Wpisy dysku to kolejno wpisy migawki, "book.log.1" i "book.log". Scalanie (metoda compact()) zapisuje
+ * now migawk z wpisw migawki i "book.log.1", dziki czemu rozmiar katalogu zaley od liczby
+ * rnych wpisw, a nie od liczby wszystkich dodanych wpisw.
+ * Jeeli dysk nie ma jeszcze migawki, jej rol peni dawny plik "book.csv". Pierwsze scalanie przenosi
+ * jego wpisy do migawki i zmienia jego nazw na "book.csv.old".
+ * Wpis moe wskazywa zawarto pliku (skrt ContentHash), przechowywan na dysku pod nazw rwn skrtowi
+ * (ContentStore). Wpisy bez skrtu, np. z pliku csv, wskazuj plik zapisany na dysku pod wasn nazw.
+ * Odczyt wszystkich wpisw dysku (metoda scan()) i podmiana migawki w trakcie scalania wykluczaj si
+ * nawzajem, dziki czemu odczyt nie pominie wpisw przeniesionych wanie z dziennika do migawki.
+ * @author Sebastian Paweoszek
+ *
+ */
+class CatalogFiles {
+
+    static final String CSV = "book.csv";
+    static final String CSV_OLD = "book.csv.old";
+    static final String SNAPSHOT = "book.snap";
+    static final String SNAPSHOT_TMP = "book.snap.tmp";
+    static final String LOG = "book.log";
+    static final String LOG_COMPACTING = "book.log.1";
+
+    private static final int SNAPSHOT_MAGIC = 0x424F4F4B;
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private static final ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[6];
+
+    static
+    {
+	for(int i=1;i<6;i++)
+	{
+	    locks[i] = new ReentrantReadWriteLock();
+	}
+    }
+
+    /**
+     * Obiekt odbierajcy kolejne wpisy dysku.
+     */
+    interface Visitor
+    {
+	/**
+	 * @param username Waciciel pliku.
+	 * @param fileName Nazwa pliku.
+	 * @param content Skrt zawartoci pliku, lub null jeeli plik jest zapisany pod wasn nazw.
+	 * @return false jeeli odczyt ma zosta przerwany.
+	 */
+	boolean entry(String username, String fileName, String content);
+    }
+
+    /**
+     * Sprawdza czy plik o podanej nazwie naley do katalogu, a nie do uytkownika.
+     * @param name Nazwa pliku.
+     * @return true dla plikw katalogu.
+     */
+    static boolean isCatalogFile(String name)
+    {
+	return CSV.equals(name) || CSV_OLD.equals(name) || SNAPSHOT.equals(name) || SNAPSHOT_TMP.equals(name)
+		|| LOG.equals(name) || LOG_COMPACTING.equals(name);
+    }
+
+    static Path path(String directory, int disc, String name)
+    {
+	return Paths.get(directory, Integer.toString(disc), name);
+    }
+
+    /**
+     * Zwraca blokad plikw katalogu dysku. Odczyt wpisw wymaga blokady do odczytu, a zmiana zestawu
+     * plikw (podmiana migawki, przeniesienie dziennika) blokady do zapisu.
+     * @param disc Numer dysku.
+     * @return Blokada dysku.
+     */
+    static ReentrantReadWriteLock lock(int disc)
+    {
+	return locks[disc];
+    }
+
+    /**
+     * Przekazuje wszystkie wpisy dysku: migawki (lub pliku csv jeeli migawka nie istnieje) oraz dziennikw.
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param disc Numer dysku.
+     * @param visitor Obiekt odbierajcy wpisy.
+     * @return false jeeli odczyt zosta przerwany przez visitor.
+     */
+    static boolean scan(String directory, int disc, Visitor visitor) throws IOException
+    {
+	ReentrantReadWriteLock.ReadLock lock = locks[disc].readLock();
+	lock.lock();
+	try
+	{
+	    if(Files.exists(path(directory, disc, SNAPSHOT)))
+	    {
+		if(!readSnapshot(path(directory, disc, SNAPSHOT), visitor))
+		{
+		    return false;
+		}
+	    }
+	    else if(!new CsvScanner(visitor).scan(path(directory, disc, CSV)))
+	    {
+		return false;
+	    }
+
+	    return readLog(path(directory, disc, LOG_COMPACTING), visitor) >= 0
+		    && readLog(path(directory, disc, LOG), visitor) >= 0;
+	}
+	finally
+	{
+	    lock.unlock();
+	}
+    }
+
+    /**
+     * Odczytuje wpisy z migawki. Migawka w wersji 1 nie zawiera skrtw zawartoci plikw.
+     */
+    static boolean readSnapshot(Path path, Visitor visitor) throws IOException
+    {
+	DataInputStream in;
+	try
+	{
+	    in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024));
+	}
+	catch(NoSuchFileException e)
+	{
+	    return true;
+	}
+
+	try
+	{
+	    int version = in.readInt() == SNAPSHOT_MAGIC ? in.readInt() : -1;
+	    if(version != 1 && version != SNAPSHOT_VERSION)
+	    {
+		throw new IOException("Nieprawidlowy format pliku " + path);
+	    }
+
+	    int users = in.readInt();
+	    for(int i=0;i<users;i++)
+	    {
+		String username = in.readUTF();
+		int files = in.readInt();
+		for(int j=0;j<files;j++)
+		{
+		    String fileName = in.readUTF();
+		    String content = version == 1 ? null : in.readUTF();
+		    if(!visitor.entry(username, fileName, content == null || content.isEmpty() ? null : content))
+		    {
+			return false;
+		    }
+		}
+	    }
+	    return true;
+	}
+	finally
+	{
+	    in.close();
+	}
+    }
+
+    /**
+     * Odczytuje wpisy z dziennika. Odczyt koczy si na pierwszym niekompletnym lub uszkodzonym wpisie,
+     * np. zapisanym tylko czciowo w chwili awarii.
+     * @return Liczba bajtw poprawnych wpisw, lub -1 jeeli odczyt zosta przerwany przez visitor.
+     */
+    static long readLog(Path path, Visitor visitor) throws IOException
+    {
+	DataInputStream in;
+	try
+	{
+	    in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 64 * 1024));
+	}
+	catch(NoSuchFileException e)
+	{
+	    return 0;
+	}
+
+	long valid = 0;
+	CRC32 crc = new CRC32();
+
+	try
+	{
+	    while(true)
+	    {
+		byte[] record;
+		try
+		{
+		    int length = in.readInt();
+		    if(length < 4 || length > 3 * 65536 + 4)
+		    {
+			break;
+		    }
+		    record = new byte[length];
+		    in.readFully(record);
+		    crc.reset();
+		    crc.update(record, 0, length - 4);
+		    if((int) crc.getValue() != readInt(record, length - 4))
+		    {
+			break;
+		    }
+		}
+		catch(EOFException e)
+		{
+		    break;
+		}
+
+		DataInputStream fields = new DataInputStream(new ByteArrayInputStream(record, 0, record.length - 4));
+		String username = fields.readUTF();
+		String fileName = fields.readUTF();
+		// Skrt zawartoci jest zapisywany tylko we wpisach, ktre go maj.
+		String content = fields.available() > 0 ? fields.readUTF() : null;
+		valid += 4 + record.length;
+
+		if(!visitor.entry(username, fileName, content))
+		{
+		    return -1;
+		}
+	    }
+	}
+	finally
+	{
+	    in.close();
+	}
+	return valid;
+    }
+
+    /**
+     * Koduje wpis dziennika: dugo, nazwa uytkownika, nazwa pliku, skrt zawartoci (jeeli nie jest null)
+     * i suma kontrolna CRC32.
+     * @return Zakodowany wpis.
+     */
+    static byte[] encodeRecord(String username, String fileName, String content) throws IOException
+    {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+	DataOutputStream out = new DataOutputStream(bytes);
+	out.writeInt(0);
+	out.writeUTF(username);
+	out.writeUTF(fileName);
+	if(content != null)
+	{
+	    out.writeUTF(content);
+	}
+	out.writeInt(0);
+
+	byte[] record = bytes.toByteArray();
+	writeInt(record, 0, record.length - 4);
+	CRC32 crc = new CRC32();
+	crc.update(record, 4, record.length - 8);
+	writeInt(record, record.length - 4, (int) crc.getValue());
+	return record;
+    }
+
+    /**
+     * Obcina dziennik do ostatniego poprawnego wpisu, aby nowe wpisy nie trafiy za uszkodzon kocwk.
+     * @param path cieka dziennika.
+     */
+    static void recoverLog(Path path) throws IOException
+    {
+	if(!Files.exists(path))
+	{
+	    return;
+	}
+
+	long valid = readLog(path, new Visitor() {
+	    @Override
+	    public boolean entry(String username, String fileName, String content) {
+		return true;
+	    }
+	});
+
+	if(valid < Files.size(path))
+	{
+	    System.out.println("Obcinam uszkodzona koncowke dziennika " + path);
+	    FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+	    try
+	    {
+		channel.truncate(valid);
+		channel.force(true);
+	    }
+	    finally
+	    {
+		channel.close();
+	    }
+	}
+    }
+
+    /**
+     * Scala migawk dysku (lub plik csv) z dziennikiem "book.log.1" i zapisuje now migawk bez powtrze.
+     * Migawka jest zapisywana do pliku tymczasowego i podmieniana dopiero po utrwaleniu na dysku, wic
+     * przerwane scalanie nie powoduje utraty wpisw. Dziennik "book.log.1" jest usuwany po podmianie migawki.
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param disc Numer dysku.
+     * @return Liczba wpisw w nowej migawce.
+     */
+    static int compact(String directory, int disc) throws IOException
+    {
+	final LinkedHashMap<String, LinkedHashMap<String, String>> entries = new LinkedHashMap<String, LinkedHashMap<String, String>>();
+	Visitor collector = new Visitor() {
+	    @Override
+	    public boolean entry(String username, String fileName, String content) {
+		LinkedHashMap<String, String> files = entries.get(username);
+		if(files == null)
+		{
+		    files = new LinkedHashMap<String, String>();
+		    entries.put(username, files);
+		}
+		// Pniejszy wpis pliku jest jego nowsz wersj, tak jak w katalogu w pamici. Plik zachowuje
+		// pozycj pierwszego wpisu.
+		files.put(fileName, content);
+		return true;
+	    }
+	};
+
+	Path snapshot = path(directory, disc, SNAPSHOT);
+	boolean migrating = !Files.exists(snapshot);
+	if(migrating)
+	{
+	    new CsvScanner(collector).scan(path(directory, disc, CSV));
+	}
+	else
+	{
+	    readSnapshot(snapshot, collector);
+	}
+	readLog(path(directory, disc, LOG_COMPACTING), collector);
+
+	int count = 0;
+	Path tmp = path(directory, disc, SNAPSHOT_TMP);
+	FileOutputStream file = new FileOutputStream(tmp.toFile());
+	try
+	{
+	    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+	    out.writeInt(SNAPSHOT_MAGIC);
+	    out.writeInt(SNAPSHOT_VERSION);
+	    out.writeInt(entries.size());
+	    for(Map.Entry<String, LinkedHashMap<String, String>> user:entries.entrySet())
+	    {
+		out.writeUTF(user.getKey());
+		out.writeInt(user.getValue().size());
+		for(Map.Entry<String, String> entry:user.getValue().entrySet())
+		{
+		    out.writeUTF(entry.getKey());
+		    out.writeUTF(entry.getValue() == null ? "" : entry.getValue());
+		    count++;
+		}
+	    }
+	    out.flush();
+	    file.getFD().sync();
+	}
+	finally
+	{
+	    file.close();
+	}
+
+	ReentrantReadWriteLock.WriteLock lock = locks[disc].writeLock();
+	lock.lock();
+	try
+	{
+	    Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	    Files.deleteIfExists(path(directory, disc, LOG_COMPACTING));
+
+	    if(migrating && Files.exists(path(directory, disc, CSV)))
+	    {
+		Files.move(path(directory, disc, CSV), path(directory, disc, CSV_OLD), StandardCopyOption.REPLACE_EXISTING);
+		System.out.println("Przeniesiono katalog dysku " + disc + " z pliku " + CSV + " do " + SNAPSHOT);
+	    }
+	}
+	finally
+	{
+	    lock.unlock();
+	}
+
+	return count;
+    }
+
+    private static int readInt(byte[] b, int off)
+    {
+	return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static void writeInt(byte[] b, int off, int value)
+    {
+	b[off] = (byte) (value >>> 24);
+	b[off + 1] = (byte) (value >>> 16);
+	b[off + 2] = (byte) (value >>> 8);
+	b[off + 3] = (byte) value;
+    }
+
+}
@@ -0,0 +1,125 @@
+package server;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Wczytuje katalogi wszystkich dyskw (CatalogFiles) do katalogu w pamici. Kady z piciu dyskw
+ * jest wczytywany w osobnym wtku. Dyski bez migawki s wczytywane z pliku csv przez CsvScanner.
+ * @author Sebastian Paweoszek
+ *
+ */
+class CatalogLoader {
+
+    private Catalog catalog;
+    private String directory;
+
+    /**
+     * Konstruktor przypisuje argumenty do zmiennych lokalnych.
+     * @param catalog Katalog do ktrego trafi wpisy.
+     * @param directory Folder zawierajcy foldery dyskw.
+     */
+    CatalogLoader(Catalog catalog, String directory)
+    {
+	this.catalog = catalog;
+	this.directory = directory;
+    }
+
+    /**
+     * Wczytuje wszystkie pi dyskw rwnolegle i czeka na zakoczenie wczytywania.
+     * @return Liczba wczytanych wpisw.
+     */
+    int load()
+    {
+	ExecutorService executor = Executors.newFixedThreadPool(5);
+	ArrayList<Future<Disc>> results = new ArrayList<Future<Disc>>();
+
+	for(int i=1;i<6;i++)
+	{
+	    final int disc = i;
+	    results.add(executor.submit(new Callable<Disc>() {
+		@Override
+		public Disc call() throws IOException {
+		    return loadDisc(disc);
+		}
+	    }));
+	}
+
+	int count = 0;
+	for(Future<Disc> result:results)
+	{
+	    try
+	    {
+		Disc disc = result.get();
+		count += disc.count;
+		// Kolejno uytkownikw taka sama jak przy przegldaniu dyskw od 1 do 5.
+		catalog.addUsers(disc.users);
+	    }
+	    catch(InterruptedException e)
+	    {
+		Thread.currentThread().interrupt();
+		break;
+	    }
+	    catch(ExecutionException e)
+	    {
+		System.out.println("Bd odczytu!");
+		e.getCause().printStackTrace();
+	    }
+	}
+
+	executor.shutdown();
+	return count;
+    }
+
+    /**
+     * Wczytuje katalog jednego dysku.
+     * @param i Numer dysku.
+     * @return Liczba wpisw i uytkownicy, w kolejnoci pierwszego wystpienia.
+     */
+    private Disc loadDisc(int i) throws IOException
+    {
+	final Disc disc = new Disc(Integer.toString(i));
+
+	CatalogFiles.scan(directory, i, new CatalogFiles.Visitor() {
+	    @Override
+	    public boolean entry(String username, String fileName, String content) {
+		if(username != disc.lastUsername && disc.seen.add(username))
+		{
+		    disc.users.add(username);
+		}
+		disc.lastUsername = username;
+		catalog.addLoaded(username, fileName, content, disc.name);
+		disc.count++;
+		return true;
+	    }
+	});
+
+	catalog.markFilterReady(i);
+	return disc;
+    }
+
+    /**
+     * Stan wczytywania jednego dysku.
+     */
+    private static class Disc
+    {
+	String name;
+	int count = 0;
+	ArrayList<String> users = new ArrayList<String>();
+	HashSet<String> seen = new HashSet<String>();
+	String lastUsername;
+
+	Disc(String name)
+	{
+	    this.name = name;
+	}
+    }
+
+}
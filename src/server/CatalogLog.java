@@ -0,0 +1,494 @@
+package server;
+
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Wtek zapisujcy nowe wpisy do dziennikw katalogu "book.log" (CatalogFiles). Wtki obsugujce Requesty
+ * nie otwieraj dziennikw samodzielnie, tylko przekazuj wpisy do kolejki i czekaj na ich zapisanie. Wtek zapisujcy pobiera
+ * z kolejki wszystkie oczekujce wpisy naraz i zapisuje je jedn operacj na kady dysk (tzw. group commit),
+ * dziki czemu przy wielu jednoczesnych uploadach pliki nie s otwierane i zamykane dla kadego wpisu,
+ * a wpisy nigdy si nie przeplataj.
+ * Sposb utrwalania danych okrela ServerConfig: w trybie SYNC_BATCH kada grupa wpisw jest utrwalana
+ * na dysku (force) zanim wtki zostan zwolnione, w trybie SYNC_INTERVAL wpisy s utrwalane
+ * co okrelony czas, a wtki czekaj tylko na ich zapisanie.
+ * Gdy dziennik dysku uronie, jest w tle scalany z migawk dysku przez wtek "CatalogCompactor".
+ * @author Sebastian Paweoszek
+ *
+ */
+public class CatalogLog implements Runnable {
+
+    static final int MAX_BATCH = 1024;
+
+    /**
+     * Minimalny rozmiar dziennika dysku po przekroczeniu ktrego dziennik jest scalany z migawk.
+     * Dziennik jest scalany dopiero gdy jest rwnie wikszy od migawki.
+     */
+    static final long COMPACT_MIN_BYTES = 1024 * 1024;
+
+    /**
+     * Wpis dodawany do kolejki przez shutdown(), aby wtek zapisujcy nie czeka na kolejne wpisy.
+     */
+    private static final Entry STOP = new Entry(null, 0);
+
+    private String directory;
+    private boolean syncEachBatch;
+    private long syncInterval;
+    private LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+    private FileChannel[] channels = new FileChannel[6];
+    private boolean[] unsynced = new boolean[6];
+    private long[] logBytes = new long[6];
+    private long[] snapshotBytes = new long[6];
+    private boolean[] compacting = new boolean[6];
+    private boolean compactionEnabled = false;
+    private ExecutorService compactor;
+    private long lastSync = System.nanoTime();
+    private Thread writer;
+    private volatile boolean on = true;
+
+    /**
+     * Konstruktor przypisuje ustawienia do zmiennych lokalnych.
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param config Ustawienia serwera okrelajce sposb utrwalania wpisw.
+     */
+    CatalogLog(String directory, ServerConfig config)
+    {
+	this.directory = directory;
+	this.syncEachBatch = ServerConfig.SYNC_BATCH.equals(config.getCatalogSync());
+	this.syncInterval = TimeUnit.MILLISECONDS.toNanos(config.getCatalogSyncInterval());
+    }
+
+    /**
+     * Obcina uszkodzone kocwki dziennikw i uruchamia wtek zapisujcy.
+     */
+    void start()
+    {
+	for(int i=1;i<6;i++)
+	{
+	    try
+	    {
+		Path log = CatalogFiles.path(directory, i, CatalogFiles.LOG);
+		CatalogFiles.recoverLog(log);
+		logBytes[i] = Files.exists(log) ? Files.size(log) : 0;
+		Path snapshot = CatalogFiles.path(directory, i, CatalogFiles.SNAPSHOT);
+		snapshotBytes[i] = Files.exists(snapshot) ? Files.size(snapshot) : 0;
+	    }
+	    catch(IOException e)
+	    {
+		e.printStackTrace();
+	    }
+	}
+
+	compactor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    @Override
+	    public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, "CatalogCompactor");
+		t.setDaemon(true);
+		return t;
+	    }
+	});
+
+	writer = new Thread(this, "CatalogLog");
+	writer.setDaemon(true);
+	writer.start();
+    }
+
+    /**
+     * Przenosi do migawek katalogi dyskw ktre jeszcze jej nie maj (np. zapisane w plikach "book.csv"),
+     * oraz koczy scalanie przerwane przy poprzednim uruchomieniu serwera. Po zakoczeniu wcza
+     * scalanie dziennikw w tle. Metoda jest wywoywana przed wczytaniem katalogu.
+     */
+    void migrate()
+    {
+	for(int i=1;i<6;i++)
+	{
+	    if(!Files.exists(CatalogFiles.path(directory, i, CatalogFiles.SNAPSHOT))
+		    || Files.exists(CatalogFiles.path(directory, i, CatalogFiles.LOG_COMPACTING)))
+	    {
+		synchronized(this)
+		{
+		    compacting[i] = true;
+		}
+		compact(i);
+	    }
+	}
+
+	synchronized(this)
+	{
+	    compactionEnabled = true;
+	}
+    }
+
+    /**
+     * Przekazuje wpis do zapisania i czeka a zostanie zapisany (w trybie SYNC_BATCH rwnie utrwalony).
+     * @param username Waciciel pliku.
+     * @param fileName Nazwa pliku.
+     * @param content Skrt zawartoci pliku, lub null jeeli plik jest zapisany pod wasn nazw.
+     * @param disc Dysk na ktrym znajduje si plik, czyli "1", "2", "3", "4" lub "5".
+     * @throws IOException W przypadku bdu zapisu.
+     */
+    public void append(String username, String fileName, String content, String disc) throws IOException
+    {
+	int i = Integer.parseInt(disc);
+	if(i < 1 || i > 5)
+	{
+	    throw new IOException("Nieprawidlowy dysk: " + disc);
+	}
+
+	Entry e = new Entry(CatalogFiles.encodeRecord(username, fileName, content), i);
+	// Wpis dodany po STOP nie zostaby ju zapisany, a wtek czekaby na niego w nieskoczono.
+	synchronized(queue)
+	{
+	    if(!on)
+	    {
+		throw new IOException("Katalog jest zamykany, wpis nie zostal zapisany!");
+	    }
+	    queue.add(e);
+	}
+
+	try
+	{
+	    e.done.get();
+	}
+	catch(InterruptedException ex)
+	{
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Przerwano oczekiwanie na zapis wpisu!");
+	}
+	catch(ExecutionException ex)
+	{
+	    throw (IOException) ex.getCause();
+	}
+    }
+
+    @Override
+    public void run() {
+
+	ArrayList<Entry> batch = new ArrayList<Entry>();
+	long pollTimeout = syncEachBatch ? 1000 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(syncInterval));
+
+	while(on || !queue.isEmpty())
+	{
+	    try
+	    {
+		Entry first = queue.poll(pollTimeout, TimeUnit.MILLISECONDS);
+		if(first != null && first != STOP)
+		{
+		    batch.add(first);
+		    queue.drainTo(batch, MAX_BATCH - 1);
+		    commit(batch);
+		    batch.clear();
+		}
+
+		if(!syncEachBatch && System.nanoTime() - lastSync >= syncInterval)
+		{
+		    sync();
+		}
+	    }
+	    catch(InterruptedException e)
+	    {
+		// Wtek nie jest przerywany przy zamykaniu serwera (przerwanie zamknoby kanay plikw
+		// w trakcie zapisu), a wpisy pozostae w kolejce zapisuj kolejne obiegi ptli.
+	    }
+	    catch(IOException e)
+	    {
+		e.printStackTrace();
+	    }
+	}
+
+	try
+	{
+	    sync();
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+	closeChannels();
+    }
+
+    /**
+     * Zapisuje grup wpisw, po jednej operacji zapisu na kady dysk, i zwalnia oczekujce wtki.
+     * @param batch Wpisy pobrane z kolejki.
+     */
+    private void commit(ArrayList<Entry> batch)
+    {
+	IOException error = null;
+
+	try
+	{
+	    ByteArrayOutputStream[] records = new ByteArrayOutputStream[6];
+	    for(Entry e:batch)
+	    {
+		if(e == STOP)
+		{
+		    continue;
+		}
+		if(records[e.disc] == null)
+		{
+		    records[e.disc] = new ByteArrayOutputStream();
+		}
+		records[e.disc].write(e.record);
+	    }
+
+	    synchronized(this)
+	    {
+		for(int i=1;i<6;i++)
+		{
+		    if(records[i] != null)
+		    {
+			ByteBuffer buf = ByteBuffer.wrap(records[i].toByteArray());
+			FileChannel channel = channel(i);
+			try
+			{
+			    while(buf.hasRemaining())
+			    {
+				channel.write(buf);
+			    }
+			}
+			catch(IOException e)
+			{
+			    discardChannel(i);
+			    throw e;
+			}
+			unsynced[i] = true;
+			logBytes[i] += records[i].size();
+		    }
+		}
+
+		if(syncEachBatch)
+		{
+		    sync();
+		}
+
+		for(int i=1;i<6;i++)
+		{
+		    if(records[i] != null && compactionEnabled && !compacting[i]
+			    && logBytes[i] > Math.max(COMPACT_MIN_BYTES, snapshotBytes[i]))
+		    {
+			scheduleCompaction(i);
+		    }
+		}
+	    }
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	    error = e;
+	}
+
+	for(Entry e:batch)
+	{
+	    if(error == null)
+	    {
+		e.done.complete(null);
+	    }
+	    else
+	    {
+		e.done.completeExceptionally(error);
+	    }
+	}
+    }
+
+    private void scheduleCompaction(final int disc)
+    {
+	compacting[disc] = true;
+	compactor.execute(new Runnable() {
+	    @Override
+	    public void run() {
+		compact(disc);
+	    }
+	});
+    }
+
+    /**
+     * Odkada dziennik dysku do scalenia i scala go z migawk. Nowe wpisy trafiaj w tym czasie do nowego dziennika.
+     * @param disc Numer dysku.
+     */
+    private void compact(int disc)
+    {
+	try
+	{
+	    ReentrantReadWriteLock.WriteLock lock = CatalogFiles.lock(disc).writeLock();
+	    lock.lock();
+	    try
+	    {
+		rotate(disc);
+	    }
+	    finally
+	    {
+		lock.unlock();
+	    }
+
+	    long start = System.currentTimeMillis();
+	    int count = CatalogFiles.compact(directory, disc);
+	    long size = Files.size(CatalogFiles.path(directory, disc, CatalogFiles.SNAPSHOT));
+	    synchronized(this)
+	    {
+		snapshotBytes[disc] = size;
+	    }
+	    System.out.println("Scalono katalog dysku " + disc + ": " + count + " wpisow w "
+		    + (System.currentTimeMillis() - start) + " ms");
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+	finally
+	{
+	    synchronized(this)
+	    {
+		compacting[disc] = false;
+	    }
+	}
+    }
+
+    /**
+     * Zamyka dziennik dysku i zmienia jego nazw na "book.log.1". Jeeli "book.log.1" ju istnieje
+     * (poprzednie scalanie zostao przerwane), dziennik pozostaje na miejscu.
+     */
+    private synchronized void rotate(int disc) throws IOException
+    {
+	Path compacting = CatalogFiles.path(directory, disc, CatalogFiles.LOG_COMPACTING);
+	if(Files.exists(compacting))
+	{
+	    return;
+	}
+
+	if(channels[disc] != null)
+	{
+	    channels[disc].force(false);
+	    channels[disc].close();
+	    channels[disc] = null;
+	    unsynced[disc] = false;
+	}
+
+	Path log = CatalogFiles.path(directory, disc, CatalogFiles.LOG);
+	if(Files.exists(log))
+	{
+	    Files.move(log, compacting, StandardCopyOption.ATOMIC_MOVE);
+	}
+	logBytes[disc] = 0;
+    }
+
+    /**
+     * Utrwala na dysku wszystkie zapisane, a jeszcze nie utrwalone wpisy.
+     */
+    private synchronized void sync() throws IOException
+    {
+	for(int i=1;i<6;i++)
+	{
+	    if(unsynced[i])
+	    {
+		try
+		{
+		    channels[i].force(false);
+		}
+		catch(IOException e)
+		{
+		    discardChannel(i);
+		    throw e;
+		}
+		unsynced[i] = false;
+	    }
+	}
+	lastSync = System.nanoTime();
+    }
+
+    private FileChannel channel(int disc) throws IOException
+    {
+	if(channels[disc] == null)
+	{
+	    channels[disc] = FileChannel.open(CatalogFiles.path(directory, disc, CatalogFiles.LOG),
+		    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+	return channels[disc];
+    }
+
+    /**
+     * Zamyka kana dziennika dysku po bdzie zapisu, aby kolejne wpisy otworzyy dziennik ponownie,
+     * zamiast korzysta z kanau, ktry mg zosta zamknity.
+     */
+    private synchronized void discardChannel(int disc)
+    {
+	try
+	{
+	    channels[disc].close();
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+	channels[disc] = null;
+	unsynced[disc] = false;
+    }
+
+    private synchronized void closeChannels()
+    {
+	for(int i=1;i<6;i++)
+	{
+	    try
+	    {
+		if(channels[i] != null)
+		{
+		    channels[i].close();
+		}
+	    }
+	    catch(IOException e)
+	    {
+		e.printStackTrace();
+	    }
+	}
+    }
+
+    /**
+     * Metoda suca do bezpiecznego zakoczenia dziaania wtku. Wpisy oczekujce w kolejce
+     * zostan zapisane i utrwalone.
+     */
+    public void shutdown()
+    {
+	synchronized(queue)
+	{
+	    on = false;
+	    queue.add(STOP);
+	}
+	if(compactor != null)
+	{
+	    compactor.shutdown();
+	}
+    }
+
+    /**
+     * Wpis oczekujcy na zapisanie.
+     */
+    private static class Entry
+    {
+	byte[] record;
+	int disc;
+	CompletableFuture<Void> done = new CompletableFuture<Void>();
+
+	Entry(byte[] record, int disc)
+	{
+	    this.record = record;
+	    this.disc = disc;
+	}
+    }
+
+}
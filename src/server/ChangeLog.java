@@ -0,0 +1,72 @@
+package server;
+
+
+import java.util.LinkedHashSet;
+
+/**
+ * Dziennik zmian plikw jednego uytkownika, przechowywany w pamici (Catalog). Kade dodanie pliku lub
+ * nowa wersja pliku zwiksza wersj o 1 i zapisuje numer pliku. Dziennik pamita tylko CAPACITY ostatnich
+ * zmian, w buforze cyklicznym. Klient o starszej wersji otrzymuje pen list plikw.
+ * Dziennik nie jest synchronizowany, korzysta z blokady katalogu.
+ * @author Sebastian Paweoszek
+ *
+ */
+class ChangeLog {
+
+    static final int CAPACITY = 4096;
+
+    private int[] files = new int[16];
+    private long version = 0;
+
+    /**
+     * Zapisuje zmian pliku.
+     * @param file Numer pliku.
+     */
+    void record(int file)
+    {
+	if(version == files.length && files.length < CAPACITY)
+	{
+	    // Dopki bufor nie osign CAPACITY, zmiana o wersji v jest zapisana pod indeksem v.
+	    int[] grown = new int[Math.min(files.length * 2, CAPACITY)];
+	    System.arraycopy(files, 0, grown, 0, files.length);
+	    files = grown;
+	}
+	files[(int) (version % files.length)] = file;
+	version++;
+    }
+
+    /**
+     * @return Obecna wersja, czyli liczba zmian od wczytania katalogu.
+     */
+    long version()
+    {
+	return version;
+    }
+
+    /**
+     * Zwraca pliki zmienione po podanej wersji, kady jeden raz.
+     * @param since Wersja znana klientowi, nie wiksza od version().
+     * @return Numery plikw, lub null jeeli zmiany od tej wersji nie s ju przechowywane.
+     */
+    int[] since(long since)
+    {
+	if(version - since > files.length)
+	{
+	    return null;
+	}
+
+	LinkedHashSet<Integer> changed = new LinkedHashSet<Integer>();
+	for(long v=since;v<version;v++)
+	{
+	    changed.add(files[(int) (v % files.length)]);
+	}
+	int[] result = new int[changed.size()];
+	int i = 0;
+	for(int file:changed)
+	{
+	    result[i++] = file;
+	}
+	return result;
+    }
+
+}
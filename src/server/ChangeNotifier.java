@@ -0,0 +1,168 @@
+package server;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import request.CatalogChanges;
+import request.Request;
+import request.RequestCodec;
+
+/**
+ * Powiadamia klientw o zmianach ich plikw na serwerze (Request "watch"). Request zawiera wersj katalogu
+ * znan klientowi. Jeeli od tej wersji pliki uytkownika si zmieniy, odpowied CHANGES jest wysyana
+ * od razu. W przeciwnym razie Request czeka, nie zajmujc wtku RequestResponder, a plik uytkownika
+ * zostanie dodany, zastpiony now wersj lub udostpniony mu przez innego uytkownika (changed()), albo a
+ * upynie WATCH_TIMEOUT. Odpowied po upywie czasu nie zawiera zmian, a klient wysya kolejny Request "watch".
+ * Dziki temu klient dowiaduje si o zmianach zaraz po ich wystpieniu i nie musi cyklicznie pyta o list plikw.
+ * Czas oczekiwania odmierza jeden wtek ChangeNotifier, a kada odpowied na czekajcy Request jest wysyana
+ * w osobnym zadaniu puli wtkw ChangeNotifierSend. Dziki temu wtek dodajcy plik nie czeka na wysanie
+ * powiadomie, a klient, ktry przesta odbiera dane, nie opnia powiadomie pozostaych klientw.
+ * @author Sebastian Paweoszek
+ *
+ */
+class ChangeNotifier {
+
+    static final long WATCH_TIMEOUT = 30000;
+
+    private HashMap<String, ArrayList<Watch>> watches = new HashMap<String, ArrayList<Watch>>();
+    private ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	@Override
+	public Thread newThread(Runnable r) {
+	    Thread t = new Thread(r, "ChangeNotifier");
+	    t.setDaemon(true);
+	    return t;
+	}
+    });
+    private ExecutorService senders = Executors.newCachedThreadPool(new ThreadFactory() {
+	@Override
+	public Thread newThread(Runnable r) {
+	    Thread t = new Thread(r, "ChangeNotifierSend");
+	    t.setDaemon(true);
+	    return t;
+	}
+    });
+
+    /**
+     * Odpowiada na Request "watch" od razu, jeeli pliki uytkownika zmieniy si od wersji znanej klientowi,
+     * a w przeciwnym razie zapamituje go do czasu zmiany. Metoda nie czeka na zmiany.
+     * @param r Request "watch" z wersj katalogu.
+     * @throws IOException W przypadku bdu wysyania odpowiedzi.
+     */
+    void watch(Request r) throws IOException
+    {
+	CatalogChanges changes;
+	// Zmiana zapisana w katalogu po sprawdzeniu wersji wywoa changed() dopiero po zapamitaniu Requesta.
+	synchronized(this)
+	{
+	    changes = CsvReader.readUserChanges(r.getUsername(), r.getKnownEpoch(), r.getKnownVersion());
+	    if(!changes.isFull() && changes.getFiles().isEmpty())
+	    {
+		Watch w = new Watch(r);
+		ArrayList<Watch> list = watches.get(r.getUsername());
+		if(list == null)
+		{
+		    list = new ArrayList<Watch>();
+		    watches.put(r.getUsername(), list);
+		}
+		list.add(w);
+		w.timeout = executor.schedule(new Runnable() {
+		    @Override
+		    public void run() {
+			expire(w);
+		    }
+		}, WATCH_TIMEOUT, TimeUnit.MILLISECONDS);
+		return;
+	    }
+	}
+	r.getConnection().send(RequestCodec.encodeChanges(r.getRequestId(), changes));
+    }
+
+    /**
+     * Wysya zmiany do wszystkich klientw czekajcych na zmiany plikw uytkownika. Wywoywana po zapisaniu
+     * zmiany w katalogu.
+     * @param username Uytkownik, ktrego plik zosta dodany lub zmieniony.
+     */
+    void changed(String username)
+    {
+	ArrayList<Watch> waiting;
+	synchronized(this)
+	{
+	    waiting = watches.remove(username);
+	}
+	if(waiting == null)
+	{
+	    return;
+	}
+
+	for(Watch w:waiting)
+	{
+	    w.timeout.cancel(false);
+	    senders.execute(new Runnable() {
+		@Override
+		public void run() {
+		    respond(w.request);
+		}
+	    });
+	}
+    }
+
+    private void expire(Watch w)
+    {
+	synchronized(this)
+	{
+	    ArrayList<Watch> list = watches.get(w.request.getUsername());
+	    if(list == null || !list.remove(w))
+	    {
+		// Odpowied zostaa ju wysana przez changed().
+		return;
+	    }
+	    if(list.isEmpty())
+	    {
+		watches.remove(w.request.getUsername());
+	    }
+	}
+	senders.execute(new Runnable() {
+	    @Override
+	    public void run() {
+		respond(w.request);
+	    }
+	});
+    }
+
+    private void respond(Request r)
+    {
+	try
+	{
+	    r.getConnection().send(RequestCodec.encodeChanges(r.getRequestId(),
+		    CsvReader.readUserChanges(r.getUsername(), r.getKnownEpoch(), r.getKnownVersion())));
+	}
+	catch(IOException e)
+	{
+	    // Klient rozczy si w trakcie czekania.
+	    r.getConnection().close();
+	}
+    }
+
+    /**
+     * Request czekajcy na zmiany.
+     */
+    private static class Watch
+    {
+	Request request;
+	ScheduledFuture<?> timeout;
+
+	Watch(Request request)
+	{
+	    this.request = request;
+	}
+    }
+
+}
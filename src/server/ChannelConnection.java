@@ -0,0 +1,133 @@
+package server;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import request.ClientConnection;
+
+/**
+ * Poczenie z klientem oparte o nieblokujcy SocketChannel, z ktrego Requesty odczytuje wtek RequestReader.
+ * Odpowiedzi s zapisywane przez wtki RequestResponder. Kiedy bufor gniazda jest peny, wtek zapisujcy
+ * czeka na moliwo zapisu za pomoc wasnego obiektu Selector, nie blokujc ptli zdarze.
+ * Pliki s wysyane metod FileChannel.transferTo(), dziki czemu system operacyjny przekazuje je
+ * do gniazda bez kopiowania przez pami aplikacji.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class ChannelConnection implements ClientConnection {
+
+    static final long WRITE_TIMEOUT = 30 * 1000;
+
+    private SocketChannel channel;
+    private Selector writeSelector;
+    private final Object writeLock = new Object();
+
+    /**
+     * Konstruktor przypisuje kana do zmiennej lokalnej.
+     * @param channel Kana w trybie nieblokujcym.
+     */
+    ChannelConnection(SocketChannel channel)
+    {
+	this.channel = channel;
+    }
+
+    @Override
+    public void send(ByteBuffer frame) throws IOException
+    {
+	synchronized(writeLock)
+	{
+	    writeFully(frame);
+	}
+    }
+
+    @Override
+    public void sendFile(ByteBuffer header, FileChannel file, long position, long size) throws IOException
+    {
+	synchronized(writeLock)
+	{
+	    writeFully(header);
+
+	    long sent = 0;
+	    while(sent < size)
+	    {
+		long count = file.transferTo(position + sent, size - sent, channel);
+		if(count == 0)
+		{
+		    if(position + sent >= file.size())
+		    {
+			// Klient czeka na zadeklarowan liczb bajtw, dalsza komunikacja nie jest moliwa.
+			close();
+			throw new EOFException("Plik jest krotszy niz zadeklarowano!");
+		    }
+		    awaitWritable();
+		}
+		sent += count;
+	    }
+	}
+    }
+
+    /**
+     * Zapisuje cay bufor do kanau. Wywoywana wycznie przy zajtym writeLock.
+     * @param buf Bufor ustawiony do odczytu.
+     * @throws IOException W przypadku bdu zapisu, lub gdy klient zbyt dugo nie odbiera danych.
+     */
+    private void writeFully(ByteBuffer buf) throws IOException
+    {
+	while(buf.hasRemaining())
+	{
+	    if(channel.write(buf) == 0)
+	    {
+		awaitWritable();
+	    }
+	}
+    }
+
+    private void awaitWritable() throws IOException
+    {
+	if(writeSelector == null)
+	{
+	    writeSelector = Selector.open();
+	    channel.register(writeSelector, SelectionKey.OP_WRITE);
+	}
+
+	if(writeSelector.select(WRITE_TIMEOUT) == 0)
+	{
+	    close();
+	    throw new IOException("Przekroczono czas oczekiwania na klienta!");
+	}
+	writeSelector.selectedKeys().clear();
+    }
+
+    /**
+     * Zwraca kana poczenia.
+     * @return Kana poczenia.
+     */
+    SocketChannel getChannel()
+    {
+	return channel;
+    }
+
+    @Override
+    public void close()
+    {
+	try
+	{
+	    channel.close();
+	    if(writeSelector != null)
+	    {
+		writeSelector.close();
+	    }
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+    }
+
+}
@@ -0,0 +1,171 @@
+package server;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Strumie danych przesyanych przez klienta, odczytywany bezporednio z kanau gniazda.
+ * Najpierw zwraca bajty pozostae w buforze (odebrane razem z Requestem), a nastpnie odczytuje dane
+ * z kanau. Jeeli kana jest w trybie nieblokujcym, na dane czeka za pomoc wasnego obiektu Selector.
+ * Czci plikw s odczytywane metod readFully() bezporednio do bufora (np. bufora bezporedniego),
+ * bez kopiowania danych przez tablice w pamici aplikacji.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class ChannelInput extends InputStream {
+
+    static final long READ_TIMEOUT = 30 * 1000;
+
+    private SocketChannel channel;
+    private ByteBuffer buffer;
+    private Runnable onClose;
+    private Selector readSelector;
+    private boolean closed = false;
+
+    /**
+     * Konstruktor przypisuje argumenty do zmiennych lokalnych.
+     * @param channel Kana gniazda, w trybie blokujcym lub nieblokujcym.
+     * @param buffer Bufor ustawiony do odczytu, zawierajcy bajty odebrane ju z kanau. Strumie korzysta
+     * z niego rwnie przy kolejnych odczytach.
+     * @param onClose Zadanie wykonywane po zamkniciu strumienia, lub null. Zamknicie strumienia nie zamyka kanau.
+     */
+    ChannelInput(SocketChannel channel, ByteBuffer buffer, Runnable onClose)
+    {
+	this.channel = channel;
+	this.buffer = buffer;
+	this.onClose = onClose;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+	if(!buffer.hasRemaining() && fill() < 0)
+	{
+	    return -1;
+	}
+	return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+	if(len == 0)
+	{
+	    return 0;
+	}
+
+	if(!buffer.hasRemaining())
+	{
+	    // Due odczyty trafiaj bezporednio do tablicy, mae (ramki) przez bufor.
+	    if(len >= buffer.capacity())
+	    {
+		return readChannel(ByteBuffer.wrap(b, off, len));
+	    }
+
+	    if(fill() < 0)
+	    {
+		return -1;
+	    }
+	}
+
+	int count = Math.min(len, buffer.remaining());
+	buffer.get(b, off, count);
+	return count;
+    }
+
+    /**
+     * Odbiera tyle bajtw, ile zmieci si w buforze dst. Najpierw kopiuje bajty pozostae w buforze strumienia,
+     * a reszt odczytuje z kanau gniazda bezporednio do dst.
+     * @param dst Bufor, po odczycie zapeniony do limitu.
+     * @throws IOException W przypadku bdu odczytu, lub zakoczenia strumienia przed zapenieniem bufora.
+     */
+    public void readFully(ByteBuffer dst) throws IOException
+    {
+	if(buffer.hasRemaining())
+	{
+	    int limit = buffer.limit();
+	    if(buffer.remaining() > dst.remaining())
+	    {
+		buffer.limit(buffer.position() + dst.remaining());
+	    }
+	    dst.put(buffer);
+	    buffer.limit(limit);
+	}
+
+	while(dst.hasRemaining())
+	{
+	    if(readChannel(dst) < 0)
+	    {
+		throw new EOFException("Polaczenie zerwane podczas przesylania pliku!");
+	    }
+	}
+    }
+
+    /**
+     * Wypenia pusty bufor danymi z kanau.
+     * @return Liczba odczytanych bajtw, lub -1 na kocu strumienia.
+     */
+    private int fill() throws IOException
+    {
+	buffer.clear();
+	int count = readChannel(buffer);
+	buffer.flip();
+	return count;
+    }
+
+    private int readChannel(ByteBuffer dst) throws IOException
+    {
+	int count;
+	while((count = channel.read(dst)) == 0)
+	{
+	    awaitReadable();
+	}
+	return count;
+    }
+
+    private void awaitReadable() throws IOException
+    {
+	if(readSelector == null)
+	{
+	    readSelector = Selector.open();
+	    channel.register(readSelector, SelectionKey.OP_READ);
+	}
+
+	if(readSelector.select(READ_TIMEOUT) == 0)
+	{
+	    throw new SocketTimeoutException("Przekroczono czas oczekiwania na klienta!");
+	}
+	readSelector.selectedKeys().clear();
+    }
+
+    /**
+     * Koczy odczyt strumienia i wykonuje zadanie przekazane do konstruktora. Kana pozostaje otwarty.
+     */
+    @Override
+    public void close() throws IOException
+    {
+	if(closed)
+	{
+	    return;
+	}
+	closed = true;
+
+	if(readSelector != null)
+	{
+	    readSelector.close();
+	}
+
+	if(onClose != null)
+	{
+	    onClose.run();
+	}
+    }
+
+}
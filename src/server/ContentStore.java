@@ -0,0 +1,277 @@
+package server;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import request.RequestCodec;
+
+/**
+ * Przechowywanie plikw wedug zawartoci. Odebrany plik jest zapisywany na dysku pod nazw rwn skrtowi
+ * jego zawartoci (ContentHash), a wpisy katalogu wskazuj ten skrt. Jeeli ta sama zawarto znajduje si
+ * ju na ktrymkolwiek dysku, nowy wpis wskazuje istniejcy plik, a odebrane bajty s usuwane.
+ * Pliki s najpierw odbierane do plikw tymczasowych ".part" i przenoszone pod docelow nazw dopiero
+ * po sprawdzeniu zawartoci, dlatego plik nazwany skrtem zawsze jest kompletny.
+ * Plik, ktrego skrt klient poda przed wysaniem, jest odbierany do pliku tymczasowego nazwanego tym
+ * skrtem (staging()). Po przerwanym wysyaniu plik ten pozostaje na dysku, a kolejna prba wysania tej
+ * samej zawartoci zaczyna si od jego koca (resumeOffset()). Pliki tymczasowe bez skrtu s usuwane.
+ * Plik nazwany skrtem nigdy si nie zmienia, dlatego sumy kontrolne jego czci, obliczone przy pierwszym
+ * wysaniu caego pliku, s przechowywane w pamici (rememberChecksums()) i wykorzystywane przy kolejnych
+ * pobraniach (cachedChecksums()).
+ * @author Sebastian Paweoszek
+ *
+ */
+class ContentStore {
+
+    static final String PART_SUFFIX = ".part";
+
+    /**
+     * Czas po ktrym porzucony plik tymczasowy przerwanego wysyania jest usuwany przy starcie serwera.
+     */
+    static final long STAGED_MAX_AGE = 24 * 60 * 60 * 1000;
+
+    /**
+     * Liczba zawartoci, ktrych sumy kontrolne czci s przechowywane w pamici.
+     */
+    static final int CHECKSUMS_CACHED = 1024;
+
+    private static final String UPLOAD_PREFIX = "upload-";
+
+    private static AtomicLong received = new AtomicLong();
+    private static Set<String> claimed = ConcurrentHashMap.newKeySet();
+    private static LinkedHashMap<String, int[]> checksums = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+	    return size() > CHECKSUMS_CACHED;
+	}
+    };
+
+    /**
+     * Zwraca now, unikaln nazw pliku tymczasowego, do ktrego zostanie odebrany plik przesyany przez klienta.
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param disc Dysk wybrany dla pliku.
+     * @return Plik tymczasowy, jeszcze nie utworzony.
+     */
+    static File receiving(String directory, String disc)
+    {
+	return new File(directory + "/" + disc + "/" + UPLOAD_PREFIX + received.incrementAndGet() + PART_SUFFIX);
+    }
+
+    /**
+     * Zwraca plik tymczasowy, do ktrego odbierana jest zawarto o podanym skrcie.
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param disc Dysk wybrany dla pliku.
+     * @param content Skrt zawartoci podany przez klienta.
+     * @return Plik tymczasowy, nie musi istnie.
+     */
+    static File staging(String directory, String disc, String content)
+    {
+	return new File(directory + "/" + disc + "/" + content + PART_SUFFIX);
+    }
+
+    /**
+     * Szuka dysku, na ktrym znajduje si pocztek zawartoci z przerwanego wysyania.
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param content Skrt zawartoci.
+     * @return Numer dysku, lub null jeeli aden dysk nie ma pliku tymczasowego tej zawartoci.
+     */
+    static String findStaged(String directory, String content)
+    {
+	for(int i=1;i<6;i++)
+	{
+	    if(staging(directory, Integer.toString(i), content).isFile())
+	    {
+		return Integer.toString(i);
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Zwraca pozycj od ktrej klient powinien wysa zawarto, czyli liczb bajtw zapisanych w pliku
+     * tymczasowym przerwanego wysyania, zaokrglon w d do granicy czci.
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param content Skrt zawartoci.
+     * @return Pozycja, 0 jeeli zawarto trzeba wysa od pocztku.
+     */
+    static long resumeOffset(String directory, String content)
+    {
+	String disc = findStaged(directory, content);
+	if(disc == null)
+	{
+	    return 0;
+	}
+	long length = staging(directory, disc, content).length();
+	return length - length % RequestCodec.CHUNK_SIZE;
+    }
+
+    /**
+     * Zajmuje plik tymczasowy zawartoci na czas odbierania. Ta sama zawarto wysyana jednoczenie
+     * przez drugiego klienta jest odbierana do osobnego pliku (receiving()).
+     * @param content Skrt zawartoci.
+     * @return true jeeli plik tymczasowy zosta zajty, false jeeli jest ju odbierany.
+     */
+    static boolean claim(String content)
+    {
+	return claimed.add(content);
+    }
+
+    /**
+     * Zwalnia plik tymczasowy zajty metod claim().
+     * @param content Skrt zawartoci.
+     */
+    static void release(String content)
+    {
+	claimed.remove(content);
+    }
+
+    /**
+     * Sprawdza czy nazwa pliku na dysku naley do pliku tymczasowego.
+     * @param name Nazwa pliku.
+     * @return true dla plikw, ktre s jeszcze odbierane.
+     */
+    static boolean isReceiving(String name)
+    {
+	return name.endsWith(PART_SUFFIX);
+    }
+
+    /**
+     * Szuka dysku, na ktrym znajduje si zawarto o podanym skrcie.
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param content Skrt zawartoci.
+     * @return Numer dysku, lub null jeeli aden dysk nie ma tej zawartoci.
+     */
+    static String find(String directory, String content)
+    {
+	for(int i=1;i<6;i++)
+	{
+	    if(Files.isRegularFile(path(directory, Integer.toString(i), content)))
+	    {
+		return Integer.toString(i);
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Przenosi odebrany plik pod nazw rwn skrtowi jego zawartoci. Jeeli ta zawarto jest ju zapisana,
+     * np. odebrana w tym samym czasie od innego klienta, odebrany plik jest usuwany.
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param received Plik tymczasowy zwrcony przez receiving() lub staging().
+     * @param disc Dysk na ktrym znajduje si plik tymczasowy.
+     * @param content Skrt zawartoci odebranego pliku.
+     * @return Dysk na ktrym ta zawarto bya ju zapisana, lub null jeeli odebrany plik zosta zachowany
+     * na dysku disc.
+     * @throws IOException W przypadku bdu przenoszenia pliku.
+     */
+    static synchronized String store(String directory, File received, String disc, String content) throws IOException
+    {
+	String existing = find(directory, content);
+	if(existing != null)
+	{
+	    Files.deleteIfExists(received.toPath());
+	    return existing;
+	}
+
+	Files.move(received.toPath(), path(directory, disc, content), StandardCopyOption.ATOMIC_MOVE);
+	return null;
+    }
+
+    /**
+     * Przenosi odebrany plik pod nazw rwn skrtowi jego zawartoci na wskazanym dysku. W odrnieniu
+     * od store() zawarto znajdujca si na innym dysku nie jest wykorzystywana, poniewa wpis nowej wersji
+     * pliku musi pozosta na dysku poprzedniej wersji (Catalog.replace()).
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param received Plik tymczasowy na dysku disc.
+     * @param disc Dysk na ktrym ma znale si zawarto.
+     * @param content Skrt zawartoci odebranego pliku.
+     * @return true jeeli odebrany plik zosta zachowany, false jeeli ta zawarto bya ju na dysku.
+     * @throws IOException W przypadku bdu przenoszenia pliku.
+     */
+    static synchronized boolean storeOn(String directory, File received, String disc, String content) throws IOException
+    {
+	if(Files.isRegularFile(path(directory, disc, content)))
+	{
+	    Files.deleteIfExists(received.toPath());
+	    return false;
+	}
+
+	Files.move(received.toPath(), path(directory, disc, content), StandardCopyOption.ATOMIC_MOVE);
+	return true;
+    }
+
+    /**
+     * Zwraca zapamitane sumy kontrolne (CRC32C) kolejnych czci pliku o dugoci RequestCodec.CHUNK_SIZE,
+     * liczonych od pocztku pliku.
+     * @param content Skrt zawartoci pliku.
+     * @return Sumy kontrolne, po jednej dla kadej czci, lub null jeeli zawarto nie bya jeszcze
+     * wysyana w caoci.
+     */
+    static int[] cachedChecksums(String content)
+    {
+	synchronized(checksums)
+	{
+	    return checksums.get(content);
+	}
+    }
+
+    /**
+     * Zapamituje sumy kontrolne czci pliku obliczone podczas wysyania go w caoci.
+     * @param content Skrt zawartoci pliku.
+     * @param computed Sumy kontrolne, po jednej dla kadej czci o dugoci RequestCodec.CHUNK_SIZE.
+     */
+    static void rememberChecksums(String content, int[] computed)
+    {
+	synchronized(checksums)
+	{
+	    checksums.put(content, computed);
+	}
+    }
+
+    /**
+     * Usuwa pliki tymczasowe pozostawione przez odbieranie przerwane zamkniciem serwera. Pliki tymczasowe
+     * nazwane skrtem zawartoci pozostaj, aby klient mg wznowi wysyanie, chyba e s starsze
+     * ni STAGED_MAX_AGE.
+     * @param directory Folder zawierajcy foldery dyskw.
+     */
+    static void removeLeftovers(String directory)
+    {
+	long expired = System.currentTimeMillis() - STAGED_MAX_AGE;
+	for(int i=1;i<6;i++)
+	{
+	    File[] files = new File(directory + "/" + i).listFiles();
+	    if(files == null)
+	    {
+		continue;
+	    }
+	    for(File f:files)
+	    {
+		if(!isReceiving(f.getName()))
+		{
+		    continue;
+		}
+		if((f.getName().startsWith(UPLOAD_PREFIX) || f.lastModified() < expired) && !f.delete())
+		{
+		    System.out.println("Nie mozna usunac pliku " + f);
+		}
+	    }
+	}
+    }
+
+    private static Path path(String directory, String disc, String content)
+    {
+	return Paths.get(directory, disc, content);
+    }
+
+}
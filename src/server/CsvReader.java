@@ -1,194 +1,488 @@
 package server;
 
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import request.CatalogChanges;
+import request.Request;
 
 /**
- * Klasa dostarczajca metody do dokonywanie operacji na plikach .csv zawierajcych informacje na temat
+ * Klasa dostarczajca metody do dokonywanie operacji na katalogu zawierajcym informacje na temat
  * przechowywanych danych i ich wacicieli.
+ * Po wczytaniu katalogu (metoda loadCatalog()) zapytania s obsugiwane przez Catalog w pamici.
+ * Do tego czasu, np. zaraz po uruchomieniu serwera, przegldane s pliki katalogu na dyskach (CatalogFiles),
+ * wszystkie pi dyskw jednoczenie, w puli ForkJoinPool.
+ * Nowe wpisy s zapisywane do dziennikw katalogu przez jeden wtek CatalogLog.
  * @author Sebastian Paweoszek
  *
  */
 public class CsvReader {
 
-    static int disc = 5;
     static final String directory = "files";
-    
+    private static PlacementEngine placement;
+    private static Catalog catalog = new Catalog(directory);
+    private static CatalogLog log;
+    private static ChangeNotifier notifier = new ChangeNotifier();
+    private static ForkJoinPool scanPool = new ForkJoinPool(5);
+
     /**
-     * Metoda odczytuje pliki csv we wszystkich piciu folderach i zwraca list plikw nalecych do 
-     * okrelonego uytkownika.
-     * @param username Uytkownik ktrego pliki chcemy odnalez na serwerze.
-     * @return Lista plikw nalecych do uytkownika.
+     * Przegldanie katalogu jednego dysku, wykonywane w puli scanPool. Podklasy odbieraj wpisy dysku
+     * i udostpniaj wynik metod result().
+     * @param <T> Typ wyniku przegldania.
      */
-    public static ArrayList<String> readUserFiles(String username)
+    private static abstract class DiscScan<T> extends RecursiveAction implements CatalogFiles.Visitor
     {
-	ArrayList<String> files = new ArrayList<String>();
-	
-	for(int i=1;i<6;i++)
+	private static final long serialVersionUID = 1L;
+
+	final int disc;
+	boolean cancelled = false;
+
+	DiscScan(int disc)
 	{
+	    this.disc = disc;
+	}
+
+	@Override
+	protected void compute() {
 	    try
 	    {
-		BufferedReader br = openToRead(directory,i);
-                String line;
-           	    
-           	    while ((line = br.readLine()) != null) 
-           	    {
-           		String[] values = line.split(",");
-           		if(values[0].equals(username))
-           		{
-           		    files.add(values[1]);
-            		}
-           	    }
-           	    
-           	 br.close();
-            } 
-	    catch (FileNotFoundException e) 
-	    {
-		System.out.println("Plik nie istnieje!");
+		CatalogFiles.scan(directory, disc, this);
 	    }
-	    catch (IOException e1) 
+	    catch (IOException e1)
 	    {
 		System.out.println("Bd odczytu!");
 		e1.printStackTrace();
-            }
+	    }
+	}
+
+	abstract T result();
+
+	/**
+	 * @return true jeeli dysk zosta przejrzany niepotrzebnie, bo jego filtr Blooma przepuci brakujcy plik.
+	 */
+	boolean falsePositive()
+	{
+	    return false;
+	}
+    }
+
+    /**
+     * Przeglda katalogi dyskw jednoczenie i czeka na zakoczenie wszystkich.
+     * @param scans Zadania przegldania, po jednym dla dysku.
+     */
+    private static void scanDiscs(final List<? extends DiscScan<?>> scans)
+    {
+	scanPool.invoke(new RecursiveAction() {
+	    @Override
+	    protected void compute() {
+		invokeAll(scans);
+	    }
+	});
+    }
+
+    /**
+     * Uruchamia wtek zapisujcy nowe wpisy do dziennikw katalogu.
+     * @param config Ustawienia serwera okrelajce sposb utrwalania wpisw.
+     */
+    public static synchronized void openLog(ServerConfig config)
+    {
+	if(log == null)
+	{
+	    log = new CatalogLog(directory, config);
+	    log.start();
+	}
+    }
+
+    /**
+     * Zapisuje oczekujce wpisy i koczy prac wtku zapisujcego.
+     */
+    public static synchronized void closeLog()
+    {
+	if(log != null)
+	{
+	    log.shutdown();
+	    log = null;
+	}
+    }
+
+    /**
+     * Tworzy mechanizm wyboru dyskw dla nowych plikw, z polityk podan w ustawieniach serwera.
+     * Wczeniej usuwane s pliki tymczasowe pozostawione przez przerwane odbieranie plikw, dlatego metoda
+     * powinna zosta wywoana zanim serwer zacznie obsugiwa Requesty.
+     * @param config Ustawienia serwera.
+     */
+    public static synchronized void openPlacement(ServerConfig config)
+    {
+	ContentStore.removeLeftovers(directory);
+	placement = new PlacementEngine(directory, PlacementEngine.policy(config.getPlacement()));
+    }
+
+    /**
+     * Rozpoczyna wczytywanie katalogu w osobnym wtku, aby nie opnia uruchomienia serwera.
+     * Przed wczytaniem katalogi dyskw zapisane jeszcze w plikach "book.csv" s przenoszone do migawek.
+     */
+    public static void loadCatalog()
+    {
+	Thread t = new Thread(new Runnable() {
+	    @Override
+	    public void run() {
+		CatalogLog current;
+		synchronized(CsvReader.class)
+		{
+		    current = log;
+		}
+		if(current != null)
+		{
+		    current.migrate();
+		}
+		catalog.load(directory);
+	    }
+	}, "CatalogLoader");
+	t.setDaemon(true);
+	t.start();
+    }
+
+    /**
+     * Zwraca pliki uytkownika zmienione od wersji katalogu znanej klientowi (Catalog.changes()). Dopki
+     * katalog nie zosta wczytany, zwraca pen list plikw bez wersji (numer katalogu 0).
+     * @param username Uytkownik ktrego pliki chcemy odnalez na serwerze.
+     * @param epoch Numer katalogu znany klientowi, lub 0.
+     * @param version Wersja katalogu uytkownika znana klientowi.
+     * @return Zmienione pliki lub pena lista plikw, oraz obecna wersja.
+     */
+    public static CatalogChanges readUserChanges(String username, long epoch, long version)
+    {
+	if(catalog.isLoaded())
+	{
+	    return catalog.changes(username, epoch, version);
+	}
+	return new CatalogChanges(0, 0, true, readUserFiles(username));
+    }
+
+    /**
+     * Odpowiada na Request "watch" zmianami plikw uytkownika, od razu albo po ich wystpieniu (ChangeNotifier).
+     * @param r Request "watch" z wersj katalogu znan klientowi.
+     * @throws IOException W przypadku bdu wysyania odpowiedzi.
+     */
+    public static void watchChanges(Request r) throws IOException
+    {
+	notifier.watch(r);
+    }
+
+    /**
+     * Metoda odczytuje katalogi we wszystkich piciu folderach i zwraca list plikw nalecych do 
+     * okrelonego uytkownika.
+     * @param username Uytkownik ktrego pliki chcemy odnalez na serwerze.
+     * @return Lista plikw nalecych do uytkownika.
+     */
+    public static ArrayList<String> readUserFiles(final String username)
+    {
+	if(catalog.isLoaded())
+	{
+	    return catalog.userFiles(username);
+	}
+
+	ArrayList<DiscScan<ArrayList<String>>> scans = new ArrayList<DiscScan<ArrayList<String>>>();
+	for(int i=1;i<6;i++)
+	{
+	    scans.add(new DiscScan<ArrayList<String>>(i) {
+		ArrayList<String> files = new ArrayList<String>();
+
+		@Override
+		public boolean entry(String user, String fileName, String content) {
+		    if(user.equals(username))
+		    {
+			files.add(fileName);
+		    }
+		    return true;
+		}
+
+		@Override
+		ArrayList<String> result() {
+		    return files;
+		}
+	    });
+	}
+	scanDiscs(scans);
+
+	// Wyniki czymy w kolejnoci dyskw, tak jak przy przegldaniu dyskw jeden po drugim.
+	ArrayList<String> files = new ArrayList<String>();
+	for(DiscScan<ArrayList<String>> scan:scans)
+	{
+	    files.addAll(scan.result());
 	}
-	//System.out.println(files);
 	return files;
     }
     
     /**
-     * Sprawdza na ktrym dysku znajduje si plik o okrelonej nazwie i wacicielu.
+     * Sprawdza na ktrym dysku znajduje si plik o okrelonej nazwie i wacicielu, i jaka jest jego zawarto.
      * @param username Waciciel pliku.
      * @param fileName Nazwa szukanego pliku.
-     * @return Numer dysku, czyli "1", "2", "3", "4" lub "5". W przypadku kiedy plik nie istnieje zwraca null.
+     * @return Pooenie pliku: dysk, czyli "1", "2", "3", "4" lub "5", i skrt zawartoci.
+     * W przypadku kiedy plik nie istnieje zwraca null.
      */
-    public static String localiseFile(String username, String fileName)
+    public static FileLocation localiseFile(final String username, final String fileName)
     {
+	if(catalog.isLoaded())
+	{
+	    return catalog.localise(username, fileName);
+	}
+
+	long hash = BloomFilter.hash(username, fileName);
+	// Najniszy dysk na ktrym znaleziono plik. Przegldanie dyskw o wyszych numerach jest wtedy przerywane.
+	final AtomicInteger found = new AtomicInteger(6);
+	ArrayList<DiscScan<FileLocation>> scans = new ArrayList<DiscScan<FileLocation>>();
+
 	for(int i=1;i<6;i++)
 	{
-	    try
+	    // Katalog dysku ktry zosta ju wczytany do filtra nie musi by przegldany, jeeli filtr odrzuci plik.
+	    final boolean filtered = catalog.isFilterReady(i);
+	    if(filtered && !catalog.mightContain(i, hash))
 	    {
-		BufferedReader br = openToRead(directory,i);
-		String line;
-           	    
-		while ((line = br.readLine()) != null) 
-		{
-		    String[] values = line.split(",");
-		    if(values[0].equals(username) && values[1].equals(fileName))
+		continue;
+	    }
+
+	    scans.add(new DiscScan<FileLocation>(i) {
+		FileLocation location;
+
+		@Override
+		public boolean entry(String user, String file, String content) {
+		    if(found.get() < disc)
+		    {
+			cancelled = true;
+			return false;
+		    }
+
+		    if(user.equals(username) && file.equals(fileName))
 		    {
-			return Integer.toString(i);
+			location = new FileLocation(Integer.toString(disc), content);
+			int best;
+			do
+			{
+			    best = found.get();
+			}
+			while(disc < best && !found.compareAndSet(best, disc));
+			// Pniejszy wpis tego samego dysku jest nowsz wersj pliku, dlatego dysk jest przegldany do koca.
 		    }
+		    return true;
+		}
+
+		/**
+		 * @return Pooenie pliku, jeeli zosta znaleziony na tym dysku.
+		 */
+		@Override
+		FileLocation result() {
+		    return location;
 		}
-		
-		br.close();
-            } 
-	    catch (FileNotFoundException e) 
+
+		/**
+		 * @return true jeeli filtr przepuci plik, a dysk zosta przejrzany w caoci bez znalezienia go.
+		 */
+		@Override
+		boolean falsePositive() {
+		    return filtered && !cancelled && found.get() != disc;
+		}
+	    });
+	}
+	scanDiscs(scans);
+
+	FileLocation location = null;
+	for(DiscScan<FileLocation> scan:scans)
+	{
+	    if(scan.falsePositive())
 	    {
-		System.out.println("Plik nie istnieje!");
+		catalog.falsePositive();
 	    }
-	    catch (IOException e1) 
+	    if(scan.disc == found.get())
 	    {
-		System.out.println("Bd odczytu!");
-		e1.printStackTrace();
-            }
+		location = scan.result();
+	    }
 	}
 	
-	return null;
+	return location;
     }
     
+    /**
+     * Zwraca statystyki filtrw Blooma katalogu, w tym udzia faszywie dodatnich odpowiedzi.
+     * @return Opis statystyk.
+     */
+    public static String filterStats()
+    {
+	return catalog.filterStats();
+    }
+
     /**
      * Tworzy liste wszystkich uytkownikow korzystajcych z serwera.
      * @return Lista uytkownikw korzystajcych z serwera.
      */
     public static ArrayList<String> listUsers()
     {
-	ArrayList<String> users = new ArrayList<String>();
-	
+	if(catalog.isLoaded())
+	{
+	    return catalog.users();
+	}
+
+	ArrayList<DiscScan<ArrayList<String>>> scans = new ArrayList<DiscScan<ArrayList<String>>>();
 	for(int i=1;i<6;i++)
 	{
-	    try
-	    {
-		BufferedReader br = openToRead(directory,i);
-                String line;
-           	    
-           	    while ((line = br.readLine()) != null) 
-           	    {
-           		String[] values = line.split(",");
-           		if(!users.contains(values[0]))
-           		{
-           		    users.add(values[0]);
-            		}
-           	    }
-           	    
-           	 br.close();
-            }  
-	    catch (FileNotFoundException e) 
-	    {
-		System.out.println("Plik nie istnieje!");
-	    }
-	    catch (IOException e1) 
-	    {
-		System.out.println("Bd odczytu!");
-		e1.printStackTrace();
-            }
+	    scans.add(new DiscScan<ArrayList<String>>(i) {
+		ArrayList<String> users = new ArrayList<String>();
+		HashSet<String> seen = new HashSet<String>();
+
+		@Override
+		public boolean entry(String user, String fileName, String content) {
+		    if(seen.add(user))
+		    {
+			users.add(user);
+		    }
+		    return true;
+		}
+
+		@Override
+		ArrayList<String> result() {
+		    return users;
+		}
+	    });
 	}
-	
-	return users;
+	scanDiscs(scans);
+
+	// Uytkownicy w kolejnoci pierwszego wystpienia, przegldajc dyski od 1 do 5.
+	LinkedHashSet<String> users = new LinkedHashSet<String>();
+	for(DiscScan<ArrayList<String>> scan:scans)
+	{
+	    users.addAll(scan.result());
+	}
+	return new ArrayList<String>(users);
     }
     
     /**
-     * Suy do wybrania najodpowiedniejszego dysku do zapisu nowych danych.
+     * Wybiera dysk dla nowego pliku i rezerwuje na nim miejsce (PlacementEngine). Uwzgldniane jest
+     * miejsce zarezerwowane dla plikw, ktre s jeszcze odbierane.
+     * Po zapisaniu pliku, lub w przypadku bdu, rezerwacj naley zwolni metod releaseSpace().
+     * @param name Nazwa pliku.
+     * @param size Rozmiar pliku w bajtach.
      * @return Zwraca string z nazw dysku, czyli "1", "2", "3", "4" lub "5".
+     * @throws IOException Jeeli na adnym dysku nie ma wystarczajco miejsca.
      */
-    public static synchronized String chooseDisc()
+    public static String chooseDisc(String name, long size) throws IOException
     {
-	
-	if(++disc > 5) disc = 1;
-	
-	return Integer.toString(disc);
+	return Integer.toString(placement().reserve(name, size));
     }
-    
+
+    /**
+     * Rezerwuje miejsce na wskazanym dysku, na ktrym znajduje si ju pocztek pliku.
+     * Rezerwacj naley zwolni metod releaseSpace().
+     * @param disc Numer dysku.
+     * @param name Nazwa pliku.
+     * @param size Liczba bajtw, ktre zostan zapisane.
+     * @throws IOException Jeeli na dysku nie ma wystarczajco miejsca.
+     */
+    public static void reserveSpace(String disc, String name, long size) throws IOException
+    {
+	placement().reserveOn(Integer.parseInt(disc), name, size);
+    }
+
+    /**
+     * Zwalnia miejsce zarezerwowane metod chooseDisc() lub reserveSpace() i uwzgldnia zapis w statystykach dysku.
+     * @param disc Dysk zwrcony przez chooseDisc().
+     * @param size Rozmiar pliku podany przy rezerwacji.
+     * @param written Liczba bajtw zapisanych na dysku.
+     * @param stored Rozmiar pliku, ktry pozosta na dysku, 0 jeeli pliku nie udao si zapisa lub jego
+     * zawarto bya ju na serwerze.
+     * @param nanos Czas zapisu na dysk w nanosekundach.
+     */
+    public static void releaseSpace(String disc, long size, long written, long stored, long nanos)
+    {
+	placement().complete(Integer.parseInt(disc), size, written, stored, nanos);
+    }
+
+    /**
+     * @return Opis stanu dyskw i ostatniego wyboru dysku, do wywietlenia w oknie serwera.
+     */
+    public static String placementStats()
+    {
+	return placement().stats();
+    }
+
+    private static synchronized PlacementEngine placement()
+    {
+	// Serwer uruchomiony bez wywoania openPlacement() korzysta z ustawie domylnych.
+	if(placement == null)
+	{
+	    openPlacement(new ServerConfig());
+	}
+	return placement;
+    }
+
     /**
-     * Dodaje do pliku csv wpis zawierajcy nazwe nowego pliku i jego waciciela.
+     * Dodaje do katalogu wpis zawierajcy nazwe nowego pliku i jego waciciela.
+     * Metoda czeka a wpis zostanie zapisany przez CatalogLog, razem z wpisami dodanymi w tym samym czasie
+     * przez inne wtki.
      * @param userName Nazwa waciciela pliku.
      * @param fileName Nazwa pliku.
+     * @param content Skrt zawartoci pliku (ContentStore), lub null jeeli plik jest zapisany pod wasn nazw.
      * @param disc Dysk na jakim plik ma zosta zapisany.
      */
-    public static void addRecord(String userName, String fileName, String disc)
+    public static void addRecord(String userName, String fileName, String content, String disc)
     {
-	try 
-	{
-	    BufferedWriter bw = new BufferedWriter(new FileWriter("files/" + disc + "/book.csv",true));
-	    bw.write(userName + "," + fileName);
-	    bw.newLine();
-	    bw.close();
-	} 
-	catch (IOException e) 
+	if(appendRecord(userName, fileName, content, disc))
 	{
-	    e.printStackTrace();
+	    catalog.add(userName, fileName, content, disc);
+	    notifier.changed(userName);
 	}
-	
     }
-    
+
     /**
-     * Metoda wykorzystywana przez inne metody do otwierania pliku csv.
-     * @param i Numer dysku.
-     * @return Otwarty plik, lub null jeeli nie udao si otworzy.
+     * Zastpuje wpis pliku uytkownika now wersj pliku. Nowy wpis jest dopisywany do katalogu tego samego
+     * dysku, na ktrym znajduje si poprzednia wersja, dlatego po ponownym uruchomieniu serwera obowizuje on
+     * zamiast poprzedniego.
+     * @param userName Nazwa waciciela pliku.
+     * @param fileName Nazwa pliku.
+     * @param content Skrt zawartoci nowej wersji pliku.
+     * @param disc Dysk, na ktrym znajduje si poprzednia i nowa wersja pliku.
      */
-    public static BufferedReader openToRead(String directory, int i) throws FileNotFoundException
+    public static void replaceRecord(String userName, String fileName, String content, String disc)
     {
-	BufferedReader br;
-	
-
-	br = new BufferedReader(new FileReader(directory + "/" + Integer.toString(i) + "/book.csv"));
-	return br;
+	if(appendRecord(userName, fileName, content, disc))
+	{
+	    catalog.replace(userName, fileName, content, disc);
+	    notifier.changed(userName);
+	}
+    }
 
+    /**
+     * Zapisuje wpis w dzienniku katalogu dysku i czeka na jego utrwalenie.
+     * @return true jeeli wpis zosta zapisany.
+     */
+    private static boolean appendRecord(String userName, String fileName, String content, String disc)
+    {
+	try 
+	{
+	    CatalogLog current;
+	    synchronized(CsvReader.class)
+	    {
+		// Serwer uruchomiony bez wywoania openLog() korzysta z ustawie domylnych.
+		if(log == null)
+		{
+		    openLog(new ServerConfig());
+		}
+		current = log;
+	    }
+	    current.append(userName, fileName, content, disc);
+	    return true;
+	} 
+	catch (IOException e) 
+	{
+	    e.printStackTrace();
+	    return false;
+	}
     }
     
 }
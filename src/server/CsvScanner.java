@@ -0,0 +1,226 @@
+package server;
+
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Odczytuje wpisy z pliku "book.csv". Plik nie jest czytany linia po linii, tylko mapowany do pamici
+ * (FileChannel.map()), a przecinki i znaki koca linii s wyszukiwane po 8 bajtw naraz, na liczbach
+ * typu long. Z kadej linii tworzone s tylko dwa obiekty String, a nazwa uytkownika powtarzajca si
+ * w kolejnych liniach nie jest tworzona ponownie.
+ * @author Sebastian Paweoszek
+ *
+ */
+class CsvScanner {
+
+    /**
+     * Maksymalny rozmiar jednego zmapowanego fragmentu pliku. Pozycje w fragmencie s liczbami int, dlatego
+     * fragment jest znacznie mniejszy od Integer.MAX_VALUE, a obliczenia pozycji nie przekraczaj zakresu int.
+     */
+    static final int MAX_MAPPING = 1 << 30;
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final long COMMAS = ONES * ',';
+    private static final long NEWLINES = ONES * '\n';
+
+    private CatalogFiles.Visitor visitor;
+    private Charset charset = Charset.defaultCharset();
+    private byte[] bytes = new byte[256];
+    private byte[] lastUser = new byte[256];
+    private int lastUserLength = -1;
+    private String lastUsername;
+    private boolean stopped = false;
+
+    /**
+     * Konstruktor przypisuje argument do zmiennej lokalnej.
+     * @param visitor Obiekt odbierajcy wpisy.
+     */
+    CsvScanner(CatalogFiles.Visitor visitor)
+    {
+	this.visitor = visitor;
+    }
+
+    /**
+     * Odczytuje wszystkie wpisy pliku csv. Brak pliku oznacza brak wpisw.
+     * @param path cieka pliku csv.
+     * @return false jeeli odczyt zosta przerwany przez visitor.
+     */
+    boolean scan(Path path) throws IOException
+    {
+	FileChannel file;
+	try
+	{
+	    file = FileChannel.open(path, StandardOpenOption.READ);
+	}
+	catch(NoSuchFileException e)
+	{
+	    return true;
+	}
+
+	try
+	{
+	    long size = file.size();
+	    long position = 0;
+
+	    while(position < size && !stopped)
+	    {
+		long length = Math.min(size - position, MAX_MAPPING);
+		MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, position, length);
+		boolean last = position + length == size;
+
+		int consumed = parse(buffer, last);
+		if(consumed == 0)
+		{
+		    throw new IOException("Zbyt dluga linia w pliku " + path);
+		}
+		// Niepena ostatnia linia fragmentu zostanie wczytana z nastpnym fragmentem.
+		position += consumed;
+	    }
+	}
+	finally
+	{
+	    file.close();
+	}
+
+	return !stopped;
+    }
+
+    /**
+     * Przetwarza wszystkie pene linie zmapowanego fragmentu pliku.
+     * @param buffer Fragment pliku.
+     * @param last true jeeli fragment koczy si razem z plikiem, wtedy linia bez znaku koca te jest przetwarzana.
+     * @return Liczba przetworzonych bajtw.
+     */
+    private int parse(MappedByteBuffer buffer, boolean last)
+    {
+	buffer.order(ByteOrder.LITTLE_ENDIAN);
+	int limit = buffer.limit();
+	int start = 0;
+
+	while(start < limit)
+	{
+	    int end = find(buffer, start, limit, NEWLINES, (byte) '\n');
+	    if(end < 0)
+	    {
+		if(!last)
+		{
+		    return start;
+		}
+		end = limit;
+	    }
+
+	    int lineEnd = end;
+	    if(lineEnd > start && buffer.get(lineEnd - 1) == '\r')
+	    {
+		lineEnd--;
+	    }
+
+	    int comma = find(buffer, start, lineEnd, COMMAS, (byte) ',');
+	    if(comma >= start)
+	    {
+		int fileEnd = find(buffer, comma + 1, lineEnd, COMMAS, (byte) ',');
+		if(fileEnd < 0)
+		{
+		    fileEnd = lineEnd;
+		}
+
+		if(fileEnd > comma + 1)
+		{
+		    String username = username(buffer, start, comma);
+		    String fileName = decode(buffer, comma + 1, fileEnd);
+		    if(!visitor.entry(username, fileName, null))
+		    {
+			stopped = true;
+			return limit;
+		    }
+		}
+	    }
+
+	    start = end + 1;
+	}
+
+	return limit;
+    }
+
+    /**
+     * Wyszukuje pierwsze wystpienie bajtu, sprawdzajc po 8 bajtw naraz.
+     * @param buffer Przeszukiwany bufor, w kolejnoci LITTLE_ENDIAN.
+     * @param from Pocztek przeszukiwanego zakresu.
+     * @param to Koniec przeszukiwanego zakresu (wycznie).
+     * @param pattern Szukany bajt powtrzony 8 razy.
+     * @param b Szukany bajt.
+     * @return Pozycja bajtu, lub -1 jeeli nie wystpuje w zakresie.
+     */
+    static int find(MappedByteBuffer buffer, int from, int to, long pattern, byte b)
+    {
+	int i = from;
+
+	for(;i <= to - 8;i += 8)
+	{
+	    long word = buffer.getLong(i) ^ pattern;
+	    // Bajty rwne szukanemu s teraz zerami. Najniszy ustawiony bit wskazuje pierwszy z nich.
+	    long found = (word - ONES) & ~word & HIGHS;
+	    if(found != 0)
+	    {
+		return i + (Long.numberOfTrailingZeros(found) >>> 3);
+	    }
+	}
+
+	for(;i < to;i++)
+	{
+	    if(buffer.get(i) == b)
+	    {
+		return i;
+	    }
+	}
+	return -1;
+    }
+
+    private String decode(MappedByteBuffer buffer, int from, int to)
+    {
+	if(bytes.length < to - from)
+	{
+	    bytes = new byte[to - from];
+	}
+	buffer.get(from, bytes, 0, to - from);
+	return new String(bytes, 0, to - from, charset);
+    }
+
+    /**
+     * Zwraca nazw uytkownika. Jeeli jest taka sama jak w poprzedniej linii, zwraca poprzedni obiekt.
+     */
+    private String username(MappedByteBuffer buffer, int from, int to)
+    {
+	int length = to - from;
+	if(length == lastUserLength)
+	{
+	    int i = 0;
+	    while(i < length && buffer.get(from + i) == lastUser[i])
+	    {
+		i++;
+	    }
+	    if(i == length)
+	    {
+		return lastUsername;
+	    }
+	}
+
+	if(lastUser.length < length)
+	{
+	    lastUser = new byte[length];
+	}
+	buffer.get(from, lastUser, 0, length);
+	lastUserLength = length;
+	lastUsername = new String(lastUser, 0, length, charset);
+	return lastUsername;
+    }
+
+}
@@ -0,0 +1,340 @@
+package server;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Wtek ledzcy zawarto dyskw serwera na potrzeby interfejsu graficznego. Zamiast co sekund
+ * przeglda wszystkie dyski, rejestruje foldery dyskw w WatchService i przechowuje zbir plikw kadego
+ * dysku, zmieniany na podstawie zdarze. Odbiorca otrzymuje tylko pliki dodane i usunite.
+ * Zdarzenia nastpujce szybko po sobie s czone (QUIET_PERIOD, najduej MAX_DELAY), a o tym, czy plik
+ * zosta dodany czy usunity, decyduje jego aktualny stan. Pliki katalogu i pliki tymczasowe odbieranych
+ * plikw s pomijane.
+ * Dysk jest przegldany w caoci tylko przy uruchomieniu, po utracie zdarze (OVERFLOW) i gdy jego folder
+ * nie jest obserwowany (np. nie istnieje) - wtedy co POLL_INTERVAL, a do ponownej rejestracji.
+ * @author Sebastian Paweoszek
+ *
+ */
+class DiscMonitor implements Runnable {
+
+    static final long QUIET_PERIOD = 200;
+    static final long MAX_DELAY = 1000;
+    static final long POLL_INTERVAL = 1000;
+
+    /**
+     * Odbiorca zmian zawartoci dyskw. Metoda jest wywoywana w wtku DiscMonitor.
+     */
+    interface Listener
+    {
+	/**
+	 * @param disc Numer dysku, od 1 do 5.
+	 * @param added Pliki, ktre pojawiy si na dysku.
+	 * @param removed Pliki, ktre znikny z dysku.
+	 */
+	void discChanged(int disc, List<String> added, List<String> removed);
+    }
+
+    private String directory;
+    private Listener listener;
+    private volatile boolean on = true;
+    private volatile WatchService watcher;
+
+    // Zbiory plikw dyskw 1-5 (indeks 0 nie jest uywany) i klucze zarejestrowanych folderw.
+    private ArrayList<HashSet<String>> files = new ArrayList<HashSet<String>>();
+    private WatchKey[] keys = new WatchKey[6];
+    private boolean[] unavailable = new boolean[6];
+    private HashMap<WatchKey, Integer> discs = new HashMap<WatchKey, Integer>();
+
+    /**
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param listener Odbiorca zmian.
+     */
+    DiscMonitor(String directory, Listener listener)
+    {
+	this.directory = directory;
+	this.listener = listener;
+	for(int i=0;i<6;i++)
+	{
+	    files.add(new HashSet<String>());
+	}
+    }
+
+    @Override
+    public void run()
+    {
+	try
+	{
+	    try
+	    {
+		watcher = FileSystems.getDefault().newWatchService();
+	    }
+	    catch(IOException e)
+	    {
+		System.out.println("Nie mozna obserwowac dyskow, zawartosc bedzie odczytywana co " + POLL_INTERVAL + " ms");
+	    }
+
+	    register();
+	    while(on)
+	    {
+		WatchService service = watcher;
+		if(service == null)
+		{
+		    Thread.sleep(POLL_INTERVAL);
+		    register();
+		    continue;
+		}
+
+		// Dopki ktry dysk nie jest obserwowany, co POLL_INTERVAL nastpuje prba jego rejestracji.
+		WatchKey key = registered() ? service.take() : service.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+		HashMap<Integer, HashSet<String>> touched = new HashMap<Integer, HashSet<String>>();
+		HashSet<Integer> rescan = new HashSet<Integer>();
+		long deadline = System.currentTimeMillis() + MAX_DELAY;
+		while(key != null)
+		{
+		    drain(key, touched, rescan);
+		    long left = deadline - System.currentTimeMillis();
+		    key = left > 0 ? service.poll(Math.min(QUIET_PERIOD, left), TimeUnit.MILLISECONDS) : null;
+		}
+
+		for(Integer disc:touched.keySet())
+		{
+		    if(!rescan.contains(disc))
+		    {
+			update(disc, touched.get(disc));
+		    }
+		}
+		for(Integer disc:rescan)
+		{
+		    rescan(disc);
+		}
+		if(!registered())
+		{
+		    register();
+		}
+	    }
+	}
+	catch(InterruptedException e)
+	{
+	    e.printStackTrace();
+	}
+	catch(ClosedWatchServiceException e)
+	{
+	    // Wtek zosta zatrzymany metod shutdown().
+	}
+    }
+
+    /**
+     * Metoda suca do bezpiecznego zakoczenia dziaania wtku.
+     */
+    void shutdown()
+    {
+	on = false;
+	WatchService service = watcher;
+	if(service != null)
+	{
+	    try
+	    {
+		service.close();
+	    }
+	    catch(IOException e)
+	    {
+		e.printStackTrace();
+	    }
+	}
+    }
+
+    /**
+     * Rejestruje foldery dyskw, ktre nie s jeszcze obserwowane, i przeglda je w caoci, poniewa
+     * zmiany dokonane przed rejestracj nie zostay zgoszone. Dyski, ktrych nie da si obserwowa,
+     * s tylko przegldane.
+     */
+    private void register()
+    {
+	for(int i=1;i<6;i++)
+	{
+	    if(keys[i] != null)
+	    {
+		continue;
+	    }
+	    if(watcher != null)
+	    {
+		try
+		{
+		    keys[i] = disc(i).register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+			    StandardWatchEventKinds.ENTRY_DELETE);
+		    discs.put(keys[i], i);
+		}
+		catch(IOException e)
+		{
+		    // Dysk zostanie zarejestrowany przy kolejnej prbie.
+		}
+	    }
+	    rescan(i);
+	}
+    }
+
+    private boolean registered()
+    {
+	for(int i=1;i<6;i++)
+	{
+	    if(keys[i] == null)
+	    {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Odczytuje zdarzenia klucza. Jeeli cz zdarze zostaa utracona, lub folder dysku przesta by
+     * obserwowany, dysk zostanie przejrzany w caoci.
+     */
+    private void drain(WatchKey key, HashMap<Integer, HashSet<String>> touched, HashSet<Integer> rescan)
+    {
+	Integer disc = discs.get(key);
+	if(disc == null)
+	{
+	    return;
+	}
+
+	for(WatchEvent<?> event:key.pollEvents())
+	{
+	    if(event.kind() == StandardWatchEventKinds.OVERFLOW)
+	    {
+		rescan.add(disc);
+		continue;
+	    }
+	    HashSet<String> names = touched.get(disc);
+	    if(names == null)
+	    {
+		names = new HashSet<String>();
+		touched.put(disc, names);
+	    }
+	    names.add(((Path) event.context()).getFileName().toString());
+	}
+
+	if(!key.reset())
+	{
+	    discs.remove(key);
+	    keys[disc] = null;
+	    rescan.add(disc);
+	}
+    }
+
+    /**
+     * Sprawdza aktualny stan plikw, ktrych dotyczyy zdarzenia, i zgasza pliki dodane i usunite.
+     */
+    private void update(int disc, HashSet<String> touched)
+    {
+	ArrayList<String> added = new ArrayList<String>();
+	ArrayList<String> removed = new ArrayList<String>();
+	for(String name:touched)
+	{
+	    boolean present = isShown(name) && Files.isRegularFile(disc(disc).resolve(name));
+	    if(present && files.get(disc).add(name))
+	    {
+		added.add(name);
+	    }
+	    else if(!present && files.get(disc).remove(name))
+	    {
+		removed.add(name);
+	    }
+	}
+	notify(disc, added, removed);
+    }
+
+    /**
+     * Przeglda cay dysk i zgasza rnice wzgldem znanego zbioru plikw.
+     */
+    private void rescan(int disc)
+    {
+	HashSet<String> current = new HashSet<String>();
+	try (Stream<Path> list = Files.list(disc(disc)))
+	{
+	    Iterator<Path> paths = list.iterator();
+	    while(paths.hasNext())
+	    {
+		Path path = paths.next();
+		String name = path.getFileName().toString();
+		if(isShown(name) && Files.isRegularFile(path))
+		{
+		    current.add(name);
+		}
+	    }
+	    unavailable[disc] = false;
+	}
+	catch(NoSuchFileException e)
+	{
+	    // Brak dysku jest zgaszany raz, a nie przy kadym kolejnym przegldzie.
+	    if(!unavailable[disc])
+	    {
+		System.out.println("Nie mozna uzyskac dostepu do dysku " + disc + ", sprawdz czy istnieje!");
+	    }
+	    unavailable[disc] = true;
+	}
+	catch(IOException e)
+	{
+	    System.out.println("Blad IO!");
+	}
+	catch(UncheckedIOException e)
+	{
+	    System.out.println("Blad IO!");
+	}
+
+	ArrayList<String> added = new ArrayList<String>();
+	ArrayList<String> removed = new ArrayList<String>();
+	for(String name:current)
+	{
+	    if(!files.get(disc).contains(name))
+	    {
+		added.add(name);
+	    }
+	}
+	for(String name:files.get(disc))
+	{
+	    if(!current.contains(name))
+	    {
+		removed.add(name);
+	    }
+	}
+	files.set(disc, current);
+	notify(disc, added, removed);
+    }
+
+    private void notify(int disc, ArrayList<String> added, ArrayList<String> removed)
+    {
+	if(!added.isEmpty() || !removed.isEmpty())
+	{
+	    listener.discChanged(disc, added, removed);
+	}
+    }
+
+    private Path disc(int disc)
+    {
+	return Paths.get(directory, Integer.toString(disc));
+    }
+
+    private static boolean isShown(String name)
+    {
+	return !CatalogFiles.isCatalogFile(name) && !ContentStore.isReceiving(name);
+    }
+
+}
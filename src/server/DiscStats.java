@@ -0,0 +1,99 @@
+package server;
+
+
+import java.io.File;
+
+/**
+ * Statystyki jednego dysku wykorzystywane przy wyborze miejsca zapisu nowych plikw: zajte i wolne
+ * miejsce, miejsce zarezerwowane dla plikw ktre s jeszcze odbierane, liczba trwajcych zapisw
+ * i rednia prdko ostatnich zapisw. Pola s modyfikowane tylko przez PlacementEngine, pod jego blokad.
+ * @author Sebastian Paweoszek
+ *
+ */
+class DiscStats {
+
+    /**
+     * Waga najnowszego pomiaru w redniej prdkoci zapisu.
+     */
+    static final double THROUGHPUT_WEIGHT = 0.3;
+
+    /**
+     * Zapisy krtsze ni tyle bajtw nie s uwzgldniane w prdkoci zapisu, bo ich czas to gwnie
+     * narzut wywoa zapisu i force(), a nie sam zapis danych.
+     */
+    static final long MIN_SAMPLE_BYTES = 1024 * 1024;
+
+    /**
+     * Czas w milisekundach, po ktrym pomiar prdkoci zapisu traci poow znaczenia. Dysk ktry by wolny,
+     * ale od dawna nie by mierzony, z czasem traktowany jest jak przecitny i otrzymuje kolejne pliki,
+     * dziki czemu jego prdko jest mierzona ponownie.
+     */
+    static final long THROUGHPUT_HALF_LIFE = 30 * 1000;
+
+    final int disc;
+    final File folder;
+    long storedBytes = 0;
+    long freeBytes = 0;
+    long reservedBytes = 0;
+    int inFlight = 0;
+    double throughput = 0;
+    long sampledAt = 0;
+    long placed = 0;
+
+    DiscStats(int disc, File folder)
+    {
+	this.disc = disc;
+	this.folder = folder;
+    }
+
+    /**
+     * @return Miejsce dostpne dla nowych plikw, po odjciu rezerwacji.
+     */
+    long available()
+    {
+	return freeBytes - reservedBytes;
+    }
+
+    /**
+     * @return Cz dysku zajta przez pliki serwera, od 0 do 1.
+     */
+    double fullness()
+    {
+	long total = storedBytes + freeBytes;
+	return total > 0 ? (double) storedBytes / total : 0;
+    }
+
+    /**
+     * Uwzgldnia pomiar zakoczonego zapisu w redniej prdkoci zapisu.
+     * @param bytes Liczba zapisanych bajtw.
+     * @param nanos Czas zapisu w nanosekundach.
+     */
+    void sample(long bytes, long nanos)
+    {
+	if(bytes < MIN_SAMPLE_BYTES || nanos <= 0)
+	{
+	    return;
+	}
+	double current = bytes * 1e9 / nanos;
+	throughput = throughput == 0 ? current : throughput + THROUGHPUT_WEIGHT * (current - throughput);
+	sampledAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Zwraca prdko zapisu uywan przy wyborze dysku: zmierzon prdko, zbliajc si z upywem
+     * czasu od ostatniego pomiaru do redniej prdkoci dyskw.
+     * @param average rednia prdko zapisu zmierzonych dyskw.
+     * @param now Biecy czas, System.currentTimeMillis().
+     * @return Prdko w bajtach na sekund.
+     */
+    double estimatedThroughput(double average, long now)
+    {
+	if(throughput == 0)
+	{
+	    return average;
+	}
+	double weight = Math.pow(0.5, (double) (now - sampledAt) / THROUGHPUT_HALF_LIFE);
+	return average + weight * (throughput - average);
+    }
+
+}
@@ -0,0 +1,51 @@
+package server;
+
+
+import java.io.File;
+
+/**
+ * Pooenie pliku uytkownika na serwerze: dysk i skrt zawartoci. Plik ze skrtem jest zapisany na dysku
+ * pod nazw rwn skrtowi (ContentStore) i moe by wsplny dla wielu wpisw katalogu. Plik bez skrtu,
+ * dodany zanim serwer zacz przechowywa pliki wedug zawartoci, jest zapisany pod wasn nazw.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class FileLocation {
+
+    private final String disc;
+    private final String content;
+
+    FileLocation(String disc, String content)
+    {
+	this.disc = disc;
+	this.content = content;
+    }
+
+    /**
+     * @return Numer dysku, czyli "1", "2", "3", "4" lub "5".
+     */
+    public String getDisc()
+    {
+	return disc;
+    }
+
+    /**
+     * @return Skrt zawartoci pliku, lub null jeeli plik jest zapisany pod wasn nazw.
+     */
+    public String getContent()
+    {
+	return content;
+    }
+
+    /**
+     * Zwraca plik na dysku, w ktrym znajduj si bajty pliku uytkownika.
+     * @param directory Folder zawierajcy foldery dyskw.
+     * @param fileName Nazwa pliku uytkownika.
+     * @return Plik na dysku.
+     */
+    public File file(String directory, String fileName)
+    {
+	return new File(directory + "/" + disc + "/" + (content != null ? content : fileName));
+    }
+
+}
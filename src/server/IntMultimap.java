@@ -0,0 +1,71 @@
+package server;
+
+
+/**
+ * Odwzorowanie kluczy typu int (kolejnych numerw, zaczynajc od 0) na listy wartoci typu int.
+ * Kada lista to jedna tablica int[], bez obiektw dla poszczeglnych wartoci. Klasa nie jest
+ * bezpieczna wtkowo, synchronizacj zajmuje si Catalog.
+ * @author Sebastian Paweoszek
+ *
+ */
+class IntMultimap {
+
+    private static final int[] NONE = new int[0];
+
+    private int[][] lists = new int[16][];
+    private int[] sizes = new int[16];
+
+    /**
+     * Dodaje warto na koniec listy klucza.
+     * @param key Klucz, nieujemny.
+     * @param value Warto.
+     */
+    void add(int key, int value)
+    {
+	if(key >= lists.length)
+	{
+	    int length = Math.max(lists.length * 2, key + 1);
+	    int[][] grownLists = new int[length][];
+	    int[] grownSizes = new int[length];
+	    System.arraycopy(lists, 0, grownLists, 0, lists.length);
+	    System.arraycopy(sizes, 0, grownSizes, 0, sizes.length);
+	    lists = grownLists;
+	    sizes = grownSizes;
+	}
+
+	int[] list = lists[key];
+	if(list == null)
+	{
+	    list = new int[2];
+	    lists[key] = list;
+	}
+	else if(sizes[key] == list.length)
+	{
+	    int[] grown = new int[list.length * 2];
+	    System.arraycopy(list, 0, grown, 0, list.length);
+	    list = grown;
+	    lists[key] = list;
+	}
+	list[sizes[key]++] = value;
+    }
+
+    /**
+     * @param key Klucz.
+     * @return Liczba wartoci na licie klucza.
+     */
+    int size(int key)
+    {
+	return key < sizes.length ? sizes[key] : 0;
+    }
+
+    /**
+     * Zwraca tablic z wartociami klucza. Wanych jest tylko size(key) pierwszych elementw tablicy.
+     * @param key Klucz.
+     * @return Tablica wartoci.
+     */
+    int[] values(int key)
+    {
+	return key < lists.length && lists[key] != null ? lists[key] : NONE;
+    }
+
+}
@@ -0,0 +1,118 @@
+package server;
+
+
+import java.util.Arrays;
+
+/**
+ * Odwzorowanie kluczy typu long na wartoci typu int, przechowywane w dwch tablicach (adresowanie otwarte),
+ * bez obiektw dla poszczeglnych wpisw. Klucze nie mog by ujemne. Klasa nie jest bezpieczna wtkowo,
+ * synchronizacj zajmuje si Catalog.
+ * @author Sebastian Paweoszek
+ *
+ */
+class LongIntMap {
+
+    private static final long EMPTY = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int size = 0;
+
+    LongIntMap()
+    {
+	keys = new long[16];
+	values = new int[16];
+	Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Zwraca warto dla klucza.
+     * @param key Klucz, nieujemny.
+     * @param missing Warto zwracana gdy klucza nie ma w odwzorowaniu.
+     * @return Warto, lub missing.
+     */
+    int get(long key, int missing)
+    {
+	int mask = keys.length - 1;
+	for(int i = hash(key) & mask;keys[i] != EMPTY;i = (i + 1) & mask)
+	{
+	    if(keys[i] == key)
+	    {
+		return values[i];
+	    }
+	}
+	return missing;
+    }
+
+    /**
+     * Dodaje warto dla klucza, jeeli klucza nie ma jeszcze w odwzorowaniu. W przeciwnym razie
+     * zastpuje j, jeeli replace jest ustawione.
+     * @param key Klucz, nieujemny.
+     * @param value Warto.
+     * @param replace true jeeli nowa warto ma zastpi istniejc.
+     * @return true jeeli klucz zosta dodany.
+     */
+    boolean put(long key, int value, boolean replace)
+    {
+	int mask = keys.length - 1;
+	int i = hash(key) & mask;
+	for(;keys[i] != EMPTY;i = (i + 1) & mask)
+	{
+	    if(keys[i] == key)
+	    {
+		if(replace)
+		{
+		    values[i] = value;
+		}
+		return false;
+	    }
+	}
+
+	keys[i] = key;
+	values[i] = value;
+	if(++size * 4 > keys.length * 3)
+	{
+	    rehash();
+	}
+	return true;
+    }
+
+    /**
+     * @return Liczba kluczy.
+     */
+    int size()
+    {
+	return size;
+    }
+
+    private void rehash()
+    {
+	long[] oldKeys = keys;
+	int[] oldValues = values;
+	keys = new long[oldKeys.length * 2];
+	values = new int[oldKeys.length * 2];
+	Arrays.fill(keys, EMPTY);
+	int mask = keys.length - 1;
+
+	for(int j=0;j<oldKeys.length;j++)
+	{
+	    if(oldKeys[j] != EMPTY)
+	    {
+		int i = hash(oldKeys[j]) & mask;
+		while(keys[i] != EMPTY)
+		{
+		    i = (i + 1) & mask;
+		}
+		keys[i] = oldKeys[j];
+		values[i] = oldValues[j];
+	    }
+	}
+    }
+
+    private static int hash(long key)
+    {
+	long h = key * 0x9E3779B97F4A7C15L;
+	return (int) (h ^ (h >>> 32));
+    }
+
+}
@@ -0,0 +1,286 @@
+package server;
+
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Wybiera dysk, na ktrym zostanie zapisany odbierany plik. Dla kadego dysku prowadzone s statystyki
+ * (DiscStats): zajte i wolne miejsce, rezerwacje dla plikw ktre s jeszcze odbierane, liczba trwajcych
+ * zapisw i prdko ostatnich zapisw. Sam wybr naley do polityki (PlacementPolicy) podanej
+ * argumentem "--placement". Kada decyzja jest wypisywana na konsol, a ostatnia jest widoczna w stats().
+ * @author Sebastian Paweoszek
+ *
+ */
+class PlacementEngine {
+
+    /**
+     * Co ile milisekund odczytywane jest wolne miejsce na dyskach.
+     */
+    static final long FREE_SPACE_REFRESH = 1000;
+
+    private DiscStats[] discs;
+    private PlacementPolicy policy;
+    private long freeCheckedAt = 0;
+    private String lastDecision = "brak";
+
+    /**
+     * Tworzy mechanizm wyboru dyskw i zlicza pliki zapisane ju na dyskach.
+     * @param directory Folder zawierajcy foldery dyskw "1" - "5".
+     * @param policy Polityka wyboru dysku.
+     */
+    PlacementEngine(String directory, PlacementPolicy policy)
+    {
+	this.policy = policy;
+	discs = new DiscStats[5];
+	for(int i=0;i<discs.length;i++)
+	{
+	    discs[i] = new DiscStats(i + 1, new File(directory + "/" + (i + 1)));
+	    File[] files = discs[i].folder.listFiles();
+	    if(files != null)
+	    {
+		for(File f:files)
+		{
+		    if(f.isFile() && !CatalogFiles.isCatalogFile(f.getName()))
+		    {
+			discs[i].storedBytes += f.length();
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Zwraca polityk o podanej nazwie.
+     * @param name ServerConfig.PLACEMENT_BALANCED lub ServerConfig.PLACEMENT_ROUND_ROBIN.
+     * @return Polityka wyboru dysku.
+     */
+    static PlacementPolicy policy(String name)
+    {
+	if(ServerConfig.PLACEMENT_ROUND_ROBIN.equals(name))
+	{
+	    return new RoundRobin();
+	}
+	return new Balanced();
+    }
+
+    /**
+     * Wybiera dysk dla pliku i rezerwuje na nim miejsce. Po zapisaniu pliku, lub w przypadku bdu,
+     * rezerwacj naley zwolni metod complete().
+     * @param name Nazwa pliku, wypisywana razem z decyzj.
+     * @param size Rozmiar pliku w bajtach.
+     * @return Numer dysku, od 1 do 5.
+     * @throws IOException Jeeli na adnym dysku nie ma wystarczajco miejsca.
+     */
+    synchronized int reserve(String name, long size) throws IOException
+    {
+	refreshFreeSpace(false);
+	int chosen = policy.choose(discs, size);
+	if(chosen < 0)
+	{
+	    // Dane o wolnym miejscu mog by nieaktualne, decyzja jest podejmowana jeszcze raz po ich odczytaniu.
+	    refreshFreeSpace(true);
+	    chosen = policy.choose(discs, size);
+	}
+	if(chosen < 0)
+	{
+	    throw new IOException("Brak miejsca na dyskach!");
+	}
+	return take(discs[chosen], name, size);
+    }
+
+    /**
+     * Rezerwuje miejsce na wskazanym dysku, bez wybierania dysku przez strategi. Wykorzystywana gdy
+     * pocztek pliku jest ju zapisany na tym dysku, np. przy wznawianiu przerwanego wysyania.
+     * Rezerwacj naley zwolni metod complete().
+     * @param disc Numer dysku, od 1 do 5.
+     * @param name Nazwa pliku, wypisywana razem z decyzj.
+     * @param size Liczba bajtw, ktre zostan zapisane.
+     * @return Numer dysku.
+     * @throws IOException Jeeli na dysku nie ma wystarczajco miejsca.
+     */
+    synchronized int reserveOn(int disc, String name, long size) throws IOException
+    {
+	DiscStats d = discs[disc - 1];
+	refreshFreeSpace(d.available() < size);
+	if(d.available() < size)
+	{
+	    throw new IOException("Brak miejsca na dysku " + disc + "!");
+	}
+	return take(d, name, size);
+    }
+
+    private int take(DiscStats d, String name, long size)
+    {
+	d.reservedBytes += size;
+	d.inFlight++;
+	d.placed++;
+	lastDecision = name + " (" + size + " B) -> dysk " + d.disc + ", zapisy " + d.inFlight
+		+ ", wolne " + megabytes(d.available()) + ", " + rate(d.throughput);
+	System.out.println("Wybor dysku [" + policy.name() + "]: " + lastDecision);
+	return d.disc;
+    }
+
+    /**
+     * Zwalnia rezerwacj zrobion metod reserve() lub reserveOn() i uwzgldnia zapis w statystykach dysku.
+     * @param disc Numer dysku zwrcony przez reserve().
+     * @param size Rozmiar podany przy rezerwacji.
+     * @param written Liczba bajtw zapisanych na dysku, rwnie jeeli plik zosta pniej usunity.
+     * @param stored Rozmiar pliku, ktry pozosta na dysku, 0 jeeli plik nie zosta zapisany lub jego
+     * zawarto bya ju na serwerze.
+     * @param nanos Czas zapisu na dysk (zapis i force()) w nanosekundach, bez czasu odbierania z sieci.
+     */
+    synchronized void complete(int disc, long size, long written, long stored, long nanos)
+    {
+	DiscStats d = discs[disc - 1];
+	d.reservedBytes -= size;
+	d.inFlight--;
+	d.storedBytes += stored;
+	d.freeBytes -= stored;
+	d.sample(written, nanos);
+    }
+
+    /**
+     * @return Opis stanu dyskw i ostatniej decyzji, do wywietlenia w oknie serwera.
+     */
+    synchronized String stats()
+    {
+	StringBuilder sb = new StringBuilder("Wybor dysku: " + policy.name() + ", ostatnio " + lastDecision);
+	for(DiscStats d:discs)
+	{
+	    sb.append("\nDysk ").append(d.disc).append(": ").append(megabytes(d.storedBytes)).append(" zajete, ")
+		    .append(megabytes(d.freeBytes)).append(" wolne, zapisy ").append(d.inFlight)
+		    .append(", ").append(rate(d.throughput)).append(", plikow ").append(d.placed);
+	}
+	return sb.toString();
+    }
+
+    private void refreshFreeSpace(boolean force)
+    {
+	long now = System.currentTimeMillis();
+	if(!force && now - freeCheckedAt < FREE_SPACE_REFRESH)
+	{
+	    return;
+	}
+	freeCheckedAt = now;
+	for(DiscStats d:discs)
+	{
+	    d.freeBytes = d.folder.getUsableSpace();
+	}
+    }
+
+    private static String megabytes(long bytes)
+    {
+	return (bytes >> 20) + " MB";
+    }
+
+    private static String rate(double throughput)
+    {
+	return throughput == 0 ? "brak pomiaru" : String.format("%.1f MB/s", throughput / (1 << 20));
+    }
+
+    /**
+     * Kolejne pliki trafiaj na kolejne dyski, z pominiciem dyskw na ktrych plik si nie zmieci.
+     */
+    static class RoundRobin implements PlacementPolicy
+    {
+	private int last = -1;
+
+	@Override
+	public int choose(DiscStats[] discs, long size) {
+	    for(int i=1;i<=discs.length;i++)
+	    {
+		int candidate = (last + i) % discs.length;
+		if(discs[candidate].available() >= size)
+		{
+		    last = candidate;
+		    return candidate;
+		}
+	    }
+	    return -1;
+	}
+
+	@Override
+	public String name() {
+	    return ServerConfig.PLACEMENT_ROUND_ROBIN;
+	}
+    }
+
+    /**
+     * Wybiera dysk, ktry najszybciej zapisze plik: szacowany czas to bajty jeszcze odbierane na dysku,
+     * razem z nowym plikiem, podzielone przez prdko ostatnich zapisw. Kady trwajcy zapis dolicza
+     * WRITE_OVERHEAD_BYTES. Czas jest mnoony przez (1 + zapenienie dysku), aby przy podobnej prdkoci
+     * dyski zapeniay si rwnomiernie. Koszty rnice si mniej ni o TOLERANCE traktowane s jak rwne
+     * i takie dyski s wybierane po kolei. Dziki temu pojedynczy szybszy pomiar nie kieruje wszystkich
+     * plikw na jeden dysk, a prdko pozostaych dyskw jest mierzona dalej.
+     */
+    static class Balanced implements PlacementPolicy
+    {
+	/**
+	 * Koszt jednego trwajcego zapisu, niezaleny od jego rozmiaru (otwarcie pliku, wpis do katalogu).
+	 */
+	static final long WRITE_OVERHEAD_BYTES = 64 * 1024;
+
+	/**
+	 * Wzgldna rnica kosztw, poniej ktrej dyski s traktowane jak rwne.
+	 */
+	static final double TOLERANCE = 0.25;
+
+	private int last = -1;
+
+	@Override
+	public int choose(DiscStats[] discs, long size) {
+	    // Dyski bez pomiaru prdkoci traktujemy jak przecitne.
+	    double known = 0;
+	    int measured = 0;
+	    for(DiscStats d:discs)
+	    {
+		if(d.throughput > 0)
+		{
+		    known += d.throughput;
+		    measured++;
+		}
+	    }
+	    double average = measured > 0 ? known / measured : 1;
+
+	    long now = System.currentTimeMillis();
+	    double[] costs = new double[discs.length];
+	    double lowest = Double.MAX_VALUE;
+	    for(int i=0;i<discs.length;i++)
+	    {
+		DiscStats d = discs[i];
+		if(d.available() < size)
+		{
+		    costs[i] = Double.MAX_VALUE;
+		    continue;
+		}
+		double throughput = d.estimatedThroughput(average, now);
+		costs[i] = (d.reservedBytes + size + (double) d.inFlight * WRITE_OVERHEAD_BYTES) / throughput
+			* (1 + d.fullness());
+		lowest = Math.min(lowest, costs[i]);
+	    }
+	    if(lowest == Double.MAX_VALUE)
+	    {
+		return -1;
+	    }
+
+	    // Pierwszy dysk po ostatnio wybranym, ktrego koszt jest bliski najniszemu.
+	    for(int i=1;i<=discs.length;i++)
+	    {
+		int candidate = (last + i) % discs.length;
+		if(costs[candidate] <= lowest * (1 + TOLERANCE))
+		{
+		    last = candidate;
+		    return candidate;
+		}
+	    }
+	    return -1;
+	}
+
+	@Override
+	public String name() {
+	    return ServerConfig.PLACEMENT_BALANCED;
+	}
+    }
+
+}
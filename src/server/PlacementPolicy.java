@@ -0,0 +1,26 @@
+package server;
+
+
+/**
+ * Sposb wyboru dysku, na ktrym zostanie zapisany odbierany plik. Implementacja otrzymuje aktualne
+ * statystyki wszystkich dyskw i wskazuje jeden z nich. Wybr jest wykonywany przez PlacementEngine
+ * pod blokad, wic statystyki nie zmieniaj si w trakcie wywoania.
+ * @author Sebastian Paweoszek
+ *
+ */
+interface PlacementPolicy {
+
+    /**
+     * Wybiera dysk dla pliku.
+     * @param discs Statystyki dyskw, discs[0] opisuje dysk "1".
+     * @param size Rozmiar pliku w bajtach.
+     * @return Indeks wybranego dysku w tablicy discs, lub -1 jeeli plik nie zmieci si na adnym dysku.
+     */
+    int choose(DiscStats[] discs, long size);
+
+    /**
+     * @return Nazwa polityki, wywietlana razem ze statystykami.
+     */
+    String name();
+
+}
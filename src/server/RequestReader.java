@@ -0,0 +1,297 @@
+package server;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import request.Request;
+import request.RequestCodec;
+
+/**
+ * Klasa suca do stworzenia wtku ptli zdarze. Obsuguje za pomoc jednego obiektu Selector
+ * wiele pocze jednoczenie. Odczytuje przesyane Requesty bez blokowania wtku, a kiedy Request
+ * zostanie odebrany w caoci, docza do niego poczenie przez ktre naley odpowiedzie i umieszcza
+ * cao w kolejce, gdzie bdzie oczekiwa na dalsz obsug. Poczenia s dugotrwae, klient moe
+ * wysya kolejne Requesty nie czekajc na odpowiedzi na poprzednie.
+ * Wyjtkiem s Requesty "upload" i "delta", po ktrych klient przesya strumie plikw. Ptla zdarze
+ * wstrzymuje wtedy odczyt z poczenia, a strumie odczytuje wtek obsugujcy Request. Po jego
+ * zamkniciu ptla zdarze wznawia odczyt kolejnych Requestw.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class RequestReader implements Runnable {
+
+    static final int BUFFER_SIZE = 1024;
+    static final int MAX_FRAME_SIZE = RequestCodec.MAX_REQUEST_SIZE + 4;
+
+    private BlockingQueue<Request> taskQueue;
+    private Selector selector;
+    private Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<SocketChannel>();
+    private Queue<Connection> resumed = new ConcurrentLinkedQueue<Connection>();
+    private volatile boolean state = true;
+
+    /**
+     * Konstruktor przypisuje referencj kolejki do lokalnej zmiennej i tworzy obiekt Selector.
+     * @param taskQueue Referencja do kolejki przechowujcej Requesty od klientow.
+     * @throws IOException W przypadku gdy nie udao si utworzy obiektu Selector.
+     */
+    RequestReader(BlockingQueue<Request> taskQueue) throws IOException
+    {
+	this.taskQueue = taskQueue;
+	this.selector = Selector.open();
+    }
+
+    /**
+     * Przekazuje nowe poczenie do obsugi przez ten wtek. Metoda moe by wywoywana z innego wtku.
+     * @param clientChannel Poczenie przyjte przez RequestReceiver.
+     */
+    public void register(SocketChannel clientChannel)
+    {
+	newChannels.add(clientChannel);
+	selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+
+	while(state)
+	{
+	    try
+	    {
+		selector.select();
+		registerNewChannels();
+		resumeConnections();
+
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		while(keys.hasNext())
+		{
+		    SelectionKey key = keys.next();
+		    keys.remove();
+
+		    if(key.isValid() && key.isReadable())
+		    {
+			read(key);
+		    }
+		}
+	    }
+	    catch(Exception e)
+	    {
+		e.printStackTrace();
+	    }
+	}
+
+	close();
+    }
+
+    /**
+     * Rejestruje w obiekcie Selector poczenia przekazane przez RequestReceiver.
+     */
+    private void registerNewChannels()
+    {
+	SocketChannel clientChannel;
+
+	while((clientChannel = newChannels.poll()) != null)
+	{
+	    try
+	    {
+		clientChannel.configureBlocking(false);
+		Connection c = new Connection(clientChannel);
+		c.key = clientChannel.register(selector, SelectionKey.OP_READ, c);
+	    }
+	    catch(IOException e)
+	    {
+		closeQuietly(clientChannel);
+	    }
+	}
+    }
+
+    /**
+     * Odczytuje dostpne dane z poczenia i prbuje zdekodowa z nich Request.
+     * @param key Klucz poczenia gotowego do odczytu.
+     */
+    private void read(SelectionKey key)
+    {
+	Connection c = (Connection) key.attachment();
+
+	try
+	{
+	    if(!c.buffer.hasRemaining())
+	    {
+		if(c.buffer.capacity() >= MAX_FRAME_SIZE)
+		{
+		    throw new IOException("Request jest zbyt duzy!");
+		}
+
+		ByteBuffer bigger = ByteBuffer.allocate(Math.min(c.buffer.capacity() * 2, MAX_FRAME_SIZE));
+		c.buffer.flip();
+		bigger.put(c.buffer);
+		c.buffer = bigger;
+	    }
+
+	    if(c.channel.read(c.buffer) < 0)
+	    {
+		key.cancel();
+		c.connection.close();
+		return;
+	    }
+
+	    decode(c);
+	}
+	catch(IOException e)
+	{
+	    System.out.println("Nieprawidlowy request: " + e.getMessage());
+	    key.cancel();
+	    c.connection.close();
+	}
+    }
+
+    /**
+     * Dekoduje wszystkie Requesty odebrane w caoci i umieszcza je w kolejce.
+     * Jeeli odebrano Request ze strumieniem plikw ("upload" lub "delta"), odczyt
+     * z poczenia zostaje wstrzymany, a bajty odebrane ju po nim (pocztek strumienia plikw) pozostaj
+     * w buforze, z ktrego odczyta je wtek obsugujcy Request.
+     * @param c Poczenie z klientem.
+     */
+    private void decode(Connection c) throws IOException
+    {
+	c.buffer.flip();
+
+	Request r;
+	while((r = RequestCodec.decode(c.buffer)) != null)
+	{
+	    r.setConnection(c.connection);
+
+	    if(r.hasFileStream())
+	    {
+		c.key.interestOps(0);
+		r.setInputStream(new ChannelInput(c.channel, c.buffer, new Runnable() {
+		    @Override
+		    public void run() {
+			resume(c);
+		    }
+		}));
+		enqueue(r);
+		return;
+	    }
+
+	    enqueue(r);
+	}
+
+	c.buffer.compact();
+    }
+
+    private void enqueue(Request r)
+    {
+	System.out.println("Request od: " + r.getUsername());
+
+	r.setEnqueueTime(System.nanoTime());
+	while(!taskQueue.offer(r));
+    }
+
+    /**
+     * Przekazuje poczenie z powrotem do ptli zdarze po odczytaniu strumienia plikw.
+     * Wywoywana przez wtek obsugujcy Request ze strumieniem plikw.
+     * @param c Poczenie z klientem.
+     */
+    private void resume(Connection c)
+    {
+	c.buffer.compact();
+	resumed.add(c);
+	selector.wakeup();
+    }
+
+    /**
+     * Wznawia odczyt z pocze, ktrych strumie plikw zosta odczytany w caoci.
+     * Bufor moe zawiera Requesty wysane przez klienta zaraz po plikach, dlatego s one
+     * dekodowane od razu, bez czekania na kolejne dane.
+     */
+    private void resumeConnections()
+    {
+	Connection c;
+
+	while((c = resumed.poll()) != null)
+	{
+	    if(!c.key.isValid())
+	    {
+		continue;
+	    }
+
+	    try
+	    {
+		c.key.interestOps(SelectionKey.OP_READ);
+		decode(c);
+	    }
+	    catch(IOException e)
+	    {
+		System.out.println("Nieprawidlowy request: " + e.getMessage());
+		c.key.cancel();
+		c.connection.close();
+	    }
+	}
+    }
+
+    /**
+     * Zamyka obiekt Selector i wszystkie poczenia, ktre nie zostay jeszcze przekazane do obsugi.
+     */
+    private void close()
+    {
+	try
+	{
+	    for(SelectionKey key:selector.keys())
+	    {
+		closeQuietly(key.channel());
+	    }
+	    selector.close();
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+    }
+
+    private static void closeQuietly(Channel channel)
+    {
+	try
+	{
+	    channel.close();
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+    }
+
+    /**
+     * Metoda pozwalajca na bezpieczne zakoczenie dziaania wtku.
+     */
+    public void shutdown()
+    {
+	state = false;
+	selector.wakeup();
+    }
+
+    /**
+     * Stan pojedynczego poczenia obsugiwanego przez ptl zdarze.
+     */
+    private static class Connection
+    {
+	SocketChannel channel;
+	SelectionKey key;
+	ChannelConnection connection;
+	ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	Connection(SocketChannel channel)
+	{
+	    this.channel = channel;
+	    this.connection = new ChannelConnection(channel);
+	}
+    }
+
+}
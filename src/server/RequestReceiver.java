@@ -2,131 +2,148 @@ package server;
 
 
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 import java.util.concurrent.BlockingQueue;
 import request.Request;
 
 /**
- * Klasa suca do stworzenia wtku. Czeka na poczenie od klienta, po czym przyjmuje
- * od niego Request i umieszcza go kolejce, gdzie czeka a zostanie obsuony przez inny wtek.
+ * Klasa suca do stworzenia wtku. Przyjmuje poczenia od klientw za pomoc nieblokujcego
+ * ServerSocketChannel i rozdziela je pomidzy niewielk, sta liczb wtkw RequestReader.
+ * To one odczytuj Requesty i umieszczaj je w kolejce, gdzie czekaj a zostan obsuone przez inny wtek.
  * @author Sebastian Paweoszek
  *
  */
 public class RequestReceiver implements Runnable {
-    
+
+    static final int EVENT_LOOPS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
     private BlockingQueue<Request> taskQueue;
-    private ServerSocket serverSocket;
-    private boolean state = true;
-    
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private RequestReader[] readers;
+    private int nextReader = 0;
+    private volatile boolean state = true;
+
     /**
      * Konstruktor, poza tym e przypisuje referencj kolejki do lokalnej zmiennej, tworzy obiekt
-     * ServerSocket na porcie 5000.
+     * ServerSocketChannel na porcie 5000 oraz wtki RequestReader odczytujce Requesty.
      * @param taskQueue Referencja do kolejki przechowujcej Requesty od klientow.
      */
     public RequestReceiver(BlockingQueue<Request> taskQueue)
     {
 	this.taskQueue = taskQueue;
+	this.readers = new RequestReader[EVENT_LOOPS];
 	try
 	{
-	    serverSocket = new ServerSocket(5000);
+	    selector = Selector.open();
+	    serverChannel = ServerSocketChannel.open();
+	    serverChannel.bind(new InetSocketAddress(5000));
+	    serverChannel.configureBlocking(false);
+	    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+	    for(int i=0;i<readers.length;i++)
+	    {
+		readers[i] = new RequestReader(this.taskQueue);
+	    }
 	}
 	catch(Exception e)
 	{
 	    e.printStackTrace();
 	}
-	
+
     }
-    
+
     /**
-     * Odbiera poczenia od klientw i uruchamia wtek zajmujcy si dalsz obsug poczenia.
+     * Uruchamia wtki RequestReader, a nastpnie odbiera poczenia od klientw i przekazuje je
+     * kolejnym wtkom RequestReader na zasadzie round-robin.
      */
     @Override
     public void run() {
-	
+
+	for(int i=0;i<readers.length;i++)
+	{
+	    Thread t = new Thread(readers[i], "RequestReader-" + (i + 1));
+	    t.start();
+	}
+
 	while(state) {
-		
-		try 
+
+		try
 		{
-		    Socket clientSocket = serverSocket.accept();
-		    if(state)
+		    selector.select();
+
+		    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+		    while(keys.hasNext())
 		    {
-			Thread t = new Thread(new RequestHandler(clientSocket));
-			t.start();
+			SelectionKey key = keys.next();
+			keys.remove();
+
+			if(state && key.isValid() && key.isAcceptable())
+			{
+			    accept();
+			}
 		    }
-		    
-		    
-		} 
-		catch(Exception ex) 
+
+		}
+		catch(Exception ex)
 		{
 		    ex.printStackTrace();
 		}
-		
+
 	}
-	
+
+	close();
+
     }
 
     /**
-     * Metoda pozwalajca na bezpieczne zakoczenie dziaania wtku.
+     * Przyjmuje wszystkie oczekujce poczenia i przypisuje je do wtkw RequestReader.
+     * @throws IOException W przypadku bdu podczas przyjmowania poczenia.
      */
-    public void shutdown()
+    private void accept() throws IOException
     {
-	state = false;
-	try 
-	{
-	    new Socket(serverSocket.getInetAddress(),serverSocket.getLocalPort()).close();
-	} 
-	catch (IOException e)
+	SocketChannel clientChannel;
+
+	while((clientChannel = serverChannel.accept()) != null)
 	{
-	    e.printStackTrace();
+	    readers[nextReader].register(clientChannel);
+	    nextReader = (nextReader + 1) % readers.length;
 	}
     }
-    
+
     /**
-     * Klasa suca do stworzenia wtku. Ma za zadanie odczyta przesyany Request, doczy do niego
-     * obiekt Socket i umieci cao w kolejce gdzie bdzie oczekiwao na dalsz obsug.
-     * @author Sebastian Paweoszek
-     *
+     * Zamyka gniazdo serwera i koczy dziaanie wtkw RequestReader.
      */
-    public class RequestHandler implements Runnable
+    private void close()
     {
-	ObjectInputStream objectReader;
-	Socket clientSocket;
-	Request r;
-	
-	/**
-	 * Konstruktor przypisuje argument do zmiennej lokalnej o tej samej nazwie.
-	 * @param clientSocket Otwarty socket umoliwiajcy czno z klientem.
-	 */
-	public RequestHandler(Socket clientSocket)
+	for(RequestReader reader:readers)
 	{
-	    this.clientSocket = clientSocket;
+	    reader.shutdown();
 	}
-	
-	@Override
-	public void run() {
-	    
-	    try
-	    {
-		objectReader = new ObjectInputStream(clientSocket.getInputStream());
-		
-		r = (Request) objectReader.readObject();
-		r.setSocket(clientSocket);
-		
-		System.out.println("Request od: " + r.getUsername());
-		
-		while(!taskQueue.offer(r));
-		
-	    }
-	    catch(Exception e)
-	    {
-		e.printStackTrace();
-	    }
-	    
-	
+
+	try
+	{
+	    selector.close();
+	    serverChannel.close();
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
 	}
-	
     }
-    
+
+    /**
+     * Metoda pozwalajca na bezpieczne zakoczenie dziaania wtku.
+     */
+    public void shutdown()
+    {
+	state = false;
+	selector.wakeup();
+    }
+
 }
@@ -1,36 +1,56 @@
 package server;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Objects;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-import javafx.application.Platform;
-import javafx.scene.control.Label;
+import request.BlockSignatures;
+import request.ContentHash;
 import request.Request;
+import request.RequestCodec;
 
 /**
  * Klasa suca do stworzenia wtku. Pobiera z kolejki Requesty i obsuguje je na podstawie ich zawartoci.
  * Potrafi wysa list plikw nalecych do danego uytkownika, wysya list uytkownikw
  * aktualnie korzystajcych z serwera, wysya zadane pliki, odbiera pliki i zapisywa je w odpowiednim
- * miejscu, oraz udostpnia pliki innym uytkownikom.
+ * miejscu, oraz udostpnia pliki innym uytkownikom. Pliki s wysyane i odbierane strumieniem
+ * zawierajcym wszystkie pliki wymienione w Requecie.
+ * Odebrane pliki s przechowywane wedug zawartoci (ContentStore). Przed wysaniem plikw klient pyta
+ * Requestem "have" czy serwer ma ju ich zawarto, dziki czemu takie pliki nie s przesyane ponownie.
+ * Pliki przesyane s czciami z sumami kontrolnymi. Przerwane wysyanie lub pobieranie jest wznawiane
+ * od ostatniej poprawnie odebranej czci. Zmienione pliki klient moe wysa jako rnic wzgldem wersji
+ * na serwerze (Requesty "signatures" i "delta"), a serwer odtwarza now wersj kopiujc niezmienione bloki.
+ * Request "watch" nie jest obsugiwany od razu, tylko czeka w ChangeNotifier na zmian plikw uytkownika.
  * @author Sebastian Pwaeoszek
  *
  */
 public class RequestResponder implements Runnable {
 
     private BlockingQueue<Request> taskQueue;
-    private ObjectOutputStream objectWriter;
-    private Request r;
-    private boolean on = true;
-    private Label state;
+    private volatile boolean on = true;
+    private ResponderPool pool;
     
-    RequestResponder(BlockingQueue<Request> taskQueue, Label state)
+    /**
+     * Konstruktor przypisuje argumenty do zmiennych lokalnych.
+     * @param taskQueue Kolejka z ktrej pobierane s Requesty.
+     * @param pool Pula do ktrej naley wtek, lub null jeeli Requesty s obsugiwane poza pul.
+     */
+    RequestResponder(BlockingQueue<Request> taskQueue, ResponderPool pool)
     {
 	this.taskQueue = taskQueue;
-	this.state = state;
+	this.pool = pool;
     }
     
     @Override
@@ -40,33 +60,30 @@ public class RequestResponder implements Runnable {
 	{
 		try 
 		{
-		    print("Gotowy");
-		    r = taskQueue.take();
+		    Request r = taskQueue.poll(ResponderPool.IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
 		    
 		    if(!on)
 		    {
 			break;
 		    }
 		    
-		    if(r.getAction().equals("sync"))
-		    {
-			syncRespond();
-		    }
-		    else if(r.getAction().equals("users"))
-		    {
-			usersRespond();
-		    }
-		    else if(r.getAction().equals("download"))
+		    if(r == null)
 		    {
-			downloadRespond();
+			if(pool.retireIfIdle(this))
+			{
+			    break;
+			}
+			continue;
 		    }
-		    else if(r.getAction().equals("upload"))
+
+		    pool.requestStarted(r);
+		    try
 		    {
-			uploadRespond();
+			respond(r);
 		    }
-		    else if(r.getAction().equals("share"))
+		    finally
 		    {
-			shareRespond();
+			pool.requestFinished();
 		    }
 		    
 		} 
@@ -74,108 +91,850 @@ public class RequestResponder implements Runnable {
 		{
 		    e.printStackTrace();
 		}
-		catch (IOException e)
-		{
-		    e.printStackTrace();
-		}
-		catch (Exception e)
-		{
-		    e.printStackTrace();
-		}
 		
 	}
 	
     }
     
-    private void syncRespond() throws IOException, InterruptedException
+    /**
+     * Obsuguje pojedynczy Request na podstawie jego zawartoci. Metoda nie korzysta ze stanu wtku,
+     * dlatego moe by wywoywana jednoczenie przez wiele wtkw, np. w trybie wtkw wirtualnych.
+     * @param r Request do obsuenia.
+     */
+    public void respond(Request r)
+    {
+	try
+	{
+	    if(r.getAction().equals("sync"))
+	    {
+		syncRespond(r);
+	    }
+	    else if(r.getAction().equals("users"))
+	    {
+		usersRespond(r);
+	    }
+	    else if(r.getAction().equals("download"))
+	    {
+		downloadRespond(r);
+	    }
+	    else if(r.getAction().equals("upload"))
+	    {
+		uploadRespond(r);
+	    }
+	    else if(r.getAction().equals("share"))
+	    {
+		shareRespond(r);
+	    }
+	    else if(r.getAction().equals("have"))
+	    {
+		haveRespond(r);
+	    }
+	    else if(r.getAction().equals("signatures"))
+	    {
+		signaturesRespond(r);
+	    }
+	    else if(r.getAction().equals("delta"))
+	    {
+		deltaRespond(r);
+	    }
+	    else if(r.getAction().equals("watch"))
+	    {
+		watchRespond(r);
+	    }
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	    fail(r, e);
+	}
+	catch (Exception e)
+	{
+	    e.printStackTrace();
+	    fail(r, e);
+	}
+    }
+
+    /**
+     * Informuje klienta, e Request nie mg zosta obsuony. Jeeli nie da si wysa odpowiedzi,
+     * poczenie jest zamykane, aby klient nie czeka na ni w nieskoczono.
+     * @param r Request ktry nie zosta obsuony.
+     * @param e Przyczyna bdu.
+     */
+    private void fail(Request r, Exception e)
+    {
+	if(r.getConnection() == null)
+	{
+	    return;
+	}
+
+	try
+	{
+	    r.getConnection().send(RequestCodec.encodeStatus(r.getRequestId(), RequestCodec.ERROR, e.getMessage()));
+	}
+	catch(IOException e1)
+	{
+	    r.getConnection().close();
+	}
+    }
+
+    private void syncRespond(Request r) throws IOException
     {
 	
 	print("Wysyam liste plikow dla " + r.getUsername());
-	Thread.sleep(3000);
-	
-	objectWriter = new ObjectOutputStream(r.getSocket().getOutputStream());
-	objectWriter.writeObject( CsvReader.readUserFiles(r.getUsername() ));
-	
-	objectWriter.close();
-	r.getSocket().close();
+
+	if(r.hasKnownVersion())
+	{
+	    r.getConnection().send(RequestCodec.encodeChanges(r.getRequestId(),
+		    CsvReader.readUserChanges(r.getUsername(), r.getKnownEpoch(), r.getKnownVersion())));
+	    return;
+	}
+	r.getConnection().send(RequestCodec.encodeList(r.getRequestId(), CsvReader.readUserFiles(r.getUsername())));
     }
 
-    private void usersRespond() throws IOException, InterruptedException
+    private void watchRespond(Request r) throws IOException
+    {
+	if(!r.hasKnownVersion())
+	{
+	    throw new ProtocolException("Brak wersji katalogu w Requescie watch");
+	}
+	CsvReader.watchChanges(r);
+    }
+
+    private void usersRespond(Request r) throws IOException
     {
 	
 	print("Wysyam liste uytkownikw.");
-	Thread.sleep(3000);
-	
-	objectWriter = new ObjectOutputStream(r.getSocket().getOutputStream());
-	objectWriter.writeObject( CsvReader.listUsers());
-	
-	objectWriter.close();
-	r.getSocket().close();
+
+	r.getConnection().send(RequestCodec.encodeList(r.getRequestId(), CsvReader.listUsers()));
     }
     
-    private void downloadRespond() throws IOException, InterruptedException
+    private void downloadRespond(Request r) throws IOException
     {
 	
-	print("Wysyam " + r.getNeededFile() + " do " + r.getUsername());
-	Thread.sleep(3000);
-	
-	String loc = "files/" + CsvReader.localiseFile(r.getUsername(), r.getNeededFile()) + "/" + r.getNeededFile();
-	DataOutputStream dos = new DataOutputStream(r.getSocket().getOutputStream());
-	FileInputStream fis = new FileInputStream(loc);
-	
-	byte[] bytes = new byte[8 * 1024];
-	
-	int count;
-        while ((count = fis.read(bytes)) > 0) 
-        {
-            dos.write(bytes, 0, count);
-        }
+	ArrayList<String> files = r.getFiles();
+	ArrayList<Long> offsets = r.getOffsets();
+	print("Wysyam " + describe(files) + " do " + r.getUsername());
+
+	ByteBuffer frame = null;
+	ByteBuffer chunk = null;
+	for(int i=0;i<files.size();i++)
+	{
+	    String name = files.get(i);
+	    FileLocation location = CsvReader.localiseFile(r.getUsername(), name);
+	    if(location == null)
+	    {
+		// Brak jednego pliku nie przerywa strumienia, klient odrzuci tylko ten plik.
+		r.getConnection().send(RequestCodec.encodeEntryHeader(r.getRequestId(), name, 0, 0, null));
+		r.getConnection().send(RequestCodec.encodeEntryEnd(r.getRequestId(), "Plik nie istnieje: " + name));
+		continue;
+	    }
+
+	    try (FileChannel file = FileChannel.open(location.file(CsvReader.directory, name).toPath(), StandardOpenOption.READ))
+	    {
+		long size = file.size();
+		// Klient ma ju pocztek pliku z przerwanego pobierania, wysyane s tylko brakujce czci.
+		long offset = i < offsets.size() ? Math.max(0, Math.min(offsets.get(i), size)) : 0;
+		r.getConnection().send(RequestCodec.encodeEntryHeader(r.getRequestId(), name, size, offset, location.getContent()));
+
+		// Sumy kontrolne pliku nazwanego skrtem s zapamitywane po pierwszym wysaniu caego pliku,
+		// a kolejne pobrania wysyaj jego bajty przez sendFile(), bez odczytu do pamici. Pozostae pliki
+		// s odczytywane raz, do bufora za ramk CHUNK, i wysyane razem z ni z tego samego bufora.
+		String content = location.getContent();
+		int[] checksums = null;
+		int[] computed = null;
+		if(content != null && offset % RequestCodec.CHUNK_SIZE == 0)
+		{
+		    checksums = ContentStore.cachedChecksums(content);
+		    if(checksums == null && offset == 0)
+		    {
+			computed = new int[(int) ((size + RequestCodec.CHUNK_SIZE - 1) / RequestCodec.CHUNK_SIZE)];
+		    }
+		}
+		if(checksums == null && frame == null && offset < size)
+		{
+		    frame = ByteBuffer.allocate(RequestCodec.CHUNK_HEADER_SIZE + RequestCodec.CHUNK_SIZE);
+		    frame.position(RequestCodec.CHUNK_HEADER_SIZE);
+		    chunk = frame.slice();
+		}
+		for(long position=offset;position<size;position+=RequestCodec.CHUNK_SIZE)
+		{
+		    int length = (int) Math.min(RequestCodec.CHUNK_SIZE, size - position);
+		    int index = (int) (position / RequestCodec.CHUNK_SIZE);
+		    if(checksums != null)
+		    {
+			r.getConnection().sendFile(RequestCodec.encodeChunk(r.getRequestId(), position, length,
+				checksums[index]), file, position, length);
+			continue;
+		    }
+
+		    readChunk(file, chunk, position, length);
+		    int checksum = RequestCodec.checksum(chunk);
+		    if(computed != null)
+		    {
+			computed[index] = checksum;
+		    }
+		    frame.clear();
+		    frame.put(RequestCodec.encodeChunk(r.getRequestId(), position, length, checksum));
+		    frame.limit(RequestCodec.CHUNK_HEADER_SIZE + length);
+		    frame.position(0);
+		    r.getConnection().send(frame);
+		}
+		if(computed != null)
+		{
+		    ContentStore.rememberChecksums(content, computed);
+		}
+	    }
+	    r.getConnection().send(RequestCodec.encodeEntryEnd(r.getRequestId(), null));
+	}
 	
-        dos.close();
-        fis.close();
-        r.getSocket().close();
+	r.getConnection().send(RequestCodec.encodeStatus(r.getRequestId(), RequestCodec.OK, null));
     }
     
-    private void uploadRespond() throws IOException, InterruptedException
+    private void uploadRespond(Request r) throws IOException
     {
 	
-	print("Odbieram " + r.getNeededFile() + " od " + r.getUsername());
-	Thread.sleep(3000);
-	
-	String disc = CsvReader.chooseDisc();
-	String loc = "files/" + disc + "/" + r.getNeededFile();
-	DataInputStream dis = new DataInputStream(r.getSocket().getInputStream());
-	FileOutputStream fos = new FileOutputStream(loc);
+	print("Odbieram " + describe(r.getFiles()) + " od " + r.getUsername());
+
+	receiveFiles(r, false);
+    }
+
+    private void deltaRespond(Request r) throws IOException
+    {
+
+	print("Odbieram zmiany " + describe(r.getFiles()) + " od " + r.getUsername());
+
+	receiveFiles(r, true);
+    }
+
+    /**
+     * Odbiera strumie plikw Requesta "upload" albo "delta" i wysya odpowied z wynikiem.
+     * @param r Request, ktrego strumie jest odbierany.
+     * @param delta true jeeli pliki s rnicami wzgldem wersji na serwerze, ktrych skrty zawiera
+     * lista r.getContents().
+     * @throws IOException W przypadku bdu poczenia lub nieprawidowego strumienia, poczenie jest wtedy zamykane.
+     */
+    private void receiveFiles(Request r, boolean delta) throws IOException
+    {
+	ArrayList<String> files = r.getFiles();
+	ArrayList<String> failed = new ArrayList<String>();
+	InputStream input = r.getInputStream();
+	DataInputStream dis = new DataInputStream(input);
+	// Jeden bufor dla wszystkich plikw strumienia, przez ktry przechodz odbierane i kopiowane bajty.
+	ByteBuffer buffer = null;
+
+	try
+	{
+	    if(delta && files.size() != r.getContents().size())
+	    {
+		throw new ProtocolException("Liczba skrotow nie zgadza sie z liczba plikow!");
+	    }
+
+	    for(int i=0;i<files.size();i++)
+	    {
+		ByteBuffer header = RequestCodec.readFrame(dis);
+		RequestCodec.expectFrame(header, RequestCodec.ENTRY, r.getRequestId());
+		String name = RequestCodec.getString(header);
+		long size = header.getLong();
+		long offset = header.getLong();
+		String content = RequestCodec.getString(header);
+		if(size < 0 || offset < 0 || offset > size)
+		{
+		    throw new ProtocolException("Nieprawidlowy naglowek pliku: " + name);
+		}
+
+		if(delta && offset != 0)
+		{
+		    throw new ProtocolException("Nieprawidlowy naglowek pliku: " + name);
+		}
+
+		Upload upload = delta ? openDelta(r.getUsername(), name, size, content, r.getContents().get(i))
+			: openUpload(name, size, offset, content);
+		if(buffer == null && upload.channel != null)
+		{
+		    buffer = ByteBuffer.allocateDirect(RequestCodec.CHUNK_SIZE);
+		}
+		try
+		{
+		    ByteBuffer frame = RequestCodec.readFrame(dis);
+		    while(frame.get(frame.position()) == RequestCodec.CHUNK
+			    || (delta && frame.get(frame.position()) == RequestCodec.COPY))
+		    {
+			if(frame.get(frame.position()) == RequestCodec.CHUNK)
+			{
+			    RequestCodec.expectFrame(frame, RequestCodec.CHUNK, r.getRequestId());
+			    receiveChunk(input, upload, frame, buffer);
+			}
+			else
+			{
+			    RequestCodec.expectFrame(frame, RequestCodec.COPY, r.getRequestId());
+			    copyBlocks(upload, frame, buffer);
+			}
+			frame = RequestCodec.readFrame(dis);
+		    }
+		    RequestCodec.expectFrame(frame, RequestCodec.ENTRY_END, r.getRequestId());
+		    String error = RequestCodec.getString(frame);
+
+		    if(!commit(r.getUsername(), upload, error))
+		    {
+			failed.add(name);
+		    }
+		}
+		finally
+		{
+		    closeUpload(upload);
+		}
+	    }
+	}
+	catch(IOException e)
+	{
+	    // Po bdzie odczytu nie wiadomo gdzie zaczyna si kolejna ramka.
+	    r.getConnection().close();
+	    throw e;
+	}
+	finally
+	{
+	    dis.close();
+	}
 	
-	int count;
+	if(failed.isEmpty())
+	{
+	    r.getConnection().send(RequestCodec.encodeStatus(r.getRequestId(), RequestCodec.OK, null));
+	}
+	else
+	{
+	    r.getConnection().send(RequestCodec.encodeStatus(r.getRequestId(), RequestCodec.ERROR,
+		    "Nie odebrano plikow: " + failed));
+	}
+    }
+
+    /**
+     * Przygotowuje odbieranie pliku: wybiera dysk, rezerwuje miejsce i otwiera plik tymczasowy.
+     * Jeeli klient poda skrt zawartoci, plik jest odbierany do pliku tymczasowego nazwanego skrtem,
+     * ktry po przerwanym wysyaniu pozostaje na dysku. Wysyanie wznawiane od pozycji offset musi trafi
+     * do tego samego pliku, w ktrym jest ju co najmniej offset bajtw.
+     * Jeeli pliku nie da si odebra, zwrcony obiekt nie ma otwartego kanau, a czci pliku s pomijane.
+     * @param name Nazwa pliku.
+     * @param size Zadeklarowany rozmiar pliku.
+     * @param offset Pozycja od ktrej klient wysya plik.
+     * @param content Skrt zawartoci podany przez klienta, lub null.
+     * @return Stan odbierania pliku.
+     */
+    private Upload openUpload(String name, long size, long offset, String content)
+    {
+	Upload upload = new Upload(name, size, offset);
+	if(ContentHash.isValid(content))
+	{
+	    upload.content = content;
+	    upload.resumable = ContentStore.claim(content);
+	}
+
+	String staged = upload.resumable ? ContentStore.findStaged(CsvReader.directory, content) : null;
+	if(staged != null)
+	{
+	    try
+	    {
+		CsvReader.reserveSpace(staged, name, size - offset);
+		upload.disc = staged;
+	    }
+	    catch(IOException e)
+	    {
+		print("Brak miejsca na plik " + name + " (" + size + " B)");
+	    }
+	}
+	else if(offset == 0)
+	{
+	    upload.disc = reserveDisc(name, size);
+	}
+	else
+	{
+	    print("Nie mozna wznowic wysylania pliku " + name + " od pozycji " + offset);
+	}
+
+	if(upload.disc == null)
+	{
+	    return upload;
+	}
+	upload.reserved = size - offset;
+	upload.file = upload.resumable ? ContentStore.staging(CsvReader.directory, upload.disc, content)
+		: ContentStore.receiving(CsvReader.directory, upload.disc);
+
+	try
+	{
+	    upload.channel = FileChannel.open(upload.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		    StandardOpenOption.READ);
+	    if(upload.channel.size() < offset)
+	    {
+		print("Nie mozna wznowic wysylania pliku " + name + " od pozycji " + offset);
+		closeChannel(upload);
+	    }
+	    else
+	    {
+		upload.channel.truncate(offset);
+		// Skrt obejmuje rwnie cz odebran przed przerwaniem wysyania.
+		upload.digest = ContentHash.digest();
+		ContentHash.update(upload.digest, upload.channel, offset);
+	    }
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	    closeChannel(upload);
+	}
+	return upload;
+    }
+
+    /**
+     * Przygotowuje odtworzenie nowej wersji pliku z rnicy wzgldem wersji na serwerze. Nowa wersja jest
+     * zapisywana na dysku poprzedniej wersji, aby jej wpis w katalogu zastpi poprzedni (Catalog.replace()).
+     * Jeeli wersja pliku na serwerze zmienia si od wysania sygnatur, zwrcony obiekt nie ma otwartego
+     * kanau, a rnica jest pomijana.
+     * @param username Waciciel pliku.
+     * @param name Nazwa pliku.
+     * @param size Rozmiar nowej wersji pliku.
+     * @param content Skrt zawartoci nowej wersji pliku, wymagany.
+     * @param base Skrt zawartoci wersji, wzgldem ktrej klient obliczy rnic.
+     * @return Stan odbierania pliku.
+     */
+    private Upload openDelta(String username, String name, long size, String content, String base)
+    {
+	Upload upload = new Upload(name, size, 0);
+	upload.replace = true;
+	FileLocation location = CsvReader.localiseFile(username, name);
+	if(!ContentHash.isValid(content) || location == null || !Objects.equals(location.getContent(), base))
+	{
+	    print("Wersja pliku " + name + " na serwerze zmienila sie, pomijam zmiany");
+	    return upload;
+	}
+	upload.content = content;
+
+	try
+	{
+	    upload.basis = FileChannel.open(location.file(CsvReader.directory, name).toPath(), StandardOpenOption.READ);
+	    upload.basisSize = upload.basis.size();
+	    upload.blockSize = BlockSignatures.blockSize(upload.basisSize);
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	    return upload;
+	}
+
+	try
+	{
+	    CsvReader.reserveSpace(location.getDisc(), name, size);
+	}
+	catch(IOException e)
+	{
+	    print("Brak miejsca na plik " + name + " (" + size + " B)");
+	    return upload;
+	}
+	upload.disc = location.getDisc();
+	upload.reserved = size;
+	upload.file = ContentStore.receiving(CsvReader.directory, upload.disc);
+
+	try
+	{
+	    upload.digest = ContentHash.digest();
+	    upload.channel = FileChannel.open(upload.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+		    StandardOpenOption.READ);
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+	return upload;
+    }
+
+    /**
+     * Kopiuje kolejne bloki poprzedniej wersji pliku do odtwarzanej nowej wersji (ramka COPY). Bloki przechodz
+     * przez bufor, dziki czemu skrt nowej wersji jest obliczany w trakcie kopiowania.
+     * @param upload Stan odbierania pliku otwarty przez openDelta().
+     * @param frame Ramka COPY, pozycja wskazuje pozycj blokw w nowym pliku.
+     * @param buffer Bufor strumienia, o pojemnoci RequestCodec.CHUNK_SIZE.
+     * @throws IOException W przypadku bdu zapisu, odczytu, lub nieprawidowej ramki.
+     */
+    private void copyBlocks(Upload upload, ByteBuffer frame, ByteBuffer buffer) throws IOException
+    {
+	long offset = frame.getLong();
+	int block = frame.getInt();
+	long length = frame.getLong();
+	if(offset != upload.position || length < 0 || offset + length > upload.size || block < 0
+		|| (upload.basis != null && (long) block * upload.blockSize + length > upload.basisSize))
+	{
+	    throw new ProtocolException("Nieoczekiwane bloki pliku " + upload.name + ": " + offset);
+	}
+	upload.position += length;
+
+	if(upload.channel == null)
+	{
+	    return;
+	}
+
+	long source = (long) block * upload.blockSize;
+	long copied = 0;
+	while(copied < length)
+	{
+	    int count = (int) Math.min(buffer.capacity(), length - copied);
+	    readChunk(upload.basis, buffer, source + copied, count);
+	    upload.digest.update(buffer.duplicate());
+	    writeChunk(upload, buffer, offset + copied);
+	    copied += count;
+	}
+    }
+
+    /**
+     * Odbiera jedn cz pliku do bufora, sprawdza jej sum kontroln, dodaje j do skrtu zawartoci
+     * i dopiero wtedy zapisuje na dysk, dziki czemu kady bajt jest zapisywany raz i nie jest ponownie
+     * odczytywany. Bdna cz nie jest zapisywana, a pozostae czci s pomijane, dlatego plik
+     * tymczasowy zawiera tylko sprawdzone czci i kolejna prba moe zacz si od jego koca.
+     * @param input Strumie plikw przesyanych przez klienta.
+     * @param upload Stan odbierania pliku.
+     * @param frame Ramka CHUNK, pozycja wskazuje pozycj czci w pliku.
+     * @param buffer Bufor strumienia, o pojemnoci RequestCodec.CHUNK_SIZE.
+     * @throws IOException W przypadku bdu odczytu ze strumienia, zapisu pliku, lub nieprawidowej ramki.
+     */
+    private void receiveChunk(InputStream input, Upload upload, ByteBuffer frame, ByteBuffer buffer) throws IOException
+    {
+	long offset = frame.getLong();
+	int length = frame.getInt();
+	int checksum = frame.getInt();
+	if(offset != upload.position || length < 0 || length > RequestCodec.CHUNK_SIZE || offset + length > upload.size)
+	{
+	    throw new ProtocolException("Nieoczekiwana czesc pliku " + upload.name + ": " + offset);
+	}
+	upload.position += length;
+
+	if(upload.channel == null)
+	{
+	    input.skipNBytes(length);
+	    return;
+	}
+
+	buffer.clear();
+	buffer.limit(length);
+	receive(input, buffer);
+	buffer.flip();
+	if(RequestCodec.checksum(buffer) != checksum)
+	{
+	    print("Bledna suma kontrolna pliku " + upload.name + " na pozycji " + offset);
+	    closeChannel(upload);
+	    return;
+	}
+	upload.digest.update(buffer.duplicate());
+	writeChunk(upload, buffer, offset);
+    }
+
+    /**
+     * Koczy odbieranie pliku. Skrt obliczony w trakcie odbierania jest porwnywany ze skrtem podanym
+     * przez klienta, a kompletny plik przenoszony
+     * pod nazw rwn skrtowi zawartoci i dopisywany do katalogu. Jeeli ta sama zawarto jest ju
+     * na serwerze, wpis wskazuje istniejcy plik. Nowa wersja pliku odtworzona z rnicy zastpuje wpis
+     * poprzedniej wersji, ktrej zawarto pozostaje na dysku, poniewa mog wskazywa na ni inne wpisy.
+     * @param username Waciciel pliku.
+     * @param upload Stan odbierania pliku.
+     * @param error Bd zgoszony przez klienta w ramce ENTRY_END, lub null.
+     * @return true jeeli plik zosta zapisany, false w przypadku bdu.
+     */
+    private boolean commit(String username, Upload upload, String error)
+    {
+	boolean complete = upload.channel != null && upload.position == upload.size;
+	if(error == null && complete)
+	{
+	    try
+	    {
+		// Czas force() naley do czasu zapisu, bez niego mierzony byby tylko zapis do pamici podrcznej.
+		long start = System.nanoTime();
+		upload.channel.force(false);
+		upload.writeNanos += System.nanoTime() - start;
+	    }
+	    catch(IOException e)
+	    {
+		e.printStackTrace();
+		complete = false;
+	    }
+	}
+	closeChannel(upload);
+	if(error != null || !complete)
+	{
+	    return false;
+	}
+
+	try
+	{
+	    String content = ContentHash.of(upload.digest);
+	    if(upload.content != null && !content.equals(upload.content))
+	    {
+		print("Zawartosc pliku " + upload.name + " nie zgadza sie ze skrotem");
+		Files.deleteIfExists(upload.file.toPath());
+		return false;
+	    }
+
+	    if(upload.replace)
+	    {
+		if(ContentStore.storeOn(CsvReader.directory, upload.file, upload.disc, content))
+		{
+		    upload.stored = upload.size;
+		}
+		CsvReader.replaceRecord(username, upload.name, content, upload.disc);
+		return true;
+	    }
+
+	    String existing = ContentStore.store(CsvReader.directory, upload.file, upload.disc, content);
+	    if(existing == null)
+	    {
+		upload.stored = upload.size;
+	    }
+	    CsvReader.addRecord(username, upload.name, content, existing != null ? existing : upload.disc);
+	    return true;
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	    return false;
+	}
+    }
+
+    /**
+     * Zwalnia zasoby odbieranego pliku. Plik tymczasowy bez skrtu zawartoci jest usuwany, a plik nazwany
+     * skrtem pozostaje na dysku, aby mona byo wznowi wysyanie.
+     */
+    private void closeUpload(Upload upload)
+    {
+	closeChannel(upload);
+	if(upload.basis != null)
+	{
+	    try
+	    {
+		upload.basis.close();
+	    }
+	    catch(IOException e)
+	    {
+		e.printStackTrace();
+	    }
+	}
+	if(upload.disc != null)
+	{
+	    CsvReader.releaseSpace(upload.disc, upload.reserved, upload.written, upload.stored, upload.writeNanos);
+	}
+	if(upload.file != null && !upload.resumable)
+	{
+	    upload.file.delete();
+	}
+	if(upload.resumable)
+	{
+	    ContentStore.release(upload.content);
+	}
+    }
+
+    private static void closeChannel(Upload upload)
+    {
+	if(upload.channel == null)
+	{
+	    return;
+	}
+	try
+	{
+	    upload.channel.close();
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+	upload.channel = null;
+    }
+
+    /**
+     * Wybiera dysk na ktrym zmieci si odbierany plik i rezerwuje na nim miejsce.
+     * @param name Nazwa pliku.
+     * @param size Zadeklarowany rozmiar pliku.
+     * @return Numer dysku, lub null jeeli na adnym dysku nie ma miejsca.
+     */
+    private String reserveDisc(String name, long size)
+    {
+	try
+	{
+	    return CsvReader.chooseDisc(name, size);
+	}
+	catch(IOException e)
+	{
+	    print("Brak miejsca na plik " + name + " (" + size + " B)");
+	    return null;
+	}
+    }
+
+    /**
+     * Odbiera ze strumienia tyle bajtw, ile zmieci si w buforze. Strumie odczytywany z kanau gniazda
+     * zapisuje je bezporednio do bufora, a pozostae strumienie kopiuj je przez tablic.
+     */
+    private static void receive(InputStream input, ByteBuffer buf) throws IOException
+    {
+	if(input instanceof ChannelInput)
+	{
+	    ((ChannelInput) input).readFully(buf);
+	    return;
+	}
+
 	byte[] bytes = new byte[8 * 1024];
-	    
-	while ((count = dis.read(bytes)) > 0)
+	while(buf.hasRemaining())
 	{
-	    fos.write(bytes, 0, count);
+	    int count = input.read(bytes, 0, Math.min(bytes.length, buf.remaining()));
+	    if(count < 0)
+	    {
+		throw new EOFException("Polaczenie zerwane podczas przesylania pliku!");
+	    }
+	    buf.put(bytes, 0, count);
 	}
-	
-	CsvReader.addRecord(r.getUsername(),r.getNeededFile(),disc);
-	
-	fos.close();
-	dis.close();
-	r.getSocket().close();
-	
+    }
+
+    /**
+     * Zapisuje zawarto bufora do odbieranego pliku, zaczynajc od podanej pozycji, i dolicza czas zapisu
+     * do statystyk dysku.
+     */
+    private static void writeChunk(Upload upload, ByteBuffer buf, long position) throws IOException
+    {
+	long start = System.nanoTime();
+	while(buf.hasRemaining())
+	{
+	    int count = upload.channel.write(buf, position);
+	    position += count;
+	    upload.written += count;
+	}
+	upload.writeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     * Odczytuje cz pliku do bufora, np. w celu obliczenia jej sumy kontrolnej.
+     * @param file Plik otwarty do odczytu.
+     * @param buf Bufor o pojemnoci co najmniej length, po odczycie ustawiony do odczytu.
+     * @param position Pozycja czci w pliku.
+     * @param length Dugo czci.
+     * @throws IOException W przypadku bdu odczytu, lub gdy plik jest krtszy ni oczekiwano.
+     */
+    private static void readChunk(FileChannel file, ByteBuffer buf, long position, int length) throws IOException
+    {
+	buf.clear();
+	buf.limit(length);
+	while(buf.hasRemaining())
+	{
+	    if(file.read(buf, position + buf.position()) < 0)
+	    {
+		throw new EOFException("Plik jest krotszy niz oczekiwano!");
+	    }
+	}
+	buf.flip();
     }
     
-    private void shareRespond() throws IOException, InterruptedException
+    private void shareRespond(Request r) throws IOException
     {
 
 	print("Udostepniam " + r.getNeededFile() + " dla " + r.getFriend());
-	Thread.sleep(3000);
-	
-	if( !CsvReader.readUserFiles(r.getFriend()).contains(r.getNeededFile()) )
+
+	FileLocation location = CsvReader.localiseFile(r.getUsername(), r.getNeededFile());
+	if(location == null)
 	{
-	    CsvReader.addRecord(r.getFriend(), r.getNeededFile(),
-		    CsvReader.localiseFile(r.getUsername(), r.getNeededFile()));
+	    throw new FileNotFoundException("Plik nie istnieje: " + r.getNeededFile());
 	}
-	
-	r.getSocket().close();
+
+	if(CsvReader.localiseFile(r.getFriend(), r.getNeededFile()) == null)
+	{
+	    CsvReader.addRecord(r.getFriend(), r.getNeededFile(), location.getContent(), location.getDisc());
+	}
+
+	r.getConnection().send(RequestCodec.encodeStatus(r.getRequestId(), RequestCodec.OK, null));
+    }
+
+    /**
+     * Odpowiada na pytanie czy serwer ma ju zawarto plikw. Pliki, ktrych zawarto jest ju na
+     * ktrym z dyskw, s od razu dopisywane uytkownikowi. Odpowied RESUME zawiera pozostae pliki,
+     * ktre klient musi wysa Requestem "upload", razem z pozycjami od ktrych naley je wysa.
+     */
+    private void haveRespond(Request r) throws IOException
+    {
+	ArrayList<String> files = r.getFiles();
+	ArrayList<String> contents = r.getContents();
+	if(files.size() != contents.size())
+	{
+	    throw new ProtocolException("Liczba skrotow nie zgadza sie z liczba plikow!");
+	}
+
+	ArrayList<String> needed = new ArrayList<String>();
+	ArrayList<Long> offsets = new ArrayList<Long>();
+	int linked = 0;
+	for(int i=0;i<files.size();i++)
+	{
+	    String name = files.get(i);
+	    String content = contents.get(i);
+	    if(!ContentHash.isValid(content))
+	    {
+		needed.add(name);
+		offsets.add(0L);
+		continue;
+	    }
+	    if(CsvReader.localiseFile(r.getUsername(), name) != null)
+	    {
+		continue;
+	    }
+
+	    String disc = ContentStore.find(CsvReader.directory, content);
+	    if(disc == null)
+	    {
+		needed.add(name);
+		offsets.add(ContentStore.resumeOffset(CsvReader.directory, content));
+	    }
+	    else
+	    {
+		CsvReader.addRecord(r.getUsername(), name, content, disc);
+		linked++;
+	    }
+	}
+
+	print("Zawartosc " + linked + " z " + files.size() + " plikow od " + r.getUsername() + " jest juz na serwerze");
+	r.getConnection().send(RequestCodec.encodeResume(r.getRequestId(), needed, offsets));
+    }
+
+    /**
+     * Wysya sygnatury blokw plikw, ktrych wersja na serwerze rni si od wersji klienta, aby klient
+     * mg przesa tylko zmienione czci plikw Requestem "delta". Pliki, ktrych nie ma na serwerze
+     * lub ktrych zawarto si nie zmienia, s pomijane.
+     */
+    private void signaturesRespond(Request r) throws IOException
+    {
+	ArrayList<String> files = r.getFiles();
+	ArrayList<String> contents = r.getContents();
+	if(files.size() != contents.size())
+	{
+	    throw new ProtocolException("Liczba skrotow nie zgadza sie z liczba plikow!");
+	}
+
+	int changed = 0;
+	for(int i=0;i<files.size();i++)
+	{
+	    String name = files.get(i);
+	    FileLocation location = CsvReader.localiseFile(r.getUsername(), name);
+	    if(location == null || Objects.equals(location.getContent(), contents.get(i)))
+	    {
+		continue;
+	    }
+
+	    try (FileChannel file = FileChannel.open(location.file(CsvReader.directory, name).toPath(), StandardOpenOption.READ))
+	    {
+		r.getConnection().send(RequestCodec.encodeSignatures(r.getRequestId(),
+			BlockSignatures.of(name, location.getContent(), file)));
+	    }
+	    changed++;
+	}
+
+	print("Wysylam sygnatury " + changed + " z " + files.size() + " plikow do " + r.getUsername());
+	r.getConnection().send(RequestCodec.encodeStatus(r.getRequestId(), RequestCodec.OK, null));
+    }
+
+    private static String describe(ArrayList<String> files)
+    {
+	if(files.size() == 1)
+	{
+	    return files.get(0);
+	}
+	return files.size() + " plikow";
     }
     
     /**
@@ -184,31 +943,56 @@ public class RequestResponder implements Runnable {
      */
     private void print(String n)
     {
-	Platform.runLater(new Runnable()
+	if(pool != null)
 	{
-	    @Override
-	    public void run() {
-		state.setText(n);
-	    }
-	    
-	});
+	    pool.setActivity(n);
+	}
+	else
+	{
+	    System.out.println(n);
+	}
     }
     
     /**
-     * Metoda suca do bezpiecznego zakoczenia dziaania wtku.
+     * Metoda suca do bezpiecznego zakoczenia dziaania wtku. Wtek koczy dziaanie
+     * najpniej po upywie ResponderPool.IDLE_TIMEOUT, lub po obsueniu biecego Requesta.
      */
     public void shutdown()
     {
 	on = false;
-	
-	try
-	{
-	    taskQueue.add(new Request());
-	}
-	catch(Exception e)
+    }
+    
+    /**
+     * Stan odbierania jednego pliku ze strumienia "upload" albo "delta".
+     */
+    private static class Upload
+    {
+	String name;
+	long size;
+	long offset;
+	long position;
+	long written;
+	long writeNanos;
+	long stored;
+	String content;
+	boolean resumable;
+	String disc;
+	long reserved;
+	File file;
+	FileChannel channel;
+	MessageDigest digest;
+	boolean replace;
+	FileChannel basis;
+	long basisSize;
+	int blockSize;
+
+	Upload(String name, long size, long offset)
 	{
-	    e.printStackTrace();
+	    this.name = name;
+	    this.size = size;
+	    this.offset = offset;
+	    this.position = offset;
 	}
     }
-    
+
 }
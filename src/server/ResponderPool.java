@@ -0,0 +1,209 @@
+package server;
+
+
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javafx.application.Platform;
+import javafx.scene.control.Label;
+import request.Request;
+
+/**
+ * Pula wtkw RequestResponder, ktrej rozmiar dostosowuje si do obcienia serwera.
+ * Co sekund pula sprawdza redni czas oczekiwania Requestw w kolejce. Jeeli przekracza on
+ * ustawiony prg, uruchamiane s nowe wtki (nie wicej ni ustawione maksimum). Kiedy Requesty
+ * przestaj czeka, nadmiarowe wtki kocz dziaanie, ale dopiero wtedy, gdy nie obsuguj
+ * adnego Requesta. Stan puli jest wywietlany w jednej etykiecie.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class ResponderPool {
+
+    /**
+     * Czas w milisekundach po jakim bezczynny wtek sprawdza, czy powinien zakoczy dziaanie.
+     */
+    static final long IDLE_TIMEOUT = 500;
+    static final long ADJUST_PERIOD = 1000;
+
+    private BlockingQueue<Request> taskQueue;
+    private Label state;
+    private int minSize;
+    private int maxSize;
+    private long targetWait;
+
+    private ArrayList<RequestResponder> responders = new ArrayList<RequestResponder>();
+    private ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor();
+    private int busy = 0;
+    private int toRetire = 0;
+    private long waitSum = 0;
+    private long waitCount = 0;
+    private long lastWait = 0;
+    private String activity = "";
+    private int nextId = 1;
+    private boolean on = true;
+
+    /**
+     * Konstruktor przypisuje argumenty do zmiennych lokalnych.
+     * @param taskQueue Referencja do kolejki przechowujcej Requesty od klientow.
+     * @param config Ustawienia serwera okrelajce minimalny i maksymalny rozmiar puli oraz docelowy czas oczekiwania.
+     * @param state Etykieta w ktrej wywietlany jest stan puli.
+     */
+    public ResponderPool(BlockingQueue<Request> taskQueue, ServerConfig config, Label state)
+    {
+	this.taskQueue = taskQueue;
+	this.state = state;
+	this.minSize = config.getMinResponders();
+	this.maxSize = Math.max(config.getMinResponders(), config.getMaxResponders());
+	this.targetWait = TimeUnit.MILLISECONDS.toNanos(config.getTargetQueueWait());
+    }
+
+    /**
+     * Uruchamia minimaln liczb wtkw i cykliczne dostosowywanie rozmiaru puli.
+     */
+    public synchronized void start()
+    {
+	for(int i=0;i<minSize;i++)
+	{
+	    addResponder();
+	}
+
+	monitor.scheduleAtFixedRate(new Runnable() {
+	    @Override
+	    public void run() {
+		adjust();
+	    }
+	}, ADJUST_PERIOD, ADJUST_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    private void addResponder()
+    {
+	RequestResponder responder = new RequestResponder(taskQueue, this);
+	responders.add(responder);
+
+	Thread t = new Thread(responder, "RequestResponder-" + nextId++);
+	t.start();
+    }
+
+    /**
+     * Dostosowuje rozmiar puli na podstawie redniego czasu oczekiwania Requestw w kolejce
+     * od ostatniego sprawdzenia oraz liczby rdzeni procesora.
+     */
+    private synchronized void adjust()
+    {
+	if(!on)
+	{
+	    return;
+	}
+
+	int queued = taskQueue.size();
+	long avgWait = waitCount > 0 ? waitSum / waitCount : 0;
+	Request oldest = taskQueue.peek();
+	if(oldest != null)
+	{
+	    avgWait = Math.max(avgWait, System.nanoTime() - oldest.getEnqueueTime());
+	}
+	lastWait = avgWait;
+	waitSum = 0;
+	waitCount = 0;
+
+	int size = responders.size();
+
+	if(avgWait > targetWait && size < maxSize)
+	{
+	    // Przy duej kolejce uruchamiamy kilka wtkw naraz, ale nie wicej ni jest rdzeni.
+	    int cores = Runtime.getRuntime().availableProcessors();
+	    int grow = Math.min(maxSize - size, Math.max(1, Math.min(cores, queued / Math.max(1, size))));
+	    for(int i=0;i<grow;i++)
+	    {
+		addResponder();
+	    }
+	    toRetire = 0;
+	}
+	else if(avgWait < targetWait / 4 && queued == 0 && size - toRetire > minSize && busy < size)
+	{
+	    toRetire++;
+	}
+
+	showState();
+    }
+
+    /**
+     * Wywoywana przez wtek, ktry nie otrzyma adnego Requesta w czasie IDLE_TIMEOUT.
+     * Jeeli pula ma zosta zmniejszona, wtek zostaje usunity z puli i powinien zakoczy dziaanie.
+     * @param responder Bezczynny wtek.
+     * @return true jeeli wtek powinien zakoczy dziaanie.
+     */
+    synchronized boolean retireIfIdle(RequestResponder responder)
+    {
+	if(toRetire > 0 && responders.size() > minSize)
+	{
+	    toRetire--;
+	    responders.remove(responder);
+	    return true;
+	}
+	return false;
+    }
+
+    /**
+     * Wywoywana przez wtek przed rozpoczciem obsugi Requesta.
+     * @param r Request pobrany z kolejki.
+     */
+    synchronized void requestStarted(Request r)
+    {
+	busy++;
+	waitSum += System.nanoTime() - r.getEnqueueTime();
+	waitCount++;
+    }
+
+    /**
+     * Wywoywana przez wtek po zakoczeniu obsugi Requesta.
+     */
+    synchronized void requestFinished()
+    {
+	busy--;
+    }
+
+    /**
+     * Zapamituje ostatnio wykonywan czynno, aby wywietli j w etykiecie stanu.
+     * @param activity Opis czynnoci.
+     */
+    synchronized void setActivity(String activity)
+    {
+	this.activity = activity;
+    }
+
+    private void showState()
+    {
+	String text = "Watki: " + responders.size() + " (zajete: " + busy + ")\n"
+		+ "Kolejka: " + taskQueue.size() + ", oczekiwanie: " + TimeUnit.NANOSECONDS.toMillis(lastWait) + " ms\n"
+		+ activity;
+
+	Platform.runLater(new Runnable()
+	{
+	    @Override
+	    public void run() {
+		state.setText(text);
+	    }
+
+	});
+    }
+
+    /**
+     * Metoda suca do bezpiecznego zakoczenia dziaania wszystkich wtkw puli.
+     */
+    public synchronized void shutdown()
+    {
+	on = false;
+	monitor.shutdownNow();
+
+	for(RequestResponder responder:responders)
+	{
+	    responder.shutdown();
+	}
+	responders.clear();
+    }
+
+}
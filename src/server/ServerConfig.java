@@ -0,0 +1,205 @@
+package server;
+
+
+import java.util.Map;
+
+/**
+ * Klasa przechowujca ustawienia serwera. Ustawienia s odczytywane z nazwanych argumentw
+ * przekazanych przy uruchomieniu aplikacji, np. "--mode=virtual". Dla argumentw ktre nie
+ * zostay podane przyjmowane s wartoci domylne.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class ServerConfig {
+
+    /**
+     * Tryb w ktrym Requesty s odczytywane przez RequestReceiver i umieszczane w kolejce,
+     * z ktrej pobieraj je wtki RequestResponder.
+     */
+    public static final String MODE_QUEUE = "queue";
+
+    /**
+     * Tryb w ktrym kady Request jest obsugiwany od pocztku do koca przez osobny wtek wirtualny.
+     */
+    public static final String MODE_VIRTUAL = "virtual";
+
+    /**
+     * Kada grupa wpisw katalogu jest utrwalana na dysku zanim upload zostanie potwierdzony.
+     */
+    public static final String SYNC_BATCH = "batch";
+
+    /**
+     * Wpisy katalogu s utrwalane na dysku co okrelony czas. Po awarii systemu mog zosta utracone
+     * wpisy z ostatniego okresu.
+     */
+    public static final String SYNC_INTERVAL = "interval";
+
+    /**
+     * Dysk dla nowego pliku jest wybierany na podstawie wolnego miejsca, trwajcych zapisw
+     * i prdkoci ostatnich zapisw na dyskach.
+     */
+    public static final String PLACEMENT_BALANCED = "balanced";
+
+    /**
+     * Nowe pliki trafiaj na kolejne dyski, z pominiciem dyskw na ktrych brakuje miejsca.
+     */
+    public static final String PLACEMENT_ROUND_ROBIN = "roundrobin";
+
+    private String mode = MODE_QUEUE;
+    private int minResponders = 2;
+    private int maxResponders = Runtime.getRuntime().availableProcessors() * 4;
+    private long targetQueueWait = 500;
+    private String catalogSync = SYNC_BATCH;
+    private long catalogSyncInterval = 1000;
+    private String placement = PLACEMENT_BALANCED;
+
+    /**
+     * Tworzy ustawienia na podstawie nazwanych argumentw aplikacji.
+     * @param parameters Nazwane argumenty, np. wynik metody getParameters().getNamed().
+     * @return Ustawienia serwera.
+     */
+    public static ServerConfig fromParameters(Map<String, String> parameters)
+    {
+	ServerConfig config = new ServerConfig();
+
+	String mode = parameters.get("mode");
+	if(MODE_VIRTUAL.equals(mode) || MODE_QUEUE.equals(mode))
+	{
+	    config.mode = mode;
+	}
+	else if(mode != null)
+	{
+	    System.out.println("Nieznany tryb pracy: " + mode + ", uzywam trybu " + MODE_QUEUE);
+	}
+
+	config.minResponders = Math.max(1, intParameter(parameters, "responders.min", config.minResponders));
+	config.maxResponders = Math.max(config.minResponders,
+		intParameter(parameters, "responders.max", config.maxResponders));
+	config.targetQueueWait = Math.max(1, intParameter(parameters, "responders.wait", (int) config.targetQueueWait));
+
+	String sync = parameters.get("catalog.sync");
+	if(SYNC_BATCH.equals(sync) || SYNC_INTERVAL.equals(sync))
+	{
+	    config.catalogSync = sync;
+	}
+	else if(sync != null)
+	{
+	    System.out.println("Nieznany tryb zapisu katalogu: " + sync + ", uzywam trybu " + SYNC_BATCH);
+	}
+	config.catalogSyncInterval = Math.max(1,
+		intParameter(parameters, "catalog.interval", (int) config.catalogSyncInterval));
+
+	String placement = parameters.get("placement");
+	if(PLACEMENT_BALANCED.equals(placement) || PLACEMENT_ROUND_ROBIN.equals(placement))
+	{
+	    config.placement = placement;
+	}
+	else if(placement != null)
+	{
+	    System.out.println("Nieznana polityka wyboru dysku: " + placement + ", uzywam " + PLACEMENT_BALANCED);
+	}
+
+	return config;
+    }
+
+    /**
+     * Odczytuje argument liczbowy. W przypadku braku argumentu, lub niepoprawnej wartoci zwraca warto domyln.
+     * @param parameters Nazwane argumenty aplikacji.
+     * @param name Nazwa argumentu.
+     * @param defaultValue Warto domylna.
+     * @return Warto argumentu.
+     */
+    static int intParameter(Map<String, String> parameters, String name, int defaultValue)
+    {
+	String value = parameters.get(name);
+	if(value == null)
+	{
+	    return defaultValue;
+	}
+
+	try
+	{
+	    return Integer.parseInt(value.trim());
+	}
+	catch(NumberFormatException e)
+	{
+	    System.out.println("Niepoprawna wartosc argumentu " + name + ": " + value);
+	    return defaultValue;
+	}
+    }
+
+    /**
+     * Zwraca tryb pracy serwera.
+     * @return MODE_QUEUE lub MODE_VIRTUAL.
+     */
+    public String getMode()
+    {
+	return mode;
+    }
+
+    /**
+     * Sprawdza czy serwer ma obsugiwa Requesty w wtkach wirtualnych.
+     * @return true dla trybu MODE_VIRTUAL.
+     */
+    public boolean isVirtualMode()
+    {
+	return MODE_VIRTUAL.equals(mode);
+    }
+
+    /**
+     * Zwraca minimaln liczb wtkw RequestResponder ("--responders.min", domylnie 2).
+     * @return Minimalny rozmiar puli.
+     */
+    public int getMinResponders()
+    {
+	return minResponders;
+    }
+
+    /**
+     * Zwraca maksymaln liczb wtkw RequestResponder ("--responders.max", domylnie czterokrotno liczby rdzeni).
+     * @return Maksymalny rozmiar puli.
+     */
+    public int getMaxResponders()
+    {
+	return maxResponders;
+    }
+
+    /**
+     * Zwraca czas oczekiwania w kolejce w milisekundach, po przekroczeniu ktrego pula jest powikszana
+     * ("--responders.wait", domylnie 500).
+     * @return Docelowy czas oczekiwania Requestw w kolejce.
+     */
+    public long getTargetQueueWait()
+    {
+	return targetQueueWait;
+    }
+
+    /**
+     * Zwraca sposb utrwalania wpisw katalogu ("--catalog.sync", domylnie SYNC_BATCH).
+     * @return SYNC_BATCH lub SYNC_INTERVAL.
+     */
+    public String getCatalogSync()
+    {
+	return catalogSync;
+    }
+
+    /**
+     * Zwraca co ile milisekund utrwalane s wpisy katalogu w trybie SYNC_INTERVAL
+     * ("--catalog.interval", domylnie 1000).
+     * @return Okres utrwalania wpisw.
+     */
+    public long getCatalogSyncInterval()
+    {
+	return catalogSyncInterval;
+    }
+
+    /**
+     * Zwraca polityk wyboru dysku dla nowych plikw ("--placement", domylnie PLACEMENT_BALANCED).
+     * @return PLACEMENT_BALANCED lub PLACEMENT_ROUND_ROBIN.
+     */
+    public String getPlacement()
+    {
+	return placement;
+    }
+
+}
@@ -1,6 +1,8 @@
 package server;
 
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
@@ -8,6 +10,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 
 import javafx.application.Application;
 import javafx.application.Platform;
+import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
@@ -26,8 +29,15 @@ import request.Request;
  * Aplikacja serwerowa suca jedynie do wywietlania zawartoci poszczeglnych dyskw i 
  * czynnoci ktr zajte s poszczeglne wtki obsugujce klientw.
  * Do prawidowego funkcjonowania wymaga, aby w folderze z aplikacj znajdowa si folder o nazwie
- * "files", a w nim foldery o nazwach "1", "2", "3", "4" i "5". W kadym z piciu folderw musi
- * istnie plik o nazwie "book.csv". Foldery te symuluj dyski.
+ * "files", a w nim foldery o nazwach "1", "2", "3", "4" i "5". Foldery te symuluj dyski. W kadym z nich
+ * serwer przechowuje katalog plikw ("book.snap" i "book.log"). Katalogi zapisane w plikach "book.csv"
+ * s przy pierwszym uruchomieniu przenoszone do nowego formatu. Odebrane pliki s zapisywane na dyskach
+ * pod nazwami rwnymi skrtom ich zawartoci, a pliki o tej samej zawartoci s przechowywane tylko raz.
+ * Uruchomienie z argumentem "--mode=virtual" powoduje obsug kadego Requesta w osobnym wtku wirtualnym.
+ * Serwer wymaga Javy 21 lub nowszej.
+ * Rozmiar puli wtkw obsugujcych Requesty mona ustawi argumentami "--responders.min",
+ * "--responders.max" i "--responders.wait" (patrz ServerConfig). Argument "--placement" wybiera sposb
+ * przydzielania dyskw nowym plikom (PlacementEngine).
  * @author Sebastian Paweoszek
  * @version 1.0
  */
@@ -36,22 +46,27 @@ public class ServerMain extends Application {
     Timer timer = new Timer();
     Scene scene;//tu wrzuce wszystko co bedzie na naszym ekranie
     BlockingQueue<Request> taskQueue = new LinkedBlockingQueue<Request>();
-    Label state1 = new Label("Uruchamianie...");
-    Label state2 = new Label("Uruchamianie...");
-    
-    RequestReceiver receiver = new RequestReceiver(taskQueue);
-    
-    RequestResponder responder = new RequestResponder(taskQueue,state1);
-    RequestResponder responder2 = new RequestResponder(taskQueue,state2);
+    Label state = new Label("Uruchamianie...");
+    Label catalogStats = new Label();
+
+    ServerConfig config;
     
+    RequestReceiver receiver;
+
+    ResponderPool responders;
+
+    VirtualRequestServer virtualServer;
+
+    DiscMonitor discMonitor;
+
     
     
-    //Listy plikow na poszczegolnych serwerach
-    ObservableList<String> files1;
-    ObservableList<String> files2;
-    ObservableList<String> files3;
-    ObservableList<String> files4;
-    ObservableList<String> files5;
+    //Listy plikow na poszczegolnych serwerach, zmieniane przez DiscMonitor
+    ObservableList<String> files1 = FXCollections.observableArrayList();
+    ObservableList<String> files2 = FXCollections.observableArrayList();
+    ObservableList<String> files3 = FXCollections.observableArrayList();
+    ObservableList<String> files4 = FXCollections.observableArrayList();
+    ObservableList<String> files5 = FXCollections.observableArrayList();
     
     /**
      * Metoda wywoywana jest wtedy kiedy chcemy wymusi zatrzymanie aplikacji.
@@ -61,31 +76,40 @@ public class ServerMain extends Application {
     @Override
     public void stop(){
 	    System.out.println("Stage is closing");
-	    receiver.shutdown();
-	    responder.shutdown();
-	    responder2.shutdown();
+	    if(virtualServer != null)
+	    {
+		virtualServer.shutdown();
+	    }
+	    else
+	    {
+		receiver.shutdown();
+		responders.shutdown();
+}
+	    CsvReader.closeLog();
 	    timer.cancel();
+	    discMonitor.shutdown();
     }
     
     /**
      * Metoda jest punktem wejciowym dla aplikajci JavaFX.
      * Odpowiada ona za interfejs graficzny, zachowanie si aplikacji po naciniciu okrelonych przyciskw
-     * i cykliczne odwieanie listy plikow na dyskach.
+     * i odwieanie listy plikow na dyskach po kadej zmianie ich zawartoci (DiscMonitor).
      */
     @Override
     public void start(Stage primaryStage)
     {
+	config = ServerConfig.fromParameters(getParameters().getNamed());
+	CsvReader.openLog(config);
+	CsvReader.openPlacement(config);
+	CsvReader.loadCatalog();
+
 	//Tworzymy glowny poziomy panel
 	HBox root = new HBox(5);
 	
-	state1.setMinHeight(40);
-	state1.setMinWidth(300);
-	state1.setFont(new Font("Cambria", 16));
-	
-	state2.setMinHeight(40);
-	state2.setMinWidth(300);
-	state2.setFont(new Font("Cambria", 16));
-	
+	state.setMinHeight(80);
+	state.setMinWidth(300);
+	state.setFont(new Font("Cambria", 16));
+
 	//Vertical1
 	VBox vertical1 = new VBox(5);
 	vertical1.setPadding(new Insets(5));
@@ -145,12 +169,11 @@ public class ServerMain extends Application {
 	VBox vertical6 = new VBox(5);
 	vertical6.setPadding(new Insets(5));
 	Label label6 = new Label("Panel kontrolny");
-	Label t1 = new Label("Thread 1:");
-	Label t2 = new Label("Thread 2:");
+	Label t1 = new Label("Watki obslugujace:");
 	
 	t1.setFont(new Font("Cambria", 16));
-	t2.setFont(new Font("Cambria", 16));
-	
+	catalogStats.setWrapText(true);
+
 	Button zakonczButton = new Button("Zakoncz");
 	
 	vertical6.setPrefWidth(150);
@@ -163,39 +186,60 @@ public class ServerMain extends Application {
 	    }
 	});
 	
-	vertical6.getChildren().addAll(label6,zakonczButton, t1, state1, t2, state2);
+	vertical6.getChildren().addAll(label6,zakonczButton, t1, state, catalogStats);
 	
 	//Dodajemy wszystko do glownego panelu
 	root.getChildren().addAll(vertical1,vertical2,vertical3,vertical4,vertical5,vertical6);
 
 	
-	//Uaktualniamy liste plikow co 5 sekund
+	filesList1.setItems(files1);
+	filesList2.setItems(files2);
+	filesList3.setItems(files3);
+	filesList4.setItems(files4);
+	filesList5.setItems(files5);
+
+	//Listy plikow zmieniaja sie tylko o pliki dodane i usuniete z dyskow
+	discMonitor = new DiscMonitor(CsvReader.directory, new DiscMonitor.Listener() {
+
+	    @Override
+	    public void discChanged(int disc, List<String> added, List<String> removed) {
+
+		Platform.runLater(new Runnable() {
+		    @Override
+		    public void run()
+			    {
+				ObservableList<String> files = discFiles(disc);
+				if(!removed.isEmpty())
+				{
+				    files.removeAll(new HashSet<String>(removed));
+				}
+				files.addAll(added);
+			    }
+		});
+
+	    }
+
+	});
+	Thread tMonitor = new Thread(discMonitor, "DiscMonitor");
+	tMonitor.setDaemon(true);
+	tMonitor.start();
+
+	//Uaktualniamy statystyki katalogu co sekunde
 	timer.scheduleAtFixedRate(new TimerTask() {
 
 	    @Override
 	    public void run() {
 		
-		ObservableList<String> results1 = FolderReader.readFolder("files\\1");
-		ObservableList<String> results2 = FolderReader.readFolder("files\\2");
-		ObservableList<String> results3 = FolderReader.readFolder("files\\3");
-		ObservableList<String> results4 = FolderReader.readFolder("files\\4");
-		ObservableList<String> results5 = FolderReader.readFolder("files\\5");
+		String stats = CsvReader.filterStats() + "\n" + CsvReader.placementStats();
 		
 		Platform.runLater(new Runnable() {
 		    @Override
 		    public void run()
 			    {
-				files1 = results1;
-				filesList1.setItems(files1);
-				files2 = results2;
-				filesList2.setItems(files2);
-				files3 = results3;
-				filesList3.setItems(files3);
-				files4 = results4;
-				filesList4.setItems(files4);
-				files5 = results5;
-				filesList5.setItems(files5);
-				
+				if(!stats.equals(catalogStats.getText()))
+				{
+				    catalogStats.setText(stats);
+				}
 			    }
 	        }); 
 		
@@ -210,19 +254,49 @@ public class ServerMain extends Application {
 	primaryStage.setOpacity(0.98);
 	primaryStage.show();
 	
+	if(config.isVirtualMode())
+	{
+	    //Kazdy request obslugiwany w osobnym watku wirtualnym
+	    virtualServer = new VirtualRequestServer(new RequestResponder(taskQueue,null),state);
+
+	    Thread tServer = new Thread(virtualServer);
+	    tServer.start();
+	    return;
+	}
+
 	//Watek odbierajcy requesty
+	receiver = new RequestReceiver(taskQueue);
 	
 	Thread tReceiver = new Thread(receiver);
 	tReceiver.start();
 	
-	//Dwa watki wysylajacy dane
-	Thread tResponder = new Thread(responder);
-	Thread tResponder2 = new Thread(responder2);
-	tResponder.start();
-	tResponder2.start();
-	
+	//Pula watkow wysylajacych dane, jej rozmiar zmienia sie wraz z obciazeniem
+	responders = new ResponderPool(taskQueue,config,state);
+	responders.start();
+
     }
     
+    /**
+     * @param disc Numer dysku, od 1 do 5.
+     * @return Lista plikow wyswietlana dla dysku.
+     */
+    private ObservableList<String> discFiles(int disc)
+    {
+	switch(disc)
+	{
+	case 1:
+	    return files1;
+	case 2:
+	    return files2;
+	case 3:
+	    return files3;
+	case 4:
+	    return files4;
+	default:
+	    return files5;
+	}
+    }
+
     public static void main(String[] args) {
 	launch(args);
     }
@@ -0,0 +1,185 @@
+package server;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import request.ClientConnection;
+
+/**
+ * Poczenie z klientem oparte o blokujcy Socket. Wykorzystywane w trybie wtkw wirtualnych,
+ * w ktrym kade poczenie ma wasny wtek odczytujcy Requesty. Jeeli Socket ma kana, pliki s
+ * wysyane metod FileChannel.transferTo(), bez kopiowania przez pami aplikacji.
+ * Zapis jest chroniony blokad ReentrantLock, a nie blokiem synchronized, poniewa wtek wirtualny
+ * czekajcy na gniazdo wewntrz bloku synchronized zajmowaby wtek systemowy, na ktrym dziaa.
+ * Blokujcy Socket nie ma limitu czasu zapisu, dlatego poczenie jest zamykane, jeeli wysanie jednej
+ * ramki lub czci pliku trwa duej ni ChannelConnection.WRITE_TIMEOUT (klient przesta odbiera dane).
+ * @author Sebastian Paweoszek
+ *
+ */
+public class StreamConnection implements ClientConnection {
+
+    static final int FILE_BUFFER_SIZE = 8 * 1024;
+
+    private static final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	@Override
+	public Thread newThread(Runnable r) {
+	    Thread t = new Thread(r, "StreamConnectionTimeout");
+	    t.setDaemon(true);
+	    return t;
+	}
+    });
+
+    private Socket socket;
+    private OutputStream out;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile boolean timedOut = false;
+
+    /**
+     * Konstruktor otwiera strumie wyjciowy gniazda.
+     * @param socket Otwarty socket umoliwiajcy czno z klientem.
+     * @throws IOException W przypadku gdy nie mona otworzy strumienia.
+     */
+    StreamConnection(Socket socket) throws IOException
+    {
+	this.socket = socket;
+	this.out = socket.getOutputStream();
+    }
+
+    @Override
+    public void send(ByteBuffer frame) throws IOException
+    {
+	writeLock.lock();
+	ScheduledFuture<?> timeout = startTimeout();
+	try
+	{
+	    out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+	    out.flush();
+	}
+	catch(IOException e)
+	{
+	    throw timedOut ? new IOException("Przekroczono czas oczekiwania na klienta!", e) : e;
+	}
+	finally
+	{
+	    timeout.cancel(false);
+	    writeLock.unlock();
+	}
+    }
+
+    @Override
+    public void sendFile(ByteBuffer header, FileChannel file, long position, long size) throws IOException
+    {
+	writeLock.lock();
+	ScheduledFuture<?> timeout = startTimeout();
+	try
+	{
+	    writeFile(header, file, position, size);
+	}
+	catch(IOException e)
+	{
+	    throw timedOut ? new IOException("Przekroczono czas oczekiwania na klienta!", e) : e;
+	}
+	finally
+	{
+	    timeout.cancel(false);
+	    writeLock.unlock();
+	}
+    }
+
+    /**
+     * Zamyka poczenie, jeeli biecy zapis nie zakoczy si w czasie WRITE_TIMEOUT. Zamknicie gniazda
+     * przerywa zablokowany zapis wyjtkiem.
+     * @return Zadanie, ktre naley anulowa po zakoczeniu zapisu.
+     */
+    private ScheduledFuture<?> startTimeout()
+    {
+	return timeouts.schedule(new Runnable() {
+	    @Override
+	    public void run() {
+		timedOut = true;
+		close();
+	    }
+	}, ChannelConnection.WRITE_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    private void writeFile(ByteBuffer header, FileChannel file, long position, long size) throws IOException
+    {
+	out.write(header.array(), header.arrayOffset() + header.position(), header.remaining());
+	out.flush();
+
+	SocketChannel channel = socket.getChannel();
+	if(channel == null)
+	{
+	    sendCopy(file, position, size);
+	    return;
+	}
+
+	long sent = 0;
+	while(sent < size)
+	{
+	    // Kana jest w trybie blokujcym, wic transferTo() zwraca 0 tylko na kocu pliku.
+	    long count = file.transferTo(position + sent, size - sent, channel);
+	    if(count == 0)
+	    {
+		close();
+		throw new EOFException("Plik jest krotszy niz zadeklarowano!");
+	    }
+	    sent += count;
+	}
+    }
+
+    /**
+     * Wysya plik przez strumie gniazda, kopiujc go przez bufor. Wykorzystywana gdy Socket nie ma kanau.
+     */
+    private void sendCopy(FileChannel file, long position, long size) throws IOException
+    {
+	ByteBuffer buf = ByteBuffer.allocate(FILE_BUFFER_SIZE);
+	long sent = 0;
+
+	while(sent < size)
+	{
+	    buf.clear();
+	    if(size - sent < buf.capacity())
+	    {
+		buf.limit((int) (size - sent));
+	    }
+
+	    int count = file.read(buf, position + sent);
+	    if(count < 0)
+	    {
+		close();
+		throw new EOFException("Plik jest krotszy niz zadeklarowano!");
+	    }
+
+	    out.write(buf.array(), 0, count);
+	    sent += count;
+	}
+	out.flush();
+    }
+
+    @Override
+    public void close()
+    {
+	try
+	{
+	    socket.close();
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+    }
+
+}
@@ -0,0 +1,118 @@
+package server;
+
+
+/**
+ * Sownik nadajcy kolejnym rnym napisom kolejne numery, zaczynajc od 0. Kady napis jest
+ * przechowywany tylko raz, a w pozostaych strukturach katalogu zastpuje go numer typu int.
+ * Tablica mieszajca z adresowaniem otwartym, bez obiektw porednich. Klasa nie jest bezpieczna
+ * wtkowo, synchronizacj zajmuje si Catalog.
+ * @author Sebastian Paweoszek
+ *
+ */
+class StringIds {
+
+    private String[] keys = new String[16];
+    private int[] slots = new int[16];
+    private String[] names = new String[8];
+    private int size = 0;
+
+    /**
+     * Zwraca numer napisu.
+     * @param s Napis.
+     * @return Numer napisu, lub -1 jeeli napis nie zosta dodany do sownika.
+     */
+    int get(String s)
+    {
+	int mask = keys.length - 1;
+	for(int i = hash(s) & mask;keys[i] != null;i = (i + 1) & mask)
+	{
+	    if(keys[i].equals(s))
+	    {
+		return slots[i];
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Zwraca numer napisu, nadajc mu nowy numer jeeli nie ma go jeszcze w sowniku.
+     * @param s Napis.
+     * @return Numer napisu.
+     */
+    int intern(String s)
+    {
+	int mask = keys.length - 1;
+	int i = hash(s) & mask;
+	for(;keys[i] != null;i = (i + 1) & mask)
+	{
+	    if(keys[i].equals(s))
+	    {
+		return slots[i];
+	    }
+	}
+
+	if(size == names.length)
+	{
+	    String[] grown = new String[size * 2];
+	    System.arraycopy(names, 0, grown, 0, size);
+	    names = grown;
+	}
+	names[size] = s;
+	keys[i] = s;
+	slots[i] = size;
+
+	if(++size * 2 > keys.length)
+	{
+	    rehash();
+	}
+	return size - 1;
+    }
+
+    /**
+     * Zwraca napis o podanym numerze.
+     * @param id Numer nadany przez intern().
+     * @return Napis.
+     */
+    String name(int id)
+    {
+	return names[id];
+    }
+
+    /**
+     * @return Liczba napisw w sowniku.
+     */
+    int size()
+    {
+	return size;
+    }
+
+    private void rehash()
+    {
+	String[] oldKeys = keys;
+	int[] oldSlots = slots;
+	keys = new String[oldKeys.length * 2];
+	slots = new int[oldKeys.length * 2];
+	int mask = keys.length - 1;
+
+	for(int j=0;j<oldKeys.length;j++)
+	{
+	    if(oldKeys[j] != null)
+	    {
+		int i = hash(oldKeys[j]) & mask;
+		while(keys[i] != null)
+		{
+		    i = (i + 1) & mask;
+		}
+		keys[i] = oldKeys[j];
+		slots[i] = oldSlots[j];
+	    }
+	}
+    }
+
+    private static int hash(String s)
+    {
+	int h = s.hashCode() * 0x9E3779B9;
+	return h ^ (h >>> 16);
+    }
+
+}
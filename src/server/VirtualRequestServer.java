@@ -0,0 +1,228 @@
+package server;
+
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javafx.application.Platform;
+import javafx.scene.control.Label;
+import request.Request;
+import request.RequestCodec;
+
+/**
+ * Klasa suca do stworzenia wtku obsugujcego serwer w trybie wtkw wirtualnych.
+ * Kade poczenie ma wasny wtek wirtualny odczytujcy Requesty, a kady Request jest obsugiwany
+ * od pocztku do koca przez osobny wtek wirtualny: odszukanie plikw w katalogu i przesanie danych.
+ * Blokujce operacje na gniazdach i plikach nie zajmuj wtedy wtkw systemowych, wic liczba jednoczesnych
+ * transferw nie jest ograniczona liczb wtkw RequestResponder.
+ * Wtki wirtualne s dostpne od Javy 21, dlatego serwer wymaga co najmniej tej wersji.
+ * @author Sebastian Paweoszek
+ *
+ */
+public class VirtualRequestServer implements Runnable {
+
+    static final int BUFFER_SIZE = 8 * 1024;
+
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private RequestResponder responder;
+    private Label stateLabel;
+    private ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor();
+    private AtomicInteger active = new AtomicInteger();
+    private AtomicLong handled = new AtomicLong();
+    private volatile boolean state = true;
+
+    /**
+     * Konstruktor tworzy obiekt ServerSocket na porcie 5000. ServerSocket jest tworzony przez
+     * ServerSocketChannel, dziki czemu przyjte poczenia maj kanay, do ktrych mona
+     * przesya pliki metod FileChannel.transferTo().
+     * @param responder Obiekt obsugujcy Requesty, wspdzielony przez wszystkie wtki wirtualne.
+     * @param stateLabel Etykieta w ktrej co sekund wywietlana jest liczba obsugiwanych Requestw.
+     */
+    public VirtualRequestServer(RequestResponder responder, Label stateLabel)
+    {
+	this.responder = responder;
+	this.stateLabel = stateLabel;
+	this.executor = newExecutor();
+	try
+	{
+	    serverSocket = ServerSocketChannel.open().socket();
+	    serverSocket.bind(new InetSocketAddress(5000));
+	}
+	catch(Exception e)
+	{
+	    e.printStackTrace();
+	}
+    }
+
+    /**
+     * Tworzy wykonawc uruchamiajcego kade zadanie w nowym wtku wirtualnym.
+     * @return Wykonawca zada.
+     */
+    static ExecutorService newExecutor()
+    {
+	return Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    /**
+     * Odbiera poczenia od klientw i uruchamia dla kadego z nich osobny wtek wirtualny.
+     */
+    @Override
+    public void run() {
+
+	monitor.scheduleAtFixedRate(new Runnable() {
+	    @Override
+	    public void run() {
+		showState();
+	    }
+	}, 0, ResponderPool.ADJUST_PERIOD, TimeUnit.MILLISECONDS);
+
+	while(state)
+	{
+	    try
+	    {
+		Socket clientSocket = serverSocket.accept();
+		executor.execute(new Runnable() {
+		    @Override
+		    public void run() {
+			handle(clientSocket);
+		    }
+		});
+	    }
+	    catch(SocketException e)
+	    {
+		if(state)
+		{
+		    e.printStackTrace();
+		}
+	    }
+	    catch(Exception e)
+	    {
+		e.printStackTrace();
+	    }
+	}
+
+	executor.shutdownNow();
+	monitor.shutdownNow();
+    }
+
+    /**
+     * Odczytuje kolejne Requesty z poczenia. Kady Request jest obsugiwany w osobnym wtku wirtualnym,
+     * wic klient nie musi czeka na odpowied, aby wysa nastpny. Requesty "upload" i "delta"
+     * s obsugiwane w biecym wtku, poniewa po nich klient przesya strumie plikw, ktry trzeba odczyta
+     * w caoci zanim bdzie mona odczyta kolejny Request.
+     * @param clientSocket Otwarty socket umoliwiajcy czno z klientem.
+     */
+    private void handle(Socket clientSocket)
+    {
+	try
+	{
+	    StreamConnection connection = new StreamConnection(clientSocket);
+	    // Bufor jest pocztkowo pusty, zamknicie strumienia przez RequestResponder nie zamyka poczenia.
+	    ChannelInput in = new ChannelInput(clientSocket.getChannel(), ByteBuffer.allocate(BUFFER_SIZE).flip(), null);
+
+	    while(state)
+	    {
+		Request r = RequestCodec.read(in);
+
+		System.out.println("Request od: " + r.getUsername());
+
+		r.setConnection(connection);
+
+		if(r.hasFileStream())
+		{
+		    r.setInputStream(in);
+		    respond(r);
+		    continue;
+		}
+
+		executor.execute(new Runnable() {
+		    @Override
+		    public void run() {
+			respond(r);
+		    }
+		});
+	    }
+	}
+	catch(EOFException e)
+	{
+	    closeQuietly(clientSocket);
+	}
+	catch(Exception e)
+	{
+	    e.printStackTrace();
+	    closeQuietly(clientSocket);
+	}
+    }
+
+    private void respond(Request r)
+    {
+	active.incrementAndGet();
+	try
+	{
+	    responder.respond(r);
+	}
+	finally
+	{
+	    active.decrementAndGet();
+	    handled.incrementAndGet();
+	}
+    }
+
+    private static void closeQuietly(Socket socket)
+    {
+	try
+	{
+	    socket.close();
+	}
+	catch(IOException e)
+	{
+	    e.printStackTrace();
+	}
+    }
+
+    private void showState()
+    {
+	String text = "Tryb watkow wirtualnych\n"
+		+ "Aktywne requesty: " + active.get() + "\n"
+		+ "Obsluzone: " + handled.get();
+
+	Platform.runLater(new Runnable()
+	{
+	    @Override
+	    public void run() {
+		stateLabel.setText(text);
+	    }
+
+	});
+    }
+
+    /**
+     * Metoda pozwalajca na bezpieczne zakoczenie dziaania wtku.
+     */
+    public void shutdown()
+    {
+	state = false;
+	try
+	{
+	    serverSocket.close();
+	}
+	catch (IOException e)
+	{
+	    e.printStackTrace();
+	}
+    }
+
+}